@@ -22,6 +22,7 @@ import com.ibm.jaggr.core.cache.IGzipCache;
 import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.config.IConfigListener;
 import com.ibm.jaggr.core.deps.IDependencies;
+import com.ibm.jaggr.core.encoding.IContentEncoding;
 import com.ibm.jaggr.core.executors.IExecutors;
 import com.ibm.jaggr.core.impl.ForcedErrorResponse;
 import com.ibm.jaggr.core.impl.resource.NotFoundResource;
@@ -39,6 +40,7 @@ import org.apache.commons.lang3.mutable.Mutable;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
@@ -76,6 +78,16 @@ public interface IAggregator {
 	public static final String CONCURRENTMAP_REQATTRNAME = IAggregator.class
 			.getName() + ".ConcurrentMap"; //$NON-NLS-1$
 
+	/**
+	 * Name of the request attribute which holds an {@link Integer} specifying the
+	 * priority of builds started by {@link #buildAsync(Callable, HttpServletRequest)}.
+	 * Lower values are built first.  The layer builder sets this to the position of
+	 * the module in the layer before requesting each module build, so that the builds
+	 * for modules that are needed first are run first.
+	 */
+	public static final String BUILDPRIORITY_REQATTRNAME = IAggregator.class
+			.getName() + ".BuildPriority"; //$NON-NLS-1$
+
 	/**
 	 * Returns the name of the servlet implementing this interface. This is same
 	 * as the value of the alias attribute in the &lt;servlet&gt; element of the
@@ -338,6 +350,16 @@ public interface IAggregator {
 
 	public IPlatformServices getPlatformServices();
 
+	/**
+	 * Returns the content encodings registered as {@link IContentEncoding} services
+	 * for this aggregator, in order of preference.  The aggregator holds on to the
+	 * services while they are registered, so callers may use the returned encodings
+	 * without getting and releasing the services themselves.
+	 *
+	 * @return the registered content encodings
+	 */
+	public List<IContentEncoding> getContentEncodings();
+
 	/**
 	 * Transformer interface used by
 	 * {@link IAggregator#substituteProps(String, SubstitutionTransformer)}.
@@ -357,6 +379,10 @@ public interface IAggregator {
 	 * Runs the specified builder on an asynchronous thread and returns a {@link Future} to the
 	 * result. Saves <code>request</code> to a thread local that can be queried by the async thread
 	 * using {@link #getCurrentRequest()}.
+	 * <p>
+	 * Builds are prioritized according to the value of the
+	 * {@link #BUILDPRIORITY_REQATTRNAME} request attribute.  Builds started from
+	 * within an asynchronous builder inherit the priority of that builder.
 	 *
 	 * @param builder
 	 *            the builder to run
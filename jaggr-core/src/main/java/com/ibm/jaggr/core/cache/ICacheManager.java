@@ -17,6 +17,7 @@
 package com.ibm.jaggr.core.cache;
 
 import com.ibm.jaggr.core.options.IOptions;
+import com.ibm.jaggr.core.util.AstCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -145,6 +146,15 @@ public interface ICacheManager {
 	 */
 	public File getCacheDir();
 
+	/**
+	 * Returns the cache of parsed JavaScript ASTs for the aggregator.  The capacity
+	 * of the cache is updated from {@link IOptions#AST_CACHE_CAPACITY_MB} when the
+	 * options are updated.
+	 *
+	 * @return The AST cache
+	 */
+	public AstCache getAstCache();
+
 	/**
 	 * Interface used to provide a file creation callback. Instances of this
 	 * class are specified when calling
@@ -145,6 +145,13 @@ public interface IConfig {
 	 * Static constant specifying the name of the {@code has} config property
 	 */
 	public static final String HAS_CONFIGPARAM = "has";  //$NON-NLS-1$
+
+	/**
+	 * Static constant specifying the name of the {@code urlIndependentFeatures}
+	 * config param.
+	 */
+	public static final String URLINDEPENDENTFEATURES_CONFIGPARAM = "urlIndependentFeatures"; //$NON-NLS-1$
+
 	/**
 	 * Static constant specifying the name of the {@code textPluginDelegators}
 	 * config param.
@@ -365,6 +372,11 @@ public interface IConfig {
 	 * called to evalute the value of the feature. The function takes one formal parameter which is
 	 * the request URL, and the returned value will be coerced to a boolean before being assigned as
 	 * the value of the feature.
+	 * <p>
+	 * Function values may be memoized by request URL, so the functions should depend only on the
+	 * URL and the aggregator options.  Features named in the
+	 * {@link #URLINDEPENDENTFEATURES_CONFIGPARAM} config param don't depend on the URL, and the
+	 * functions for these features are evaluated once rather than for each request URL.
 	 *
 	 * @param url
 	 *            the request URL, or null.
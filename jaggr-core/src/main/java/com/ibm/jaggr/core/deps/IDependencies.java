@@ -154,6 +154,17 @@ public interface IDependencies {
 	public Iterable<String> getDependencyNames()
 			throws ProcessingDependenciesException;
 
+	/**
+	 * Returns the compact, int indexed form of the dependency graph that was built
+	 * the last time the dependencies were loaded.  The graph is immutable and is
+	 * replaced each time the dependencies are reloaded.
+	 *
+	 * @return the dependency graph, or null if not available
+	 * @throws ProcessingDependenciesException
+	 */
+	public ModuleDepGraph getDependencyGraph()
+			throws ProcessingDependenciesException;
+
 	/**
 	 * Returns the cumulative last-modified date of these dependencies which was
 	 * determined the last time the dependencies were created or validated. In
@@ -167,6 +178,26 @@ public interface IDependencies {
 	 */
 	public long getLastModified();
 
+	/**
+	 * Returns the sequence number of the snapshot of the dependencies that is
+	 * currently in use.  A new snapshot is built each time the dependencies are
+	 * loaded or validated.  Callers continue to use the previous snapshot while
+	 * the new one is being built, and the new snapshot is published atomically,
+	 * at which point this value changes.  Callers that make multiple calls to
+	 * the methods of this interface can compare the value returned by this
+	 * method before and after the calls to determine if the results were
+	 * obtained from the same snapshot.
+	 *
+	 * @return the snapshot sequence number, or 0 if the dependencies have not
+	 *         been loaded
+	 */
+	public long getSnapshotSequence();
+
+	/**
+	 * @return true if the dependencies are currently being loaded or validated
+	 */
+	public boolean isProcessingDependencies();
+
 	/**
 	 * Validates the dependency graph by scanning the directories returned by
 	 * {@link IConfig#getPaths()} and {@link IConfig#getPackageLocations()}
@@ -0,0 +1,301 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.deps;
+
+import com.ibm.jaggr.core.config.IConfig;
+import com.ibm.jaggr.core.options.IOptions;
+import com.ibm.jaggr.core.util.DependencyClosureCache;
+import com.ibm.jaggr.core.util.Features;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact, immutable representation of the module dependency graph, built once
+ * each time the dependencies are loaded.
+ * <p>
+ * Module ids are interned to ints, and the define and require dependencies of
+ * each module are stored as arrays of module ids, in the order in which they
+ * were declared.  Dependency names are resolved against the config when the
+ * graph is built.  Dependencies that resolve to the same module id regardless
+ * of the features specified in the request (no loader plugins, no has! branching
+ * and no feature conditioned aliases) are stored as the id of the resolved
+ * module.  The remaining dependencies need to be resolved per request, and are
+ * stored as the one's complement ({@code ~id}) of the id of the unresolved name.
+ * Use {@link #isResolved(int)} to tell the two apart.
+ * <p>
+ * Expanded dependency closures computed using the graph are cached in the
+ * graph's {@link DependencyClosureCache}, so they are discarded along with the
+ * graph when the dependencies are reloaded.
+ */
+public class ModuleDepGraph {
+
+	/** Value returned by {@link #getId(String)} for names not in the graph */
+	public static final int NOT_FOUND = -1;
+
+	private static final int[] NO_EDGES = new int[0];
+
+	private final IConfig config;
+	private final List<String> names = new ArrayList<String>();
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private final int[][] declaredDeps;
+	private final int[][] requireDeps;
+	private final DependencyClosureCache closureCache;
+
+	/**
+	 * @param declaredDeps
+	 *            map of module ids to the declared (define) dependencies of the
+	 *            module. The keys are the scanned modules.
+	 * @param requireDeps
+	 *            map of module ids to the require call dependencies of the module
+	 * @param config
+	 *            the config used to resolve dependency names
+	 */
+	public ModuleDepGraph(Map<String, List<String>> declaredDeps, Map<String, List<String>> requireDeps, IConfig config) {
+		this(declaredDeps, requireDeps, config, IOptions.DEFAULT_DEPENDENCY_CLOSURE_CACHE_CAPACITY);
+	}
+
+	/**
+	 * @param declaredDeps
+	 *            map of module ids to the declared (define) dependencies of the
+	 *            module. The keys are the scanned modules.
+	 * @param requireDeps
+	 *            map of module ids to the require call dependencies of the module
+	 * @param config
+	 *            the config used to resolve dependency names
+	 * @param closureCacheCapacity
+	 *            the capacity of the closure cache
+	 * @see IOptions#DEPENDENCY_CLOSURE_CACHE_CAPACITY
+	 */
+	public ModuleDepGraph(Map<String, List<String>> declaredDeps, Map<String, List<String>> requireDeps, IConfig config, long closureCacheCapacity) {
+		this.config = config;
+		closureCache = new DependencyClosureCache(closureCacheCapacity);
+		for (String mid : declaredDeps.keySet()) {
+			intern(mid);
+		}
+		int size = names.size();
+		this.declaredDeps = new int[size][];
+		this.requireDeps = new int[size][];
+
+		Map<String, Integer> resolved = new HashMap<String, Integer>();
+		for (int id = 0; id < size; id++) {
+			String mid = names.get(id);
+			this.declaredDeps[id] = resolveEdges(declaredDeps.get(mid), resolved);
+			this.requireDeps[id] = resolveEdges(requireDeps != null ? requireDeps.get(mid) : null, resolved);
+		}
+	}
+
+	/**
+	 * @return the config that the dependency names were resolved against
+	 */
+	public IConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return the cache of expanded dependency closures computed using this
+	 *         graph
+	 */
+	public DependencyClosureCache getClosureCache() {
+		return closureCache;
+	}
+
+	/**
+	 * @return the number of ids in the graph, including the ids of modules
+	 *         that are referenced by the scanned modules but were not
+	 *         themselves scanned, and of unresolved dependency names
+	 */
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * @param mid
+	 *            the module id
+	 * @return the int id of the module, or {@link #NOT_FOUND}
+	 */
+	public int getId(String mid) {
+		Integer id = ids.get(mid);
+		return id != null ? id : NOT_FOUND;
+	}
+
+	/**
+	 * @param id
+	 *            the int id of the module
+	 * @return the module id
+	 */
+	public String getName(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * Returns the declared dependencies of the module.  The returned array
+	 * must not be modified.
+	 *
+	 * @param id
+	 *            the int id of the module
+	 * @return the declared dependency edges
+	 */
+	public int[] getDeclaredDependencies(int id) {
+		return id < declaredDeps.length ? declaredDeps[id] : NO_EDGES;
+	}
+
+	/**
+	 * Returns the require call dependencies of the module.  The returned
+	 * array must not be modified.
+	 *
+	 * @param id
+	 *            the int id of the module
+	 * @return the require call dependency edges
+	 */
+	public int[] getRequireDependencies(int id) {
+		return id < requireDeps.length ? requireDeps[id] : NO_EDGES;
+	}
+
+	/**
+	 * @param edge
+	 *            a value from {@link #getDeclaredDependencies(int)} or
+	 *            {@link #getRequireDependencies(int)}
+	 * @return true if the edge is the id of the resolved module, or false if
+	 *         the edge is the one's complement of the id of a dependency name
+	 *         that needs to be resolved using the request features
+	 */
+	public static boolean isResolved(int edge) {
+		return edge >= 0;
+	}
+
+	/**
+	 * Returns the set of modules reachable from the specified modules by
+	 * following resolved edges. The specified modules are included in the
+	 * result. Unresolved dependencies are not followed.
+	 *
+	 * @param ids
+	 *            the int ids of the starting modules
+	 * @param includeRequireDeps
+	 *            if true, then require call dependencies are followed as well
+	 *            as declared dependencies
+	 * @return the ids of the reachable modules
+	 */
+	public BitSet getClosure(BitSet ids, boolean includeRequireDeps) {
+		BitSet result = new BitSet(names.size());
+		int[] stack = new int[Math.max(ids.cardinality(), 16)];
+		int top = 0;
+		for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id+1)) {
+			result.set(id);
+			stack[top++] = id;
+		}
+		while (top > 0) {
+			int id = stack[--top];
+			for (int pass = 0; pass < (includeRequireDeps ? 2 : 1); pass++) {
+				for (int dep : pass == 0 ? getDeclaredDependencies(id) : getRequireDependencies(id)) {
+					if (isResolved(dep) && !result.get(dep)) {
+						result.set(dep);
+						if (top == stack.length) {
+							int[] newStack = new int[stack.length * 2];
+							System.arraycopy(stack, 0, newStack, 0, top);
+							stack = newStack;
+						}
+						stack[top++] = dep;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the module names for the ids in the specified set
+	 *
+	 * @param ids
+	 *            the int ids of the modules
+	 * @return the module names
+	 */
+	public Set<String> getNames(BitSet ids) {
+		Set<String> result = new HashSet<String>(ids.cardinality() * 4 / 3 + 1);
+		for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id+1)) {
+			result.add(names.get(id));
+		}
+		return result;
+	}
+
+	private int intern(String mid) {
+		Integer id = ids.get(mid);
+		if (id == null) {
+			id = names.size();
+			names.add(mid);
+			ids.put(mid, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Converts the specified dependency names to edges, resolving the names
+	 * that can be resolved independent of request features.
+	 */
+	private int[] resolveEdges(List<String> deps, Map<String, Integer> resolved) {
+		if (deps == null || deps.isEmpty()) {
+			return NO_EDGES;
+		}
+		int[] edges = new int[deps.size()];
+		int i = 0;
+		for (String dep : deps) {
+			Integer edge = resolved.get(dep);
+			if (edge == null) {
+				int id = resolve(dep);
+				edge = id != NOT_FOUND ? id : ~intern(dep);
+				resolved.put(dep, edge);
+			}
+			edges[i++] = edge;
+		}
+		return edges;
+	}
+
+	/**
+	 * Returns the id of the module that the specified dependency name resolves
+	 * to, or {@link #NOT_FOUND} if resolution depends on request features.
+	 */
+	private int resolve(String dep) {
+		if (dep == null || dep.indexOf("!") != -1) { //$NON-NLS-1$
+			return NOT_FOUND;
+		}
+		String name = dep;
+		if (config != null) {
+			Set<String> dependentFeatures = new HashSet<String>();
+			String resolved = config.resolve(dep, Features.emptyFeatures, dependentFeatures, null, true);
+			if (!dependentFeatures.isEmpty()) {
+				return NOT_FOUND;
+			}
+			if (resolved != null && resolved.length() > 0) {
+				name = resolved;
+			}
+			if (name.indexOf("!") != -1) { //$NON-NLS-1$
+				return NOT_FOUND;
+			}
+		}
+		return intern(name);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[modules=" + names.size() + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
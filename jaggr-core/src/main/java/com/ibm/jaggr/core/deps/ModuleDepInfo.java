@@ -240,6 +240,18 @@ public class ModuleDepInfo implements Serializable {
 		return false;
 	}
 
+	/**
+	 * Returns true if the formula for this object is known to evaluate to true
+	 * and no plugin name is associated with this object. Expanding the
+	 * dependencies of a module using such an object produces the same result as
+	 * using a new instance created with {@link #ModuleDepInfo()}.
+	 *
+	 * @return True if this object specifies no conditions
+	 */
+	public boolean isUnconditioned() {
+		return formula.isTrue() && pluginName == null;
+	}
+
 	/**
 	 * logically ands the provided terms with the formula belonging to this
 	 * object, updating this object with the result.
@@ -0,0 +1,70 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.encoding;
+
+import com.ibm.jaggr.core.IAggregator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Interface for an HTTP content encoding (e.g. gzip, br or zstd) that may be used to
+ * encode layer responses. The aggregator provides gzip encoding. Additional encodings
+ * may be provided by registering an instance of the implementing class as an OSGi
+ * service. The registration should specify a filter using the name property with the
+ * value obtained by calling {@link IAggregator#getName()}.
+ * <p>
+ * The encoding used for a response is negotiated using the Accept-Encoding request
+ * header. When the client assigns the same quality value to more than one encoding,
+ * registered encodings are preferred over gzip.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface IContentEncoding {
+
+	/**
+	 * Returns the name of the encoding as it appears in the Accept-Encoding and
+	 * Content-Encoding HTTP headers (e.g. {@code br}). The name must be lower case
+	 * and must not contain the ':' character.
+	 *
+	 * @return the encoding name
+	 */
+	public String getName();
+
+	/**
+	 * Returns an output stream that encodes the data written to it and writes the
+	 * encoded data to {@code out}. Closing the returned stream finishes the encoding
+	 * and closes {@code out}.
+	 *
+	 * @param out
+	 *            the output stream for the encoded data
+	 * @return the encoding output stream
+	 * @throws IOException
+	 */
+	public OutputStream encode(OutputStream out) throws IOException;
+
+	/**
+	 * Returns an input stream that decodes the data read from {@code in}.
+	 *
+	 * @param in
+	 *            the input stream for the encoded data
+	 * @return the decoding input stream
+	 * @throws IOException
+	 */
+	public InputStream decode(InputStream in) throws IOException;
+}
@@ -0,0 +1,136 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.executors;
+
+import java.text.MessageFormat;
+
+/**
+ * Snapshot of the statistics for one of the thread pools provided by
+ * {@link IExecutors}.  Wait times measure how long tasks sat in the queue before
+ * a thread started running them (for scheduled pools, how late the task started
+ * relative to its scheduled time).  Run times measure how long the tasks ran.
+ * Percentiles are computed over a window of the most recently completed tasks.
+ */
+public class ExecutorStats {
+
+	private final String name;
+	private final int poolSize;
+	private final int activeCount;
+	private final int queueSize;
+	private final long completedCount;
+	private final long rejectedCount;
+	private final double waitTimeP50;
+	private final double waitTimeP99;
+	private final double runTimeP50;
+	private final double runTimeP99;
+
+	public ExecutorStats(String name, int poolSize, int activeCount, int queueSize,
+			long completedCount, long rejectedCount,
+			double waitTimeP50, double waitTimeP99, double runTimeP50, double runTimeP99) {
+		this.name = name;
+		this.poolSize = poolSize;
+		this.activeCount = activeCount;
+		this.queueSize = queueSize;
+		this.completedCount = completedCount;
+		this.rejectedCount = rejectedCount;
+		this.waitTimeP50 = waitTimeP50;
+		this.waitTimeP99 = waitTimeP99;
+		this.runTimeP50 = runTimeP50;
+		this.runTimeP99 = runTimeP99;
+	}
+
+	/**
+	 * @return the name of the thread pool
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of threads in the pool
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * @return the approximate number of threads that are running tasks
+	 */
+	public int getActiveCount() {
+		return activeCount;
+	}
+
+	/**
+	 * @return the number of tasks waiting in the queue
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * @return the approximate number of tasks that have completed
+	 */
+	public long getCompletedCount() {
+		return completedCount;
+	}
+
+	/**
+	 * @return the number of tasks that were rejected because the queue was full
+	 */
+	public long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	/**
+	 * @return the median wait time, in milliseconds
+	 */
+	public double getWaitTimeP50() {
+		return waitTimeP50;
+	}
+
+	/**
+	 * @return the 99th percentile wait time, in milliseconds
+	 */
+	public double getWaitTimeP99() {
+		return waitTimeP99;
+	}
+
+	/**
+	 * @return the median run time, in milliseconds
+	 */
+	public double getRunTimeP50() {
+		return runTimeP50;
+	}
+
+	/**
+	 * @return the 99th percentile run time, in milliseconds
+	 */
+	public double getRunTimeP99() {
+		return runTimeP99;
+	}
+
+	@Override
+	public String toString() {
+		return MessageFormat.format(
+				"{0}: threads={1}, active={2}, queued={3}, completed={4}, rejected={5}, " + //$NON-NLS-1$
+				"wait p50/p99={6,number,0.###}/{7,number,0.###}ms, run p50/p99={8,number,0.###}/{9,number,0.###}ms", //$NON-NLS-1$
+				new Object[]{
+					name, poolSize, activeCount, queueSize, Long.toString(completedCount), Long.toString(rejectedCount),
+					waitTimeP50, waitTimeP99, runTimeP50, runTimeP99
+				});
+	}
+}
@@ -18,6 +18,7 @@ package com.ibm.jaggr.core.executors;
 
 import com.ibm.jaggr.core.options.IOptions;
 
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -58,6 +59,15 @@ public interface IExecutors {
 	 */
 	public ScheduledExecutorService getFileDeleteExecutor();
 
+	/**
+	 * Returns the current statistics for each of the thread pools that supports them,
+	 * keyed by pool name.  May be polled to monitor how busy the pools are.  Pools that
+	 * have not been started yet are not included.
+	 *
+	 * @return A map of pool name to statistics
+	 */
+	public Map<String, ExecutorStats> getStatistics();
+
 	/**
 	 * Shuts down the executor services. Any tasks that have been submitted to
 	 * the delete executor that have not yet been dispatched will be completed
@@ -0,0 +1,39 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.executors;
+
+import com.ibm.jaggr.core.IAggregator;
+
+/**
+ * Interface for aggregator components that keep statistics about the pools and
+ * other shared resources that they manage.  Providers are registered as services
+ * with the name of the aggregator in the <code>name</code> property, and their
+ * statistics are reported by the <code>executorstats</code> console command along
+ * with the statistics for the thread pools provided by {@link IExecutors}.
+ * <p>
+ * Providers are owned by an {@link IAggregator}, so the statistics should cover
+ * only the work done for that aggregator.
+ */
+public interface IStatisticsProvider {
+
+	/**
+	 * Returns a summary of the current statistics.  May be polled to monitor
+	 * the resources.
+	 *
+	 * @return the statistics, or null if there are no statistics to report yet
+	 */
+	public String getStatistics();
+}
@@ -33,17 +33,21 @@ import com.ibm.jaggr.core.InitParams;
 import com.ibm.jaggr.core.NotFoundException;
 import com.ibm.jaggr.core.PlatformServicesException;
 import com.ibm.jaggr.core.ProcessingDependenciesException;
+import com.ibm.jaggr.core.cache.ICache;
 import com.ibm.jaggr.core.cache.ICacheManager;
 import com.ibm.jaggr.core.cache.IGzipCache;
 import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.config.IConfigListener;
 import com.ibm.jaggr.core.deps.IDependencies;
+import com.ibm.jaggr.core.encoding.IContentEncoding;
 import com.ibm.jaggr.core.executors.IExecutors;
 import com.ibm.jaggr.core.impl.cache.CacheManagerImpl;
 import com.ibm.jaggr.core.impl.cache.GzipCacheImpl;
 import com.ibm.jaggr.core.impl.config.ConfigImpl;
 import com.ibm.jaggr.core.impl.deps.DependenciesImpl;
+import com.ibm.jaggr.core.impl.executors.BuildExecutor;
 import com.ibm.jaggr.core.impl.layer.LayerImpl;
+import com.ibm.jaggr.core.impl.layer.LayerResponseCache;
 import com.ibm.jaggr.core.impl.module.ModuleImpl;
 import com.ibm.jaggr.core.impl.resource.NotFoundResource;
 import com.ibm.jaggr.core.layer.ILayer;
@@ -54,6 +58,7 @@ import com.ibm.jaggr.core.module.IModuleCache;
 import com.ibm.jaggr.core.modulebuilder.IModuleBuilder;
 import com.ibm.jaggr.core.modulebuilder.IModuleBuilderExtensionPoint;
 import com.ibm.jaggr.core.options.IOptions;
+import com.ibm.jaggr.core.options.IOptionsListener;
 import com.ibm.jaggr.core.resource.IResource;
 import com.ibm.jaggr.core.resource.IResourceFactory;
 import com.ibm.jaggr.core.resource.IResourceFactoryExtensionPoint;
@@ -63,6 +68,7 @@ import com.ibm.jaggr.core.util.CopyUtil;
 import com.ibm.jaggr.core.util.RequestUtil;
 import com.ibm.jaggr.core.util.SequenceNumberProvider;
 import com.ibm.jaggr.core.util.StringUtil;
+import com.ibm.jaggr.core.util.TransferUtil;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -168,6 +174,7 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 	private LinkedList<IAggregatorExtension> serviceProviderExtensions = new LinkedList<IAggregatorExtension>();
 	private IAggregatorExtension httpTransportExtension = null;
 	private boolean isShuttingDown = false;
+	private volatile List<IContentEncoding> contentEncodings = null;
 	protected IPlatformServices platformServices;
 
 	// Forced error handling
@@ -183,6 +190,8 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 
 	private ThreadLocal<HttpServletRequest> currentRequest = new ThreadLocal<HttpServletRequest>();
 
+	private final LayerResponseCache layerResponseCache = new LayerResponseCache();
+
 	/* (non-Javadoc)
 	 * @see javax.servlet.GenericServlet#init(javax.servlet.ServletConfig)
 	 */
@@ -295,6 +304,7 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 			moduleBuilderExtensions.clear();
 			serviceProviderExtensions.clear();
 			httpTransportExtension = null;
+			contentEncodings = null;
 			initParams = null;
 			cacheMgr = null;
 			config = null;
@@ -523,12 +533,24 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 				}
 			}
 
+			// See if the response can be served from the layer response cache before
+			// decoding the request.
+			ICache cache = getCacheManager().getCache();
+			String responseCacheKey = null;
+			if (isLayerResponseCacheEnabled()) {
+				responseCacheKey = LayerResponseCache.getKey(req);
+				LayerResponseCache.Response cached = layerResponseCache.get(responseCacheKey, cache);
+				if (cached != null && writeCachedResponse(cached, req, resp)) {
+					return;
+				}
+			}
+
 			getTransport().decorateRequest(req);
 			notifyRequestListeners(RequestNotifierAction.start, req, resp);
 
 			ILayer layer = getLayer(req);
 			long modifiedSince = req.getDateHeader("If-Modified-Since"); //$NON-NLS-1$
-			long lastModified = (Math.max(getCacheManager().getCache().getCreated(), layer.getLastModified(req)) / 1000) * 1000;
+			long lastModified = (Math.max(cache.getCreated(), layer.getLastModified(req)) / 1000) * 1000;
 			if (modifiedSince >= lastModified && !RequestUtil.isIgnoreCached(req)) {
 				if (log.isLoggable(Level.FINER)) {
 					log.finer("Returning Not Modified response for layer in servlet" +  //$NON-NLS-1$
@@ -543,16 +565,17 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 				// if any of the readers included an error response, then don't cache the layer.
 				if (req.getAttribute(ILayer.NOCACHE_RESPONSE_REQATTRNAME) != null) {
 					resp.addHeader("Cache-Control", "no-cache, no-store"); //$NON-NLS-1$ //$NON-NLS-2$
+					writeResponse(in, req, resp);
 				} else {
 					resp.setDateHeader("Last-Modified", lastModified); //$NON-NLS-1$
 					int expires = getConfig().getExpires();
 					boolean hasCacheBust = req.getAttribute(IHttpTransport.CACHEBUST_REQATTRNAME) != null;
-					resp.addHeader(
-							"Cache-Control", //$NON-NLS-1$
-							"public" + (expires > 0 && hasCacheBust ? (", max-age=" + expires) : "") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-					);
+					String cacheControl = "public" + (expires > 0 && hasCacheBust ? (", max-age=" + expires) : ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					resp.addHeader("Cache-Control", cacheControl); //$NON-NLS-1$
+					if (writeResponse(in, req, resp) && responseCacheKey != null) {
+						layerResponseCache.put(responseCacheKey, req, cache, lastModified, cacheControl);
+					}
 				}
-				writeResponse(in, req, resp);
 			}
 			notifyRequestListeners(RequestNotifierAction.end, req, resp);
 		} catch (DependencyVerificationException e) {
@@ -872,22 +895,18 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 			log.entering(AbstractAggregatorImpl.class.getName(), sourceMethod, new Object[]{in, response});
 		}
 		boolean success = true;
-        int n = 0;
-        byte[] buffer = new byte[4096];
-        OutputStream out = response.getOutputStream();
+        OutputStream out = null;
         try {
-	        while (-1 != (n = in.read(buffer))) {
-	        	try {
-	        		out.write(buffer, 0, n);
-	        	} catch (IOException e) {
-	        		// Error writing to the output stream, probably because the connection
-	        		// was closed by the client.  Don't attempt to write anything else to
-	        		// the response and just log the error using FINE level logging.
-	        		logException(request, Level.FINE, sourceMethod, e);
-	        		success = false;
-	        		break;
-	        	}
-	        }
+        	out = response.getOutputStream();
+        	// Uses bulk writes or channel transfers when the input stream is
+        	// backed by a byte array, byte buffer or file.
+        	TransferUtil.transfer(in, out);
+        } catch (TransferUtil.WriteException e) {
+        	// Error writing to the output stream, probably because the connection
+        	// was closed by the client.  Don't attempt to write anything else to
+        	// the response and just log the error using FINE level logging.
+        	logException(request, Level.FINE, sourceMethod, e.getCause());
+        	success = false;
         } finally {
         	IOUtils.closeQuietly(in);
         	IOUtils.closeQuietly(out);
@@ -976,6 +995,69 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 		}
 	}
 
+	/**
+	 * Returns true if layer responses should be looked up in, and added to, the
+	 * layer response cache.  The cache is not used in development mode because
+	 * the last-modified times of the source files are checked for each request,
+	 * or if there are request listeners, because the listeners may modify the
+	 * request.
+	 *
+	 * @return true if the layer response cache is enabled
+	 * @throws PlatformServicesException
+	 */
+	protected boolean isLayerResponseCacheEnabled() throws PlatformServicesException {
+		IOptions options = getOptions();
+		if (!options.isLayerResponseCache() || options.isDevelopmentMode()) {
+			return false;
+		}
+		return !hasRequestListeners();
+	}
+
+	/**
+	 * Returns true if request listeners are registered for this aggregator.  This
+	 * implementation looks up the listener services on each call.  Platforms that can
+	 * track the registration of services should override this method so that the
+	 * layer response cache can be checked without a service lookup for each request.
+	 *
+	 * @return true if request listeners are registered
+	 * @throws PlatformServicesException
+	 */
+	protected boolean hasRequestListeners() throws PlatformServicesException {
+		IServiceReference[] refs = getPlatformServices().getServiceReferences(IRequestListener.class.getName(),  "(name="+getName()+")"); //$NON-NLS-1$ //$NON-NLS-2$
+		return refs != null && refs.length > 0;
+	}
+
+	/**
+	 * Writes the cached layer response to the servlet response, or sets the Not
+	 * Modified status if the client has the current response.  Returns false,
+	 * without writing anything to the response, if the layer build for the cached
+	 * response is no longer available.
+	 *
+	 * @param cached
+	 *            the cached response
+	 * @param req
+	 *            the request object
+	 * @param resp
+	 *            the response object
+	 * @return true if the response was written
+	 * @throws IOException
+	 */
+	protected boolean writeCachedResponse(LayerResponseCache.Response cached, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		if (req.getDateHeader("If-Modified-Since") >= cached.getLastModified()) { //$NON-NLS-1$
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return true;
+		}
+		// Sets the Content-Type, Content-Length and Content-Encoding headers
+		InputStream in = cached.getInputStream(req, resp);
+		if (in == null) {
+			return false;
+		}
+		resp.setDateHeader("Last-Modified", cached.getLastModified()); //$NON-NLS-1$
+		resp.addHeader("Cache-Control", cached.getCacheControl()); //$NON-NLS-1$
+		writeResponse(in, req, resp);
+		return true;
+	}
+
 	/**
 	 * Returns the {@code Layer} object for the specified request.
 	 *
@@ -1477,6 +1559,42 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 		return platformServices;
 	}
 
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.IAggregator#getContentEncodings()
+	 */
+	@Override
+	public List<IContentEncoding> getContentEncodings() {
+		List<IContentEncoding> result = contentEncodings;
+		if (result == null) {
+			synchronized (this) {
+				result = contentEncodings;
+				if (result == null) {
+					result = new ArrayList<IContentEncoding>();
+					IServiceReference[] refs = null;
+					try {
+						refs = getPlatformServices().getServiceReferences(IContentEncoding.class.getName(), "(name=" + getName() + ")");  //$NON-NLS-1$ //$NON-NLS-2$
+					} catch (PlatformServicesException e) {
+						if (log.isLoggable(Level.SEVERE)) {
+							log.log(Level.SEVERE, e.getMessage(), e);
+						}
+					}
+					if (refs != null) {
+						for (IServiceReference ref : refs) {
+							IContentEncoding encoding = (IContentEncoding)getPlatformServices().getService(ref);
+							if (encoding != null) {
+								// The service is released when the aggregator is shut down
+								serviceReferences.add(ref);
+								result.add(encoding);
+							}
+						}
+					}
+					contentEncodings = result = Collections.unmodifiableList(result);
+				}
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * This method does some initialization for the aggregator servlet. This method is called from platform
 	 * dependent Aggregator implementation during its initialization.
@@ -1500,6 +1618,13 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 		cacheMgr = newCacheManager(walker.getLastModified());
 		resourcePaths = getPathsAndAliases(getInitParams());
 
+		// Size the layer response cache from the options, and resize it when they're updated
+		Dictionary<String, String> dict = new Hashtable<String, String>();
+		dict.put("name", getName()); //$NON-NLS-1$
+		registrations.add(getPlatformServices().registerService(
+				IOptionsListener.class.getName(), layerResponseCache, dict));
+		layerResponseCache.optionsUpdated(getOptions(), 1);
+
 		// Notify listeners
 		this.config = config;
 		notifyConfigListeners(1);
@@ -1672,7 +1797,17 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 	 */
 	@Override
 	public Future<?> buildAsync(final Callable<?> builder, final HttpServletRequest req) {
-		return getExecutors().getBuildExecutor().submit(new Callable<Object>() {
+		// Builds started by another build inherit its priority
+		Integer priority = BuildExecutor.getCurrentPriority();
+		if (priority == null) {
+			Object attr = req.getAttribute(BUILDPRIORITY_REQATTRNAME);
+			priority = (attr instanceof Integer) ? (Integer)attr : BuildExecutor.LOWEST_PRIORITY;
+		}
+		final int buildPriority = priority;
+		return getExecutors().getBuildExecutor().submit(new PrioritizedCallable() {
+			public int getPriority() {
+				return buildPriority;
+			}
 			public Object call() throws Exception {
 				AbstractAggregatorImpl.this.currentRequest.set(req);
 				Object result;
@@ -1693,5 +1828,10 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 	public HttpServletRequest getCurrentRequest() {
 		return currentRequest.get();
 	}
+
+	/**
+	 * Callable that can be prioritized by the build executor
+	 */
+	private interface PrioritizedCallable extends Callable<Object>, BuildExecutor.Prioritized {}
 }
 
@@ -57,6 +57,7 @@ public class Messages extends NLS {
 	public static String CommandProvider_27;
 	public static String CommandProvider_28;
 	public static String CommandProvider_29;
+	public static String CommandProvider_30;
 	public static String ConfigModified;
 	static {
 		// initialize resource bundle
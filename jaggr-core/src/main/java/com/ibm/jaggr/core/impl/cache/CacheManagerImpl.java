@@ -28,6 +28,7 @@ import com.ibm.jaggr.core.deps.IDependencies;
 import com.ibm.jaggr.core.deps.IDependenciesListener;
 import com.ibm.jaggr.core.options.IOptions;
 import com.ibm.jaggr.core.options.IOptionsListener;
+import com.ibm.jaggr.core.util.AstCache;
 import com.ibm.jaggr.core.util.ConsoleService;
 import com.ibm.jaggr.core.util.CopyUtil;
 
@@ -88,6 +89,8 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 
 	private Object cacheSerializerSyncObj = new Object();
 
+	private final AstCache _astCache = new AstCache(IOptions.DEFAULT_AST_CACHE_CAPACITY_MB);
+
 	/**
 	 * Starts up the cache. Attempts to de-serialize a previously serialized
 	 * cache from disk and starts the periodic serializer task.
@@ -258,6 +261,7 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 		// avoid memory leaks caused by circular references
 		_aggregator = null;
 		_cache.set(null);
+		_astCache.clear();
 	}
 
 	/* (non-Javadoc)
@@ -276,6 +280,14 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 		return _cache.get();
 	}
 
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.cache.ICacheManager#getAstCache()
+	 */
+	@Override
+	public AstCache getAstCache() {
+		return _astCache;
+	}
+
 	/**
 	 * Serializes the specified cache object to the sepecified directory.  Note that we
 	 * actually serialize a clone of the specified cache because some of the objects
@@ -480,6 +492,7 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 		if (options == null) {
 			return;
 		}
+		_astCache.setCapacity(options.getAstCacheCapacityMB());
 		if (_cache.get() == null || !options.getOptionsMap().equals(_control.getOptionsMap())) {
 			if (log.isLoggable(Level.FINER)) {
 				String msg = "No local cache"; //$NON-NLS-1$
@@ -20,6 +20,7 @@ import com.ibm.jaggr.core.cache.ICacheManager;
 import com.ibm.jaggr.core.cache.IGzipCache;
 import com.ibm.jaggr.core.cache.IGzipCache.ICacheEntry;
 import com.ibm.jaggr.core.impl.layer.VariableGZIPOutputStream;
+import com.ibm.jaggr.core.util.BulkByteArrayInputStream;
 import com.ibm.jaggr.core.util.CopyUtil;
 
 import org.apache.commons.lang3.mutable.MutableInt;
@@ -120,7 +121,7 @@ public class GzipCacheImpl extends GenericCacheImpl<ICacheEntry> implements Seri
 						cacheMap.remove(key, tryCacheEntry);
 					} else {
 						retLength.setValue(tryCacheEntry.bytes.length);
-						result = new ByteArrayInputStream(tryCacheEntry.bytes);
+						result = new BulkByteArrayInputStream(tryCacheEntry.bytes);
 					}
 				} else if (file != null) {
 					// Some platforms round file last modified times to nearest second.
@@ -168,7 +169,7 @@ public class GzipCacheImpl extends GenericCacheImpl<ICacheEntry> implements Seri
 				byte[] bytes = cacheEntry.bytes;
 				if (bytes != null) {
 					retLength.setValue(bytes.length);
-					result = new ByteArrayInputStream(bytes);
+					result = new BulkByteArrayInputStream(bytes);
 				} else if (cacheEntry.file != null) { // once set, cacheEntry.file does not change
 														// by convention
 					retLength.setValue(cacheEntry.file.length());
@@ -187,7 +188,7 @@ public class GzipCacheImpl extends GenericCacheImpl<ICacheEntry> implements Seri
 						// Important - CacheEntry.lastModified must be set before cacheEntry.bytes
 						cacheEntry.lastModified = lastModified;
 						cacheEntry.bytes = bos.toByteArray();
-						result = new ByteArrayInputStream(cacheEntry.bytes);
+						result = new BulkByteArrayInputStream(cacheEntry.bytes);
 						retLength.setValue(cacheEntry.bytes.length);
 
 						// Call the cache manager to asynchronously save the gzipped response to
@@ -33,6 +33,8 @@ import com.ibm.jaggr.core.util.HasNode;
 import com.ibm.jaggr.core.util.PathUtil;
 import com.ibm.jaggr.core.util.TypeUtil;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.EvaluatorException;
@@ -55,6 +57,7 @@ import java.net.URISyntaxException;
 import java.net.URLConnection;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
@@ -72,6 +75,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener {
 	private static final Logger log = Logger.getLogger(ConfigImpl.class.getName());
@@ -79,6 +83,18 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 	/** regular expression for detecting if a plugin name is the has! plugin */
 	static final Pattern HAS_PATTERN = Pattern.compile("(^|\\/)has$"); //$NON-NLS-1$
 
+	/** Pattern for detecting back references, which can't be used in the combined alias pattern */
+	static final Pattern BACKREFERENCE_PATTERN = Pattern.compile("\\\\[1-9]"); //$NON-NLS-1$
+
+	/** Maximum number of module ids for which {@link #resolve} results are memoized */
+	static final int RESOLVED_CACHE_CAPACITY = 10000;
+
+	/** Maximum number of feature dependent results memoized for each module id */
+	static final int MAX_RESOLVED_VARIANTS = 8;
+
+	/** Maximum number of request URLs for which default features are memoized */
+	static final int DEFAULT_FEATURES_CACHE_CAPACITY = 1000;
+
 	private final IAggregator aggregator;
 	private  Scriptable rawConfig;
 	private String strConfig;
@@ -99,6 +115,23 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 	private Set<String> jsPluginDelegators;
 	private Scriptable sharedScope;
 	private Map<String, Object> defaultFeatureMap;
+	private Set<String> urlIndependentFeatures;
+	private boolean hasUrlDependentFeatures;
+	private volatile Features urlIndependentDefaultFeatures;
+	private final ConcurrentLinkedHashMap<String, Features> defaultFeaturesCache =
+			new ConcurrentLinkedHashMap.Builder<String, Features>()
+			.maximumWeightedCapacity(DEFAULT_FEATURES_CACHE_CAPACITY)
+			.build();
+
+	// Resolver data structures compiled from the paths, packages and aliases
+	private IAlias[] aliasArray;
+	private Map<String, Integer> literalAliases;
+	private Pattern combinedAliasPattern;
+	private Map<String, Location> locationPrefixes;
+	private final ConcurrentLinkedHashMap<String, ResolvedId[]> resolvedCache =
+			new ConcurrentLinkedHashMap.Builder<String, ResolvedId[]>()
+			.maximumWeightedCapacity(RESOLVED_CACHE_CAPACITY)
+			.build();
 
 	protected List<IServiceRegistration> serviceRegs = new LinkedList<IServiceRegistration>();
 
@@ -250,6 +283,14 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 			textPluginDelegators = loadTextPluginDelegators(rawConfig);
 			jsPluginDelegators = loadJsPluginDelegators(rawConfig);
 			defaultFeatureMap = loadDefaultFeatures(rawConfig);
+			urlIndependentFeatures = loadUrlIndependentFeatures(rawConfig);
+			hasUrlDependentFeatures = false;
+			for (Map.Entry<String, Object> entry : defaultFeatureMap.entrySet()) {
+				if (entry.getValue() instanceof Function && !urlIndependentFeatures.contains(entry.getKey())) {
+					hasUrlDependentFeatures = true;
+				}
+			}
+			compileResolver();
 		} catch (URISyntaxException e) {
 			throw new IOException(e);
 		}
@@ -274,10 +315,67 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 			cacheBust = loadCacheBust(rawConfig);
 			textPluginDelegators = loadTextPluginDelegators(rawConfig);
 			jsPluginDelegators = loadJsPluginDelegators(rawConfig);
+			compileResolver();
 		} catch (URISyntaxException e) {
 			throw new IOException(e);
 		}
 	}
+
+	/**
+	 * Builds the data structures used to speed up module id resolution from the loaded paths,
+	 * packages and aliases.  Module id resolution is performed for every dependency when
+	 * expanding dependency lists, so a linear scan of the aliases, paths and packages for each
+	 * module id is avoided.
+	 * <ul>
+	 * <li>Literal aliases are mapped by name to the index of the last alias with that name.</li>
+	 * <li>The regular expression aliases are combined into a single alternation pattern that is
+	 * used to determine if any of them match a module id before the aliases are tried
+	 * individually.</li>
+	 * <li>Path and package locations are mapped by name so that the longest matching prefix of
+	 * a module id can be found with one lookup for each path component.</li>
+	 * </ul>
+	 */
+	protected void compileResolver() {
+		List<IAlias> aliases = getAliases();
+		aliasArray = aliases.toArray(new IAlias[aliases.size()]);
+		literalAliases = new HashMap<String, Integer>();
+		StringBuffer sb = null;
+		boolean combinable = true;
+		for (int i = 0; i < aliasArray.length; i++) {
+			Object pattern = aliasArray[i].getPattern();
+			if (pattern instanceof String) {
+				literalAliases.put((String)pattern, i);
+			} else {
+				Pattern regex = (Pattern)pattern;
+				// Group numbers change when the patterns are combined
+				combinable &= !BACKREFERENCE_PATTERN.matcher(regex.pattern()).find();
+				sb = (sb == null) ? new StringBuffer() : sb.append("|"); //$NON-NLS-1$
+				sb.append((regex.flags() & Pattern.CASE_INSENSITIVE) != 0 ? "(?i:" : "(?:") //$NON-NLS-1$ //$NON-NLS-2$
+				.append(regex.pattern()).append(")"); //$NON-NLS-1$
+			}
+		}
+		combinedAliasPattern = null;
+		if (sb != null) {
+			try {
+				combinedAliasPattern = Pattern.compile(combinable ? sb.toString() : ""); //$NON-NLS-1$
+			} catch (PatternSyntaxException e) {
+				combinable = false;
+			}
+			if (!combinable) {
+				// Use a pattern that matches everything so that the aliases are tried individually
+				combinedAliasPattern = Pattern.compile(""); //$NON-NLS-1$
+			}
+		}
+
+		// Paths take precedence over packages with the same name
+		locationPrefixes = new HashMap<String, Location>();
+		for (Map.Entry<String, IPackage> entry : getPackages().entrySet()) {
+			locationPrefixes.put(entry.getKey(), entry.getValue().getLocation());
+		}
+		locationPrefixes.putAll(getPaths());
+		resolvedCache.clear();
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.service.config.IConfig#lastModified()
 	 */
@@ -399,23 +497,65 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 	 */
 	@Override
 	public Features getDefaultFeatures(String url) {
-		Features result = new Features();
-		for (Map.Entry<String, Object> entry : defaultFeatureMap.entrySet()) {
-			// value is either a Boolean or Function
-			Object value = entry.getValue();
-			if (value instanceof Function) {
-				Context cx = Context.enter();
-				try {
-					Scriptable threadScope = cx.newObject(sharedScope);
-					threadScope.setPrototype(sharedScope);
-					threadScope.setParentScope(null);
+		// Constant values and the values of URL independent functions are evaluated once
+		Features result = urlIndependentDefaultFeatures;
+		if (result == null) {
+			result = evaluateDefaultFeatures(new Features(), null, false);
+			urlIndependentDefaultFeatures = result;
+		}
+		if (hasUrlDependentFeatures) {
+			Features cached = url != null ? defaultFeaturesCache.get(url) : null;
+			if (cached != null) {
+				result = cached;
+			} else {
+				result = evaluateDefaultFeatures(new Features(result), url, true);
+				if (url != null) {
+					defaultFeaturesCache.put(url, result);
+				}
+			}
+		}
+		// Return a copy since the memoized features are shared
+		return new Features(result);
+	}
+
+	/**
+	 * Evaluates the default features specified in the {@link #HAS_CONFIGPARAM} config param.
+	 *
+	 * @param result
+	 *            the features object that the values are added to
+	 * @param url
+	 *            the request URL, or null
+	 * @param urlDependent
+	 *            if true, then the URL dependent functions are evaluated, otherwise the constant
+	 *            values and the URL independent functions are evaluated
+	 * @return {@code result}
+	 */
+	protected Features evaluateDefaultFeatures(Features result, String url, boolean urlDependent) {
+		Context cx = null;
+		try {
+			Scriptable threadScope = null;
+			for (Map.Entry<String, Object> entry : defaultFeatureMap.entrySet()) {
+				// value is either a Boolean or Function
+				Object value = entry.getValue();
+				if (value instanceof Function) {
+					if (urlDependent == urlIndependentFeatures.contains(entry.getKey())) {
+						continue;
+					}
+					if (cx == null) {
+						cx = Context.enter();
+						threadScope = cx.newObject(sharedScope);
+						threadScope.setPrototype(sharedScope);
+						threadScope.setParentScope(null);
+					}
 					Boolean booleanValue = Context.toBoolean(((Function)value).call(cx, threadScope, null, new Object[]{url}));
 					result.put(entry.getKey(), booleanValue);
-				} finally {
-					Context.exit();
+				} else if (!urlDependent) {
+					result.put(entry.getKey(), (Boolean)value);
 				}
-			} else {
-				result.put(entry.getKey(), (Boolean)value);
+			}
+		} finally {
+			if (cx != null) {
+				Context.exit();
 			}
 		}
 		return result;
@@ -478,23 +618,19 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 			mid = getPackages().get(mid).getMain();
 		}
 		if (location == null) {
-			// Still no match.  Iterate through the paths and packages looking
-			// for an entry that matches part of the module id
+			// Still no match.  Look for the path or package with the longest name that
+			// matches part of the module id.  A name matches if it is followed by a '/'
+			// in the module id, or if it ends with a '/'.
 			String prefix = ""; //$NON-NLS-1$
-			for (Map.Entry<String, Location> entry : getPaths().entrySet()) {
-				if (mid.startsWith(entry.getKey()) && entry.getKey().length() > prefix.length()) {
-					if (entry.getKey().endsWith("/") || mid.charAt(entry.getKey().length()) == '/') { //$NON-NLS-1$
-						prefix = entry.getKey();
-						location = entry.getValue();
-					}
+			for (int idx = mid.lastIndexOf('/'); idx >= 0 && location == null; idx = mid.lastIndexOf('/', idx-1)) {
+				String candidate = mid.substring(0, idx+1);
+				location = locationPrefixes.get(candidate);
+				if (location == null && idx > 0) {
+					candidate = mid.substring(0, idx);
+					location = locationPrefixes.get(candidate);
 				}
-			}
-			for (Map.Entry<String, IPackage> entry : getPackages().entrySet()) {
-				if (mid.startsWith(entry.getKey()) && entry.getKey().length() > prefix.length()) {
-					if (entry.getKey().endsWith("/") || mid.charAt(entry.getKey().length()) == '/') { //$NON-NLS-1$
-						prefix = entry.getKey();
-						location = entry.getValue().getLocation();
-					}
+				if (location != null) {
+					prefix = candidate;
 				}
 			}
 			if (prefix.length() > 0) {
@@ -588,12 +724,34 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 			log.entering(ConfigImpl.class.getName(), sourceMethod, new Object[]{mid, features, dependentFeatures, sb, resolveAliases, evaluateHasPluginConditionals});
 		}
 
-		mid = _resolve(mid, features, dependentFeatures, resolveAliases, evaluateHasPluginConditionals, 0, sb);
+		// Results are memoized when no diagnostic information is requested
+		String cacheKey = null;
+		ResolvedId resolved = null;
+		if (sb == null && features != null && mid != null) {
+			cacheKey = (resolveAliases ? "1" : "0") + (evaluateHasPluginConditionals ? "1" : "0") + mid; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			resolved = getResolved(cacheKey, features);
+		}
+		if (resolved != null) {
+			if (dependentFeatures != null) {
+				dependentFeatures.addAll(resolved.featureValues.keySet());
+			}
+			mid = resolved.mid;
+		} else {
+			Set<String> depFeatures = cacheKey != null ? new HashSet<String>() : dependentFeatures;
+			String result = _resolve(mid, features, depFeatures, resolveAliases, evaluateHasPluginConditionals, 0, sb);
 
-		// check for package name and replace with the package's main module id
-		IPackage pkg = packages.get(mid);
-		if (pkg != null) {
-			mid = pkg.getMain();
+			// check for package name and replace with the package's main module id
+			IPackage pkg = packages.get(result);
+			if (pkg != null) {
+				result = pkg.getMain();
+			}
+			if (cacheKey != null) {
+				putResolved(cacheKey, new ResolvedId(result, depFeatures, features));
+				if (dependentFeatures != null) {
+					dependentFeatures.addAll(depFeatures);
+				}
+			}
+			mid = result;
 		}
 		if (isTraceLogging) {
 			log.exiting(ConfigImpl.class.getName(), sourceMethod, mid);
@@ -601,6 +759,47 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 		return mid;
 	}
 
+	/**
+	 * Returns the memoized result of {@link #resolve} for the specified key, if there is one
+	 * for the values of the features that the result is conditioned on.
+	 *
+	 * @param key
+	 *            the module id and resolve options
+	 * @param features
+	 *            the features that are defined in the request
+	 * @return the memoized result, or null
+	 */
+	private ResolvedId getResolved(String key, Features features) {
+		ResolvedId[] variants = resolvedCache.get(key);
+		if (variants != null) {
+			for (ResolvedId variant : variants) {
+				if (variant.matches(features)) {
+					return variant;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Memoizes a result of {@link #resolve}, retaining at most {@link #MAX_RESOLVED_VARIANTS}
+	 * feature dependent results for the same key.
+	 *
+	 * @param key
+	 *            the module id and resolve options
+	 * @param resolved
+	 *            the result
+	 */
+	private void putResolved(String key, ResolvedId resolved) {
+		ResolvedId[] variants = resolvedCache.get(key);
+		List<ResolvedId> list = new ArrayList<ResolvedId>();
+		list.add(resolved);
+		if (variants != null) {
+			list.addAll(Arrays.asList(variants).subList(0, Math.min(variants.length, MAX_RESOLVED_VARIANTS-1)));
+		}
+		resolvedCache.put(key, list.toArray(new ResolvedId[list.size()]));
+	}
+
 	/**
 	 * Resolves has! loader plugin expressions by calling _resolve() on each of the modules named
 	 * in the expression.  Optionally evaluates the feature conditionals in the expression,
@@ -828,12 +1027,19 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 		if (isTraceLogging) {
 			log.entering(ConfigImpl.class.getName(), sourceMethod, new Object[]{name, features, dependentFeatures, sb});
 		}
-		List<IAlias> aliases = getAliases();
+		IAlias[] aliases = aliasArray;
 		String result = name;
+		// If none of the regular expression aliases match, then the result is determined by the
+		// literal aliases alone
+		Integer literalIndex = literalAliases.get(name);
+		int start = aliases.length-1;
+		if (combinedAliasPattern == null || !combinedAliasPattern.matcher(name).find()) {
+			start = literalIndex != null ? literalIndex : -1;
+		}
 		// Iterate through the list of aliases in reverse order so that last matching alias wins
 		// so as to emulate the behavior of dojo's loader.
-		for (int j = aliases.size()-1; j >= 0; j--) {
-			IAlias alias = aliases.get(j);
+		for (int j = start; j >= 0; j--) {
+			IAlias alias = aliases[j];
 			Object pattern = alias.getPattern();
 			if (pattern instanceof String) {
 				if (alias.getPattern().equals(name)) {
@@ -1355,6 +1561,20 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 		return Collections.unmodifiableMap(result);
 	}
 
+	/**
+	 * Returns the names of the default features specified in the
+	 * {@link #URLINDEPENDENTFEATURES_CONFIGPARAM} config param.  The functions for these
+	 * features don't depend on the request URL, so they are evaluated once instead of
+	 * for each request URL.
+	 *
+	 * @param cfg
+	 *            the config object as a {@link Scriptable}
+	 * @return the set of URL independent feature names
+	 */
+	protected Set<String> loadUrlIndependentFeatures(Scriptable cfg) {
+		return loadPluginDelegators(cfg, URLINDEPENDENTFEATURES_CONFIGPARAM);
+	}
+
 	/**
 	 * Calls the registered config modifiers to give them an opportunity to
 	 * modify the raw config before config properties are evaluated.
@@ -1486,6 +1706,10 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 		} finally {
 			Context.exit();
 		}
+		// Alias and feature functions may reference the options
+		resolvedCache.clear();
+		urlIndependentDefaultFeatures = null;
+		defaultFeaturesCache.clear();
 	}
 
 	/* (non-Javadoc)
@@ -1554,6 +1778,35 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 		return new Alias(pattern, replacement);
 	}
 
+	/**
+	 * A memoized result of {@link ConfigImpl#resolve}, together with the values of the features
+	 * that the result is conditioned on.
+	 */
+	static private class ResolvedId {
+		final String mid;
+		/** Feature values.  A null value means the feature is not defined */
+		final Map<String, Boolean> featureValues;
+
+		ResolvedId(String mid, Set<String> dependentFeatures, Features features) {
+			this.mid = mid;
+			featureValues = new HashMap<String, Boolean>();
+			for (String name : dependentFeatures) {
+				featureValues.put(name, features.contains(name) ? Boolean.valueOf(features.isFeature(name)) : null);
+			}
+		}
+
+		boolean matches(Features features) {
+			for (Map.Entry<String, Boolean> entry : featureValues.entrySet()) {
+				String name = entry.getKey();
+				Boolean value = features.contains(name) ? Boolean.valueOf(features.isFeature(name)) : null;
+				if (value == null ? entry.getValue() != null : !value.equals(entry.getValue())) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
 	protected class Package implements IPackage {
 
 		private final String name;
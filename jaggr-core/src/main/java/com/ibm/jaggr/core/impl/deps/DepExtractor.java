@@ -0,0 +1,598 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.deps;
+
+import com.ibm.jaggr.core.impl.deps.DepUtils.ParseResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Extracts the dependency information that {@link DepUtils#parseDependencies}
+ * extracts from the AST of an AMD module, without parsing the module.
+ * <p>
+ * The source is split into tokens (names, string literals, numbers, regular
+ * expression literals and punctuators), skipping whitespace and comments, and
+ * matching brackets are paired up.  The token list is then searched for calls
+ * to {@code define()}, {@code require()} and {@code has()} that match the AST
+ * patterns recognized by {@link DepUtils#parseDependencies}.  For calls to
+ * {@code has()}, the operators on either side of the call are compared by
+ * precedence to determine the node that would be the parent of the call in
+ * the AST.
+ * <p>
+ * If the source contains anything that the tokens alone can't account for
+ * with certainty (e.g. unbalanced brackets, a {@code /} that could start a
+ * regular expression or be a division operator, string literals with escape
+ * sequences in dependency arrays, holes in dependency arrays, or template
+ * literals), then {@link #extract(String, Set)} returns null and the caller
+ * should fall back to parsing the source.
+ */
+final class DepExtractor {
+
+	/* Token types */
+	static final int NAME = 1;
+	static final int STRING = 2;
+	static final int NUMBER = 3;
+	static final int REGEX = 4;
+	static final int PUNCT = 5;
+
+	/* Operator precedences, from loosest to tightest */
+	private static final int NONE = 0;
+	private static final int COMMA = 1;
+	private static final int ASSIGN = 2;
+	private static final int HOOK = 3;
+	private static final int OR = 4;
+	private static final int AND = 5;
+	private static final int OTHER_BINARY = 6;
+	private static final int UNARY = 7;
+	private static final int NOT = 8;
+
+	/** Punctuators, longest first */
+	private static final String[] PUNCTUATORS = new String[] {
+		">>>=", //$NON-NLS-1$
+		"===", "!==", ">>>", "<<=", ">>=", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		"==", "!=", "<=", ">=", "&&", "||", "++", "--", "+=", "-=", "*=", "/=", "%=", "&=", "|=", "^=", "<<", ">>", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$ //$NON-NLS-12$ //$NON-NLS-13$ //$NON-NLS-14$ //$NON-NLS-15$ //$NON-NLS-16$ //$NON-NLS-17$ //$NON-NLS-18$
+		"{", "}", "(", ")", "[", "]", ";", ",", "<", ">", "+", "-", "*", "/", "%", "&", "|", "^", "!", "~", "?", ":", "=", "." //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$ //$NON-NLS-12$ //$NON-NLS-13$ //$NON-NLS-14$ //$NON-NLS-15$ //$NON-NLS-16$ //$NON-NLS-17$ //$NON-NLS-18$ //$NON-NLS-19$ //$NON-NLS-20$ //$NON-NLS-21$ //$NON-NLS-22$ //$NON-NLS-23$ //$NON-NLS-24$
+	};
+
+	private static final Set<String> ASSIGNMENT_OPS = new HashSet<String>(Arrays.asList(new String[] {
+		"=", "+=", "-=", "*=", "/=", "%=", "<<=", ">>=", ">>>=", "&=", "|=", "^=" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$ //$NON-NLS-12$
+	}));
+
+	private static final Set<String> BINARY_OPS = new HashSet<String>(Arrays.asList(new String[] {
+		"*", "/", "%", "+", "-", "<<", ">>", ">>>", "<", ">", "<=", ">=", "==", "!=", "===", "!==", "&", "^", "|" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$ //$NON-NLS-12$ //$NON-NLS-13$ //$NON-NLS-14$ //$NON-NLS-15$ //$NON-NLS-16$ //$NON-NLS-17$ //$NON-NLS-18$ //$NON-NLS-19$
+	}));
+
+	/** Keywords after which a {@code /} starts a regular expression */
+	private static final Set<String> REGEX_KEYWORDS = new HashSet<String>(Arrays.asList(new String[] {
+		"return", "typeof", "instanceof", "in", "new", "delete", "void", "throw", "case", "do", "else" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$
+	}));
+
+	/** Keywords that are followed by a parenthesized statement head */
+	private static final Set<String> HEAD_KEYWORDS = new HashSet<String>(Arrays.asList(new String[] {
+		"if", "while", "for", "with", "switch", "catch" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+	}));
+
+	private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(new String[] {
+		"break", "case", "catch", "continue", "debugger", "default", "delete", "do", "else", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$
+		"finally", "for", "function", "if", "in", "instanceof", "new", "return", "switch", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$
+		"throw", "try", "typeof", "var", "void", "while", "with" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+	}));
+
+	/**
+	 * Source token
+	 */
+	static class Token {
+		final int type;
+		/** The token text, or the value of a string literal */
+		final String text;
+		/** True if the token is a string literal with escape sequences */
+		final boolean escaped;
+		/** For brackets, the index of the matching bracket */
+		int match = -1;
+		/** For {@code ( ) :} tokens, see {@link #isHead()} and {@link #isTernary()} */
+		boolean flag;
+
+		Token(int type, String text, boolean escaped) {
+			this.type = type;
+			this.text = text;
+			this.escaped = escaped;
+		}
+
+		boolean is(String punct) {
+			return type == PUNCT && text.equals(punct);
+		}
+
+		boolean isName(String name) {
+			return type == NAME && text.equals(name);
+		}
+
+		/** @return true if the token is a paren that encloses a statement head, e.g. {@code if (...)} */
+		boolean isHead() {
+			return flag && (is("(") || is(")")); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		/** @return true if the token is the colon of a conditional expression */
+		boolean isTernary() {
+			return flag && is(":"); //$NON-NLS-1$
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+
+	private final String src;
+	private final int length;
+	private final List<Token> tokens = new ArrayList<Token>();
+	private int pos = 0;
+
+	private DepExtractor(String src) {
+		this.src = src;
+		this.length = src.length();
+	}
+
+	/**
+	 * Extracts the dependencies of the AMD module in the specified source
+	 *
+	 * @param src
+	 *            the module source
+	 * @param dependentFeatures
+	 *            Output - the features used in has() calls and by the has!
+	 *            loader plugin are added to this set. Not modified if this
+	 *            method returns null.
+	 * @return the dependencies, or null if the source needs to be parsed
+	 */
+	static ParseResult extract(String src, Set<String> dependentFeatures) {
+		DepExtractor extractor = new DepExtractor(src);
+		if (!extractor.tokenize()) {
+			return null;
+		}
+		Set<String> features = new HashSet<String>();
+		ParseResult result = extractor.analyze(features);
+		if (result != null) {
+			dependentFeatures.addAll(features);
+		}
+		return result;
+	}
+
+	/**
+	 * Splits the source into tokens and pairs up matching brackets
+	 *
+	 * @return false if the source can't be tokenized with certainty
+	 */
+	boolean tokenize() {
+		List<Integer> brackets = new ArrayList<Integer>();
+		// Number of unmatched '?' at each bracket depth
+		int[] hooks = new int[16];
+		while (true) {
+			if (!skipWhitespaceAndComments()) {
+				return false;
+			}
+			if (pos >= length) {
+				break;
+			}
+			char c = src.charAt(pos);
+			Token token;
+			if (c == '"' || c == '\'') {
+				token = readString(c);
+			} else if (Character.isDigit(c) || c == '.' && pos + 1 < length && Character.isDigit(src.charAt(pos + 1))) {
+				token = readNumber();
+			} else if (Character.isJavaIdentifierStart(c)) {
+				int start = pos++;
+				while (pos < length && Character.isJavaIdentifierPart(src.charAt(pos)) && src.charAt(pos) != '\\') {
+					pos++;
+				}
+				token = new Token(NAME, src.substring(start, pos), false);
+			} else if (c == '/' && isRegexAllowed()) {
+				token = readRegex();
+			} else {
+				token = readPunctuator();
+			}
+			if (token == null) {
+				return false;
+			}
+			int index = tokens.size();
+			if (token.type == PUNCT) {
+				char p = token.text.charAt(0);
+				if (token.text.length() == 1 && (p == '(' || p == '[' || p == '{')) {
+					if (p == '(') {
+						Token prev = index > 0 ? tokens.get(index - 1) : null;
+						token.flag = prev != null && prev.type == NAME && HEAD_KEYWORDS.contains(prev.text);
+					}
+					brackets.add(index);
+					if (brackets.size() >= hooks.length) {
+						hooks = Arrays.copyOf(hooks, hooks.length * 2);
+					}
+					hooks[brackets.size()] = 0;
+				} else if (token.text.length() == 1 && (p == ')' || p == ']' || p == '}')) {
+					if (brackets.isEmpty()) {
+						return false;
+					}
+					Token open = tokens.get(brackets.get(brackets.size() - 1));
+					char expected = p == ')' ? '(' : (p == ']' ? '[' : '{');
+					if (open.text.charAt(0) != expected) {
+						return false;
+					}
+					int openIndex = brackets.remove(brackets.size() - 1);
+					open.match = index;
+					token.match = openIndex;
+					token.flag = open.flag;
+				} else if (p == '?') {
+					hooks[brackets.size()]++;
+				} else if (p == ':' && hooks[brackets.size()] > 0) {
+					hooks[brackets.size()]--;
+					token.flag = true;
+				}
+			}
+			tokens.add(token);
+		}
+		return brackets.isEmpty();
+	}
+
+	/**
+	 * Searches the tokens for define(), require() and has() calls
+	 *
+	 * @param features
+	 *            Output - the dependent features
+	 * @return the dependencies, or null if the source needs to be parsed
+	 */
+	ParseResult analyze(Set<String> features) {
+		ParseResult result = new ParseResult();
+		int size = tokens.size();
+		for (int i = 0; i < size - 1; i++) {
+			Token token = tokens.get(i);
+			if (token.type != NAME || !tokens.get(i + 1).is("(")) { //$NON-NLS-1$
+				continue;
+			}
+			Token prev = i > 0 ? tokens.get(i - 1) : null;
+			if (prev != null && (prev.is(".") || prev.isName("function") || prev.isName("new"))) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				// Not a call to a named function
+				continue;
+			}
+			int close = tokens.get(i + 1).match;
+			if (token.text.equals("has")) { //$NON-NLS-1$
+				if (close == i + 3 && tokens.get(i + 2).type == STRING && isBooleanContext(i, close)) {
+					if (tokens.get(i + 2).escaped) {
+						return null;
+					}
+					features.add(tokens.get(i + 2).text);
+				}
+			} else if (token.text.equals("define")) { //$NON-NLS-1$
+				// The dependency array can be any of the first three arguments
+				int arg = i + 2;
+				for (int n = 0; n < 3 && arg < close; n++) {
+					if (isArrayArg(arg, close)) {
+						Set<String> deps = readArray(arg, features);
+						if (deps == null) {
+							return null;
+						}
+						result.addAll(deps, null);
+						break;
+					}
+					arg = nextArg(arg, close);
+				}
+			} else if (token.text.equals("require")) { //$NON-NLS-1$
+				if (i + 2 < close && isArrayArg(i + 2, close)) {
+					Set<String> deps = readArray(i + 2, features);
+					if (deps == null) {
+						return null;
+					}
+					result.addAll(null, deps);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Determines if the parent of the has() call in the AST would be a node
+	 * that coerces the result of the call to a boolean (if, conditional, and,
+	 * or, or not).  See {@link com.ibm.jaggr.core.util.NodeUtil#conditionFromHasNode}.
+	 *
+	 * @param start
+	 *            the index of the {@code has} token
+	 * @param end
+	 *            the index of the closing paren of the call
+	 * @return true if the parent node coerces the result to a boolean
+	 */
+	boolean isBooleanContext(int start, int end) {
+		int left = start - 1, right = end + 1, size = tokens.size();
+		// Grouping parens don't create AST nodes
+		while (left >= 0 && right < size && tokens.get(left).is("(") && //$NON-NLS-1$
+				tokens.get(left).match == right && isGroupingParen(left)) {
+			left--;
+			right++;
+		}
+		Token l = left >= 0 ? tokens.get(left) : null;
+		Token r = right < size ? tokens.get(right) : null;
+		if (r != null && (r.is(".") || r.is("[") || r.is("("))) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			// property access or call on the result
+			return false;
+		}
+		if (l != null && l.isHead() && l.match == right) {
+			// the condition of an if statement
+			return tokens.get(left - 1).isName("if"); //$NON-NLS-1$
+		}
+		int precedence = Math.max(precedence(l, true), precedence(r, false));
+		return precedence == NOT || precedence == AND || precedence == OR || precedence == HOOK;
+	}
+
+	/**
+	 * Returns the precedence of the operator adjacent to an operand
+	 *
+	 * @param token
+	 *            the token before or after the operand
+	 * @param before
+	 *            true if the token precedes the operand
+	 * @return the operator precedence
+	 */
+	private int precedence(Token token, boolean before) {
+		if (token == null) {
+			return NONE;
+		}
+		if (token.type == NAME) {
+			if (token.text.equals("in") || token.text.equals("instanceof")) { //$NON-NLS-1$ //$NON-NLS-2$
+				return OTHER_BINARY;
+			}
+			if (before && (token.text.equals("typeof") || token.text.equals("void") || //$NON-NLS-1$ //$NON-NLS-2$
+					token.text.equals("delete") || token.text.equals("new"))) { //$NON-NLS-1$ //$NON-NLS-2$
+				return UNARY;
+			}
+			return NONE;
+		}
+		if (token.type != PUNCT) {
+			return NONE;
+		}
+		String text = token.text;
+		if (text.equals("&&")) { //$NON-NLS-1$
+			return AND;
+		} else if (text.equals("||")) { //$NON-NLS-1$
+			return OR;
+		} else if (text.equals("?") || token.isTernary()) { //$NON-NLS-1$
+			return HOOK;
+		} else if (text.equals(",")) { //$NON-NLS-1$
+			return COMMA;
+		} else if (ASSIGNMENT_OPS.contains(text)) {
+			return ASSIGN;
+		} else if (before && text.equals("!")) { //$NON-NLS-1$
+			return NOT;
+		} else if (BINARY_OPS.contains(text)) {
+			// includes unary + and -
+			return OTHER_BINARY;
+		} else if (text.equals("~") || text.equals("++") || text.equals("--")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			return UNARY;
+		}
+		return NONE;
+	}
+
+	/**
+	 * @return true if the open paren at the specified index groups an
+	 *         expression, as opposed to enclosing call arguments, function
+	 *         parameters or a statement head
+	 */
+	private boolean isGroupingParen(int index) {
+		if (tokens.get(index).isHead()) {
+			return false;
+		}
+		Token prev = index > 0 ? tokens.get(index - 1) : null;
+		if (prev == null) {
+			return true;
+		}
+		if (prev.type == NAME) {
+			// a call, unless the name is a keyword other than function
+			return KEYWORDS.contains(prev.text) && !prev.text.equals("function"); //$NON-NLS-1$
+		}
+		return !(prev.type == STRING || prev.is(")") || prev.is("]")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * @return true if the argument starting at the specified index is an
+	 *         array literal
+	 */
+	private boolean isArrayArg(int arg, int close) {
+		if (!tokens.get(arg).is("[")) { //$NON-NLS-1$
+			return false;
+		}
+		int end = tokens.get(arg).match + 1;
+		return end == close || tokens.get(end).is(","); //$NON-NLS-1$
+	}
+
+	/**
+	 * @return the index of the argument following the argument starting at
+	 *         the specified index, or {@code close} if there are no more
+	 *         arguments
+	 */
+	private int nextArg(int arg, int close) {
+		int i = arg;
+		while (i < close) {
+			Token token = tokens.get(i);
+			if (token.is(",")) { //$NON-NLS-1$
+				return i + 1;
+			}
+			i = (token.match > i) ? token.match + 1 : i + 1;
+		}
+		return close;
+	}
+
+	/**
+	 * Reads the string literal elements of an array literal.  Other elements
+	 * are ignored.
+	 *
+	 * @param open
+	 *            the index of the open bracket
+	 * @param features
+	 *            Output - the features specified by has! plugin ids
+	 * @return the module ids, or null if the source needs to be parsed
+	 */
+	private Set<String> readArray(int open, Set<String> features) {
+		Set<String> result = new LinkedHashSet<String>();
+		int end = tokens.get(open).match;
+		int i = open + 1;
+		while (i < end) {
+			int next = nextArg(i, end);
+			int elementEnd = next < end ? next - 1 : end;
+			if (elementEnd == i || next == end && tokens.get(end - 1).is(",")) { //$NON-NLS-1$
+				// hole or trailing comma
+				return null;
+			}
+			Token token = tokens.get(i);
+			if (elementEnd == i + 1 && token.type == STRING) {
+				if (token.escaped) {
+					return null;
+				}
+				DepUtils.addDependency(token.text, result, features);
+			} else if (token.is("(")) { //$NON-NLS-1$
+				// could be a parenthesized string literal
+				return null;
+			}
+			i = next;
+		}
+		return result;
+	}
+
+	private boolean isRegexAllowed() {
+		if (tokens.isEmpty()) {
+			return true;
+		}
+		Token prev = tokens.get(tokens.size() - 1);
+		switch (prev.type) {
+		case NAME:
+			return REGEX_KEYWORDS.contains(prev.text);
+		case PUNCT:
+			if (prev.is(")")) { //$NON-NLS-1$
+				// A regex can follow the head of an if, while, etc.
+				return prev.isHead();
+			}
+			// After '}', a '/' is ambiguous.  See readPunctuator().
+			return !prev.is("]") && !prev.is("}") && !prev.is("++") && !prev.is("--"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return false if the source contains a comment that is not terminated
+	 */
+	private boolean skipWhitespaceAndComments() {
+		while (pos < length) {
+			char c = src.charAt(pos);
+			if (c == '/' && pos + 1 < length && src.charAt(pos + 1) == '/') {
+				while (pos < length && src.charAt(pos) != '\n' && src.charAt(pos) != '\r') {
+					pos++;
+				}
+			} else if (c == '/' && pos + 1 < length && src.charAt(pos + 1) == '*') {
+				int end = src.indexOf("*/", pos + 2); //$NON-NLS-1$
+				if (end == -1) {
+					return false;
+				}
+				pos = end + 2;
+			} else if (Character.isWhitespace(c) || Character.isSpaceChar(c) || c == '\uFEFF') {
+				pos++;
+			} else {
+				break;
+			}
+		}
+		return true;
+	}
+
+	private Token readString(char quote) {
+		StringBuffer sb = new StringBuffer();
+		boolean escaped = false;
+		pos++;
+		while (pos < length) {
+			char c = src.charAt(pos++);
+			if (c == quote) {
+				return new Token(STRING, sb.toString(), escaped);
+			} else if (c == '\\') {
+				// Skip the escaped character.  Strings with escapes are not used
+				// as dependencies, so the value doesn't need to be decoded.
+				escaped = true;
+				if (pos < length && src.charAt(pos) == '\r' && pos + 1 < length && src.charAt(pos + 1) == '\n') {
+					pos++;
+				}
+				pos++;
+			} else if (c == '\n' || c == '\r') {
+				return null;
+			} else {
+				sb.append(c);
+			}
+		}
+		return null;
+	}
+
+	private Token readNumber() {
+		int start = pos;
+		while (pos < length) {
+			char c = src.charAt(pos);
+			if (Character.isLetterOrDigit(c) || c == '.') {
+				pos++;
+			} else if ((c == '+' || c == '-') && pos > start &&
+					(src.charAt(pos - 1) == 'e' || src.charAt(pos - 1) == 'E') &&
+					!src.substring(start, pos).toLowerCase().startsWith("0x")) { //$NON-NLS-1$
+				pos++;
+			} else {
+				break;
+			}
+		}
+		return new Token(NUMBER, src.substring(start, pos), false);
+	}
+
+	private Token readRegex() {
+		int start = pos++;
+		boolean inClass = false;
+		while (pos < length) {
+			char c = src.charAt(pos++);
+			if (c == '\\') {
+				pos++;
+			} else if (c == '\n' || c == '\r') {
+				return null;
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == ']') {
+				inClass = false;
+			} else if (c == '/' && !inClass) {
+				while (pos < length && Character.isJavaIdentifierPart(src.charAt(pos))) {
+					pos++;
+				}
+				return new Token(REGEX, src.substring(start, pos), false);
+			}
+		}
+		return null;
+	}
+
+	private Token readPunctuator() {
+		char c = src.charAt(pos);
+		if (c == '/' && !tokens.isEmpty() && tokens.get(tokens.size() - 1).is("}")) { //$NON-NLS-1$
+			// Could be a regex following a block, or division of an object literal
+			return null;
+		}
+		for (String punct : PUNCTUATORS) {
+			if (src.startsWith(punct, pos)) {
+				pos += punct.length();
+				return new Token(PUNCT, punct, false);
+			}
+		}
+		// Template literals, unicode escapes in names, etc.
+		return null;
+	}
+}
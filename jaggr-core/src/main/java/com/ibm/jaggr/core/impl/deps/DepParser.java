@@ -16,21 +16,27 @@
 
 package com.ibm.jaggr.core.impl.deps;
 
+import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.impl.deps.DepUtils.ParseResult;
 import com.ibm.jaggr.core.resource.IResourceVisitor;
+import com.ibm.jaggr.core.util.AstCache;
 import com.ibm.jaggr.core.util.CompilerUtil;
+import com.ibm.jaggr.core.util.CopyUtil;
 
 import com.google.javascript.jscomp.Compiler;
 import com.google.javascript.jscomp.JSSourceFile;
 import com.google.javascript.rhino.Node;
 
-import java.io.InputStream;
+import org.apache.commons.lang3.mutable.MutableBoolean;
+
+import java.io.StringWriter;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,6 +46,10 @@ import java.util.logging.Logger;
  * function. The dependency information thus obtained is used to update the
  * dependency array in the provided {@link DepTreeNode} and the node's
  * last-modified times are updated as well.
+ * <p>
+ * The dependencies are extracted using {@link DepExtractor} when possible.
+ * The module is parsed with the Closure compiler only if the extractor can't
+ * determine the dependencies with certainty.
  */
 final class DepParser implements Callable<URI> {
 	static final Logger log = Logger.getLogger(DepParser.class.getName());
@@ -47,21 +57,35 @@ final class DepParser implements Callable<URI> {
 		Compiler.setLoggingLevel(Level.WARNING);
 	}
 
+	private final IAggregator aggregator;
 	private final DepTreeNode treeNode;
 	private final IResourceVisitor.Resource resource;
+	private final AtomicInteger extractorFallbackCount;
+	private final CompilerUtil.ParseStats parseStats;
 
 	/**
 	 * Object constructor
 	 *
+	 * @param aggregator
+	 *            The aggregator instance
 	 * @param treeNode
 	 *            The node to be populated with the dependency list obtained
 	 *            from jsFile
 	 * @param resource
 	 *            The resource to be parsed for dependencies
+	 * @param extractorFallbackCount
+	 *            Counter that is incremented if the resource has to be parsed
+	 *            because the dependencies couldn't be extracted.  May be null.
+	 * @param parseStats
+	 *            The statistics to update when the resource is parsed.  May be null.
 	 */
-	DepParser(DepTreeNode treeNode, IResourceVisitor.Resource resource) {
+	DepParser(IAggregator aggregator, DepTreeNode treeNode, IResourceVisitor.Resource resource,
+			AtomicInteger extractorFallbackCount, CompilerUtil.ParseStats parseStats) {
+		this.aggregator = aggregator;
 		this.treeNode = treeNode;
 		this.resource = resource;
+		this.extractorFallbackCount = extractorFallbackCount;
+		this.parseStats = parseStats;
 	}
 
 	/* (non-Javadoc)
@@ -71,50 +95,83 @@ final class DepParser implements Callable<URI> {
 		// Save original time stamp for dependency list
 		long lastModifiedDep = treeNode.lastModifiedDep();
 		long lastModified = resource.lastModified();
+		StringWriter writer = new StringWriter();
+		CopyUtil.copy(resource.getInputStream(), writer);
+		String code = writer.toString();
+
+		// Try to extract the dependencies without parsing the code first
+		Set<String> features = new HashSet<String>();
+		ParseResult parseResult = DepExtractor.extract(code, features);
+		if (parseResult != null) {
+			setDependencies(parseResult, features, lastModified, lastModifiedDep);
+			return resource.getURI();
+		}
+		if (extractorFallbackCount != null) {
+			extractorFallbackCount.incrementAndGet();
+		}
+
 		// Parse the javascript code
-		Compiler compiler = new Compiler();
-		compiler.initOptions(CompilerUtil.getDefaultOptions());
-		InputStream in = resource.getInputStream();
 		Node node = null;
 		try {
-			node = compiler.parse(JSSourceFile.fromInputStream(resource.getURI().toString(), in));
+			JSSourceFile source = JSSourceFile.fromCode(resource.getURI().toString(), code);
+			MutableBoolean hasErrors = new MutableBoolean(false);
+			node = CompilerUtil.parse(source, hasErrors, parseStats);
+			if (!hasErrors.booleanValue()) {
+				// Save the AST for use by module builds.  We only read the AST from here on.
+				AstCache astCache = AstCache.getInstance(aggregator);
+				if (astCache != null) {
+					astCache.put(resource.getURI(), lastModified, source, node);
+				}
+			}
 		} catch (Throwable e) {
 			if (log.isLoggable(Level.WARNING)) {
 				log.log(Level.WARNING, "Error occurred parsing " + resource.getURI().toString() + ": " + e.getMessage(), e); //$NON-NLS-1$ //$NON-NLS-2$
 			}
-		} finally {
-			in.close();
 		}
 		if (node != null) {
 			// walk the AST for the node looking for define calls
 			// and pull out the required dependency list.
-			Set<String> features = new HashSet<String>();
-			ParseResult parseResult = DepUtils.parseDependencies(node, features);
-			Collection<String> defineDeps = parseResult.getDefineDependencies();
-			Collection<String> requireDeps = parseResult.getRequireDependencies();
-			String[] defineDepArray = (defineDeps == null) ?
-					new String[0] : defineDeps.toArray(new String[defineDeps.size()]);
-			String[] requireDepArray = (requireDeps == null) ?
-					new String[0] : requireDeps.toArray(new String[requireDeps.size()]);
-			String[] featureArray = (features == null) ?
-					new String[0] : features.toArray(new String[features.size()]);
-			/*
-			 * Determine if the dependency list has changed.  We keep track of
-			 * dependency list changes separate from code changes in general
-			 * because a dependency list change necessitates invalidating all
-			 * cached responses for the configs that reference this file, and
-			 * we want to do this only when necessary.
-			 */
-			if (lastModifiedDep ==  -1 ||
-					!Arrays.equals(defineDepArray, treeNode.getDefineDepArray()) ||
-					!Arrays.equals(requireDepArray, treeNode.getRequireDepArray()) ||
-					!Arrays.equals(featureArray, treeNode.getDependentFeatures())) {
-				lastModifiedDep = lastModified;
-			}
-			// update the dependency info in the node
-			treeNode.setDependencies(defineDepArray, requireDepArray, featureArray,
-					lastModified, lastModifiedDep);
+			setDependencies(DepUtils.parseDependencies(node, features), features, lastModified, lastModifiedDep);
 		}
 		return resource.getURI();
 	}
-}
+
+	/**
+	 * Updates the dependency info in the tree node
+	 *
+	 * @param parseResult
+	 *            the dependencies obtained from the javascript code
+	 * @param features
+	 *            the dependent features
+	 * @param lastModified
+	 *            the last modified time of the resource
+	 * @param lastModifiedDep
+	 *            the previous last modified time of the dependency list
+	 */
+	private void setDependencies(ParseResult parseResult, Set<String> features, long lastModified, long lastModifiedDep) {
+		Collection<String> defineDeps = parseResult.getDefineDependencies();
+		Collection<String> requireDeps = parseResult.getRequireDependencies();
+		String[] defineDepArray = (defineDeps == null) ?
+				new String[0] : defineDeps.toArray(new String[defineDeps.size()]);
+		String[] requireDepArray = (requireDeps == null) ?
+				new String[0] : requireDeps.toArray(new String[requireDeps.size()]);
+		String[] featureArray = (features == null) ?
+				new String[0] : features.toArray(new String[features.size()]);
+		/*
+		 * Determine if the dependency list has changed.  We keep track of
+		 * dependency list changes separate from code changes in general
+		 * because a dependency list change necessitates invalidating all
+		 * cached responses for the configs that reference this file, and
+		 * we want to do this only when necessary.
+		 */
+		if (lastModifiedDep ==  -1 ||
+				!Arrays.equals(defineDepArray, treeNode.getDefineDepArray()) ||
+				!Arrays.equals(requireDepArray, treeNode.getRequireDepArray()) ||
+				!Arrays.equals(featureArray, treeNode.getDependentFeatures())) {
+			lastModifiedDep = lastModified;
+		}
+		// update the dependency info in the node
+		treeNode.setDependencies(defineDepArray, requireDepArray, featureArray,
+				lastModified, lastModifiedDep);
+	}
+}
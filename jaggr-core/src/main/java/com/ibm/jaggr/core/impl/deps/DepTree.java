@@ -21,37 +21,33 @@ import com.ibm.jaggr.core.IAggregatorExtension;
 import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.deps.IDependencies;
 import com.ibm.jaggr.core.modulebuilder.IModuleBuilderExtensionPoint;
+import com.ibm.jaggr.core.resource.IResource;
+import com.ibm.jaggr.core.resource.IResourceVisitor;
 import com.ibm.jaggr.core.util.AggregatorUtil;
 import com.ibm.jaggr.core.util.ConsoleService;
 
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
 import java.net.URI;
 import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -73,8 +69,7 @@ public class DepTree implements Serializable {
 
 	static final Logger log = Logger.getLogger(DepTree.class.getName());
 
-	static final String TREEBUILDER_TGNAME = "treeBuilder"; //$NON-NLS-1$
-	static final String JSPARSER_TGNAME = "jsParser"; //$NON-NLS-1$
+	static final String SCANNER_TGNAME = "depScanner"; //$NON-NLS-1$
 	static final String THREADNAME = "{0} Thread-{1}";  //$NON-NLS-1$
 	/**
 	 * Map of directory names to {@link DepTreeNode} objects. Each
@@ -99,6 +94,11 @@ public class DepTree implements Serializable {
 
 	protected boolean fromCache = false;
 
+	/**
+	 * Summary of the statistics for the scan done by the constructor
+	 */
+	protected transient String scanStatistics;
+
 	private static final String DEPCACHE_DIRNAME = "deps"; //$NON-NLS-1$
 
 	private static final String CACHE_FILE = "depmap.cache"; //$NON-NLS-1$
@@ -158,24 +158,33 @@ public class DepTree implements Serializable {
 			// If we're not starting clean, try to de-serialize the map from
 			// cache
 			try {
-				ObjectInputStream is = new ObjectInputStream(
-						new FileInputStream(cacheFile));
-				try {
-					if (isTraceLogging) {
-						log.finer("Attempting to read cached dependencies from " + cacheFile.toString()); //$NON-NLS-1$
-					}
-					cached = (DepTree) is.readObject();
-				} finally {
-					try { is.close(); } catch (Exception ignore) {}
+				if (isTraceLogging) {
+					log.finer("Attempting to read cached dependencies from " + cacheFile.toString()); //$NON-NLS-1$
+				}
+				long start = System.currentTimeMillis();
+				cached = new DepTree();
+				DepTreeSerializer.read(cached, cacheFile);
+				if (isTraceLogging) {
+					log.finer("Read cached dependencies in " + (System.currentTimeMillis() - start) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
 				}
 			} catch (FileNotFoundException e) {
 				/*
 				 * Not an error. Just means that the cache file hasn't been
 				 * written yet or else it's been deleted.
 				 */
+				cached = null;
 				if (log.isLoggable(Level.INFO))
 					log.log(Level.INFO, Messages.DepTree_1);
+			} catch (StreamCorruptedException e) {
+				/*
+				 * The cache file was written by a different version of the
+				 * aggregator, or is damaged.  Rebuild it.
+				 */
+				cached = null;
+				if (log.isLoggable(Level.INFO))
+					log.log(Level.INFO, e.getMessage());
 			} catch (Exception e) {
+				cached = null;
 				if (log.isLoggable(Level.SEVERE))
 					log.log(Level.SEVERE, e.getMessage(), e);
 			}
@@ -241,53 +250,37 @@ public class DepTree implements Serializable {
 		paths = DepUtils.removeRedundantPaths(paths);
 
 		/*
-		 * Create the thread pools, one for the tree builders and one for the
-		 * parsers. Since a tree builder thread will wait for all the outstanding
-		 * parser threads started by that builder to complete, we need to use two
-		 * independent thread pools to guard against the possibility of deadlock
-		 * caused by all the threads in the pool being consumed by tree builders
-		 * and leaving none available to service the parsers.
+		 * Create the thread pool for the scan.  Each folder is walked by its own
+		 * tree builder task, and each file that needs to be parsed is parsed by
+		 * its own parser task, so the work is spread across all of the pool's
+		 * threads regardless of how the modules are distributed among the paths
+		 * and folders.  The scan uses its own pool rather than the shared build
+		 * executor in order to guard against the possibility of deadlock.
+		 * Module builds wait for the dependencies to be initialized, so scan
+		 * tasks queued behind builds that are waiting for the scan to complete
+		 * would never run.
 		 */
-		final ThreadGroup
-		treeBuilderTG = new ThreadGroup(TREEBUILDER_TGNAME),
-		parserTG = new ThreadGroup(JSPARSER_TGNAME);
-		ExecutorService
-		treeBuilderExc = Executors.newFixedThreadPool(10, new ThreadFactory() {
+		final ThreadGroup scanTG = new ThreadGroup(SCANNER_TGNAME);
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
 			public Thread newThread(Runnable r) {
-				return new Thread(treeBuilderTG, r,
+				return new Thread(scanTG, r,
 						MessageFormat.format(THREADNAME,
 								new Object[]{
-								treeBuilderTG.getName(),
-								treeBuilderTG.activeCount()
-						}
-								)
-						);
-			}
-		}),
-		parserExc = Executors.newFixedThreadPool(20, new ThreadFactory() {
-			public Thread newThread(Runnable r) {
-				return new Thread(parserTG, r,
-						MessageFormat.format(THREADNAME,
-								new Object[]{
-								parserTG.getName(),
-								parserTG.activeCount()
+								scanTG.getName(),
+								scanTG.activeCount()
 						}
 								)
 						);
 			}
 		});
 
-		// Counter to keep track of number of tree builder threads started
-		AtomicInteger treeBuilderCount = new AtomicInteger(0);
-
-		// The completion services for the thread pools
-		final CompletionService<URI> parserCs = new ExecutorCompletionService<URI>(
-				parserExc);
-		CompletionService<DepTreeBuilder.Result> treeBuilderCs = new ExecutorCompletionService<DepTreeBuilder.Result>(
-				treeBuilderExc);
+		long start = System.currentTimeMillis();
 
-		Set<String> nonJSExtensions = Collections.unmodifiableSet(getNonJSExtensions(aggregator));
-		// Start the tree builder threads to process the paths
+		DepTreeBuilder.Scan scan = new DepTreeBuilder.Scan(aggregator, executor,
+				Collections.unmodifiableSet(getNonJSExtensions(aggregator)));
+		Map<URI, DepTreeBuilder> builders = new LinkedHashMap<URI, DepTreeBuilder>();
+		// Start the tree builders to process the paths
 		for (final URI path : paths) {
 			/*
 			 * Create or get from cache the root node for this path and
@@ -317,45 +310,60 @@ public class DepTree implements Serializable {
 			}
 			depMap.put(path, root);
 
-			treeBuilderCount.incrementAndGet();
-			treeBuilderCs.submit(new DepTreeBuilder(aggregator, parserCs, path, root, cachedNode, nonJSExtensions));
+			DepTreeBuilder builder = new DepTreeBuilder(scan, path, root, cachedNode);
+			builders.put(path, builder);
+			scan.submit(builder);
 		}
 
-		// List of parser exceptions
-		LinkedList<Exception> parserExceptions = new LinkedList<Exception>();
-
 		/*
-		 * Pull the completed tree builder tasks from the completion queue until
-		 * all the paths have been processed
+		 * Wait for the tree builders and parsers, including the ones started
+		 * by other tree builders, to complete.
 		 */
-		while (treeBuilderCount.decrementAndGet() >= 0) {
-			try {
-				DepTreeBuilder.Result result = treeBuilderCs.take().get();
-				if (log.isLoggable(Level.INFO)) {
-					log.info(
-							MessageFormat.format(
-									Messages.DepTree_6,
-									new Object[] {
-											result.parseCount,
-											result.dirName
-									}
-									)
-							);
-				}
-			} catch (Exception e) {
-				if (log.isLoggable(Level.SEVERE))
-					log.log(Level.SEVERE, e.getMessage(), e);
-				parserExceptions.add(e);
+		try {
+			scan.await();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} finally {
+			// shutdown the thread pool now that we're done with it
+			executor.shutdown();
+		}
+		int parseCount = 0;
+		for (Map.Entry<URI, DepTreeBuilder> entry : builders.entrySet()) {
+			parseCount += entry.getValue().getParseCount();
+			if (log.isLoggable(Level.INFO)) {
+				log.info(
+						MessageFormat.format(
+								Messages.DepTree_6,
+								new Object[] {
+										entry.getValue().getParseCount(),
+										entry.getKey().toString()
+								}
+								)
+						);
 			}
 		}
+		if (isTraceLogging) {
+			long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+			log.finer("Parsed " + parseCount + " files in " + elapsed + " ms (" + parseCount * 1000L / elapsed + " files/sec)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		}
 
-		// shutdown the thread pools now that we're done with them
-		parserExc.shutdown();
-		treeBuilderExc.shutdown();
+		scanStatistics = MessageFormat.format(
+				Messages.DepTree_11,
+				new Object[] {
+						aggregator.getName(),
+						parseCount,
+						scan.extractorFallbackCount.get(),
+						Long.toString(scan.parseStats.getParserReuseCount()),
+						Long.toString(scan.parseStats.getSavedSetupMillis())
+				}
+				);
+		if (log.isLoggable(Level.INFO)) {
+			log.info(scanStatistics);
+		}
 
-		// If parser exceptions occurred, then rethrow the first one
-		if (parserExceptions.size() > 0) {
-			throw new RuntimeException(parserExceptions.get(0));
+		// If tree builder exceptions occurred, then rethrow the first one
+		if (!scan.exceptions.isEmpty()) {
+			throw new RuntimeException(scan.exceptions.get(0));
 		}
 
 		// Prune dead nodes (folder nodes with no children)
@@ -363,29 +371,9 @@ public class DepTree implements Serializable {
 			entry.getValue().prune();
 		}
 
-		/*
-		 * Make sure the cache directory exists before we try to serialize the
-		 * dependency map.
-		 */
-		if (!cacheDir.exists())
-			if (!cacheDir.mkdirs()) {
-				throw new IOException(MessageFormat.format(
-						Messages.DepTree_0,
-						new Object[]{cacheDir.getAbsolutePath()}
-						));
-			}
-
 		// Serialize the map to the cache directory
-		ObjectOutputStream os;
-		os = new ObjectOutputStream(new FileOutputStream(cacheFile));
-		try {
-			if (isTraceLogging) {
-				log.finer("Writing cached dependencies to " + cacheFile.toString()); //$NON-NLS-1$
-			}
-			os.writeObject(this);
-		} finally {
-			try { os.close(); } catch (Exception ignore) {}
-		}
+		writeCache(aggregator);
+
 		msg = MessageFormat.format(
 				Messages.DepTree_7,
 				new Object[]{aggregator.getName()}
@@ -401,6 +389,172 @@ public class DepTree implements Serializable {
 		}
 	}
 
+	/**
+	 * Updates the dependency lists for the specified resources, which have been
+	 * created, modified or deleted since the dependencies were scanned. Only the
+	 * specified resources are re-parsed, and the nodes for the resources are
+	 * updated in place. Resources that are not in the scanned paths, or that have
+	 * not changed since they were last parsed, are ignored. If any dependency
+	 * lists have changed, then the updated dependency map is written to the cache
+	 * directory.
+	 * <p>
+	 * Callers are responsible for making sure that this method is not called
+	 * concurrently with {@link #mapDependencies(DepTreeRoot, Map, boolean)}.
+	 *
+	 * @param uris
+	 *            the URIs of the changed resources
+	 * @param aggregator
+	 *            the aggregator instance
+	 * @return true if the dependency list of any module has changed, or if
+	 *         modules have been added or removed
+	 * @throws Exception
+	 */
+	public boolean update(Collection<URI> uris, IAggregator aggregator) throws Exception {
+		final String sourceMethod = "update"; //$NON-NLS-1$
+		boolean isTraceLogging = log.isLoggable(Level.FINER);
+		if (isTraceLogging) {
+			log.entering(DepTree.class.getName(), sourceMethod, new Object[]{uris, aggregator});
+		}
+		Set<String> nonJSExtensions = getNonJSExtensions(aggregator);
+		boolean changed = false;
+		for (URI uri : uris) {
+			for (Map.Entry<URI, DepTreeNode> entry : depMap.entrySet()) {
+				String pathname = getPathName(entry.getKey(), uri);
+				if (pathname != null) {
+					changed |= updateNode(entry.getValue(), pathname, uri, aggregator, nonJSExtensions);
+				}
+			}
+		}
+		if (changed) {
+			writeCache(aggregator);
+		}
+		if (isTraceLogging) {
+			log.exiting(DepTree.class.getName(), sourceMethod, changed);
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns the path name of the resource relative to the scanned path, in the
+	 * same form as the path names passed to the resource visitor when the path is
+	 * scanned, or null if the resource is not in the scanned path.
+	 *
+	 * @param path
+	 *            the scanned path
+	 * @param uri
+	 *            the resource URI
+	 * @return the path name, or null
+	 */
+	static String getPathName(URI path, URI uri) {
+		if (!StringUtils.equals(path.getScheme(), uri.getScheme()) ||
+				!StringUtils.equals(path.getHost(), uri.getHost()) ||
+				path.getPath() == null || uri.getPath() == null) {
+			return null;
+		}
+		String base = StringUtils.removeEnd(path.getPath(), "/"); //$NON-NLS-1$
+		String name = StringUtils.removeEnd(uri.getPath(), "/"); //$NON-NLS-1$
+		if (name.equals(base)) {
+			return ""; //$NON-NLS-1$
+		}
+		if (name.startsWith(base + "/")) { //$NON-NLS-1$
+			return name.substring(base.length() + 1);
+		}
+		// The javascript module with the same path name as the scanned folder
+		if (!base.endsWith(".js") && name.equals(base + ".js")) { //$NON-NLS-1$ //$NON-NLS-2$
+			return ""; //$NON-NLS-1$
+		}
+		return null;
+	}
+
+	/**
+	 * Updates the node for the specified resource. Follows the same rules as
+	 * {@link DepTreeBuilder} for the resources that are included in the tree.
+	 *
+	 * @return true if the node's dependency list has changed, or if the node has
+	 *         been added or removed
+	 */
+	private boolean updateNode(DepTreeNode root, String pathname, URI uri,
+			IAggregator aggregator, Set<String> nonJSExtensions) throws Exception {
+		if (pathname.length() > 0) {
+			for (String part : pathname.split("/")) { //$NON-NLS-1$
+				if (part.startsWith(".")) { //$NON-NLS-1$
+					return false;
+				}
+			}
+		}
+		boolean isJS = uri.getPath().endsWith(".js"); //$NON-NLS-1$
+		String name = isJS && pathname.endsWith(".js") ? pathname.substring(0, pathname.length()-3) : pathname; //$NON-NLS-1$
+		IResource resource = aggregator.newResource(uri);
+		if (!resource.exists()) {
+			DepTreeNode node = root.getDescendent(name);
+			if (node == null) {
+				return false;
+			}
+			if (isJS) {
+				node.setDependencies(null, null, null, -1, -1);
+			} else {
+				// folder or non-JavaScript resource
+				node.removeAll();
+			}
+			if (node != root && node.getChildren().isEmpty() &&
+					node.getDefineDepArray() == null && node.getRequireDepArray() == null) {
+				node.getParent().remove(node);
+			}
+			return true;
+		}
+		IResourceVisitor.Resource visitorResource = resource.asVisitorResource();
+		if (visitorResource.isFolder()) {
+			// Files in new folders are reported individually
+			return false;
+		}
+		if (!isJS) {
+			int idx = uri.getPath().lastIndexOf("."); //$NON-NLS-1$
+			String extension = idx == -1 ? "" : uri.getPath().substring(idx+1); //$NON-NLS-1$
+			if (name.length() == 0 || !nonJSExtensions.contains(extension) || root.getDescendent(name) != null) {
+				return false;
+			}
+			DepTreeNode node = root.createOrGet(name, resource.getURI());
+			node.setDependencies(null, null,  null,  resource.lastModified(), resource.lastModified());
+			return true;
+		}
+		DepTreeNode node = root.createOrGet(name, resource.getURI());
+		if (node.lastModified() == resource.lastModified()) {
+			return false;
+		}
+		long lastModifiedDep = node.lastModifiedDep();
+		new DepParser(aggregator, node, visitorResource, null, null).call();
+		return node.lastModifiedDep() != lastModifiedDep;
+	}
+
+	/**
+	 * Writes this object to the cache directory using the format implemented by
+	 * {@link DepTreeSerializer}
+	 *
+	 * @param aggregator
+	 *            the aggregator instance
+	 * @throws IOException
+	 */
+	protected void writeCache(IAggregator aggregator) throws IOException {
+		File cacheDir = new File(aggregator.getWorkingDirectory(), DEPCACHE_DIRNAME);
+		File cacheFile = new File(cacheDir, CACHE_FILE);
+		/*
+		 * Make sure the cache directory exists before we try to serialize the
+		 * dependency map.
+		 */
+		if (!cacheDir.exists())
+			if (!cacheDir.mkdirs()) {
+				throw new IOException(MessageFormat.format(
+						Messages.DepTree_0,
+						new Object[]{cacheDir.getAbsolutePath()}
+						));
+			}
+
+		if (log.isLoggable(Level.FINER)) {
+			log.finer("Writing cached dependencies to " + cacheFile.toString()); //$NON-NLS-1$
+		}
+		DepTreeSerializer.write(this, cacheFile);
+	}
+
 	/**
 	 * @return true if the dependencies were loaded from cache
 	 */
@@ -408,6 +562,14 @@ public class DepTree implements Serializable {
 		return fromCache;
 	}
 
+	/**
+	 * @return a summary of the statistics for the scan that loaded or validated
+	 *         the dependencies, or null if this object wasn't created by a scan
+	 */
+	public String getScanStatistics() {
+		return scanStatistics;
+	}
+
 	/**
 	 * Returns a new tree with an unnamed {@link DepTreeNode} object at the root
 	 * of the tree. Each of the keys specified in the map are children of the
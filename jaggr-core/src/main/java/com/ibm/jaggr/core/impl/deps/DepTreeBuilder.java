@@ -19,34 +19,43 @@ package com.ibm.jaggr.core.impl.deps;
 import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.resource.IResource;
 import com.ibm.jaggr.core.resource.IResourceVisitor;
+import com.ibm.jaggr.core.util.CompilerUtil;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * This class implements the {@link Callable} interface to build/validate a
- * dependecy tree rooted at the specified path. The provided
- * {@link CompletionService} is used to launch the parser threads that parse the
- * javascript files and extract the module dependencies from the module's
- * define() function. Separate threads are used for the parser in order to try
- * and achieve a measure of parallel processing so that the builder is not so
- * I/O bound.
+ * This class implements the {@link Callable} interface to build/validate the
+ * dependency tree for a folder. The files in the folder are visited by this
+ * task, and the javascript files that need to be parsed are submitted to the
+ * {@link Scan} as {@link DepParser} tasks. Sub-folders are not walked by this
+ * task. Instead, a new builder is submitted to the scan for each sub-folder, so
+ * that large folder trees are walked and parsed in parallel.
+ * <p>
+ * Each builder only adds nodes to the node for its own folder, so the nodes
+ * of a tree can be created by several builders at the same time without
+ * locking.
  */
-final class DepTreeBuilder implements Callable<DepTreeBuilder.Result> {
+final class DepTreeBuilder implements Callable<URI> {
 
 	static final Logger log = Logger.getLogger(DepTreeBuilder.class.getName());
 
-	private final IAggregator aggregator;
 	/**
-	 * The {@link CompletionService} used to lauch parser threads
+	 * The scan that this builder belongs to
 	 */
-	private final CompletionService<URI> parserCs;
+	private final Scan scan;
 
 	/**
 	 * URI to the folder resource containing the javascript modules
@@ -55,64 +64,75 @@ final class DepTreeBuilder implements Callable<DepTreeBuilder.Result> {
 	private final URI uri;
 
 	/**
-	 * The root node corresponding to {@link #uri}.  Any existing child
+	 * The node corresponding to {@link #uri}.  Any existing child
 	 * nodes will be validated based on the last modified time stamps.
 	 */
 	private final DepTreeNode root;
 
 	private final DepTreeNode cached;
 
-	private final Set<String> nonJSExtensions;
-
 	/**
-	 * Counter to keep track of the number of parser threads started
+	 * True if {@link #uri} is one of the scanned paths rather than a
+	 * sub-folder of a scanned path
 	 */
-	private final AtomicInteger parserCount = new AtomicInteger(0);
+	private final boolean isPath;
 
 	/**
-	 * Result type returned by the {@link #call()} method.
+	 * Counter to keep track of the number of files queued for parsing by
+	 * this builder and the builders of its sub-folders
 	 */
-	public static class Result {
-		public final String dirName;
-		public final int parseCount;
-
-		Result(String dirName, int parseCount) {
-			this.dirName = dirName;
-			this.parseCount = parseCount;
-		}
-	}
+	private final AtomicInteger parseCount;
 
 	/**
-	 * Object constructor
+	 * Object constructor for the builder of a scanned path
 	 *
-	 * @param aggregator
-	 *            The aggregator instance
-	 * @param parserCs
-	 *            The {@link CompletionService} to use to start parser threads
+	 * @param scan
+	 *            The scan to submit sub-folder builders and parsers to
 	 * @param path
 	 *            The root path containing the javascrpt modules to be parsed
 	 * @param node
 	 *            The {@link DepTreeNode} corresponding to {@code path}.
 	 * @param cached
 	 *            The cached dependency tree. Used when validating dependencies
-	 * @param nonJSExtensions
-	 *            Set of non-JavaScript file extensions to include in the dependencies name list.
 	 */
-	DepTreeBuilder(IAggregator aggregator, CompletionService<URI> parserCs,
-			URI path, DepTreeNode node, DepTreeNode cached, Set<String> nonJSExtensions) {
-		this.aggregator = aggregator;
-		this.parserCs = parserCs;
-		this.uri = path;
+	DepTreeBuilder(Scan scan, URI path, DepTreeNode node, DepTreeNode cached) {
+		this(scan, path, node, cached, true, new AtomicInteger(0));
+	}
+
+	private DepTreeBuilder(Scan scan, URI uri, DepTreeNode node, DepTreeNode cached,
+			boolean isPath, AtomicInteger parseCount) {
+		this.scan = scan;
+		this.uri = uri;
 		this.root = node;
 		this.cached = cached;
-		this.nonJSExtensions = nonJSExtensions;
+		this.isPath = isPath;
+		this.parseCount = parseCount;
+	}
+
+	/**
+	 * @return the number of files in the path that were queued for parsing.
+	 *         Only valid after the scan has completed.
+	 */
+	int getParseCount() {
+		return parseCount.get();
 	}
 
 	/* (non-Javadoc)
 	 * @see java.util.concurrent.Callable#call()
 	 */
-	public Result call() throws Exception {
+	public URI call() throws Exception {
+		try {
+			build();
+		} catch (Exception e) {
+			if (log.isLoggable(Level.SEVERE))
+				log.log(Level.SEVERE, e.getMessage(), e);
+			scan.exceptions.add(e);
+		}
+		return uri;
+	}
 
+	private void build() throws IOException {
+		final IAggregator aggregator = scan.aggregator;
 		IResourceVisitor visitor = new IResourceVisitor() {
 			/* (non-Javadoc)
 			 * @see com.ibm.jaggr.service.modules.ResourceVisitor#visitResource(com.ibm.jaggr.service.modules.Resource)
@@ -127,17 +147,18 @@ final class DepTreeBuilder implements Callable<DepTreeBuilder.Result> {
 
 				if (resource.isFolder()) {
 					if (!resname.startsWith(".")) { //$NON-NLS-1$
-						root.createOrGet(pathname, resource.getURI());
-						return true;
-					} else {
-						return false;
+						// Hand the folder off to a new builder
+						DepTreeNode node = root.createOrGet(pathname, resource.getURI());
+						DepTreeNode cachedNode = cached != null ? cached.getDescendent(pathname) : null;
+						scan.submit(new DepTreeBuilder(scan, resource.getURI(), node, cachedNode, false, parseCount));
 					}
+					return false;
 				}
 				if (!resource.getPath().endsWith(".js")) { //$NON-NLS-1$
 					// non-JavaScript resource
 					idx = resname.lastIndexOf("."); //$NON-NLS-1$
 					String extension = idx == -1 ? "" : resname.substring(idx+1); //$NON-NLS-1$
-					if (nonJSExtensions.contains(extension)) {
+					if (scan.nonJSExtensions.contains(extension)) {
 						DepTreeNode node = root.createOrGet(pathname, resource.getURI());
 						node.setDependencies(null, null,  null,  resource.lastModified(), resource.lastModified());
 					}
@@ -166,24 +187,25 @@ final class DepTreeBuilder implements Callable<DepTreeBuilder.Result> {
 				 */
 				if (node.lastModified() != resource.lastModified()) {
 					// File has changed, or is new. Submit an async parser job.
-					parserCs.submit(new DepParser(node, resource));
-					parserCount.incrementAndGet();
+					parseCount.incrementAndGet();
+					scan.submit(new DepParser(aggregator, node, resource, scan.extractorFallbackCount, scan.parseStats));
 				}
 				return true;
 			}
 		};
 
 		/*
-		 * Process the path. The treeWalker method will queue files
-		 * to the parser completion service to parse javascript
-		 * files in order to read the require list from the AMD
-		 * define() function, and increments parserCount for each
-		 * file queued.
+		 * Process the folder. The visitor will queue files to the scan to
+		 * parse javascript files in order to read the require list from the
+		 * AMD define() function, and queues a new builder for each sub-folder.
 		 */
 		IResource resource = aggregator.newResource(uri);
 		if (resource.exists()) {
 			resource.walkTree(visitor);
 		}
+		if (!isPath) {
+			return;
+		}
 		/*
 		 * Call treeWalker again, this time to add the javascript
 		 * module with the same pathname, if it exists.
@@ -205,22 +227,99 @@ final class DepTreeBuilder implements Callable<DepTreeBuilder.Result> {
 				visitor.visitResource(resource.asVisitorResource(), ""); //$NON-NLS-1$
 			}
 		}
-		// Record the count of files queue
-		int totalCount = parserCount.get();
+	}
+
+	/**
+	 * The builders and parsers for a dependency scan. Tasks are run by the
+	 * provided executor, and {@link #await()} waits for all of the tasks,
+	 * including the tasks submitted by running tasks, to complete. Tasks
+	 * never wait for other tasks, so the scan can share an executor that is
+	 * also used for other work without risk of deadlock.
+	 */
+	static class Scan {
+		final IAggregator aggregator;
+
+		final Set<String> nonJSExtensions;
+
+		/**
+		 * Exceptions thrown by the builders
+		 */
+		final List<Exception> exceptions = Collections.synchronizedList(new LinkedList<Exception>());
+
+		/**
+		 * The number of files that were parsed because the dependencies
+		 * couldn't be extracted by {@link DepExtractor}
+		 */
+		final AtomicInteger extractorFallbackCount = new AtomicInteger(0);
+
+		/**
+		 * The reuse of pooled parsers by the parsers of this scan
+		 */
+		final CompilerUtil.ParseStats parseStats = new CompilerUtil.ParseStats();
+
+		private final CompletionService<URI> cs;
+
+		/**
+		 * The number of submitted tasks that have not been taken from
+		 * {@link #cs}
+		 */
+		private final AtomicInteger pending = new AtomicInteger(0);
+
+		/**
+		 * @param aggregator
+		 *            The aggregator instance
+		 * @param executor
+		 *            The executor used to run the builders and parsers
+		 * @param nonJSExtensions
+		 *            Set of non-JavaScript file extensions to include in the dependencies name list.
+		 */
+		Scan(IAggregator aggregator, ExecutorService executor, Set<String> nonJSExtensions) {
+			this.aggregator = aggregator;
+			this.nonJSExtensions = nonJSExtensions;
+			this.cs = new ExecutorCompletionService<URI>(executor);
+		}
 
-		// Pull the completed parser tasks from the completion queue
-		// until all files have been parsed
-		while (parserCount.decrementAndGet() >= 0) {
+		/**
+		 * Submits a builder or parser task. If the executor rejects the task,
+		 * then the task is run on the calling thread.
+		 *
+		 * @param task
+		 *            the task
+		 */
+		void submit(Callable<URI> task) {
+			// Count the task before it can complete so that await() doesn't
+			// return early
+			pending.incrementAndGet();
 			try {
-				parserCs.take().get();
-			} catch (Exception e) {
-				e.printStackTrace();
-				if (log.isLoggable(Level.SEVERE))
-					log.log(Level.SEVERE, e.getMessage(), e);
+				cs.submit(task);
+			} catch (RejectedExecutionException e) {
+				pending.decrementAndGet();
+				try {
+					task.call();
+				} catch (Exception ex) {
+					if (log.isLoggable(Level.SEVERE))
+						log.log(Level.SEVERE, ex.getMessage(), ex);
+				}
 			}
 		}
 
-		// Return the buildReader
-		return new Result(uri.toString(), totalCount);
+		/**
+		 * Waits for all of the submitted tasks to complete.  Exceptions thrown
+		 * by parsers are logged.
+		 *
+		 * @throws InterruptedException
+		 */
+		void await() throws InterruptedException {
+			while (pending.decrementAndGet() >= 0) {
+				try {
+					cs.take().get();
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					if (log.isLoggable(Level.SEVERE))
+						log.log(Level.SEVERE, e.getMessage(), e);
+				}
+			}
+		}
 	}
-}
+}
@@ -128,6 +128,13 @@ public class DepTreeNode implements Cloneable, Serializable {
 		this.uri = uri;
 	}
 
+	/**
+	 * @return The source URI, or null
+	 */
+	public URI getURI() {
+		return uri;
+	}
+
 	/**
 	 * @return The name for the module without path information
 	 */
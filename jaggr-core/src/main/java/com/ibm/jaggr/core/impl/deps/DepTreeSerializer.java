@@ -0,0 +1,357 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.deps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads and writes the dependency cache file for {@link DepTree} using a compact,
+ * versioned binary format instead of Java serialization.
+ * <p>
+ * The file starts with a header (magic number and format version) followed by the
+ * cache stamp, cache bust and raw config, and a string table containing each
+ * distinct node name, dependency name and URI exactly once.  The trees follow, with
+ * every string stored as a varint index into the string table and every count as a
+ * varint.  Nodes are written depth first:
+ *
+ * <pre>
+ * node := name uri flags lastModified lastModifiedDep [define] [require] [features] childCount node*
+ * </pre>
+ *
+ * where {@code uri} is the string index plus one (zero for no URI), {@code flags}
+ * specifies which of the dependency arrays are present, and each array is a count
+ * followed by the string indices of the elements.
+ * <p>
+ * The whole file is read with a single channel read and decoded from the buffer.
+ * Files with a different magic number or version are rejected, so the dependencies
+ * are rebuilt when the format changes.
+ */
+final class DepTreeSerializer {
+
+	static final int MAGIC = 0x4A414444;	// "JADD"
+
+	static final int VERSION = 1;
+
+	private static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+
+	private static final int HAS_DEFINE = 1;
+	private static final int HAS_REQUIRE = 2;
+	private static final int HAS_FEATURES = 4;
+
+	private DepTreeSerializer() {}
+
+	/**
+	 * Writes the dependency tree to the specified file
+	 *
+	 * @param deps
+	 *            the dependency tree
+	 * @param file
+	 *            the cache file
+	 * @throws IOException
+	 */
+	static void write(DepTree deps, File file) throws IOException {
+		OutputStream os = new FileOutputStream(file);
+		try {
+			os.write(serialize(deps));
+		} finally {
+			try { os.close(); } catch (Exception ignore) {}
+		}
+	}
+
+	/**
+	 * Reads a dependency tree from the specified file
+	 *
+	 * @param deps
+	 *            the dependency tree to initialize
+	 * @param file
+	 *            the cache file
+	 * @throws IOException
+	 *             if the file can't be read or is not a valid cache file
+	 */
+	static void read(DepTree deps, File file) throws IOException {
+		FileInputStream is = new FileInputStream(file);
+		try {
+			FileChannel channel = is.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new StreamCorruptedException(file.getAbsolutePath());
+			}
+			ByteBuffer buf = ByteBuffer.allocate((int)size);
+			while (buf.hasRemaining()) {
+				if (channel.read(buf) < 0) {
+					throw new StreamCorruptedException(file.getAbsolutePath());
+				}
+			}
+			buf.flip();
+			deserialize(deps, buf);
+		} finally {
+			try { is.close(); } catch (Exception ignore) {}
+		}
+	}
+
+	/**
+	 * @param deps
+	 *            the dependency tree
+	 * @return the serialized dependency tree
+	 * @throws IOException
+	 */
+	static byte[] serialize(DepTree deps) throws IOException {
+		// Build the string table
+		Map<String, Integer> strings = new HashMap<String, Integer>();
+		List<String> table = new ArrayList<String>();
+		for (Map.Entry<URI, DepTreeNode> entry : deps.depMap.entrySet()) {
+			intern(entry.getKey().toString(), strings, table);
+			collectStrings(entry.getValue(), strings, table);
+		}
+
+		Writer out = new Writer();
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(deps.stamp);
+		out.writeNullableString(deps.cacheBust);
+		out.writeNullableString(deps.rawConfig);
+		out.writeVarint(table.size());
+		for (String str : table) {
+			out.writeString(str);
+		}
+		out.writeVarint(deps.depMap.size());
+		for (Map.Entry<URI, DepTreeNode> entry : deps.depMap.entrySet()) {
+			out.writeVarint(strings.get(entry.getKey().toString()));
+			writeNode(entry.getValue(), strings, out);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Initializes the dependency tree from the serialized data in the buffer
+	 *
+	 * @param deps
+	 *            the dependency tree to initialize
+	 * @param buf
+	 *            the serialized data
+	 * @throws IOException
+	 *             if the data is not valid
+	 */
+	static void deserialize(DepTree deps, ByteBuffer buf) throws IOException {
+		try {
+			if (buf.getInt() != MAGIC) {
+				throw new StreamCorruptedException("Not a dependency cache file"); //$NON-NLS-1$
+			}
+			int version = buf.getInt();
+			if (version != VERSION) {
+				throw new StreamCorruptedException("Unsupported dependency cache version: " + version); //$NON-NLS-1$
+			}
+			deps.stamp = buf.getLong();
+			deps.cacheBust = readNullableString(buf);
+			deps.rawConfig = readNullableString(buf);
+			String[] table = new String[readVarint(buf)];
+			for (int i = 0; i < table.length; i++) {
+				table[i] = readString(buf);
+			}
+			// URIs are parsed once each, when first used
+			URI[] uris = new URI[table.length];
+			int count = readVarint(buf);
+			ConcurrentHashMap<URI, DepTreeNode> depMap = new ConcurrentHashMap<URI, DepTreeNode>(count * 4 / 3 + 1);
+			for (int i = 0; i < count; i++) {
+				URI key = getURI(readVarint(buf), table, uris);
+				depMap.put(key, readNode(buf, table, uris));
+			}
+			deps.depMap = depMap;
+		} catch (BufferUnderflowException e) {
+			throw new StreamCorruptedException("Truncated dependency cache file"); //$NON-NLS-1$
+		} catch (IndexOutOfBoundsException e) {
+			throw new StreamCorruptedException("Invalid string index in dependency cache file"); //$NON-NLS-1$
+		} catch (URISyntaxException e) {
+			throw new StreamCorruptedException(e.getMessage());
+		}
+	}
+
+	private static void collectStrings(DepTreeNode node, Map<String, Integer> strings, List<String> table) {
+		intern(node.getName(), strings, table);
+		if (node.getURI() != null) {
+			intern(node.getURI().toString(), strings, table);
+		}
+		collectStrings(node.getDefineDepArray(), strings, table);
+		collectStrings(node.getRequireDepArray(), strings, table);
+		collectStrings(node.getDependentFeatures(), strings, table);
+		for (DepTreeNode child : node.getChildren().values()) {
+			collectStrings(child, strings, table);
+		}
+	}
+
+	private static void collectStrings(String[] array, Map<String, Integer> strings, List<String> table) {
+		if (array != null) {
+			for (String str : array) {
+				intern(str, strings, table);
+			}
+		}
+	}
+
+	private static void intern(String str, Map<String, Integer> strings, List<String> table) {
+		if (!strings.containsKey(str)) {
+			strings.put(str, table.size());
+			table.add(str);
+		}
+	}
+
+	private static void writeNode(DepTreeNode node, Map<String, Integer> strings, Writer out) throws IOException {
+		out.writeVarint(strings.get(node.getName()));
+		out.writeVarint(node.getURI() != null ? strings.get(node.getURI().toString()) + 1 : 0);
+		int flags = (node.getDefineDepArray() != null ? HAS_DEFINE : 0) |
+				(node.getRequireDepArray() != null ? HAS_REQUIRE : 0) |
+				(node.getDependentFeatures() != null ? HAS_FEATURES : 0);
+		out.write(flags);
+		out.writeLong(node.lastModified());
+		out.writeLong(node.lastModifiedDep());
+		writeArray(node.getDefineDepArray(), strings, out);
+		writeArray(node.getRequireDepArray(), strings, out);
+		writeArray(node.getDependentFeatures(), strings, out);
+		Map<String, DepTreeNode> children = node.getChildren();
+		out.writeVarint(children.size());
+		for (DepTreeNode child : children.values()) {
+			writeNode(child, strings, out);
+		}
+	}
+
+	private static void writeArray(String[] array, Map<String, Integer> strings, Writer out) {
+		if (array != null) {
+			out.writeVarint(array.length);
+			for (String str : array) {
+				out.writeVarint(strings.get(str));
+			}
+		}
+	}
+
+	private static DepTreeNode readNode(ByteBuffer buf, String[] table, URI[] uris) throws URISyntaxException {
+		String name = table[readVarint(buf)];
+		int uriIndex = readVarint(buf);
+		DepTreeNode node = new DepTreeNode(name, uriIndex != 0 ? getURI(uriIndex - 1, table, uris) : null);
+		int flags = buf.get();
+		long lastModified = buf.getLong();
+		long lastModifiedDep = buf.getLong();
+		String[] define = (flags & HAS_DEFINE) != 0 ? readArray(buf, table) : null;
+		String[] require = (flags & HAS_REQUIRE) != 0 ? readArray(buf, table) : null;
+		String[] features = (flags & HAS_FEATURES) != 0 ? readArray(buf, table) : null;
+		node.setDependencies(define, require, features, lastModified, lastModifiedDep);
+		int childCount = readVarint(buf);
+		for (int i = 0; i < childCount; i++) {
+			node.add(readNode(buf, table, uris));
+		}
+		return node;
+	}
+
+	private static String[] readArray(ByteBuffer buf, String[] table) {
+		String[] result = new String[readVarint(buf)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = table[readVarint(buf)];
+		}
+		return result;
+	}
+
+	private static URI getURI(int index, String[] table, URI[] uris) throws URISyntaxException {
+		URI uri = uris[index];
+		if (uri == null) {
+			uri = uris[index] = new URI(table[index]);
+		}
+		return uri;
+	}
+
+	static int readVarint(ByteBuffer buf) {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = buf.get();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint"); //$NON-NLS-1$
+	}
+
+	private static String readString(ByteBuffer buf) throws UnsupportedEncodingException {
+		int length = readVarint(buf);
+		if (length < 0 || length > buf.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		String result = new String(buf.array(), buf.arrayOffset() + buf.position(), length, ENCODING);
+		buf.position(buf.position() + length);
+		return result;
+	}
+
+	private static String readNullableString(ByteBuffer buf) throws UnsupportedEncodingException {
+		return buf.get() != 0 ? readString(buf) : null;
+	}
+
+	/**
+	 * Output buffer with methods for writing the primitive types used by the format
+	 */
+	static class Writer extends ByteArrayOutputStream {
+		Writer() {
+			super(8192);
+		}
+
+		void writeVarint(int value) {
+			while ((value & ~0x7F) != 0) {
+				write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			write(value);
+		}
+
+		void writeInt(int value) {
+			write(value >>> 24);
+			write(value >>> 16);
+			write(value >>> 8);
+			write(value);
+		}
+
+		void writeLong(long value) {
+			writeInt((int)(value >>> 32));
+			writeInt((int)value);
+		}
+
+		void writeString(String str) throws UnsupportedEncodingException {
+			byte[] bytes = str.getBytes(ENCODING);
+			writeVarint(bytes.length);
+			write(bytes, 0, bytes.length);
+		}
+
+		void writeNullableString(String str) throws UnsupportedEncodingException {
+			write(str != null ? 1 : 0);
+			if (str != null) {
+				writeString(str);
+			}
+		}
+	}
+}
@@ -57,7 +57,7 @@ public class DepUtils {
 			return requireDeps == null ? null : Collections.unmodifiableCollection(requireDeps);
 		}
 
-		private void addAll(Collection<String> defineDeps, Collection<String> requireDeps) {
+		void addAll(Collection<String> defineDeps, Collection<String> requireDeps) {
 			if (this.defineDeps == null) {
 				this.defineDeps = defineDeps;
 			} else if (defineDeps != null) {
@@ -207,23 +207,7 @@ public class DepUtils {
 					Node strNode = dependencies.getFirstChild();
 					while (strNode != null) {
 						if (strNode.getType() == Token.STRING) {
-							String mid = strNode.getString();
-							URI uri = URI.create(mid);
-							// Don't add module ids with invalid characters or that specify an absolute or server relative resource
-							if (!PathUtil.invalidChars.matcher(mid).find() && !uri.isAbsolute() && !uri.getPath().startsWith("/")) { //$NON-NLS-1$
-								resultArray[i].add(mid);
-								// if the id specifies a has loader plugin, then add the
-								// has dependencies to the dependencies list
-								if (hasPattern.matcher(mid).find()) {
-									int idx = mid.indexOf("!"); //$NON-NLS-1$
-									HasNode hasNode = new HasNode(mid.substring(idx+1));
-									hasNode.evaluateAll(
-											mid.substring(0, idx),
-											Features.emptyFeatures,
-											dependentFeatures,
-											BooleanTerm.TRUE, null);
-								}
-							}
+							addDependency(strNode.getString(), resultArray[i], dependentFeatures);
 						}
 						strNode = strNode.getNext();
 					}
@@ -237,4 +221,37 @@ public class DepUtils {
 		}
 		return result;
 	}
+
+	/**
+	 * Adds the specified module id from a define() or require() dependency
+	 * array to the dependency list, unless the id contains invalid characters
+	 * or specifies an absolute or server relative resource.  If the id
+	 * specifies the has loader plugin, then the features named in the plugin
+	 * expression are added to {@code dependentFeatures}.
+	 *
+	 * @param mid
+	 *            the module id
+	 * @param deps
+	 *            the dependency list to add the id to
+	 * @param dependentFeatures
+	 *            Output - the features specified using the has! loader plugin
+	 */
+	static void addDependency(String mid, Collection<String> deps, Set<String> dependentFeatures) {
+		URI uri = URI.create(mid);
+		// Don't add module ids with invalid characters or that specify an absolute or server relative resource
+		if (!PathUtil.invalidChars.matcher(mid).find() && !uri.isAbsolute() && !uri.getPath().startsWith("/")) { //$NON-NLS-1$
+			deps.add(mid);
+			// if the id specifies a has loader plugin, then add the
+			// has dependencies to the dependencies list
+			if (hasPattern.matcher(mid).find()) {
+				int idx = mid.indexOf("!"); //$NON-NLS-1$
+				HasNode hasNode = new HasNode(mid.substring(idx+1));
+				hasNode.evaluateAll(
+						mid.substring(0, idx),
+						Features.emptyFeatures,
+						dependentFeatures,
+						BooleanTerm.TRUE, null);
+			}
+		}
+	}
 }
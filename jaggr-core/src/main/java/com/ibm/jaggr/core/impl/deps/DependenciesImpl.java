@@ -26,48 +26,122 @@ import com.ibm.jaggr.core.config.IConfig.Location;
 import com.ibm.jaggr.core.config.IConfigListener;
 import com.ibm.jaggr.core.deps.IDependencies;
 import com.ibm.jaggr.core.deps.IDependenciesListener;
+import com.ibm.jaggr.core.deps.ModuleDepGraph;
+import com.ibm.jaggr.core.executors.IStatisticsProvider;
+import com.ibm.jaggr.core.impl.resource.FileResourceFactory;
 import com.ibm.jaggr.core.options.IOptions;
 import com.ibm.jaggr.core.options.IOptionsListener;
+import com.ibm.jaggr.core.resource.IResourceFactory;
+import com.ibm.jaggr.core.resource.IResourceWatcher;
 import com.ibm.jaggr.core.util.ConsoleService;
 import com.ibm.jaggr.core.util.SequenceNumberProvider;
 
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.mutable.MutableObject;
+
 import java.net.URI;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class DependenciesImpl implements IDependencies, IConfigListener, IOptionsListener, IShutdownListener {
+public class DependenciesImpl implements IDependencies, IConfigListener, IOptionsListener, IShutdownListener, IResourceWatcher.IListener, IStatisticsProvider {
 
 	private static final Logger log = Logger.getLogger(DependenciesImpl.class.getName());
 
+	/**
+	 * Number of milliseconds without new file changes to wait before updating the
+	 * dependencies, so that saving a group of files results in a single update
+	 */
+	static final long WATCH_QUIET_PERIOD = 500;
+
+	/**
+	 * Immutable snapshot of the dependencies.  A new snapshot is built each time the
+	 * dependencies are loaded or validated, while requests continue to read the
+	 * previous snapshot, and is then published with a single reference swap.
+	 */
+	private static class Snapshot {
+		final Map<String, DepTreeNode.DependencyInfo> depMap;
+		final ModuleDepGraph depGraph;
+		final long lastModified;
+		final long sequence;
+		Snapshot(Map<String, DepTreeNode.DependencyInfo> depMap, ModuleDepGraph depGraph, long lastModified) {
+			this.depMap = Collections.unmodifiableMap(depMap);
+			this.depGraph = depGraph;
+			this.lastModified = lastModified;
+			this.sequence = SequenceNumberProvider.incrementAndGetSequenceNumber();
+		}
+	}
+
+	/**
+	 * The scanned dependencies and the locations that they were mapped from.  The
+	 * {@link DepTree} is updated in place when changed files are reported by the
+	 * resource watcher, and may be accessed only by the thread that is processing
+	 * dependencies.
+	 */
+	private static class Scan {
+		final IConfig config;
+		final Map<String, URI> baseURIs = new LinkedHashMap<String, URI>();
+		final Map<String, URI> baseOverrideURIs = new LinkedHashMap<String, URI>();
+		final Map<String, URI> packageURIs = new LinkedHashMap<String, URI>();
+		final Map<String, URI> pathURIs = new LinkedHashMap<String, URI>();
+		final Map<String, URI> packageOverrideURIs = new LinkedHashMap<String, URI>();
+		final Map<String, URI> pathOverrideURIs = new LinkedHashMap<String, URI>();
+		DepTree deps;
+		Scan(IConfig config) {
+			this.config = config;
+		}
+		Collection<URI> getPaths() {
+			Collection<URI> paths = new LinkedList<URI>();
+			paths.addAll(baseURIs.values());
+			paths.addAll(baseOverrideURIs.values());
+			paths.addAll(packageURIs.values());
+			paths.addAll(packageOverrideURIs.values());
+			paths.addAll(pathURIs.values());
+			paths.addAll(pathOverrideURIs.values());
+			return paths;
+		}
+	}
+
 	private List<IServiceRegistration> serviceRegistrations = new ArrayList<IServiceRegistration>();
 	private String servletName;
-	private long depsLastModified = -1;
 	private long initStamp;
 	private String rawConfig = null;
 	private CountDownLatch initialized;
-	private boolean processingDeps = false;
+	private volatile boolean processingDeps = false;
 	private boolean validate = false;
 	private String cacheBust = null;
-	private boolean initFailed = false;
-	private Map<String, DepTreeNode.DependencyInfo> depMap;
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>();
+	private volatile Scan scan = null;
+	private volatile boolean updatingDeps = false;
+	private IResourceWatcher watcher = null;		// guarded by this
+	/*
+	 * File changes reported by the resource watcher, and reload requests made while
+	 * the dependencies were being updated, that have yet to be processed.
+	 */
+	private final Set<URI> pendingChanges = new LinkedHashSet<URI>();	// guarded by this
+	private boolean pendingReload = false;			// guarded by this
+	private boolean pendingValidate = false;		// guarded by this
+	private boolean pendingClean = false;			// guarded by this
+	private long pendingSequence = 0;				// guarded by this
 
 	private IAggregator aggregator = null;
-	private ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
 
 	public DependenciesImpl(IAggregator aggregator, long stamp) {
 		Hashtable<String, String> dict;
@@ -88,6 +162,10 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 		dict.put("name", aggregator.getName()); //$NON-NLS-1$
 		serviceRegistrations.add(aggregator.getPlatformServices().registerService(IOptionsListener.class.getName(), this, dict));
 
+		dict = new Hashtable<String, String>();
+		dict.put("name", aggregator.getName()); //$NON-NLS-1$
+		serviceRegistrations.add(aggregator.getPlatformServices().registerService(IStatisticsProvider.class.getName(), this, dict));
+
 		if (aggregator.getConfig() != null) {
 			configLoaded(aggregator.getConfig(), 1);
 		}
@@ -98,6 +176,7 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 	}
 	@Override
 	public void shutdown(IAggregator aggregator) {
+		stopWatching();
 		this.aggregator = null;
 		for (IServiceRegistration reg : serviceRegistrations) {
 			reg.unregister();
@@ -146,6 +225,10 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 			// Cache bust property has been updated subsequent to server startup
 			processDeps(false, false, sequence);
 		}
+		Scan current = scan;
+		if (current != null && isWatchDeps() != (watcher != null)) {
+			startWatching(current);
+		}
 	}
 
 
@@ -154,62 +237,82 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 	 */
 	@Override
 	public long getLastModified() {
-		return depsLastModified;
+		Snapshot current = snapshot.get();
+		return current != null ? current.lastModified : -1;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.deps.IDependencies#getSnapshotSequence()
+	 */
+	@Override
+	public long getSnapshotSequence() {
+		Snapshot current = snapshot.get();
+		return current != null ? current.sequence : 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.deps.IDependencies#isProcessingDependencies()
+	 */
+	@Override
+	public boolean isProcessingDependencies() {
+		return processingDeps || updatingDeps;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.executors.IStatisticsProvider#getStatistics()
+	 */
+	@Override
+	public String getStatistics() {
+		Scan current = scan;
+		return current != null ? current.deps.getScanStatistics() : null;
 	}
 
 	protected synchronized void processDeps(final boolean validate, final boolean clean, final long sequence) {
 		if (aggregator.getConfig() == null || processingDeps) {
 			return;
 		}
+		if (updatingDeps) {
+			// Reload when the thread that is updating the dependencies is done
+			pendingReload = true;
+			pendingValidate |= validate;
+			pendingClean |= clean;
+			pendingSequence = Math.max(pendingSequence, sequence);
+			return;
+		}
 		final ExecutorService executor = Executors.newSingleThreadExecutor();
 		processingDeps = true;
-		final AtomicBoolean processDepsThreadStarted = new AtomicBoolean(false);
 		final ConsoleService cs = new ConsoleService();
 		try {
 			executor.execute(new Runnable() {
 				public void run() {
-					rwl.writeLock().lock();
-					processDepsThreadStarted.set(true);
 					// initialize the console service for the worker thread.
 					ConsoleService workerCs = new ConsoleService(cs);
 					try {
+						// Requests continue to use the current snapshot (if any) while
+						// the new one is being built.
 						processDepsAsyncWorker(validate, clean, sequence, workerCs);
 					} catch (Throwable t) {
-						initFailed = true;
 						if (log.isLoggable(Level.SEVERE)) {
 							log.log(Level.SEVERE, t.getMessage(), t);
 						}
 					} finally {
-						rwl.writeLock().unlock();
 						executor.shutdown();
 						processingDeps = false;
+						initialized.countDown();
 						workerCs.close();
+						// Apply any file changes that were reported while we were busy
+						processPendingChanges();
 					}
 				}
 			});
-			// Wait for the worker thread to obtain the read lock.  We do this so that
-			// this thread can safely determine when the worker thread has finished by
-			// calling getExpandedDependencies() and waiting for it to return (or
-			// not throw ProcessingDependenciesException when in development mode).
-			int maxWait = 50;	// Max wait = 5 seconds
-			while (processingDeps && !processDepsThreadStarted.get() && maxWait-- > 0) {
-				Thread.sleep(100);
-			}
 		} catch (RejectedExecutionException e) {
 			if (log.isLoggable(Level.SEVERE)) {
 				log.log(Level.SEVERE, e.getMessage(), e);
 			}
-			initFailed = true;
 			// thread never started, so do some cleanup that's normally done by the thread
 			processingDeps = false;
-			executor.shutdown();
-
-		} catch (InterruptedException e) {
-			if (log.isLoggable(Level.SEVERE)) {
-				log.log(Level.SEVERE, e.getMessage(), e);
-			}
-		} finally {
 			initialized.countDown();
+			executor.shutdown();
 		}
 	}
 
@@ -217,45 +320,34 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 			final long sequence, final ConsoleService cs) throws Exception {
 
 		// Map of path names to URIs for locations to be scanned for js files
-		final Map<String, URI> baseURIs = new LinkedHashMap<String, URI>();
-		final Map<String, URI> baseOverrideURIs = new LinkedHashMap<String, URI>();
-		final Map<String, URI> packageURIs = new LinkedHashMap<String, URI>();
-		final Map<String, URI> pathURIs = new LinkedHashMap<String, URI>();
-		final Map<String, URI> packageOverrideURIs = new LinkedHashMap<String, URI>();
-		final Map<String, URI> pathOverrideURIs = new LinkedHashMap<String, URI>();
+		IConfig config = getAggregator().getConfig();
+		final Scan newScan = new Scan(config);
 
 		// Add top level files and folders in the location specified by baseUrl
 		// unless disabled by servlet init-param
-		IConfig config = getAggregator().getConfig();
 		if (config.isDepsIncludeBaseUrl()) {
 			Location base = config.getBase();
 			if (base != null) {
-				baseURIs.put("",  base.getPrimary()); //$NON-NLS-1$
+				newScan.baseURIs.put("",  base.getPrimary()); //$NON-NLS-1$
 				if (base.getOverride() != null) {
-					baseOverrideURIs.put("", base.getOverride()); //$NON-NLS-1$
+					newScan.baseOverrideURIs.put("", base.getOverride()); //$NON-NLS-1$
 				}
 			}
 		}
 		for (Map.Entry<String, Location> entry  : config.getPackageLocations().entrySet()) {
-			packageURIs.put(entry.getKey(), entry.getValue().getPrimary());
+			newScan.packageURIs.put(entry.getKey(), entry.getValue().getPrimary());
 			if (entry.getValue().getOverride() != null) {
-				packageOverrideURIs.put(entry.getKey(), entry.getValue().getOverride());
+				newScan.packageOverrideURIs.put(entry.getKey(), entry.getValue().getOverride());
 			}
 		}
 		for (Map.Entry<String, Location> entry  : config.getPaths().entrySet()) {
-			pathURIs.put(entry.getKey(), entry.getValue().getPrimary());
+			newScan.pathURIs.put(entry.getKey(), entry.getValue().getPrimary());
 			if (entry.getValue().getOverride() != null) {
-				pathOverrideURIs.put(entry.getKey(), entry.getValue().getOverride());
+				newScan.pathOverrideURIs.put(entry.getKey(), entry.getValue().getOverride());
 			}
 		}
 
-		Collection<URI> paths = new LinkedList<URI>();
-		paths.addAll(baseURIs.values());
-		paths.addAll(baseOverrideURIs.values());
-		paths.addAll(packageURIs.values());
-		paths.addAll(packageOverrideURIs.values());
-		paths.addAll(pathURIs.values());
-		paths.addAll(pathOverrideURIs.values());
+		Collection<URI> paths = newScan.getPaths();
 
 		boolean cleanCache = clean;
 		while (true) {
@@ -267,18 +359,8 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 						initStamp,
 						cleanCache,
 						validate);
-
-				DepTreeRoot depTree = new DepTreeRoot(config);
-				deps.mapDependencies(depTree, baseURIs, true);
-				deps.mapDependencies(depTree, baseOverrideURIs, false);
-				deps.mapDependencies(depTree, packageURIs, true);
-				deps.mapDependencies(depTree, packageOverrideURIs, false);
-				deps.mapDependencies(depTree, pathURIs, true);
-				deps.mapDependencies(depTree, pathOverrideURIs, false);
-				depTree.normalizeDependencies();
-				DependenciesImpl.this.depMap = new HashMap<String, DepTreeNode.DependencyInfo>();
-				depTree.populateDepMap(depMap);
-				depsLastModified = depTree.lastModifiedDepTree();
+				newScan.deps = deps;
+				snapshot.set(buildSnapshot(newScan, -1));
 			} catch (Exception e) {
 				if (!cleanCache && (deps == null || deps.isFromCache())) {
 					if (log.isLoggable(Level.WARNING)) {
@@ -292,7 +374,45 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 			}
 			break;
 		}
+		scan = newScan;
+		startWatching(newScan);
+
 		// Notify listeners that dependencies have been updated
+		notifyListeners(sequence);
+	}
+
+	/**
+	 * Maps the scanned dependencies to module names and builds a new snapshot
+	 *
+	 * @param scan
+	 *            the scanned dependencies
+	 * @param minLastModified
+	 *            the minimum last-modified time for the new snapshot
+	 * @return the new snapshot
+	 */
+	private Snapshot buildSnapshot(Scan scan, long minLastModified) {
+		DepTree deps = scan.deps;
+		DepTreeRoot depTree = new DepTreeRoot(scan.config);
+		deps.mapDependencies(depTree, scan.baseURIs, true);
+		deps.mapDependencies(depTree, scan.baseOverrideURIs, false);
+		deps.mapDependencies(depTree, scan.packageURIs, true);
+		deps.mapDependencies(depTree, scan.packageOverrideURIs, false);
+		deps.mapDependencies(depTree, scan.pathURIs, true);
+		deps.mapDependencies(depTree, scan.pathOverrideURIs, false);
+		depTree.normalizeDependencies();
+		Map<String, DepTreeNode.DependencyInfo> depMap = new HashMap<String, DepTreeNode.DependencyInfo>();
+		depTree.populateDepMap(depMap);
+		return new Snapshot(depMap, buildDependencyGraph(depMap, scan.config),
+				Math.max(depTree.lastModifiedDepTree(), minLastModified));
+	}
+
+	/**
+	 * Notifies the dependencies listeners that the dependencies have been updated
+	 *
+	 * @param sequence
+	 *            the sequence number
+	 */
+	private void notifyListeners(long sequence) {
 		IServiceReference[] refs = null;
 
 		refs = aggregator.getPlatformServices().getServiceReferences(IDependenciesListener.class.getName(),"(name="+servletName+")"); //$NON-NLS-1$ //$NON-NLS-2$
@@ -315,6 +435,219 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.resource.IResourceWatcher.IListener#resourcesChanged(java.util.Collection)
+	 */
+	@Override
+	public void resourcesChanged(Collection<URI> uris) {
+		synchronized (this) {
+			if (uris != null) {
+				pendingChanges.addAll(uris);
+			} else {
+				// Change events were lost.  Validate all the dependencies.
+				pendingReload = true;
+				pendingValidate = true;
+				pendingSequence = Math.max(pendingSequence, SequenceNumberProvider.incrementAndGetSequenceNumber());
+			}
+		}
+		processPendingChanges();
+	}
+
+	/**
+	 * Applies the pending file changes reported by the resource watcher, and performs
+	 * any reload that was requested while the changes were being applied, unless the
+	 * dependencies are already being processed by another thread.  Returns when there
+	 * are no more pending changes.
+	 */
+	private void processPendingChanges() {
+		synchronized (this) {
+			if (processingDeps || updatingDeps || pendingChanges.isEmpty() && !pendingReload) {
+				// Nothing to do, or the thread that is processing the dependencies will
+				// call us when it's done.
+				return;
+			}
+			updatingDeps = true;
+		}
+		while (true) {
+			Collection<URI> changes;
+			synchronized (this) {
+				if (pendingReload && aggregator != null) {
+					boolean validate = pendingValidate, clean = pendingClean;
+					long sequence = pendingSequence;
+					pendingReload = pendingValidate = pendingClean = false;
+					updatingDeps = false;
+					// Changes that are still pending are applied when the reload is done
+					processDeps(validate, clean, sequence);
+					return;
+				}
+				if (pendingChanges.isEmpty() || aggregator == null) {
+					pendingChanges.clear();
+					updatingDeps = false;
+					return;
+				}
+				changes = new ArrayList<URI>(pendingChanges);
+				pendingChanges.clear();
+			}
+			try {
+				updateDeps(changes);
+			} catch (Throwable t) {
+				if (log.isLoggable(Level.SEVERE)) {
+					log.log(Level.SEVERE, t.getMessage(), t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Re-parses the specified files and updates the dependencies in place.  In
+	 * development mode, a new snapshot is published, and listeners are notified, only
+	 * if the dependency lists have changed.  Changes to the code of a module that
+	 * don't affect the module's dependencies are picked up by the module and layer
+	 * caches, which validate cached builds against the file last-modified times in
+	 * development mode.  Cached builds aren't validated outside of development mode,
+	 * so listeners are notified of any change in order for the caches to be cleared.
+	 *
+	 * @param uris
+	 *            the URIs of the changed files
+	 * @throws Exception
+	 */
+	protected void updateDeps(Collection<URI> uris) throws Exception {
+		final String sourceMethod = "updateDeps"; //$NON-NLS-1$
+		boolean isTraceLogging = log.isLoggable(Level.FINER);
+		if (isTraceLogging) {
+			log.entering(DependenciesImpl.class.getName(), sourceMethod, new Object[]{uris});
+		}
+		Scan current = scan;
+		// If the config has changed, then the dependencies are being reloaded.
+		if (current != null && current.config == getAggregator().getConfig()) {
+			boolean depsChanged = current.deps.update(uris, getAggregator());
+			IOptions options = getAggregator().getOptions();
+			if (depsChanged || options == null || !options.isDevelopmentMode()) {
+				Snapshot previous = snapshot.get();
+				// Make sure the last-modified time increases, even if the only changes
+				// are removed modules or module code, so that listeners will detect the
+				// change.
+				snapshot.set(buildSnapshot(current, previous != null ? previous.lastModified + 1 : -1));
+				if (depsChanged) {
+					String msg = MessageFormat.format(
+							Messages.DepTree_12,
+							new Object[]{uris.size(), servletName});
+					new ConsoleService().println(msg);
+					if (log.isLoggable(Level.INFO)) {
+						log.info(msg);
+					}
+				}
+				notifyListeners(SequenceNumberProvider.incrementAndGetSequenceNumber());
+			}
+		}
+		if (isTraceLogging) {
+			log.exiting(DependenciesImpl.class.getName(), sourceMethod);
+		}
+	}
+
+	/**
+	 * Returns true if the scanned locations should be watched for file changes.
+	 * The value of the {@link IOptions#WATCH_DEPS} option is used if specified.
+	 * Otherwise, locations are watched in development mode.
+	 *
+	 * @return true if the scanned locations should be watched
+	 */
+	protected boolean isWatchDeps() {
+		IOptions options = getAggregator() != null ? getAggregator().getOptions() : null;
+		if (options == null) {
+			return false;
+		}
+		String value = options.getOption(IOptions.WATCH_DEPS);
+		return value != null ? Boolean.parseBoolean(value) : options.isDevelopmentMode();
+	}
+
+	/**
+	 * Starts watching the file locations in the specified scan for changes,
+	 * replacing the current watcher, if any.  Does nothing if watching is not
+	 * enabled or not supported.
+	 *
+	 * @param scan
+	 *            the scanned dependencies
+	 */
+	private void startWatching(Scan scan) {
+		stopWatching();
+		if (!isWatchDeps()) {
+			return;
+		}
+		IResourceWatcher newWatcher = null;
+		for (URI path : DepUtils.removeRedundantPaths(scan.getPaths())) {
+			if (!"file".equals(path.getScheme())) { //$NON-NLS-1$
+				continue;
+			}
+			if (newWatcher == null) {
+				IResourceFactory factory = getAggregator().getResourceFactory(new MutableObject<URI>(path));
+				if (factory instanceof FileResourceFactory) {
+					newWatcher = ((FileResourceFactory)factory).newWatcher(this, WATCH_QUIET_PERIOD);
+				}
+				if (newWatcher == null) {
+					return;
+				}
+			}
+			newWatcher.watch(path);
+			// Watch the javascript module with the same path name as the folder
+			String name = path.getPath();
+			if (!name.endsWith(".js")) { //$NON-NLS-1$
+				name = StringUtils.removeEnd(name, "/"); //$NON-NLS-1$
+				name = name.substring(name.lastIndexOf("/") + 1) + ".js"; //$NON-NLS-1$ //$NON-NLS-2$
+				newWatcher.watch(path.resolve((path.getPath().endsWith("/") ? "../" : "./") + name)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+		}
+		IResourceWatcher oldWatcher;
+		synchronized (this) {
+			oldWatcher = watcher;
+			watcher = newWatcher;
+		}
+		if (oldWatcher != null) {
+			oldWatcher.close();
+		}
+	}
+
+	/**
+	 * Stops watching file locations for changes
+	 */
+	private void stopWatching() {
+		IResourceWatcher oldWatcher;
+		synchronized (this) {
+			oldWatcher = watcher;
+			watcher = null;
+		}
+		// Close outside of the lock since the watcher's thread may be waiting for it
+		if (oldWatcher != null) {
+			oldWatcher.close();
+		}
+	}
+
+	/**
+	 * Builds the int indexed dependency graph from the dependency map
+	 *
+	 * @param depMap
+	 *            the dependency map
+	 * @param config
+	 *            the config used to resolve dependency names
+	 * @return the dependency graph
+	 */
+	protected ModuleDepGraph buildDependencyGraph(Map<String, DepTreeNode.DependencyInfo> depMap, IConfig config) {
+		Map<String, List<String>> declaredDeps = new HashMap<String, List<String>>(depMap.size() * 4 / 3 + 1);
+		Map<String, List<String>> requireDeps = new HashMap<String, List<String>>();
+		for (Map.Entry<String, DepTreeNode.DependencyInfo> entry : depMap.entrySet()) {
+			DepTreeNode.DependencyInfo depInfo = entry.getValue();
+			declaredDeps.put(entry.getKey(), depInfo.getDeclaredDependencies());
+			List<String> require = depInfo.getRequireDependencies();
+			if (require != null && !require.isEmpty()) {
+				requireDeps.put(entry.getKey(), require);
+			}
+		}
+		IAggregator aggr = aggregator;
+		IOptions options = aggr != null ? aggr.getOptions() : null;
+		int capacity = options != null ? options.getDependencyClosureCacheCapacity() : IOptions.DEFAULT_DEPENDENCY_CLOSURE_CACHE_CAPACITY;
+		return new ModuleDepGraph(declaredDeps, requireDeps, config, capacity);
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.service.deps.IDependencies#getDelcaredDependencies(java.lang.String)
 	 */
@@ -322,14 +655,9 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 	public List<String> getDelcaredDependencies(String mid) throws ProcessingDependenciesException {
 		List<String> result = null;
 		try {
-			getReadLock();
-			try {
-				DepTreeNode.DependencyInfo depInfo = depMap.get(mid);
-				if (depInfo != null) {
-					result = depInfo.getDeclaredDependencies();
-				}
-			} finally {
-				releaseReadLock();
+			DepTreeNode.DependencyInfo depInfo = getSnapshot().depMap.get(mid);
+			if (depInfo != null) {
+				result = depInfo.getDeclaredDependencies();
 			}
 		} catch (InterruptedException e) {
 			if (log.isLoggable(Level.SEVERE)) {
@@ -346,14 +674,9 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 	public List<String> getRequireDependencies(String mid) throws ProcessingDependenciesException {
 		List<String> result = null;
 		try {
-			getReadLock();
-			try {
-				DepTreeNode.DependencyInfo depInfo = depMap.get(mid);
-				if (depInfo != null) {
-					result = depInfo.getRequireDependencies();
-				}
-			} finally {
-				releaseReadLock();
+			DepTreeNode.DependencyInfo depInfo = getSnapshot().depMap.get(mid);
+			if (depInfo != null) {
+				result = depInfo.getRequireDependencies();
 			}
 		} catch (InterruptedException e) {
 			if (log.isLoggable(Level.SEVERE)) {
@@ -369,14 +692,9 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 	public URI getURI(String mid) throws ProcessingDependenciesException {
 		URI result = null;
 		try {
-			getReadLock();
-			try {
-				DepTreeNode.DependencyInfo depInfo = depMap.get(mid);
-				if (depInfo != null) {
-					result = depInfo.getURI();
-				}
-			} finally {
-				releaseReadLock();
+			DepTreeNode.DependencyInfo depInfo = getSnapshot().depMap.get(mid);
+			if (depInfo != null) {
+				result = depInfo.getURI();
 			}
 		} catch (InterruptedException e) {
 			if (log.isLoggable(Level.SEVERE)) {
@@ -393,14 +711,9 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 	public List<String> getDependentFeatures(String mid) throws ProcessingDependenciesException {
 		List<String> result = null;
 		try {
-			getReadLock();
-			try {
-				DepTreeNode.DependencyInfo depInfo = depMap.get(mid);
-				if (depInfo != null) {
-					result = depInfo.getDepenedentFeatures();
-				}
-			} finally {
-				releaseReadLock();
+			DepTreeNode.DependencyInfo depInfo = getSnapshot().depMap.get(mid);
+			if (depInfo != null) {
+				result = depInfo.getDepenedentFeatures();
 			}
 		} catch (InterruptedException e) {
 			if (log.isLoggable(Level.SEVERE)) {
@@ -417,12 +730,7 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 	public Iterable<String> getDependencyNames() throws ProcessingDependenciesException {
 		Iterable<String> result = null;
 		try {
-			getReadLock();
-			try {
-				result = depMap.keySet();
-			} finally {
-				releaseReadLock();
-			}
+			result = getSnapshot().depMap.keySet();
 		} catch (InterruptedException e) {
 			if (log.isLoggable(Level.SEVERE)) {
 				log.log(Level.SEVERE, e.getMessage(), e);
@@ -431,28 +739,49 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 		return result;
 	}
 
-	private void getReadLock() throws InterruptedException, ProcessingDependenciesException {
-		if (getAggregator().getOptions().isDevelopmentMode()) {
-			if (!initialized.await(1, TimeUnit.SECONDS)) {
-				throw new ProcessingDependenciesException();
-			}
-			if (initFailed) {
-				throw new IllegalStateException("Init failed"); //$NON-NLS-1$
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.deps.IDependencies#getDependencyGraph()
+	 */
+	@Override
+	public ModuleDepGraph getDependencyGraph() throws ProcessingDependenciesException {
+		ModuleDepGraph result = null;
+		try {
+			result = getSnapshot().depGraph;
+		} catch (InterruptedException e) {
+			if (log.isLoggable(Level.SEVERE)) {
+				log.log(Level.SEVERE, e.getMessage(), e);
 			}
-			if (!rwl.readLock().tryLock(1, TimeUnit.SECONDS)) {
-				throw new ProcessingDependenciesException();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the current snapshot of the dependencies, waiting for the dependencies to
+	 * be loaded for the first time if necessary.  Once the dependencies have been loaded,
+	 * this method never blocks.  Subsequent reloads build a new snapshot while callers
+	 * continue to use the current one.
+	 *
+	 * @return the current snapshot
+	 * @throws InterruptedException
+	 * @throws ProcessingDependenciesException
+	 *             if in development mode and the dependencies have not yet been loaded
+	 */
+	private Snapshot getSnapshot() throws InterruptedException, ProcessingDependenciesException {
+		Snapshot result = snapshot.get();
+		if (result == null) {
+			if (getAggregator().getOptions().isDevelopmentMode()) {
+				if (!initialized.await(1, TimeUnit.SECONDS)) {
+					throw new ProcessingDependenciesException();
+				}
+			} else {
+				initialized.await();
 			}
-		} else {
-			initialized.await();
-			if (initFailed) {
+			result = snapshot.get();
+			if (result == null) {
 				throw new IllegalStateException("Init failed"); //$NON-NLS-1$
 			}
-			rwl.readLock().lock();
 		}
-	}
-
-	private void releaseReadLock() {
-		rwl.readLock().unlock();
+		return result;
 	}
 
 }
@@ -31,6 +31,8 @@ public class Messages extends NLS {
 	public static String DepTree_8;
 	public static String DepTree_9;
 	public static String DepTree_10;
+	public static String DepTree_11;
+	public static String DepTree_12;
 	public static String DepTreeNode_0;
 	public static String DepTreeNode_1;
 	public static String DepTreeNode_2;
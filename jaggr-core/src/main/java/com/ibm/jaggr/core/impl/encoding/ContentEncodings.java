@@ -0,0 +1,176 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.encoding;
+
+import com.ibm.jaggr.core.IAggregator;
+import com.ibm.jaggr.core.encoding.IContentEncoding;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Static methods for negotiating the content encoding of responses.
+ */
+public class ContentEncodings {
+	/** Name used in cache keys and reports for responses that are not encoded */
+	public static final String IDENTITY = "identity"; //$NON-NLS-1$
+
+	/** Request attribute used to save the result of the negotiation for the request */
+	static final String ENCODING_REQATTRNAME = ContentEncodings.class.getName() + ".ENCODING"; //$NON-NLS-1$
+
+	private static final String ANY = "*"; //$NON-NLS-1$
+
+	private ContentEncodings() {}
+
+	/**
+	 * The result of the negotiation for a request, together with the header value
+	 * it was based on.
+	 */
+	private static class Negotiated {
+		final String accept;
+		final IContentEncoding encoding;
+		Negotiated(String accept, IContentEncoding encoding) {
+			this.accept = accept;
+			this.encoding = encoding;
+		}
+	}
+
+	/**
+	 * Returns the available content encodings in order of preference. Encodings registered
+	 * as {@link IContentEncoding} services for the aggregator (see
+	 * {@link IAggregator#getContentEncodings()}) come first, followed by gzip.
+	 *
+	 * @param aggr
+	 *            the aggregator
+	 * @return the list of available encodings
+	 */
+	public static List<IContentEncoding> getEncodings(IAggregator aggr) {
+		List<IContentEncoding> result = new ArrayList<IContentEncoding>();
+		List<IContentEncoding> registered = aggr.getContentEncodings();
+		if (registered != null) {
+			for (IContentEncoding encoding : registered) {
+				if (!GzipContentEncoding.NAME.equals(encoding.getName())) {
+					result.add(encoding);
+				}
+			}
+		}
+		result.add(GzipContentEncoding.INSTANCE);
+		return result;
+	}
+
+	/**
+	 * Returns the encoding to use for the response to the specified request.  The result
+	 * of the negotiation is saved in the request, so this method may be called as often
+	 * as needed.
+	 *
+	 * @param request
+	 *            the request object
+	 * @return the negotiated encoding, or null if the response should not be encoded
+	 */
+	public static IContentEncoding negotiate(HttpServletRequest request) {
+		String accept = request.getHeader("Accept-Encoding"); //$NON-NLS-1$
+		Negotiated negotiated = (Negotiated)request.getAttribute(ENCODING_REQATTRNAME);
+		if (negotiated == null || !StringUtils.equals(accept, negotiated.accept)) {
+			IContentEncoding encoding = null;
+			if (accept != null) {
+				IAggregator aggr = (IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME);
+				encoding = negotiate(accept, getEncodings(aggr));
+			}
+			negotiated = new Negotiated(accept, encoding);
+			request.setAttribute(ENCODING_REQATTRNAME, negotiated);
+		}
+		return negotiated.encoding;
+	}
+
+	/**
+	 * Returns the encoding from {@code encodings} with the highest quality value in the
+	 * specified Accept-Encoding header value.  Ties go to the encoding that comes first
+	 * in {@code encodings}.
+	 *
+	 * @param accept
+	 *            the value of the Accept-Encoding header
+	 * @param encodings
+	 *            the available encodings, in order of preference
+	 * @return the selected encoding, or null if none of the encodings are acceptable
+	 */
+	static IContentEncoding negotiate(String accept, List<IContentEncoding> encodings) {
+		Map<String, Float> qualities = parse(accept);
+		IContentEncoding result = null;
+		float resultQuality = 0;
+		for (IContentEncoding encoding : encodings) {
+			Float quality = qualities.get(encoding.getName());
+			if (quality == null) {
+				quality = qualities.get(ANY);
+			}
+			if (quality != null && quality > resultQuality) {
+				result = encoding;
+				resultQuality = quality;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the name of the specified encoding, or {@link #IDENTITY} if the encoding
+	 * is null.
+	 *
+	 * @param encoding
+	 *            the encoding
+	 * @return the encoding name
+	 */
+	public static String getName(IContentEncoding encoding) {
+		return encoding != null ? encoding.getName() : IDENTITY;
+	}
+
+	/**
+	 * Parses an Accept-Encoding header value into a map of lower case coding names
+	 * to quality values.
+	 *
+	 * @param accept
+	 *            the header value
+	 * @return the map of coding names to quality values
+	 */
+	static Map<String, Float> parse(String accept) {
+		Map<String, Float> result = new HashMap<String, Float>();
+		for (String coding : accept.toLowerCase().split(",")) { //$NON-NLS-1$
+			String[] parts = coding.split(";"); //$NON-NLS-1$
+			String name = parts[0].trim();
+			if (name.length() == 0) {
+				continue;
+			}
+			float quality = 1;
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if (param.startsWith("q=")) { //$NON-NLS-1$
+					try {
+						quality = Float.parseFloat(param.substring(2).trim());
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			result.put(name, quality);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.encoding;
+
+import com.ibm.jaggr.core.encoding.IContentEncoding;
+import com.ibm.jaggr.core.impl.layer.VariableGZIPOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The gzip content encoding.  Output is compressed using the best compression level.
+ */
+public class GzipContentEncoding implements IContentEncoding {
+
+	public static final String NAME = "gzip"; //$NON-NLS-1$
+
+	static final GzipContentEncoding INSTANCE = new GzipContentEncoding();
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.encoding.IContentEncoding#getName()
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.encoding.IContentEncoding#encode(java.io.OutputStream)
+	 */
+	@Override
+	public OutputStream encode(OutputStream out) throws IOException {
+		return encode(out, Deflater.BEST_COMPRESSION);
+	}
+
+	/**
+	 * Returns an output stream that compresses the data written to it using the
+	 * specified compression level.
+	 *
+	 * @param out
+	 *            the output stream for the compressed data
+	 * @param level
+	 *            the {@link Deflater} compression level
+	 * @return the compressing output stream
+	 * @throws IOException
+	 */
+	public OutputStream encode(OutputStream out, int level) throws IOException {
+		VariableGZIPOutputStream compress = new VariableGZIPOutputStream(out, 10240);  // is 10k too big?
+		compress.setLevel(level);
+		return compress;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.encoding.IContentEncoding#decode(java.io.InputStream)
+	 */
+	@Override
+	public InputStream decode(InputStream in) throws IOException {
+		return new GZIPInputStream(in);
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.executors;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread pool used for module builds.  Queued tasks are run in order of priority
+ * (lower values first) rather than in the order in which they were submitted, so
+ * that the module builds a layer builder will wait on first are not queued behind
+ * the builds for modules further down the same layer, or behind the builds for
+ * other layers that are being assembled at the same time.  Tasks with the same
+ * priority run in the order in which they were submitted.
+ * <p>
+ * A task's priority is provided by submitting a {@link Callable} or {@link Runnable}
+ * that implements {@link Prioritized}.  Other tasks are given the lowest priority.
+ * <p>
+ * The queue may optionally be bounded, in which case tasks that are submitted while
+ * the queue is full are passed to the pool's {@link RejectedExecutionHandler}.
+ */
+public class BuildExecutor extends MonitoredThreadPoolExecutor {
+
+	/**
+	 * Implemented by tasks that specify their priority
+	 */
+	public interface Prioritized {
+		/**
+		 * @return the task priority.  Lower values run first.
+		 */
+		public int getPriority();
+	}
+
+	/** The priority of tasks that don't implement {@link Prioritized} */
+	public static final int LOWEST_PRIORITY = Integer.MAX_VALUE;
+
+	/** The name of the pool, for statistics */
+	public static final String BUILD_EXECUTOR_NAME = "build"; //$NON-NLS-1$
+
+	private static final ThreadLocal<Integer> currentPriority = new ThreadLocal<Integer>();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final int queueCapacity;
+
+	/**
+	 * Creates a build executor with an unbounded queue
+	 *
+	 * @param nThreads
+	 *            the number of threads in the pool
+	 * @param threadFactory
+	 *            the factory to use when creating new threads
+	 */
+	public BuildExecutor(int nThreads, ThreadFactory threadFactory) {
+		this(nThreads, 0, threadFactory, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * @param nThreads
+	 *            the number of threads in the pool
+	 * @param queueCapacity
+	 *            the maximum number of queued tasks, or 0 for an unbounded queue
+	 * @param threadFactory
+	 *            the factory to use when creating new threads
+	 * @param handler
+	 *            the handler for tasks submitted while the queue is full
+	 */
+	public BuildExecutor(int nThreads, int queueCapacity, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+		super(BUILD_EXECUTOR_NAME, nThreads, new PriorityBlockingQueue<Runnable>(), threadFactory, handler);
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Returns the priority of the task that the current thread is running, if the
+	 * current thread belongs to a build executor.  Builds that are started by another
+	 * build (e.g. for extra modules) can use this to inherit the priority of the
+	 * build that started them.
+	 *
+	 * @return the priority of the current task, or null
+	 */
+	public static Integer getCurrentPriority() {
+		return currentPriority.get();
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+		return new PrioritizedTask<T>(callable, priorityOf(callable));
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+		return new PrioritizedTask<T>(runnable, value, priorityOf(runnable));
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		// Tasks passed directly to execute() must be comparable for the priority queue
+		Runnable task = command instanceof PrioritizedTask ? command : newExecuteTask(command);
+		// PriorityBlockingQueue is unbounded, so enforce the capacity here
+		if (queueCapacity > 0 && getQueue().size() >= queueCapacity && !isShutdown()) {
+			getRejectedExecutionHandler().rejectedExecution(task, this);
+			return;
+		}
+		super.execute(task);
+	}
+
+	@Override
+	protected void beforeExecute(Thread t, Runnable r) {
+		super.beforeExecute(t, r);
+		currentPriority.set(((PrioritizedTask<?>)r).priority);
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		currentPriority.remove();
+		super.afterExecute(r, t);
+	}
+
+	private static int priorityOf(Object task) {
+		return (task instanceof Prioritized) ? ((Prioritized)task).getPriority() : LOWEST_PRIORITY;
+	}
+
+	/**
+	 * Queue element for the thread pool.  Ordered by priority, then by submission order.
+	 */
+	private class PrioritizedTask<T> extends TimedTask<T> implements Comparable<PrioritizedTask<?>> {
+		final int priority;
+		final long seq = sequence.getAndIncrement();
+
+		PrioritizedTask(Callable<T> callable, int priority) {
+			super(callable);
+			this.priority = priority;
+		}
+
+		PrioritizedTask(Runnable runnable, T value, int priority) {
+			super(runnable, value);
+			this.priority = priority;
+		}
+
+		@Override
+		public int compareTo(PrioritizedTask<?> other) {
+			if (priority != other.priority) {
+				return priority < other.priority ? -1 : 1;
+			}
+			return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+		}
+	}
+}
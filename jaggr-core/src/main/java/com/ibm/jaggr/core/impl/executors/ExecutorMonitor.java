@@ -0,0 +1,145 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.executors;
+
+import com.ibm.jaggr.core.executors.ExecutorStats;
+
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the wait and run times of the tasks run by a thread pool, and the
+ * number of tasks rejected by the pool.  Times are kept for the most recent
+ * {@link #WINDOW_SIZE} tasks only.
+ */
+class ExecutorMonitor {
+
+	/** The number of recent tasks that percentiles are computed over */
+	static final int WINDOW_SIZE = 1024;
+
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	private final String name;
+	private final Samples waitTimes = new Samples();
+	private final Samples runTimes = new Samples();
+	private final AtomicLong rejected = new AtomicLong();
+	private final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+
+	ExecutorMonitor(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Called on the pool thread before running a task
+	 *
+	 * @param waitNanos
+	 *            the time the task waited to be run
+	 */
+	void beforeExecute(long waitNanos) {
+		waitTimes.add(Math.max(waitNanos, 0));
+		startTime.set(System.nanoTime());
+	}
+
+	/**
+	 * Called on the pool thread after running a task
+	 */
+	void afterExecute() {
+		Long start = startTime.get();
+		if (start != null) {
+			runTimes.add(System.nanoTime() - start);
+			startTime.remove();
+		}
+	}
+
+	/**
+	 * Returns a rejected execution handler that counts rejections before
+	 * delegating to {@code handler}.
+	 *
+	 * @param handler
+	 *            the rejected execution handler for the pool
+	 * @return the counting handler
+	 */
+	RejectedExecutionHandler countRejections(final RejectedExecutionHandler handler) {
+		return new RejectedExecutionHandler() {
+			@Override
+			public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+				rejected.incrementAndGet();
+				handler.rejectedExecution(r, executor);
+			}
+		};
+	}
+
+	/**
+	 * @param executor
+	 *            the monitored thread pool
+	 * @return the current statistics for the pool
+	 */
+	ExecutorStats getStats(ThreadPoolExecutor executor) {
+		long[] waits = waitTimes.sorted(), runs = runTimes.sorted();
+		return new ExecutorStats(
+				name,
+				executor.getPoolSize(),
+				executor.getActiveCount(),
+				executor.getQueue().size(),
+				executor.getCompletedTaskCount(),
+				rejected.get(),
+				percentile(waits, 50),
+				percentile(waits, 99),
+				percentile(runs, 50),
+				percentile(runs, 99));
+	}
+
+	/**
+	 * @param sorted
+	 *            sorted samples, in nanoseconds
+	 * @param percent
+	 *            the percentile
+	 * @return the percentile, in milliseconds, or 0 if there are no samples
+	 */
+	static double percentile(long[] sorted, int percent) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int)Math.ceil(percent / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(index, 0)] / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * Fixed size ring of the most recent samples
+	 */
+	private static class Samples {
+		private final AtomicLongArray samples = new AtomicLongArray(WINDOW_SIZE);
+		private final AtomicLong count = new AtomicLong();
+
+		void add(long value) {
+			samples.set((int)(count.getAndIncrement() % WINDOW_SIZE), value);
+		}
+
+		long[] sorted() {
+			int size = (int)Math.min(count.get(), WINDOW_SIZE);
+			long[] result = new long[size];
+			for (int i = 0; i < size; i++) {
+				result[i] = samples.get(i);
+			}
+			Arrays.sort(result);
+			return result;
+		}
+	}
+}
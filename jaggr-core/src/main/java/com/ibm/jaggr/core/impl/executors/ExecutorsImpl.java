@@ -17,22 +17,37 @@
 package com.ibm.jaggr.core.impl.executors;
 
 import com.ibm.jaggr.core.cache.ICacheManager;
+import com.ibm.jaggr.core.executors.ExecutorStats;
 import com.ibm.jaggr.core.executors.IExecutors;
+import com.ibm.jaggr.core.options.IOptions;
+import com.ibm.jaggr.core.options.IOptionsListener;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class ExecutorsImpl implements IExecutors {
+/**
+ * Default {@link IExecutors} implementation.  The thread pools are created when they
+ * are first used, and are sized from the options that the executors were constructed
+ * with, or that were most recently passed to {@link #optionsUpdated(IOptions, long)}.
+ * Updated options change the number of threads in pools that already exist.  The queue
+ * capacities and the rejection policy take effect only when the pools are created.
+ */
+public class ExecutorsImpl implements IExecutors, IOptionsListener {
 
 	private static final Logger log = Logger.getLogger(ICacheManager.class.getName());
 
@@ -42,6 +57,11 @@ public class ExecutorsImpl implements IExecutors {
 	private static final String CACHE_FILE_DELETOR_THREADNAME = "Aggregator Cache File Deletor"; //$NON-NLS-1$
 	private static final String MODULE_BUILDER_THREADNAME = "{0} Thread - {1}"; //$NON-NLS-1$
 
+	/* Pool name constants, for statistics */
+	private static final String SCHEDULED_EXECUTOR_NAME = "scheduled"; //$NON-NLS-1$
+	private static final String CACHE_FILE_CREATOR_NAME = "fileCreate"; //$NON-NLS-1$
+	private static final String CACHE_FILE_DELETOR_NAME = "fileDelete"; //$NON-NLS-1$
+
 	/** {@link ExecutorService} thread pool used to compile javascript modules */
 	private static final String MODULE_BUILDER_TGNAME = "AMD Module Builder"; //$NON-NLS-1$
 
@@ -58,10 +78,26 @@ public class ExecutorsImpl implements IExecutors {
 
 	private ExecutorService buildExecutor;
 
-	private transient boolean opened = false;
+	/** Options used to size the thread pools.  May be null */
+	private volatile IOptions options;
+
+	private transient volatile boolean opened = false;
+
+	/** Minimum number of build threads, regardless of the number of processors */
+	private static final int MIN_BUILD_THREADS = 10;
 
 	public ExecutorsImpl() {
-		this(null, null, null, null);
+		this((IOptions)null);
+	}
+
+	/**
+	 * @param options
+	 *            the options specifying the thread pool sizes, queue capacities
+	 *            and rejection policy.  The options are read when the pools are
+	 *            first used.
+	 */
+	public ExecutorsImpl(IOptions options) {
+		this(options, null, null, null, null);
 	}
 
 	public ExecutorsImpl(
@@ -69,36 +105,52 @@ public class ExecutorsImpl implements IExecutors {
 			ExecutorService buildExecutor,
 			ScheduledThreadPoolExecutor deleteExecutor,
 			ScheduledExecutorService scheduledExecutor) {
+		this(null, createExecutor, buildExecutor, deleteExecutor, scheduledExecutor);
+	}
 
+	private ExecutorsImpl(
+			IOptions options,
+			ExecutorService createExecutor,
+			ExecutorService buildExecutor,
+			ScheduledThreadPoolExecutor deleteExecutor,
+			ScheduledExecutorService scheduledExecutor) {
+
+		this.options = options;
 		this.createExecutor = createExecutor;
 		this.buildExecutor = buildExecutor;
 		this.deleteExecutor = deleteExecutor;
 		this.scheduledExecutor = scheduledExecutor;
 
 	}
-	private void open() {
+	private synchronized void open() {
 
 		if (opened) return;
 
 		if (scheduledExecutor == null) {
 			scheduledExecutor =
-					Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					new MonitoredScheduledExecutor(SCHEDULED_EXECUTOR_NAME, 1, new ThreadFactory() {
 						public Thread newThread(Runnable r) {
 							return new Thread(r, SCHEDULED_EXECUTOR_THREADNAME);
 						}
 					});
 		}
 		if (createExecutor == null) {
+			int capacity = getIntOption(IOptions.FILE_CREATE_QUEUE_CAPACITY, 0);
 			createExecutor =
-					Executors.newSingleThreadExecutor(new ThreadFactory() {
+					new MonitoredThreadPoolExecutor(CACHE_FILE_CREATOR_NAME,
+							Math.max(getIntOption(IOptions.FILE_CREATE_THREADS, 1), 1),
+							capacity > 0 ? new LinkedBlockingQueue<Runnable>(capacity) : new LinkedBlockingQueue<Runnable>(),
+							new ThreadFactory() {
 						public Thread newThread(Runnable r) {
 							return new Thread(r, CACHE_FILE_CREATOR_THREADNAME);
 						}
-					});
+					}, getRejectionHandler(capacity));
 		}
 		if (buildExecutor == null) {
+			int capacity = Math.max(getIntOption(IOptions.BUILD_QUEUE_CAPACITY, 0), 0);
 			buildExecutor =
-					Executors.newFixedThreadPool(10, new ThreadFactory() {
+					new BuildExecutor(getBuildThreadCount(), capacity,
+							new ThreadFactory() {
 						public Thread newThread(Runnable r) {
 							return new Thread(buildTG, r,
 									MessageFormat.format(MODULE_BUILDER_THREADNAME,
@@ -109,12 +161,12 @@ public class ExecutorsImpl implements IExecutors {
 											)
 									);
 						}
-					});
+					}, getRejectionHandler(capacity));
 		}
 		/** Single thread {@link ScheduledExecutorService} used to asynchronously delete cache files */
 		if (deleteExecutor == null) {
 			deleteExecutor =
-					new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+					new MonitoredScheduledExecutor(CACHE_FILE_DELETOR_NAME, 1, new ThreadFactory() {
 						public Thread newThread(Runnable r) {
 							Thread t = new Thread(r, CACHE_FILE_DELETOR_THREADNAME);
 							t.setPriority(Thread.MIN_PRIORITY);
@@ -125,6 +177,81 @@ public class ExecutorsImpl implements IExecutors {
 		opened = true;
 	}
 
+	/**
+	 * Returns the number of threads to use for the build executor.  Unless specified
+	 * by the {@link IOptions#BUILD_THREADS} option, the pool is sized to the number
+	 * of processors on the host, since module builds are mostly CPU bound.
+	 *
+	 * @return the number of build threads
+	 */
+	protected int getBuildThreadCount() {
+		int result = getIntOption(IOptions.BUILD_THREADS, 0);
+		return result > 0 ? result : Math.max(MIN_BUILD_THREADS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Returns the rejected execution handler for a pool.  For a pool with a bounded
+	 * queue, this is the handler specified by the {@link IOptions#EXECUTOR_REJECTION_POLICY}
+	 * option.  A pool with an unbounded queue only rejects tasks after it has been shut
+	 * down, so it always aborts.  {@link ThreadPoolExecutor.CallerRunsPolicy} would
+	 * silently discard those tasks, leaving callers waiting on their futures forever.
+	 *
+	 * @param queueCapacity
+	 *            the capacity of the pool's queue, or 0 if the queue is unbounded
+	 * @return the rejected execution handler
+	 */
+	protected RejectedExecutionHandler getRejectionHandler(int queueCapacity) {
+		String policy = options != null ? options.getOption(IOptions.EXECUTOR_REJECTION_POLICY) : null;
+		return queueCapacity <= 0 || IOptions.REJECTION_POLICY_ABORT.equals(policy) ?
+				new ThreadPoolExecutor.AbortPolicy() : new ThreadPoolExecutor.CallerRunsPolicy();
+	}
+
+	private int getIntOption(String name, int defaultValue) {
+		int result = defaultValue;
+		String value = options != null ? options.getOption(name) : null;
+		if (value != null) {
+			try {
+				result = Integer.parseInt(value);
+			} catch (NumberFormatException ignore) {}
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.options.IOptionsListener#optionsUpdated(com.ibm.jaggr.core.options.IOptions, long)
+	 */
+	@Override
+	public synchronized void optionsUpdated(IOptions options, long sequence) {
+		this.options = options;
+		if (opened) {
+			if (createExecutor instanceof MonitoredThreadPoolExecutor) {
+				setPoolSize((ThreadPoolExecutor)createExecutor, Math.max(getIntOption(IOptions.FILE_CREATE_THREADS, 1), 1));
+			}
+			if (buildExecutor instanceof MonitoredThreadPoolExecutor) {
+				setPoolSize((ThreadPoolExecutor)buildExecutor, getBuildThreadCount());
+			}
+		}
+	}
+
+	/**
+	 * Changes the number of threads in a fixed size thread pool
+	 *
+	 * @param executor
+	 *            the thread pool
+	 * @param nThreads
+	 *            the new number of threads
+	 */
+	private static void setPoolSize(ThreadPoolExecutor executor, int nThreads) {
+		// The core size may not exceed the maximum size, so the order matters
+		if (nThreads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(nThreads);
+			executor.setCorePoolSize(nThreads);
+		} else {
+			executor.setCorePoolSize(nThreads);
+			executor.setMaximumPoolSize(nThreads);
+		}
+	}
+
 	public synchronized void shutdown() {
 
 		if (!opened) return;
@@ -191,4 +318,23 @@ public class ExecutorsImpl implements IExecutors {
 		return createExecutor;
 	}
 
+	@Override
+	public Map<String, ExecutorStats> getStatistics() {
+		Map<String, ExecutorStats> result = new LinkedHashMap<String, ExecutorStats>();
+		if (opened) {
+			for (ExecutorService executor : new ExecutorService[]{buildExecutor, createExecutor, deleteExecutor, scheduledExecutor}) {
+				ExecutorStats stats = null;
+				if (executor instanceof MonitoredThreadPoolExecutor) {
+					stats = ((MonitoredThreadPoolExecutor)executor).getStats();
+				} else if (executor instanceof MonitoredScheduledExecutor) {
+					stats = ((MonitoredScheduledExecutor)executor).getStats();
+				}
+				if (stats != null) {
+					result.put(stats.getName(), stats);
+				}
+			}
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
 }
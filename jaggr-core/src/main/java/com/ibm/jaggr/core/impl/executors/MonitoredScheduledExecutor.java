@@ -0,0 +1,66 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.executors;
+
+import com.ibm.jaggr.core.executors.ExecutorStats;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduled thread pool that records the run times of the tasks it runs.  The
+ * wait time of a task is the time between when it was scheduled to run and when
+ * it started running.
+ */
+public class MonitoredScheduledExecutor extends ScheduledThreadPoolExecutor {
+
+	private final ExecutorMonitor monitor;
+
+	/**
+	 * @param name
+	 *            the name of the pool, for statistics
+	 * @param nThreads
+	 *            the number of threads in the pool
+	 * @param threadFactory
+	 *            the factory to use when creating new threads
+	 */
+	public MonitoredScheduledExecutor(String name, int nThreads, ThreadFactory threadFactory) {
+		super(nThreads, threadFactory);
+		monitor = new ExecutorMonitor(name);
+	}
+
+	/**
+	 * @return the current statistics for this pool
+	 */
+	public ExecutorStats getStats() {
+		return monitor.getStats(this);
+	}
+
+	@Override
+	protected void beforeExecute(Thread t, Runnable r) {
+		super.beforeExecute(t, r);
+		monitor.beforeExecute(r instanceof Delayed ? -((Delayed)r).getDelay(TimeUnit.NANOSECONDS) : 0);
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		monitor.afterExecute();
+		super.afterExecute(r, t);
+	}
+}
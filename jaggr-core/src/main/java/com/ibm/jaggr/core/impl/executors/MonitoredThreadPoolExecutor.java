@@ -0,0 +1,155 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.executors;
+
+import com.ibm.jaggr.core.executors.ExecutorStats;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed size thread pool that records the wait and run times of the tasks it runs.
+ */
+public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor {
+
+	private final ExecutorMonitor monitor;
+
+	/**
+	 * @param name
+	 *            the name of the pool, for statistics
+	 * @param nThreads
+	 *            the number of threads in the pool
+	 * @param queue
+	 *            the work queue
+	 * @param threadFactory
+	 *            the factory to use when creating new threads
+	 * @param handler
+	 *            the handler for tasks that can't be queued
+	 */
+	public MonitoredThreadPoolExecutor(String name, int nThreads, BlockingQueue<Runnable> queue,
+			ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+		this(new ExecutorMonitor(name), nThreads, queue, threadFactory, handler);
+	}
+
+	private MonitoredThreadPoolExecutor(ExecutorMonitor monitor, int nThreads, BlockingQueue<Runnable> queue,
+			ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+		super(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, queue, threadFactory,
+				monitor.countRejections(handler));
+		this.monitor = monitor;
+	}
+
+	/**
+	 * @return the current statistics for this pool
+	 */
+	public ExecutorStats getStats() {
+		return monitor.getStats(this);
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+		return new TimedTask<T>(callable);
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+		return new TimedTask<T>(runnable, value);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		// Time stamp tasks passed directly to execute()
+		super.execute(command instanceof TimedTask ? command : newExecuteTask(command));
+	}
+
+	/**
+	 * Wraps a task that was passed directly to {@link #execute(Runnable)}.  Exceptions
+	 * thrown by the task are rethrown by {@link #afterExecute(Runnable, Throwable)} so
+	 * that they aren't lost in a future that nobody holds.
+	 *
+	 * @param command
+	 *            the task
+	 * @return the wrapped task
+	 */
+	protected TimedTask<?> newExecuteTask(Runnable command) {
+		TimedTask<?> task = (TimedTask<?>)newTaskFor(command, null);
+		task.executed = true;
+		return task;
+	}
+
+	@Override
+	protected void beforeExecute(Thread t, Runnable r) {
+		super.beforeExecute(t, r);
+		monitor.beforeExecute(System.nanoTime() - ((TimedTask<?>)r).queuedNanos);
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		monitor.afterExecute();
+		super.afterExecute(r, t);
+		if (t == null && r instanceof TimedTask && ((TimedTask<?>)r).executed) {
+			// Let the failure reach the thread's uncaught exception handler, as it
+			// would have if the task hadn't been wrapped
+			((TimedTask<?>)r).rethrow();
+		}
+	}
+
+	/**
+	 * Queue element for the thread pool.  Records the time that the task was queued.
+	 */
+	protected static class TimedTask<T> extends FutureTask<T> {
+		final long queuedNanos = System.nanoTime();
+
+		/** True if the task was passed to {@link #execute(Runnable)} rather than submitted */
+		boolean executed = false;
+
+		protected TimedTask(Callable<T> callable) {
+			super(callable);
+		}
+
+		protected TimedTask(Runnable runnable, T value) {
+			super(runnable, value);
+		}
+
+		/**
+		 * Rethrows the exception thrown by the completed task, if any
+		 */
+		void rethrow() {
+			try {
+				get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException)cause;
+				} else if (cause instanceof Error) {
+					throw (Error)cause;
+				}
+				throw new RuntimeException(cause);
+			} catch (CancellationException ignore) {
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
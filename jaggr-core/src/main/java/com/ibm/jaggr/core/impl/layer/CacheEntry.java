@@ -18,13 +18,18 @@ package com.ibm.jaggr.core.impl.layer;
 
 import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.cache.ICacheManager;
+import com.ibm.jaggr.core.util.BulkByteArrayInputStream;
+import com.ibm.jaggr.core.util.ByteBufferInputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Level;
@@ -45,9 +50,11 @@ class CacheEntry implements Serializable {
 	private static final long serialVersionUID = -2129350665073838766L;
 
 	private transient volatile byte[] bytes = null;
+	private transient volatile ByteBuffer mapped = null;
 	private volatile String filename = null;
 	private volatile int size;
 	private volatile boolean delete = false;
+	private transient volatile boolean pending = false;
 	final int layerId;
 	final String layerKey;
 	final long lastModified;
@@ -58,6 +65,7 @@ class CacheEntry implements Serializable {
 		layerKey = other.layerKey;
 		lastModified = other.lastModified;
 		bytes = other.bytes;
+		mapped = other.mapped;
 		filename = other.filename;
 		size = other.size;
 		delete = other.delete;
@@ -79,20 +87,70 @@ class CacheEntry implements Serializable {
 	 * @throws IOException
 	 */
 	public InputStream getInputStream(HttpServletRequest request) throws IOException {
+		IAggregator aggr = (IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME);
+		if (aggr.getOptions().isOffHeapLayerCache() && mapped == null && bytes == null && filename != null && !delete) {
+			map(aggr.getCacheManager());
+		}
+		return getInputStream(aggr.getCacheManager());
+	}
+
+	/**
+	 * Return an input stream to the layer.  For use outside of the context of a
+	 * request.
+	 *
+	 * @param cmgr
+	 *            the cache manager
+	 * @return The InputStream for the built layer
+	 * @throws IOException
+	 */
+	public InputStream getInputStream(ICacheManager cmgr) throws IOException {
 		// Check bytes before filename when reading and reverse order when setting
 		byte[] bytes = this.bytes;
+		ByteBuffer mapped = this.mapped;
 		String filename = this.filename;
 		InputStream in = null;
 		if (bytes != null) {
-			in = new ByteArrayInputStream(bytes);
+			in = new BulkByteArrayInputStream(bytes);
+		} else if (mapped != null) {
+			// zero-copy view of the mapped file
+			in = new ByteBufferInputStream(mapped.duplicate());
 		} else if (filename != null){
-			ICacheManager cmgr = ((IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME)).getCacheManager();
 			File file = new File(cmgr.getCacheDir(), filename);
 			in = new FileInputStream(file);
 		}
 		return in;
 	}
 
+	/**
+	 * Maps the cache file for this entry into memory so that the layer can be served
+	 * from outside of the Java heap without reading the file for each request.  If the
+	 * file can't be mapped, then the entry continues to be served from the file.
+	 *
+	 * @param cmgr
+	 *            the cache manager
+	 */
+	private void map(ICacheManager cmgr) {
+		String filename = this.filename;
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(new File(cmgr.getCacheDir(), filename), "r"); //$NON-NLS-1$
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			synchronized (this) {
+				if (!delete) {
+					mapped = buffer;
+				}
+			}
+		} catch (IOException e) {
+			if (LayerImpl.log.isLoggable(Level.WARNING)) {
+				LayerImpl.log.log(Level.WARNING, e.getMessage(), e);
+			}
+		} finally {
+			// The mapping remains valid after the channel is closed
+			try { if (raf != null) raf.close(); } catch (IOException ignore) {}
+		}
+	}
+
 	/**
 	 * Can fail by returning null, but won't throw an exception.  Will also return null
 	 * if no data is available after waiting for 10 seconds.
@@ -126,6 +184,48 @@ class CacheEntry implements Serializable {
 		this.bytes = bytes;
 	}
 
+	/**
+	 * Marks this entry as being populated by a streamed layer build.  Threads that
+	 * synchronize on this entry can call {@link #waitWhilePending(long)} to wait for
+	 * the streamed build to complete rather than building the layer themselves.
+	 */
+	public void setPending() {
+		pending = true;
+	}
+
+	/**
+	 * @return true if this entry is being populated by a streamed layer build
+	 */
+	public boolean isPending() {
+		return pending;
+	}
+
+	/**
+	 * Clears the pending state set by {@link #setPending()} and wakes up any threads
+	 * waiting in {@link #waitWhilePending(long)}.
+	 */
+	public synchronized void clearPending() {
+		pending = false;
+		notifyAll();
+	}
+
+	/**
+	 * Waits for a pending streamed layer build to complete.  The caller must own the
+	 * monitor for this object.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait in milliseconds
+	 * @throws InterruptedException
+	 */
+	public void waitWhilePending(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (pending && remaining > 0) {
+			wait(remaining);
+			remaining = end - System.currentTimeMillis();
+		}
+	}
+
 	/**
 	 * Delete the cached build after the specified delay in minues
 	 *
@@ -136,6 +236,10 @@ class CacheEntry implements Serializable {
 	 */
 	public synchronized void delete(final ICacheManager mgr) {
 		delete = true;
+		// Release our reference to the mapping.  Streams that are still reading from
+		// the mapping hold their own reference, and the mapping is released when the
+		// buffer is garbage collected.
+		mapped = null;
 		if (filename != null) {
 			mgr.deleteFileDelayed(filename);
 		}
@@ -204,6 +308,7 @@ class CacheEntry implements Serializable {
 		.append("lastMod:").append(lastModified).append(",") //$NON-NLS-1$ //$NON-NLS-2$
 		.append("file:").append(filename).append(",") //$NON-NLS-1$ //$NON-NLS-2$
 		.append("size:").append(size).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("pending:").append(pending).append(",") //$NON-NLS-1$ //$NON-NLS-2$
 		.append("deleted:").append(delete).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 }
\ No newline at end of file
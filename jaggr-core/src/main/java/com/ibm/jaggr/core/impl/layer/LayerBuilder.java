@@ -30,16 +30,21 @@ import com.ibm.jaggr.core.module.IModule;
 import com.ibm.jaggr.core.module.IModuleCache;
 import com.ibm.jaggr.core.modulebuilder.ModuleBuildFuture;
 import com.ibm.jaggr.core.options.IOptions;
+import com.ibm.jaggr.core.readers.AggregationReader;
 import com.ibm.jaggr.core.readers.ModuleBuildReader;
 import com.ibm.jaggr.core.transport.IHttpTransport;
 import com.ibm.jaggr.core.transport.IHttpTransport.LayerContributionType;
 import com.ibm.jaggr.core.transport.IHttpTransport.ModuleInfo;
 import com.ibm.jaggr.core.transport.IRequestedModuleNames;
 import com.ibm.jaggr.core.util.CopyUtil;
+import com.ibm.jaggr.core.util.DeflatedSegment;
 import com.ibm.jaggr.core.util.DependencyList;
 import com.ibm.jaggr.core.util.RequestUtil;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.text.MessageFormat;
 import java.util.ArrayList;
@@ -114,92 +119,279 @@ public class LayerBuilder {
 	 * @throws IOException
 	 */
 	String build() throws IOException {
-
-		if (built) {
-			// Can call build only once per instance
-			throw new IllegalStateException();
+		StringBuffer sb = new StringBuffer();
+		for (Segment segment : getSegments()) {
+			segment.appendTo(sb);
 		}
-		built = true;
+		return sb.toString();
+	}
 
+	/**
+	 * Returns the gzip encoded layer.  The pre-compressed content of module builds that
+	 * provide it (see {@link ModuleBuildReader#getDeflatedContent()}) is copied into the
+	 * output as is, so that only the remaining layer content needs to be compressed.
+	 *
+	 * @return The gzip encoded layer
+	 * @throws IOException
+	 */
+	byte[] buildGzip() throws IOException {
+		List<DeflatedSegment> deflatedSegments = new ArrayList<DeflatedSegment>();
 		StringBuffer sb = new StringBuffer();
-		Map<String, String> moduleCacheInfo = null;
-		if (request.getAttribute(LayerImpl.LAYERCACHEINFO_PROPNAME) != null) {
-			moduleCacheInfo = new HashMap<String, String>();
-			request.setAttribute(IModuleCache.MODULECACHEINFO_PROPNAME, moduleCacheInfo);
+		for (Segment segment : getSegments()) {
+			DeflatedSegment deflated = segment.getDeflated();
+			if (deflated != null) {
+				// Compress the content accumulated since the last pre-compressed segment
+				if (sb.length() > 0) {
+					deflatedSegments.add(DeflatedSegment.deflate(sb.toString()));
+					sb.setLength(0);
+				}
+				deflatedSegments.add(deflated);
+			} else {
+				segment.appendTo(sb);
+			}
+		}
+		if (sb.length() > 0) {
+			deflatedSegments.add(DeflatedSegment.deflate(sb.toString()));
 		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DeflatedSegment.writeGZIP(bos, deflatedSegments);
+		return bos.toByteArray();
+	}
 
-		if (RequestUtil.isDependencyExpansionLogging(request)) {
-			DependencyList depList = (DependencyList)request.getAttribute(LayerImpl.EXPANDEDDEPS_PROPNAME);
-			if (depList != null) {
-				// Output dependency expansion logging
-				sb.append(dependencyExpansionLogging(depList));
+	/**
+	 * Returns a reader for the layer. Unlike {@link #build()}, the layer content is not
+	 * assembled in memory. The module builds are dispatched before this method returns, but
+	 * each build is waited on only when the returned reader reaches it, so the output of the
+	 * builds that have completed can be consumed while later builds are still in progress.
+	 * Consequently, the errors reported by {@link #hasErrors()}, the cache key generators and
+	 * the layer dependent features are not complete until the returned reader has been read
+	 * to the end.
+	 * <p>
+	 * Closing the returned reader closes any module build readers that were obtained but
+	 * not yet read.
+	 *
+	 * @return A reader for the layer content
+	 * @throws IOException
+	 */
+	Reader buildReader() throws IOException {
+		final LazySortedReaders sorted = new LazySortedReaders(startBuild(), request);
+		final LinkedList<Segment> pending = new LinkedList<Segment>(getBeginSegments());
+		return new AggregationReader() {
+			// Position within the layer
+			private int state = 0;
+			private int count = 0;
+
+			@Override
+			protected Reader getNextInputReader() throws IOException {
+				while (pending.isEmpty() && state >= 0) {
+					Map.Entry<IModule, ModuleBuildReader> entry;
+					switch (state) {
+					case 0:	// scripts
+						if ((entry = sorted.getScripts().next()) != null) {
+							pending.add(new ReaderSegment(entry.getValue()));
+						} else {
+							boolean isAmd = !sorted.getCacheEntries().isEmpty() || !sorted.getModules().isEmpty();
+							if (isAmd) {
+								pending.add(new ListenerSegment(EventType.BEGIN_AMD, null));
+							}
+							state = isAmd ? 1 : 5;
+						}
+						break;
+					case 1:	// begin loader cache entries
+						if (!sorted.getCacheEntries().isEmpty()) {
+							pending.add(new TransportSegment(LayerContributionType.BEGIN_LAYER_MODULES, moduleList.getRequiredModules()));
+							state = 2;
+						} else {
+							state = 3;
+						}
+						break;
+					case 2:	// loader cache entries
+						if ((entry = sorted.getCacheEntries().next()) != null) {
+							addModuleSegments(pending, entry, true, count++ == 0);
+						} else {
+							pending.add(new TransportSegment(LayerContributionType.END_LAYER_MODULES, moduleList.getRequiredModules()));
+							state = 3;
+						}
+						break;
+					case 3:	// begin requested modules
+						count = 0;
+						if (!sorted.getModules().isEmpty()) {
+							pending.add(new TransportSegment(LayerContributionType.BEGIN_MODULES, null));
+							state = 4;
+						} else {
+							state = 5;
+						}
+						break;
+					case 4:	// requested modules
+						if ((entry = sorted.getModules().next()) != null) {
+							addModuleSegments(pending, entry, false, count++ == 0);
+						} else {
+							pending.add(new TransportSegment(LayerContributionType.END_MODULES, null));
+							state = 5;
+						}
+						break;
+					default:
+						pending.addAll(getEndSegments());
+						state = -1;
+					}
+				}
+				return pending.isEmpty() ? null : pending.removeFirst().open();
 			}
-		}
 
-		SortedReaders sorted = new SortedReaders(collectFutures(moduleList, request), request);
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					sorted.close();
+				}
+			}
+		};
+	}
 
-		/*
-		 * Set layer dependent features attribute.  The build readers add the layer dependent features
-		 * to this collection as they are read.
-		 */
-		request.setAttribute(ILayer.DEPENDENT_FEATURES, dependentFeatures);
+	/**
+	 * Returns the ordered list of segments that make up the layer.
+	 *
+	 * @return the list of layer segments
+	 * @throws IOException
+	 */
+	protected List<Segment> getSegments() throws IOException {
 
-		sb.append(notifyLayerListeners(EventType.BEGIN_LAYER, request, null));
-		addTransportContribution(sb, LayerContributionType.BEGIN_RESPONSE, null);
+		SortedReaders sorted = new SortedReaders(startBuild(), request);
+
+		List<Segment> segments = new ArrayList<Segment>(getBeginSegments());
 
 		// Add script files to the layer first first.  Scripts have no transport contribution
 		for (ModuleBuildReader reader : sorted.getScripts().values()) {
-			processReader(reader, sb);
+			segments.add(new ReaderSegment(reader));
 		}
 		if (sorted.getCacheEntries().size() > 0 || sorted.getModules().size() > 0) {
-			sb.append(notifyLayerListeners(EventType.BEGIN_AMD, request, null));
+			segments.add(new ListenerSegment(EventType.BEGIN_AMD, null));
 
 			// Now add the loader cache entries.
 			if (sorted.getCacheEntries().size() > 0) {
-				addTransportContribution(sb, LayerContributionType.BEGIN_LAYER_MODULES, moduleList.getRequiredModules());
+				segments.add(new TransportSegment(LayerContributionType.BEGIN_LAYER_MODULES, moduleList.getRequiredModules()));
 				int i = 0;
 				for (Map.Entry<IModule, ModuleBuildReader> entry : sorted.getCacheEntries().entrySet()) {
-					sb.append(notifyLayerListeners(EventType.BEGIN_MODULE, request, entry.getKey()));
-					ModuleInfo info = new ModuleInfo(entry.getKey().getModuleId(), entry.getValue().isScript());
-					LayerContributionType type = (i++ == 0) ? LayerContributionType.BEFORE_FIRST_LAYER_MODULE : LayerContributionType.BEFORE_SUBSEQUENT_LAYER_MODULE;
-					addTransportContribution(sb, type, info);
-					processReader(entry.getValue(), sb);
-					addTransportContribution(sb, LayerContributionType.AFTER_LAYER_MODULE, info);
+					addModuleSegments(segments, entry, true, i++ == 0);
 				}
-				addTransportContribution(sb, LayerContributionType.END_LAYER_MODULES, moduleList.getRequiredModules());
+				segments.add(new TransportSegment(LayerContributionType.END_LAYER_MODULES, moduleList.getRequiredModules()));
 			}
 
 			// Now add the loader requested modules
 			if (sorted.getModules().size() > 0) {
-				addTransportContribution(sb, LayerContributionType.BEGIN_MODULES, null);
+				segments.add(new TransportSegment(LayerContributionType.BEGIN_MODULES, null));
 				int i = 0;
 				for (Map.Entry<IModule, ModuleBuildReader> entry : sorted.getModules().entrySet()) {
-					sb.append(notifyLayerListeners(EventType.BEGIN_MODULE, request, entry.getKey()));
-					ModuleInfo info = new ModuleInfo(entry.getKey().getModuleId(), entry.getValue().isScript());
-					LayerContributionType type = (i++ == 0) ? LayerContributionType.BEFORE_FIRST_MODULE : LayerContributionType.BEFORE_SUBSEQUENT_MODULE;
-					addTransportContribution(sb, type, info);
-					processReader(entry.getValue(), sb);
-					addTransportContribution(sb, LayerContributionType.AFTER_MODULE, info);
+					addModuleSegments(segments, entry, false, i++ == 0);
 				}
-				addTransportContribution(sb, LayerContributionType.END_MODULES, null);
+				segments.add(new TransportSegment(LayerContributionType.END_MODULES, null));
 			}
 		}
- 		sb.append(notifyLayerListeners(EventType.END_LAYER, request, null));
-		addTransportContribution(sb, LayerContributionType.END_RESPONSE, null);
+		segments.addAll(getEndSegments());
+		return segments;
+	}
+
+	/**
+	 * Prepares the request for the layer build and dispatches the module builds.
+	 *
+	 * @return the list of module build futures
+	 * @throws IOException
+	 */
+	private List<ModuleBuildFuture> startBuild() throws IOException {
+		if (built) {
+			// Can call build only once per instance
+			throw new IllegalStateException();
+		}
+		built = true;
 
-		moduleList.getDependentFeatures().addAll(dependentFeatures);
+		if (request.getAttribute(LayerImpl.LAYERCACHEINFO_PROPNAME) != null) {
+			request.setAttribute(IModuleCache.MODULECACHEINFO_PROPNAME, new HashMap<String, String>());
+		}
 
-		// Output any messages to the console if debug mode is enabled
-		if (options.isDebugMode() || options.isDevelopmentMode()) {
-			for (String errorMsg : errorMessages) {
-				sb.append("\r\nconsole.error(\"" + errorMsg + "\");"); //$NON-NLS-1$ //$NON-NLS-2$
-			}
-			for (String msg : nonErrorMessages) {
-				sb.append("\r\nconsole.warn(\"" + msg + "\");"); //$NON-NLS-1$ //$NON-NLS-2$
+		List<ModuleBuildFuture> futures = collectFutures(moduleList, request);
+
+		/*
+		 * Set layer dependent features attribute.  The build readers add the layer dependent features
+		 * to this collection as they are read.
+		 */
+		request.setAttribute(ILayer.DEPENDENT_FEATURES, dependentFeatures);
+		return futures;
+	}
+
+	/**
+	 * @return the segments that precede the module builds in the layer
+	 */
+	private List<Segment> getBeginSegments() {
+		List<Segment> segments = new ArrayList<Segment>();
+		if (RequestUtil.isDependencyExpansionLogging(request)) {
+			final DependencyList depList = (DependencyList)request.getAttribute(LayerImpl.EXPANDEDDEPS_PROPNAME);
+			if (depList != null) {
+				// Output dependency expansion logging
+				segments.add(new ContentSegment() {
+					@Override String getContent() throws IOException {
+						return dependencyExpansionLogging(depList);
+					}
+				});
 			}
 		}
+		segments.add(new ListenerSegment(EventType.BEGIN_LAYER, null));
+		segments.add(new TransportSegment(LayerContributionType.BEGIN_RESPONSE, null));
+		return segments;
+	}
 
-		return sb.toString();
+	/**
+	 * @return the segments that follow the module builds in the layer
+	 */
+	private List<Segment> getEndSegments() {
+		List<Segment> segments = new ArrayList<Segment>();
+		segments.add(new ListenerSegment(EventType.END_LAYER, null));
+		segments.add(new TransportSegment(LayerContributionType.END_RESPONSE, null));
+
+		segments.add(new ContentSegment() {
+			@Override String getContent() {
+				moduleList.getDependentFeatures().addAll(dependentFeatures);
+
+				// Output any messages to the console if debug mode is enabled
+				StringBuffer sb = new StringBuffer();
+				if (options.isDebugMode() || options.isDevelopmentMode()) {
+					for (String errorMsg : errorMessages) {
+						sb.append("\r\nconsole.error(\"" + errorMsg + "\");"); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+					for (String msg : nonErrorMessages) {
+						sb.append("\r\nconsole.warn(\"" + msg + "\");"); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+				}
+				return sb.toString();
+			}
+		});
+		return segments;
+	}
+
+	/**
+	 * Adds the segments for a loader cache entry or requested module to {@code segments}.
+	 *
+	 * @param segments
+	 *            the list of segments to add to
+	 * @param entry
+	 *            the module and its build reader
+	 * @param layerModule
+	 *            true if the module is a loader cache entry
+	 * @param first
+	 *            true if this is the first module in its group
+	 */
+	private void addModuleSegments(List<Segment> segments, Map.Entry<IModule, ModuleBuildReader> entry, boolean layerModule, boolean first) {
+		segments.add(new ListenerSegment(EventType.BEGIN_MODULE, entry.getKey()));
+		ModuleInfo info = new ModuleInfo(entry.getKey().getModuleId(), entry.getValue().isScript());
+		LayerContributionType type;
+		if (layerModule) {
+			type = first ? LayerContributionType.BEFORE_FIRST_LAYER_MODULE : LayerContributionType.BEFORE_SUBSEQUENT_LAYER_MODULE;
+		} else {
+			type = first ? LayerContributionType.BEFORE_FIRST_MODULE : LayerContributionType.BEFORE_SUBSEQUENT_MODULE;
+		}
+		segments.add(new TransportSegment(type, info));
+		segments.add(new ReaderSegment(entry.getValue()));
+		segments.add(new TransportSegment(layerModule ? LayerContributionType.AFTER_LAYER_MODULE : LayerContributionType.AFTER_MODULE, info));
 	}
 
 	/**
@@ -288,10 +480,13 @@ public class LayerBuilder {
 
 		IModuleCache moduleCache = aggr.getCacheManager().getCache().getModules();
 
-		// For each source file, add a Future<IModule.ModuleReader> to the list
+		// For each source file, add a Future<IModule.ModuleReader> to the list.  The futures
+		// are resolved in list order, so prioritize the builds by position in the layer.
+		int priority = 0;
 		for(ModuleList.ModuleListEntry moduleListEntry : moduleList) {
 			IModule module = moduleListEntry.getModule();
 			Future<ModuleBuildReader> future = null;
+			request.setAttribute(IAggregator.BUILDPRIORITY_REQATTRNAME, priority++);
 			try {
 				future = moduleCache.getBuild(request, module);
 			} catch (NotFoundException e) {
@@ -346,6 +541,7 @@ public class LayerBuilder {
 					moduleListEntry.getSource()
 			));
 		}
+		request.removeAttribute(IAggregator.BUILDPRIORITY_REQATTRNAME);
 		if (isTraceLogging) {
 			log.exiting(sourceClass, sourceMethod, futures);
 		}
@@ -436,6 +632,125 @@ public class LayerBuilder {
 		return sb.toString();
 	}
 
+	/**
+	 * A unit of layer output.  Segment content is evaluated only when the segment is
+	 * appended or opened so that listener notifications, transport contributions and
+	 * module build reads happen in layer order in both the buffered and streaming cases.
+	 */
+	abstract class Segment {
+		/**
+		 * Appends the segment content to the string buffer
+		 *
+		 * @param sb
+		 *            the string buffer
+		 * @throws IOException
+		 */
+		abstract void appendTo(StringBuffer sb) throws IOException;
+
+		/**
+		 * @return a reader for the segment content
+		 * @throws IOException
+		 */
+		abstract Reader open() throws IOException;
+
+		/**
+		 * @return the pre-compressed segment content, or null if the content
+		 *         must be obtained using {@link #appendTo(StringBuffer)}
+		 * @throws IOException
+		 */
+		DeflatedSegment getDeflated() throws IOException {
+			return null;
+		}
+	}
+
+	/**
+	 * A segment whose content is generated as a string
+	 */
+	abstract class ContentSegment extends Segment {
+		/**
+		 * @return the segment content, or null
+		 * @throws IOException
+		 */
+		abstract String getContent() throws IOException;
+
+		@Override
+		void appendTo(StringBuffer sb) throws IOException {
+			String content = getContent();
+			if (content != null) {
+				sb.append(content);
+			}
+		}
+
+		@Override
+		Reader open() throws IOException {
+			String content = getContent();
+			return new StringReader(content != null ? content : ""); //$NON-NLS-1$
+		}
+	}
+
+	class ListenerSegment extends ContentSegment {
+		private final EventType type;
+		private final IModule module;
+		ListenerSegment(EventType type, IModule module) {
+			this.type = type;
+			this.module = module;
+		}
+		@Override
+		String getContent() throws IOException {
+			return notifyLayerListeners(type, request, module);
+		}
+	}
+
+	class TransportSegment extends ContentSegment {
+		private final LayerContributionType type;
+		private final Object arg;
+		TransportSegment(LayerContributionType type, Object arg) {
+			this.type = type;
+			this.arg = arg;
+		}
+		@Override
+		String getContent() {
+			StringBuffer sb = new StringBuffer();
+			addTransportContribution(sb, type, arg);
+			return sb.toString();
+		}
+	}
+
+	class ReaderSegment extends Segment {
+		private final ModuleBuildReader reader;
+		ReaderSegment(ModuleBuildReader reader) {
+			this.reader = reader;
+		}
+		@Override
+		void appendTo(StringBuffer sb) throws IOException {
+			processReader(reader, sb);
+		}
+		@Override
+		DeflatedSegment getDeflated() throws IOException {
+			DeflatedSegment deflated = reader.getDeflatedContent();
+			if (deflated != null && !reader.isError()) {
+				List<ICacheKeyGenerator> keyGenList = reader.getCacheKeyGenerators();
+				if (keyGenList != null) {
+					keyGens.addAll(keyGenList);
+				}
+				reader.close();
+				return deflated;
+			}
+			return null;
+		}
+		@Override
+		Reader open() throws IOException {
+			List<ICacheKeyGenerator> keyGenList = reader.getCacheKeyGenerators();
+			if (keyGenList != null) {
+				keyGens.addAll(keyGenList);
+			}
+			if (reader.isError()) {
+				errorMessages.add(reader.getErrorMessage());
+			}
+			return reader;
+		}
+	}
+
 	// For unit testing
 	Set<String> getDepenedentFeatures() {
 		return dependentFeatures;
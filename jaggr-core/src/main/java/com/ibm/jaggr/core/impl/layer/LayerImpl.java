@@ -26,6 +26,9 @@ import com.ibm.jaggr.core.cachekeygenerator.KeyGenUtil;
 import com.ibm.jaggr.core.cachekeygenerator.ServerExpandLayersCacheKeyGenerator;
 import com.ibm.jaggr.core.deps.ModuleDepInfo;
 import com.ibm.jaggr.core.deps.ModuleDeps;
+import com.ibm.jaggr.core.encoding.IContentEncoding;
+import com.ibm.jaggr.core.impl.encoding.ContentEncodings;
+import com.ibm.jaggr.core.impl.encoding.GzipContentEncoding;
 import com.ibm.jaggr.core.layer.ILayer;
 import com.ibm.jaggr.core.layer.ILayerCache;
 import com.ibm.jaggr.core.module.IModule;
@@ -38,6 +41,7 @@ import com.ibm.jaggr.core.resource.IResource;
 import com.ibm.jaggr.core.transport.IHttpTransport;
 import com.ibm.jaggr.core.transport.IRequestedModuleNames;
 import com.ibm.jaggr.core.util.CopyUtil;
+import com.ibm.jaggr.core.util.DeflatedSegment;
 import com.ibm.jaggr.core.util.DependencyList;
 import com.ibm.jaggr.core.util.Features;
 import com.ibm.jaggr.core.util.RequestUtil;
@@ -49,10 +53,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.Writer;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -112,7 +119,7 @@ public class LayerImpl implements ILayer {
 				public String generateKey(HttpServletRequest request) {
 					boolean showFilenames =  TypeUtil.asBoolean(request.getAttribute(IHttpTransport.SHOWFILENAMES_REQATTRNAME));
 					return new StringBuffer(eyeCatcher).append(":") //$NON-NLS-1$
-							.append(RequestUtil.isGzipEncoding(request) ? "1" : "0").append(":") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+							.append(ContentEncodings.getName(ContentEncodings.negotiate(request))).append(":") //$NON-NLS-1$
 							.append(showFilenames ? "1" : "0").append(":") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 							.append(RequestUtil.isIncludeRequireDeps(request) ? "1" : "0").append(":") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 							.append(RequestUtil.isIncludeUndefinedFeatureDeps(request) ? "1" : "0").toString(); //$NON-NLS-1$ //$NON-NLS-2$
@@ -126,10 +133,16 @@ public class LayerImpl implements ILayer {
 			new ServerExpandLayersCacheKeyGenerator()
 	}));
 
-	public static final Pattern GZIPFLAG_KEY_PATTERN  = Pattern.compile(s_layerCacheKeyGenerators.get(0).toString() + ":([01]):"); //$NON-NLS-1$
+	public static final Pattern ENCODING_KEY_PATTERN  = Pattern.compile(s_layerCacheKeyGenerators.get(0).toString() + ":([^:]+):"); //$NON-NLS-1$
 
 	static int LAYERBUILD_REMOVE_DELAY_SECONDS = 10;
 
+	/**
+	 * Maximum time to wait for another thread to finish streaming a layer build before
+	 * building the layer independently.
+	 */
+	static int STREAMING_WAIT_SECONDS = 60;
+
 	/**
 	 * Map of cache dependency objects for module classes included in this layer.
 	 * Cloned by reference since cache key generators are immutable.
@@ -254,6 +267,7 @@ public class LayerImpl implements ILayer {
 					if (existingEntry != null) {
 						if ((result = existingEntry.tryGetInputStream(request)) != null) {
 							setResponseHeaders(request, response, existingEntry.getSize());
+							LayerResponseCache.recordEntry(request, this, existingEntry);
 							if (log.isLoggable(Level.FINEST)) {
 								log.finest(cacheInfoReport.toString() + "\n" +  //$NON-NLS-1$
 										"key:" + key +  //$NON-NLS-1$
@@ -300,6 +314,13 @@ public class LayerImpl implements ILayer {
 
 			ModuleList moduleList = null;
 
+			// The response stream if the layer is being streamed to the client
+			InputStream streamed = null;
+
+			// True if the response was compressed using the fastest compression level
+			// and should be recompressed in the background
+			boolean deferredCompression = false;
+
 			// Synchronize on the LayerBuild object for the build.  This will prevent multiple
 			// threads from building the same output.  If more than one thread requests the same
 			// output (same cache key), then the first one to grab the sync object will win and
@@ -307,6 +328,25 @@ public class LayerImpl implements ILayer {
 			// the output from the first thread when they wake.
 			synchronized(entry) {
 
+				// If another thread is streaming the build for this entry, then wait for it to
+				// finish rather than building the same output again.
+				if (entry.isPending()) {
+					try {
+						entry.waitWhilePending(STREAMING_WAIT_SECONDS * 1000L);
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					if (entry.isPending()) {
+						// Taking too long.  Build the layer ourselves using an entry that's
+						// not in the cache so that we don't interfere with the streaming thread.
+						if (cacheInfoReport != null) {
+							cacheInfoReport.add("stream_wait_timeout"); //$NON-NLS-1$
+						}
+						entry = newEntry;
+						key = null;
+					}
+				}
+
 				// Check to see if data is available one more time in case a different thread finished
 				// building the output while we were blocked on the sync object.
 				if (!ignoreCached && key != null && (result = entry.tryGetInputStream(request)) != null) {
@@ -314,6 +354,7 @@ public class LayerImpl implements ILayer {
 						cacheInfoReport.add("hit_2"); //$NON-NLS-1$
 					}
 					setResponseHeaders(request, response, entry.getSize());
+					LayerResponseCache.recordEntry(request, this, entry);
 					if (log.isLoggable(Level.FINEST)) {
 						log.finest(cacheInfoReport.toString() + "\n" + //$NON-NLS-1$
 								"key:" + key +  //$NON-NLS-1$
@@ -325,45 +366,46 @@ public class LayerImpl implements ILayer {
 					return result;
 				}
 
-				boolean isGzip = RequestUtil.isGzipEncoding(request);
+				IContentEncoding encoding = ContentEncodings.negotiate(request);
+				boolean isGzip = encoding != null && GzipContentEncoding.NAME.equals(encoding.getName());
+				deferredCompression = isGzip && !ignoreCached && options.isDeferredCompression();
 				ByteArrayOutputStream bos = new ByteArrayOutputStream();
 
-				// See if we already have a cached response that uses a different gzip
-				// encoding option.  If we do, then just zip (or unzip) the cached
-				// response
+				// See if we already have a cached response that uses a different content
+				// encoding.  If we do, then just transcode the cached response, preferring
+				// the unencoded response if there is one.
 				CacheEntry otherEntry = null;
+				IContentEncoding otherEncoding = null;
 				if (key != null) {
-					StringBuffer sb = new StringBuffer();
-					Matcher m = GZIPFLAG_KEY_PATTERN.matcher(key);
+					Matcher m = ENCODING_KEY_PATTERN.matcher(key);
 					m.find();
-					m.appendReplacement(sb,
-							new StringBuffer(s_layerCacheKeyGenerators.get(0).toString())
-					.append(":") //$NON-NLS-1$
-					.append("1".equals(m.group(1)) ? "0" : "1") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-					.append(":").toString() //$NON-NLS-1$
-							).appendTail(sb);
-					otherEntry = _layerBuilds.get(sb.toString());
-				}
-				if (otherEntry != null) {
-					if (isGzip) {
-						if (cacheInfoReport != null) {
-							cacheInfoReport.add("zip_unzipped"); //$NON-NLS-1$
+					List<IContentEncoding> encodings = new ArrayList<IContentEncoding>();
+					encodings.add(null);	// identity
+					encodings.addAll(ContentEncodings.getEncodings(aggr));
+					for (IContentEncoding candidate : encodings) {
+						String name = ContentEncodings.getName(candidate);
+						if (name.equals(m.group(1))) {
+							continue;
 						}
-						// We need gzipped and the cached entry is unzipped
-						// Create the compression stream for the output
-						VariableGZIPOutputStream compress = new VariableGZIPOutputStream(bos, 10240);  // is 10k too big?
-						compress.setLevel(Deflater.BEST_COMPRESSION);
-						Writer writer = new OutputStreamWriter(compress, "UTF-8"); //$NON-NLS-1$
-
-						// Copy the data from the input stream to the output, compressing as we go.
-						CopyUtil.copy(otherEntry.getInputStream(request), writer);
-					} else {
-						if (cacheInfoReport != null) {
-							cacheInfoReport.add("unzip_zipped"); //$NON-NLS-1$
+						otherEntry = _layerBuilds.get(key.substring(0, m.start(1)) + name + key.substring(m.end(1)));
+						if (otherEntry != null && !otherEntry.isPending()) {
+							otherEncoding = candidate;
+							break;
 						}
-						// We need unzipped and the cached entry is zipped.  Just unzip it
-						CopyUtil.copy(new GZIPInputStream(otherEntry.getInputStream(request)), bos);
+						// Other entry is missing or still being streamed.  Can't use it.
+						otherEntry = null;
+					}
+				}
+				if (otherEntry != null) {
+					if (cacheInfoReport != null) {
+						cacheInfoReport.add(getTranscodeReport(otherEncoding, encoding));
 					}
+					InputStream in = otherEntry.getInputStream(request);
+					if (otherEncoding != null) {
+						in = otherEncoding.decode(in);
+					}
+					// Copy the data from the input stream to the output, encoding as we go.
+					CopyUtil.copy(in, encoding != null ? encode(encoding, bos, deferredCompression) : bos);
 					// Set the buildReader to the LayerBuild and release the lock by exiting the sync block
 					entry.setBytes(bos.toByteArray());
 					if (!ignoreCached) {
@@ -387,22 +429,33 @@ public class LayerImpl implements ILayer {
 					// succession until all the data has been read, blocking on each Future until the
 					// reader becomes available.
 					layerBuilder = new LayerBuilder(request, moduleKeyGens, moduleList);
-					String layer = layerBuilder.build();
-
-					if (isGzip) {
+					if (options.isStreamingLayers()) {
+						deferredCompression = false;
+						streamed = streamLayer(request, key, entry, layerBuilder, moduleList,
+								moduleKeyGens, cacheKeyGenerators, ignoreCached, encoding, cacheInfoReport);
+					} else if (isGzip && options.isPrecompressModules() && DeflatedSegment.isSupported()) {
 						if (cacheInfoReport != null) {
-							cacheInfoReport.add("zip"); //$NON-NLS-1$
+							cacheInfoReport.add("zip_segments"); //$NON-NLS-1$
 						}
-						VariableGZIPOutputStream compress = new VariableGZIPOutputStream(bos, 10240);  // is 10k too big?
-						compress.setLevel(Deflater.BEST_COMPRESSION);
-						Writer writer = new OutputStreamWriter(compress, "UTF-8"); //$NON-NLS-1$
-
-						// Copy the data from the input stream to the output, compressing as we go.
-						CopyUtil.copy(new StringReader(layer), writer);
-						// Set the buildReader to the LayerBuild and release the lock by exiting the sync block
-						entry.setBytes(bos.toByteArray());
+						deferredCompression = false;
+						// Only the content that wasn't pre-compressed gets compressed here
+						entry.setBytes(layerBuilder.buildGzip());
 					} else {
-						entry.setBytes(layer.getBytes());
+						String layer = layerBuilder.build();
+
+						if (encoding != null) {
+							if (cacheInfoReport != null) {
+								cacheInfoReport.add(isGzip ? "zip" : "encode_" + encoding.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+							}
+							Writer writer = new OutputStreamWriter(encode(encoding, bos, deferredCompression), "UTF-8"); //$NON-NLS-1$
+
+							// Copy the data from the input stream to the output, compressing as we go.
+							CopyUtil.copy(new StringReader(layer), writer);
+							// Set the buildReader to the LayerBuild and release the lock by exiting the sync block
+							entry.setBytes(bos.toByteArray());
+						} else {
+							entry.setBytes(layer.getBytes());
+						}
 					}
 
 					// entry will be persisted below after we determine if cache key
@@ -410,91 +463,33 @@ public class LayerImpl implements ILayer {
 				}
 			}
 
-			// if any of the readers included an error response, then don't cache the layer.
-			if (layerBuilder != null && layerBuilder.hasErrors()) {
-				request.setAttribute(NOCACHE_RESPONSE_REQATTRNAME, Boolean.TRUE);
-				if (cacheInfoReport != null) {
-					cacheInfoReport.add(key == null ? "error_noaction" : "error_remove"); //$NON-NLS-1$ //$NON-NLS-2$
-				}
-				if (key != null) {
-					_layerBuilds.remove(key, entry);
+			if (streamed != null) {
+				// The layer is added to the cache when the stream has been read
+				setResponseHeaders(request, response, -1);
+				if (log.isLoggable(Level.FINEST)) {
+					log.finest(cacheInfoReport.toString() + "\n" + //$NON-NLS-1$
+							"key:" + key +  //$NON-NLS-1$
+							"\n" + entry.toString()); //$NON-NLS-1$
 				}
-			} else if (layerBuilder != null) {
-				if (!ignoreCached) {
-					// See if we need to create or update the cache key generators
-					Map<String, ICacheKeyGenerator> newKeyGens = new HashMap<String, ICacheKeyGenerator>();
-					Set<String> requiredModuleListDeps = moduleList.getDependentFeatures();
-					addCacheKeyGenerators(newKeyGens, s_layerCacheKeyGenerators);
-					addCacheKeyGenerators(newKeyGens, aggr.getTransport().getCacheKeyGenerators());
-					addCacheKeyGenerators(newKeyGens, Arrays.asList(new ICacheKeyGenerator[]{new FeatureSetCacheKeyGenerator(requiredModuleListDeps, false)}));
-					addCacheKeyGenerators(newKeyGens, moduleKeyGens);
-
-					boolean cacheKeyGeneratorsUpdated = false;
-					if (!newKeyGens.equals(cacheKeyGenerators)) {
-						// If we don't yet have a cache key for this layer, then get one
-						// from the cache key generators, and then update the cache key for this
-						// cache entry.
-
-						synchronized(this) {
-							if (_cacheKeyGenerators != null) {
-								addCacheKeyGenerators(newKeyGens, _cacheKeyGenerators.values());
-							}
-							_cacheKeyGenerators = Collections.unmodifiableMap(newKeyGens);
-						}
-						if (cacheInfoReport != null) {
-							cacheInfoReport.add("update_keygen"); //$NON-NLS-1$
-						}
-						cacheKeyGeneratorsUpdated = true;
-					}
-					final String originalKey = key;
-					if (key == null || cacheKeyGeneratorsUpdated) {
-						if (cacheInfoReport != null) {
-							cacheInfoReport.add("update_key"); //$NON-NLS-1$
-						}
-						key = generateCacheKey(request, newKeyGens);
-					}
-					if (originalKey == null || !originalKey.equals(key)) {
-						/*
-						 * The cache key has changed from what was originally used to put the
-						 * un-built entry into the cache.  Add the LayerBuild to the cache
-						 * using the new key.
-						 */
-						if (log.isLoggable(Level.FINE)) {
-							log.fine("Key changed!  Adding layer to cache with key: " + key); //$NON-NLS-1$
-						}
-						final CacheEntry originalEntry = entry;
-						CacheEntry updateEntry = (originalKey == null) ? entry : new CacheEntry(entry);
-						CacheEntry previousEntry = _layerBuilds.putIfAbsent(key, updateEntry, options.isDevelopmentMode());
-						if (cacheInfoReport != null) {
-							cacheInfoReport.add(previousEntry == null ? "update_add" : "update_hit"); //$NON-NLS-1$ //$NON-NLS-2$
-						}
-						// Write the file to disk only if the LayerBuild was successfully added to the cache
-						if (previousEntry == null) {
-							// Updated entry was added to the cache.
-							entry = updateEntry;
-							entry.persist(mgr);
-						}
-						// If the key changed, then remove the entry under the old key.  Use a
-						// delay to give other threads a chance to start using the new cache
-						// key generator.  No need to update entry weight in map
-						if (originalKey != null) {
-							aggr.getExecutors().getScheduledExecutor().schedule(new Runnable() {
-								public void run() {
-									_layerBuilds.remove(originalKey, originalEntry);
-								}
-							}, LAYERBUILD_REMOVE_DELAY_SECONDS, TimeUnit.SECONDS);
-						}
-					} else {
-						if (cacheInfoReport != null) {
-							cacheInfoReport.add("update_weights_2"); //$NON-NLS-1$
-						}
-						_layerBuilds.replace(key, entry, entry);	// updates entry weight in map
-						entry.persist(mgr);
-					}
+				return streamed;
+			}
+			if (layerBuilder != null) {
+				MutableObject<String> keyRef = new MutableObject<String>(key);
+				entry = updateCache(request, keyRef, entry, layerBuilder, moduleList,
+						moduleKeyGens, cacheKeyGenerators, ignoreCached, cacheInfoReport);
+				key = keyRef.getValue();
+			}
+			if (deferredCompression && key != null) {
+				if (cacheInfoReport != null) {
+					cacheInfoReport.add("recompress"); //$NON-NLS-1$
 				}
+				recompress(aggr, key, entry);
 			}
 			result = entry.getInputStream(request);
 			setResponseHeaders(request, response, entry.getSize());
+			if (!ignoreCached && key != null) {
+				LayerResponseCache.recordEntry(request, this, entry);
+			}
 
 			// return the input stream to the LayerBuild
 			if (log.isLoggable(Level.FINEST)) {
@@ -520,6 +515,292 @@ public class LayerImpl implements ILayer {
 	}
 
 
+	/**
+	 * Returns an output stream that encodes the data written to it using the specified
+	 * encoding.  If {@code fast} is true, then the encoding is gzip and the fastest
+	 * compression level is used.
+	 *
+	 * @param encoding
+	 *            the content encoding
+	 * @param out
+	 *            the output stream for the encoded data
+	 * @param fast
+	 *            true if the fastest compression level should be used
+	 * @return the encoding output stream
+	 * @throws IOException
+	 */
+	private OutputStream encode(IContentEncoding encoding, OutputStream out, boolean fast) throws IOException {
+		return fast ? ((GzipContentEncoding)encoding).encode(out, Deflater.BEST_SPEED) : encoding.encode(out);
+	}
+
+	/**
+	 * Recompresses the gzip encoded layer build in {@code entry} using the best
+	 * compression level on a background thread, and replaces {@code entry} in the
+	 * cache with a new entry for the recompressed build.  Requests for the layer
+	 * continue to be served from {@code entry} until the replacement is made.
+	 * Nothing is done if {@code entry} is no longer in the cache by the time the
+	 * task runs.
+	 *
+	 * @param aggr
+	 *            the aggregator
+	 * @param key
+	 *            the cache key for {@code entry}
+	 * @param entry
+	 *            the cache entry to recompress
+	 */
+	private void recompress(IAggregator aggr, final String key, final CacheEntry entry) {
+		final LayerBuildsAccessor layerBuilds = _layerBuilds;
+		final ICacheManager mgr = aggr.getCacheManager();
+		aggr.getExecutors().getBuildExecutor().submit(new Runnable() {
+			public void run() {
+				if (layerBuilds.get(key) != entry) {
+					// Entry was evicted or replaced
+					return;
+				}
+				try {
+					ByteArrayOutputStream bos = new ByteArrayOutputStream();
+					CopyUtil.copy(new GZIPInputStream(entry.getInputStream(mgr)), new GzipContentEncoding().encode(bos));
+					CacheEntry recompressed = new CacheEntry(entry.layerId, entry.layerKey, entry.lastModified);
+					recompressed.setBytes(bos.toByteArray());
+					// replace() deletes the cache file for the original entry
+					if (layerBuilds.replace(key, entry, recompressed)) {
+						recompressed.persist(mgr);
+					}
+				} catch (Exception e) {
+					// The original entry remains in the cache
+					if (log.isLoggable(Level.WARNING)) {
+						log.log(Level.WARNING, e.getMessage(), e);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns an input stream that assembles the layer from the module builds as it is
+	 * read, encoding and compressing the content on the fly.  The output of each module
+	 * build is streamed as soon as the build completes and the layer reaches it.  Unless
+	 * {@code ignoreCached} is true, the encoded bytes are also captured so that they can
+	 * be set in {@code entry}, and the layer cache updated, once the stream has been read
+	 * to the end.  Until then, the entry is marked as pending so that other threads
+	 * requesting the same build will wait for the build to complete instead of building
+	 * the same layer again.  If the stream is closed before the end of the layer is
+	 * reached, or an error occurs reading the layer, then the entry is removed from the
+	 * cache and the threads waiting on it are released.
+	 * <p>
+	 * Because the response headers are written before the module builds have completed,
+	 * build errors cannot be reflected in the response headers.  Layers containing build
+	 * errors are still excluded from the layer cache.
+	 *
+	 * @param request
+	 *            the request object
+	 * @param key
+	 *            the cache key that {@code entry} was added to the cache with
+	 * @param entry
+	 *            the cache entry for the layer build
+	 * @param layerBuilder
+	 *            the layer builder
+	 * @param moduleList
+	 *            the list of modules in the layer
+	 * @param moduleKeyGens
+	 *            output - the cache key generators collected from the module builds
+	 * @param cacheKeyGenerators
+	 *            the layer cache key generators used to generate the cache key
+	 * @param ignoreCached
+	 *            true if the server side cache should be ignored for this request
+	 * @param encoding
+	 *            the content encoding for the response, or null
+	 * @param cacheInfoReport
+	 *            the cache info report, or null
+	 * @return the input stream for the response
+	 * @throws IOException
+	 */
+	private InputStream streamLayer(
+			final HttpServletRequest request,
+			final String key,
+			final CacheEntry entry,
+			final LayerBuilder layerBuilder,
+			final ModuleList moduleList,
+			final List<ICacheKeyGenerator> moduleKeyGens,
+			final Map<String, ICacheKeyGenerator> cacheKeyGenerators,
+			final boolean ignoreCached,
+			IContentEncoding encoding,
+			final List<String> cacheInfoReport) throws IOException {
+
+		Reader reader = layerBuilder.buildReader();
+		final ByteArrayOutputStream captured = ignoreCached ? null : new ByteArrayOutputStream();
+		if (cacheInfoReport != null) {
+			cacheInfoReport.add(encoding == null ? "stream" : //$NON-NLS-1$
+				(GzipContentEncoding.NAME.equals(encoding.getName()) ? "stream_zip" : "stream_" + encoding.getName())); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		InputStream result = new LayerStreamingInputStream(reader, encoding, captured, new LayerStreamingInputStream.CompletionCallback() {
+			@Override
+			public void completed(boolean success) {
+				try {
+					if (!success) {
+						// The layer was not read to the end.  Discard the entry.
+						if (cacheInfoReport != null) {
+							cacheInfoReport.add("stream_abort"); //$NON-NLS-1$
+						}
+						_layerBuilds.remove(key, entry);
+					} else {
+						if (captured != null) {
+							entry.setBytes(captured.toByteArray());
+						}
+						MutableObject<String> keyRef = new MutableObject<String>(key);
+						updateCache(request, keyRef, entry, layerBuilder, moduleList,
+								moduleKeyGens, cacheKeyGenerators, ignoreCached, cacheInfoReport);
+						if (_isReportCacheInfo) {
+							request.setAttribute(LAYERBUILDCACHEKEY_PROPNAME, keyRef.getValue());
+						}
+					}
+				} catch (Exception e) {
+					if (log.isLoggable(Level.SEVERE)) {
+						log.log(Level.SEVERE, e.getMessage(), e);
+					}
+					_layerBuilds.remove(key, entry);
+				} finally {
+					entry.clearPending();
+					if (_layerBuilds.isLayerEvicted()) {
+						_layerBuilds.removeLayerFromCache(LayerImpl.this);
+					}
+				}
+			}
+		});
+		entry.setPending();
+		return result;
+	}
+
+	/**
+	 * Updates the layer cache with the newly built layer in {@code entry}.  If the
+	 * build contains errors, then the entry is removed from the cache, otherwise the cache
+	 * key generators for the layer are updated as needed and the entry is persisted, using
+	 * the updated cache key if the key has changed.
+	 *
+	 * @param request
+	 *            the request object
+	 * @param keyRef
+	 *            input - the cache key that {@code entry} was added to the cache with.
+	 *            output - the cache key for the returned entry.
+	 * @param entry
+	 *            the cache entry for the newly built layer
+	 * @param layerBuilder
+	 *            the layer builder that built the layer
+	 * @param moduleList
+	 *            the list of modules in the layer
+	 * @param moduleKeyGens
+	 *            the cache key generators collected from the module builds
+	 * @param cacheKeyGenerators
+	 *            the layer cache key generators used to generate the cache key
+	 * @param ignoreCached
+	 *            true if the server side cache should be ignored for this request
+	 * @param cacheInfoReport
+	 *            the cache info report, or null
+	 * @return the cache entry for the layer build
+	 * @throws IOException
+	 */
+	private CacheEntry updateCache(
+			HttpServletRequest request,
+			MutableObject<String> keyRef,
+			CacheEntry entry,
+			LayerBuilder layerBuilder,
+			ModuleList moduleList,
+			List<ICacheKeyGenerator> moduleKeyGens,
+			Map<String, ICacheKeyGenerator> cacheKeyGenerators,
+			boolean ignoreCached,
+			List<String> cacheInfoReport) throws IOException {
+
+		IAggregator aggr = (IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME);
+		IOptions options = aggr.getOptions();
+		ICacheManager mgr = aggr.getCacheManager();
+		String key = keyRef.getValue();
+		// if any of the readers included an error response, then don't cache the layer.
+		if (layerBuilder.hasErrors()) {
+			request.setAttribute(NOCACHE_RESPONSE_REQATTRNAME, Boolean.TRUE);
+			if (cacheInfoReport != null) {
+				cacheInfoReport.add(key == null ? "error_noaction" : "error_remove"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (key != null) {
+				_layerBuilds.remove(key, entry);
+			}
+		} else {
+			if (!ignoreCached) {
+				// See if we need to create or update the cache key generators
+				Map<String, ICacheKeyGenerator> newKeyGens = new HashMap<String, ICacheKeyGenerator>();
+				Set<String> requiredModuleListDeps = moduleList.getDependentFeatures();
+				addCacheKeyGenerators(newKeyGens, s_layerCacheKeyGenerators);
+				addCacheKeyGenerators(newKeyGens, aggr.getTransport().getCacheKeyGenerators());
+				addCacheKeyGenerators(newKeyGens, Arrays.asList(new ICacheKeyGenerator[]{new FeatureSetCacheKeyGenerator(requiredModuleListDeps, false)}));
+				addCacheKeyGenerators(newKeyGens, moduleKeyGens);
+
+				boolean cacheKeyGeneratorsUpdated = false;
+				if (!newKeyGens.equals(cacheKeyGenerators)) {
+					// If we don't yet have a cache key for this layer, then get one
+					// from the cache key generators, and then update the cache key for this
+					// cache entry.
+
+					synchronized(this) {
+						if (_cacheKeyGenerators != null) {
+							addCacheKeyGenerators(newKeyGens, _cacheKeyGenerators.values());
+						}
+						_cacheKeyGenerators = Collections.unmodifiableMap(newKeyGens);
+					}
+					if (cacheInfoReport != null) {
+						cacheInfoReport.add("update_keygen"); //$NON-NLS-1$
+					}
+					cacheKeyGeneratorsUpdated = true;
+				}
+				final String originalKey = key;
+				if (key == null || cacheKeyGeneratorsUpdated) {
+					if (cacheInfoReport != null) {
+						cacheInfoReport.add("update_key"); //$NON-NLS-1$
+					}
+					key = generateCacheKey(request, newKeyGens);
+				}
+				if (originalKey == null || !originalKey.equals(key)) {
+					/*
+					 * The cache key has changed from what was originally used to put the
+					 * un-built entry into the cache.  Add the LayerBuild to the cache
+					 * using the new key.
+					 */
+					if (log.isLoggable(Level.FINE)) {
+						log.fine("Key changed!  Adding layer to cache with key: " + key); //$NON-NLS-1$
+					}
+					final CacheEntry originalEntry = entry;
+					CacheEntry updateEntry = (originalKey == null) ? entry : new CacheEntry(entry);
+					CacheEntry previousEntry = _layerBuilds.putIfAbsent(key, updateEntry, options.isDevelopmentMode());
+					if (cacheInfoReport != null) {
+						cacheInfoReport.add(previousEntry == null ? "update_add" : "update_hit"); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+					// Write the file to disk only if the LayerBuild was successfully added to the cache
+					if (previousEntry == null) {
+						// Updated entry was added to the cache.
+						entry = updateEntry;
+						entry.persist(mgr);
+					}
+					// If the key changed, then remove the entry under the old key.  Use a
+					// delay to give other threads a chance to start using the new cache
+					// key generator.  No need to update entry weight in map
+					if (originalKey != null) {
+						aggr.getExecutors().getScheduledExecutor().schedule(new Runnable() {
+							public void run() {
+								_layerBuilds.remove(originalKey, originalEntry);
+							}
+						}, LAYERBUILD_REMOVE_DELAY_SECONDS, TimeUnit.SECONDS);
+					}
+				} else {
+					if (cacheInfoReport != null) {
+						cacheInfoReport.add("update_weights_2"); //$NON-NLS-1$
+					}
+					_layerBuilds.replace(key, entry, entry);	// updates entry weight in map
+					entry.persist(mgr);
+				}
+			}
+		}
+		keyRef.setValue(key);
+		return entry;
+	}
+
 	/**
 	 * Adds the cache key generators specified in {@code gens} to the map of
 	 * classname/key-generator pairs, combining key-generators as needed.
@@ -990,10 +1271,32 @@ public class LayerImpl implements ILayer {
 
 	protected void setResponseHeaders(HttpServletRequest request, HttpServletResponse response, int size) {
 		response.setContentType("application/x-javascript; charset=utf-8"); //$NON-NLS-1$
-		response.setContentLength(size);
-		if (RequestUtil.isGzipEncoding(request)) {
-			response.setHeader("Content-Encoding", "gzip"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (size >= 0) {
+			response.setContentLength(size);
+		}
+		IContentEncoding encoding = ContentEncodings.negotiate(request);
+		if (encoding != null) {
+			response.setHeader("Content-Encoding", encoding.getName()); //$NON-NLS-1$
 		}
 
 	}
+
+	/**
+	 * Returns the cache info report string for transcoding a cached response
+	 *
+	 * @param from
+	 *            the encoding of the cached response, or null
+	 * @param to
+	 *            the encoding of the new response, or null
+	 * @return the report string
+	 */
+	static String getTranscodeReport(IContentEncoding from, IContentEncoding to) {
+		String fromName = ContentEncodings.getName(from), toName = ContentEncodings.getName(to);
+		if (from == null && GzipContentEncoding.NAME.equals(toName)) {
+			return "zip_unzipped"; //$NON-NLS-1$
+		} else if (to == null && GzipContentEncoding.NAME.equals(fromName)) {
+			return "unzip_zipped"; //$NON-NLS-1$
+		}
+		return "transcode_" + fromName + "_" + toName; //$NON-NLS-1$ //$NON-NLS-2$
+	}
 }
\ No newline at end of file
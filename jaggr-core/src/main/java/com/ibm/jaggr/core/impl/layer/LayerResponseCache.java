@@ -0,0 +1,276 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.layer;
+
+import com.ibm.jaggr.core.cache.ICache;
+import com.ibm.jaggr.core.impl.transport.AbstractHttpTransport;
+import com.ibm.jaggr.core.layer.ILayer;
+import com.ibm.jaggr.core.options.IOptions;
+import com.ibm.jaggr.core.options.IOptionsListener;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Bounded cache of layer responses keyed by the raw request (request URI, query string,
+ * and the request headers and has-features cookie that can affect the response).  Requests for a layer that has
+ * been served before are looked up in this cache before the request is decorated by the
+ * transport, so repeat requests skip the decoding of the request parameters and the
+ * generation of the layer cache key.
+ * <p>
+ * The cached responses reference the layer builds in the layer cache.  A response is
+ * served from this cache only while its layer build is still in the layer cache, and the
+ * cache is cleared whenever the aggregator cache is replaced (i.e. when the config,
+ * dependencies or options are updated).
+ * <p>
+ * The capacity is set by the {@link IOptions#LAYER_RESPONSE_CACHE_CAPACITY} option when
+ * the options are updated.
+ */
+public class LayerResponseCache implements IOptionsListener {
+
+	/** Name of request attribute used to record the layer build for the response */
+	static final String RESPONSE_REQATTRNAME = LayerResponseCache.class.getName() + ".RESPONSE"; //$NON-NLS-1$
+
+	/**
+	 * Request headers that can affect the content of a layer response.  The Cookie
+	 * header isn't included because it usually contains session and other cookies
+	 * that are unique to each user.  Only the has-features cookie is included in the
+	 * key.
+	 */
+	static final String[] KEY_HEADERS = new String[] {
+		"Accept-Encoding", //$NON-NLS-1$
+		"Accept-Language" //$NON-NLS-1$
+	};
+
+	/** Name of the cookie that the transport reads the has-features from */
+	static final String FEATURES_COOKIE = AbstractHttpTransport.FEATUREMAP_REQPARAM;
+
+	private final ConcurrentLinkedHashMap<String, Response> cache;
+
+	/** The aggregator cache that the cached responses belong to */
+	private volatile ICache owner = null;
+
+	public LayerResponseCache() {
+		this(IOptions.DEFAULT_LAYER_RESPONSE_CACHE_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            the maximum number of cached responses
+	 */
+	public LayerResponseCache(int capacity) {
+		cache = new ConcurrentLinkedHashMap.Builder<String, Response>()
+				.maximumWeightedCapacity(capacity)
+				.build();
+	}
+
+	/**
+	 * Returns the cache key for the specified request
+	 *
+	 * @param request
+	 *            the request object
+	 * @return the cache key
+	 */
+	public static String getKey(HttpServletRequest request) {
+		StringBuilder sb = new StringBuilder(request.getRequestURI());
+		String queryString = request.getQueryString();
+		if (queryString != null) {
+			sb.append('?').append(queryString);
+		}
+		for (String header : KEY_HEADERS) {
+			String value = request.getHeader(header);
+			sb.append('\n');
+			if (value != null) {
+				sb.append(value);
+			}
+		}
+		sb.append('\n');
+		Cookie[] cookies = request.getCookies();
+		if (cookies != null) {
+			for (Cookie cookie : cookies) {
+				if (FEATURES_COOKIE.equals(cookie.getName()) && cookie.getValue() != null) {
+					sb.append(cookie.getValue());
+					break;
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.options.IOptionsListener#optionsUpdated(com.ibm.jaggr.core.options.IOptions, long)
+	 */
+	@Override
+	public void optionsUpdated(IOptions options, long sequence) {
+		if (options != null) {
+			cache.setCapacity(Math.max(options.getLayerResponseCacheCapacity(), 0));
+		}
+	}
+
+	/**
+	 * Returns the cached response for the specified key
+	 *
+	 * @param key
+	 *            the cache key
+	 * @param aggregatorCache
+	 *            the current aggregator cache
+	 * @return the cached response, or null
+	 */
+	public Response get(String key, ICache aggregatorCache) {
+		validate(aggregatorCache);
+		Response response = cache.get(key);
+		if (response != null && (response.owner != aggregatorCache || response.entry.isDeleted())) {
+			// The layer build has been evicted from the layer cache, or the response was
+			// added by a request that was processed using a previous aggregator cache
+			cache.remove(key, response);
+			response = null;
+		}
+		return response;
+	}
+
+	/**
+	 * Adds the response for the specified request to the cache.  Nothing is done if no
+	 * cached layer build was recorded for the request, if the response is not
+	 * cacheable, or if the aggregator cache has been replaced since the request was
+	 * looked up using {@link #get(String, ICache)}.
+	 *
+	 * @param key
+	 *            the cache key
+	 * @param request
+	 *            the request object
+	 * @param aggregatorCache
+	 *            the aggregator cache used to process the request
+	 * @param lastModified
+	 *            the value of the Last-Modified response header
+	 * @param cacheControl
+	 *            the value of the Cache-Control response header
+	 */
+	public void put(String key, HttpServletRequest request, ICache aggregatorCache, long lastModified, String cacheControl) {
+		Response recorded = (Response)request.getAttribute(RESPONSE_REQATTRNAME);
+		if (recorded == null || request.getAttribute(ILayer.NOCACHE_RESPONSE_REQATTRNAME) != null) {
+			return;
+		}
+		if (aggregatorCache != owner) {
+			// The request was processed using a previous aggregator cache.  Don't let it
+			// clear the responses that have been added for the current one.
+			return;
+		}
+		cache.put(key, new Response(aggregatorCache, recorded.layer, recorded.entry, lastModified, cacheControl));
+	}
+
+	/**
+	 * Records the cached layer build that is used for the response to the specified
+	 * request so that the response can be added to the cache by
+	 * {@link #put(String, HttpServletRequest, ICache, long, String)}.
+	 *
+	 * @param request
+	 *            the request object
+	 * @param layer
+	 *            the layer
+	 * @param entry
+	 *            the layer build
+	 */
+	static void recordEntry(HttpServletRequest request, LayerImpl layer, CacheEntry entry) {
+		request.setAttribute(RESPONSE_REQATTRNAME, new Response(null, layer, entry, 0, null));
+	}
+
+	/**
+	 * @return the number of cached responses
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Clears the cache if the aggregator cache has been replaced since the cached
+	 * responses were added so that the responses for the previous aggregator cache
+	 * don't need to wait to be evicted.
+	 *
+	 * @param aggregatorCache
+	 *            the current aggregator cache
+	 */
+	private void validate(ICache aggregatorCache) {
+		if (owner != aggregatorCache) {
+			synchronized (this) {
+				if (owner != aggregatorCache) {
+					cache.clear();
+					owner = aggregatorCache;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A cached layer response
+	 */
+	public static class Response {
+		private final ICache owner;
+		private final LayerImpl layer;
+		private final CacheEntry entry;
+		private final long lastModified;
+		private final String cacheControl;
+
+		Response(ICache owner, LayerImpl layer, CacheEntry entry, long lastModified, String cacheControl) {
+			this.owner = owner;
+			this.layer = layer;
+			this.entry = entry;
+			this.lastModified = lastModified;
+			this.cacheControl = cacheControl;
+		}
+
+		/**
+		 * @return the value of the Last-Modified response header
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return the value of the Cache-Control response header
+		 */
+		public String getCacheControl() {
+			return cacheControl;
+		}
+
+		/**
+		 * Returns an input stream to the layer build for the response, and sets the
+		 * Content-Type, Content-Length and Content-Encoding headers in the response.
+		 * Returns null, without setting any headers, if the layer build is no longer
+		 * available.
+		 *
+		 * @param request
+		 *            the request object
+		 * @param response
+		 *            the response object
+		 * @return the input stream for the response, or null
+		 * @throws IOException
+		 */
+		public InputStream getInputStream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+			InputStream in = entry.tryGetInputStream(request);
+			if (in != null) {
+				layer.setResponseHeaders(request, response, entry.getSize());
+			}
+			return in;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.layer;
+
+import com.ibm.jaggr.core.encoding.IContentEncoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Input stream that encodes (and optionally compresses) the content of a layer reader as
+ * the stream is read.  Encoded bytes are discarded once they have been read from the stream,
+ * so only the most recently encoded chunk of the layer is held by the stream.  If a capture
+ * stream is provided, then the encoded bytes are also written to it so that, once the end
+ * of the layer has been reached, they can be handed off to the layer cache without having
+ * been assembled into an intermediate string.
+ * <p>
+ * The completion callback is invoked exactly once, with a value of true when the end of the
+ * reader has been reached, or false if the stream was closed before the end of the layer was
+ * reached or an error occurred reading the layer.
+ */
+class LayerStreamingInputStream extends InputStream {
+
+	static final int CHAR_BUFFER_SIZE = 8192;
+
+	interface CompletionCallback {
+		/**
+		 * @param success
+		 *            true if the layer was read to the end
+		 */
+		public void completed(boolean success);
+	}
+
+	/**
+	 * Exposes the internal buffer so that bytes can be read out without copying
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		Buffer(int size) {
+			super(size);
+		}
+		int read(int pos, byte[] b, int off, int len) {
+			int n = Math.min(len, count - pos);
+			System.arraycopy(buf, pos, b, off, n);
+			return n;
+		}
+		int get(int pos) {
+			return buf[pos] & 0xff;
+		}
+	}
+
+	private final Reader reader;
+	private final Writer writer;
+	private final Buffer buffer;
+	private final char[] cbuf = new char[CHAR_BUFFER_SIZE];
+	private final CompletionCallback callback;
+	private int pos = 0;
+	private boolean eof = false;
+	private boolean completed = false;
+
+	/**
+	 * @param reader
+	 *            the layer reader
+	 * @param encoding
+	 *            the content encoding for the stream content, or null
+	 * @param capture
+	 *            output - receives the complete encoded layer, or null
+	 * @param callback
+	 *            the completion callback
+	 * @throws IOException
+	 */
+	LayerStreamingInputStream(Reader reader, IContentEncoding encoding, final OutputStream capture, CompletionCallback callback) throws IOException {
+		this.reader = reader;
+		this.callback = callback;
+		buffer = new Buffer(CHAR_BUFFER_SIZE * 2);
+		OutputStream sink = buffer;
+		if (capture != null) {
+			sink = new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					buffer.write(b);
+					capture.write(b);
+				}
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					buffer.write(b, off, len);
+					capture.write(b, off, len);
+				}
+			};
+		}
+		OutputStream out = encoding != null ? encoding.encode(sink) : sink;
+		writer = new OutputStreamWriter(out, "UTF-8"); //$NON-NLS-1$
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#read()
+	 */
+	@Override
+	public int read() throws IOException {
+		return fill() ? buffer.get(pos++) : -1;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int n = buffer.read(pos, b, off, len);
+		pos += n;
+		return n;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#available()
+	 */
+	@Override
+	public int available() {
+		return buffer.size() - pos;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			reader.close();
+		} finally {
+			complete(false);
+		}
+	}
+
+	/**
+	 * Reads from the layer reader until there is unread data in the buffer or the end
+	 * of the layer has been reached.  The buffer is emptied before it is refilled.
+	 *
+	 * @return true if there is unread data in the buffer
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		boolean ok = false;
+		try {
+			while (pos == buffer.size() && !eof) {
+				buffer.reset();
+				pos = 0;
+				int n = reader.read(cbuf);
+				if (n == -1) {
+					eof = true;
+					writer.close();	// flushes the encoder and finishes the encoding
+					complete(true);
+				} else {
+					writer.write(cbuf, 0, n);
+				}
+			}
+			ok = true;
+		} finally {
+			if (!ok) {
+				complete(false);
+			}
+		}
+		return pos < buffer.size();
+	}
+
+	private void complete(boolean success) {
+		if (!completed) {
+			completed = true;
+			callback.completed(success);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.layer;
+
+import com.ibm.jaggr.core.module.IModule;
+import com.ibm.jaggr.core.module.ModuleSpecifier;
+import com.ibm.jaggr.core.modulebuilder.ModuleBuildFuture;
+import com.ibm.jaggr.core.readers.ModuleBuildReader;
+import com.ibm.jaggr.core.transport.IHttpTransport;
+import com.ibm.jaggr.core.util.TypeUtil;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Sorts the readers from the provided list of futures in the same way as {@link SortedReaders},
+ * except that the futures are resolved only as the readers are requested, so that the output
+ * from the module builds that have completed may be used while the remaining builds are still
+ * in progress.
+ * <p>
+ * The scripts and the requested modules are the futures in the list having the corresponding
+ * {@link ModuleSpecifier}, so they are resolved one at a time, in list order.  The loader cache
+ * entries include the extra builds added by the module builders, so unless extra builds are
+ * disabled for the request, obtaining the next cache entry may require resolving the futures that
+ * precede it in the list, and the last cache entry is known only after all of the futures in the
+ * list have been resolved.
+ */
+class LazySortedReaders {
+	private final boolean noAddModules;
+	private final Section scripts;
+	private final Section cacheEntries;
+	private final Section modules;
+
+	/**
+	 * The readers for the futures that have been resolved
+	 */
+	private final Map<ModuleBuildFuture, ModuleBuildReader> resolved = new HashMap<ModuleBuildFuture, ModuleBuildReader>();
+
+	/**
+	 * The futures that have been returned from one of the sections
+	 */
+	private final Set<ModuleBuildFuture> taken = new HashSet<ModuleBuildFuture>();
+
+	/**
+	 * The futures remaining to be visited in the depth first walk for loader cache entries
+	 */
+	private final LinkedList<ModuleBuildFuture> walk;
+
+	LazySortedReaders(List<ModuleBuildFuture> futures, HttpServletRequest request) {
+		noAddModules = TypeUtil.asBoolean(request.getAttribute(IHttpTransport.NOADDMODULES_REQATTRNAME));
+		final LinkedList<ModuleBuildFuture> scriptFutures = new LinkedList<ModuleBuildFuture>();
+		final LinkedList<ModuleBuildFuture> moduleFutures = new LinkedList<ModuleBuildFuture>();
+		for (ModuleBuildFuture future : futures) {
+			if (future.getModuleSpecifier() == ModuleSpecifier.SCRIPTS) {
+				scriptFutures.add(future);
+			} else if (future.getModuleSpecifier() == ModuleSpecifier.MODULES) {
+				moduleFutures.add(future);
+			}
+		}
+		walk = new LinkedList<ModuleBuildFuture>(futures);
+		scripts = new Section() {
+			@Override
+			ModuleBuildFuture advance() {
+				return scriptFutures.poll();
+			}
+		};
+		modules = new Section() {
+			@Override
+			ModuleBuildFuture advance() {
+				return moduleFutures.poll();
+			}
+		};
+		cacheEntries = new Section() {
+			@Override
+			ModuleBuildFuture advance() throws IOException {
+				while (!walk.isEmpty()) {
+					ModuleBuildFuture future = walk.removeFirst();
+					ModuleSpecifier spec = future.getModuleSpecifier();
+					boolean isCacheEntry = spec == ModuleSpecifier.LAYER || spec == ModuleSpecifier.BUILD_ADDED;
+					if (!noAddModules) {
+						// Extra builds follow the build that added them
+						walk.addAll(0, resolve(future).getExtraBuilds());
+					}
+					if (isCacheEntry) {
+						return future;
+					}
+				}
+				return null;
+			}
+		};
+	}
+
+	public Section getScripts() {
+		return scripts;
+	}
+
+	public Section getModules() {
+		return modules;
+	}
+
+	public Section getCacheEntries() {
+		return cacheEntries;
+	}
+
+	/**
+	 * Closes the readers that were resolved but not returned from any of the sections.
+	 */
+	public void close() {
+		for (Map.Entry<ModuleBuildFuture, ModuleBuildReader> entry : resolved.entrySet()) {
+			if (!taken.contains(entry.getKey())) {
+				try {
+					entry.getValue().close();
+				} catch (IOException ignore) {
+				}
+			}
+		}
+		resolved.clear();
+	}
+
+	private ModuleBuildReader resolve(ModuleBuildFuture future) throws IOException {
+		ModuleBuildReader reader = resolved.get(future);
+		if (reader == null) {
+			try {
+				reader = future.get();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e);
+			}
+			resolved.put(future, reader);
+		}
+		return reader;
+	}
+
+	/**
+	 * An ordered group of module-id/reader entries.
+	 */
+	abstract class Section {
+		private final Set<IModule> seen = new HashSet<IModule>();
+		private ModuleBuildFuture next = null;
+		private boolean done = false;
+
+		/**
+		 * @return the next future in this section, or null
+		 * @throws IOException
+		 */
+		abstract ModuleBuildFuture advance() throws IOException;
+
+		/**
+		 * @return true if there are no more entries in this section
+		 * @throws IOException
+		 */
+		public boolean isEmpty() throws IOException {
+			return peek() == null;
+		}
+
+		/**
+		 * Returns the next entry in this section, waiting for the module build to complete
+		 * if necessary.
+		 *
+		 * @return the next module/reader entry, or null if there are no more entries
+		 * @throws IOException
+		 */
+		public Map.Entry<IModule, ModuleBuildReader> next() throws IOException {
+			ModuleBuildFuture future = peek();
+			if (future == null) {
+				return null;
+			}
+			next = null;
+			taken.add(future);
+			return new AbstractMap.SimpleEntry<IModule, ModuleBuildReader>(future.getModule(), resolve(future));
+		}
+
+		private ModuleBuildFuture peek() throws IOException {
+			while (next == null && !done) {
+				ModuleBuildFuture future = advance();
+				if (future == null) {
+					done = true;
+				} else if (seen.add(future.getModule())) {
+					next = future;
+				}
+			}
+			return next;
+		}
+	}
+}
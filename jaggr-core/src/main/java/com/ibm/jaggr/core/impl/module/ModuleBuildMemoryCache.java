@@ -0,0 +1,169 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.module;
+
+import com.ibm.jaggr.core.IAggregator;
+import com.ibm.jaggr.core.cache.ICache;
+import com.ibm.jaggr.core.cache.ICacheManager;
+import com.ibm.jaggr.core.module.IModuleCache;
+import com.ibm.jaggr.core.options.IOptions;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+/**
+ * Memory budget for module builds, shared by the modules in a {@link ModuleCacheImpl}.
+ * <p>
+ * Module builds are always written to cache files.  Builds that are registered with
+ * this class keep their output in memory after the cache file has been written, so
+ * that requests for the build don't need to read the file.  The budget is bounded by
+ * the estimated heap size of the registered builds, as specified by
+ * {@link IOptions#MODULE_BUILD_CACHE_CAPACITY_MB}, and when the capacity is exceeded,
+ * the least recently used builds release their in-memory output.  Released builds are
+ * read from their cache files the next time they are requested, and are registered
+ * again when they are read.
+ * <p>
+ * Each module cache has its own instance, sized from the aggregator options when the
+ * aggregator is set on the module cache.  The cache manager replaces the module cache
+ * when the options are updated, so the new capacity applies to the new module cache.
+ */
+class ModuleBuildMemoryCache {
+
+	private static final long BYTES_PER_MB = 1024 * 1024;
+
+	private final ConcurrentLinkedHashMap<ModuleImpl.CacheEntry, Integer> cache;
+
+	/**
+	 * @param capacityMB
+	 *            the capacity, in megabytes of estimated heap usage
+	 */
+	ModuleBuildMemoryCache(int capacityMB) {
+		cache = new ConcurrentLinkedHashMap.Builder<ModuleImpl.CacheEntry, Integer>()
+				.maximumWeightedCapacity(toBytes(capacityMB))
+				.weigher(new Weigher<Integer>() {
+					@Override
+					public int weightOf(Integer size) {
+						// ConcurrentLinkedHashMap barfs on weight == 0
+						return Math.max(size, 1);
+					}
+				})
+				.listener(new EvictionListener<ModuleImpl.CacheEntry, Integer>() {
+					@Override
+					public void onEviction(ModuleImpl.CacheEntry entry, Integer size) {
+						entry.release();
+					}
+				}).build();
+	}
+
+	/**
+	 * Returns the memory budget of the current module cache of the specified aggregator,
+	 * or null if there is no module cache or module builds should not be kept in memory.
+	 *
+	 * @param aggr
+	 *            the aggregator
+	 * @return the memory budget, or null
+	 */
+	static ModuleBuildMemoryCache getInstance(IAggregator aggr) {
+		ICacheManager mgr = aggr != null ? aggr.getCacheManager() : null;
+		ICache cache = mgr != null ? mgr.getCache() : null;
+		IModuleCache moduleCache = cache != null ? cache.getModules() : null;
+		ModuleBuildMemoryCache result = moduleCache instanceof ModuleCacheImpl ?
+				((ModuleCacheImpl)moduleCache).getMemoryCache() : null;
+		return result != null && result.isEnabled() ? result : null;
+	}
+
+	/**
+	 * Registers the module build, or updates its size if it is already registered.
+	 * This may cause the least recently used builds to be released.
+	 *
+	 * @param entry
+	 *            the module build
+	 */
+	void add(ModuleImpl.CacheEntry entry) {
+		cache.put(entry, entry.getResidentSize());
+	}
+
+	/**
+	 * Marks the module build as recently used
+	 *
+	 * @param entry
+	 *            the module build
+	 */
+	void touch(ModuleImpl.CacheEntry entry) {
+		cache.get(entry);
+	}
+
+	/**
+	 * Unregisters the module build without releasing its output.  Called when the
+	 * build is discarded.
+	 *
+	 * @param entry
+	 *            the module build
+	 */
+	void remove(ModuleImpl.CacheEntry entry) {
+		cache.remove(entry);
+	}
+
+	/**
+	 * @param entry
+	 *            the module build
+	 * @return true if the module build is registered
+	 */
+	boolean contains(ModuleImpl.CacheEntry entry) {
+		return cache.containsKey(entry);
+	}
+
+	/**
+	 * @return the estimated heap size, in bytes, of the registered module builds
+	 */
+	long weightedSize() {
+		return cache.weightedSize();
+	}
+
+	/**
+	 * Unregisters all module builds.
+	 */
+	void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * @return true if module builds should be kept in memory
+	 */
+	boolean isEnabled() {
+		return cache.capacity() > 0;
+	}
+
+	/**
+	 * Sets the capacity, releasing the least recently used builds if the registered
+	 * builds exceed the new capacity.
+	 *
+	 * @param capacityMB
+	 *            the capacity, in megabytes of estimated heap usage
+	 */
+	void setCapacity(int capacityMB) {
+		long capacity = toBytes(capacityMB);
+		if (capacity != cache.capacity()) {
+			cache.setCapacity(capacity);
+		}
+	}
+
+	private static long toBytes(int capacityMB) {
+		return Math.max(capacityMB, 0) * BYTES_PER_MB;
+	}
+}
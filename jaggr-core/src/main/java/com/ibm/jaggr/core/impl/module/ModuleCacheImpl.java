@@ -21,6 +21,7 @@ import com.ibm.jaggr.core.NotFoundException;
 import com.ibm.jaggr.core.impl.cache.GenericCacheImpl;
 import com.ibm.jaggr.core.module.IModule;
 import com.ibm.jaggr.core.module.IModuleCache;
+import com.ibm.jaggr.core.options.IOptions;
 import com.ibm.jaggr.core.readers.ModuleBuildReader;
 import com.ibm.jaggr.core.resource.IResource;
 import com.ibm.jaggr.core.util.RequestUtil;
@@ -40,6 +41,47 @@ import javax.servlet.http.HttpServletRequest;
 public class ModuleCacheImpl extends GenericCacheImpl<IModule> implements IModuleCache, Serializable {
 	private static final long serialVersionUID = 6091565036994759152L;
 
+	/** The memory budget for the builds of the modules in this cache */
+	private transient volatile ModuleBuildMemoryCache memoryCache = null;
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.cache.GenericCacheImpl#clear()
+	 */
+	@Override
+	public void clear() {
+		// Unregister the builds of the cleared modules from the memory budget
+		ModuleBuildMemoryCache memoryCache = this.memoryCache;
+		if (memoryCache != null) {
+			memoryCache.clear();
+		}
+		super.clear();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.cache.GenericCacheImpl#setAggregator(com.ibm.jaggr.core.IAggregator)
+	 */
+	@Override
+	public void setAggregator(IAggregator aggregator) {
+		IOptions options = aggregator != null ? aggregator.getOptions() : null;
+		int capacity = options != null ?
+				options.getModuleBuildCacheCapacityMB() :
+				IOptions.DEFAULT_MODULE_BUILD_CACHE_CAPACITY_MB;
+		ModuleBuildMemoryCache memoryCache = this.memoryCache;
+		if (memoryCache == null) {
+			this.memoryCache = new ModuleBuildMemoryCache(capacity);
+		} else {
+			memoryCache.setCapacity(capacity);
+		}
+	}
+
+	/**
+	 * @return the memory budget for the builds of the modules in this cache, or null
+	 *         if the aggregator has not been set
+	 */
+	ModuleBuildMemoryCache getMemoryCache() {
+		return memoryCache;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.service.module.IModuleCache#getBuild(javax.servlet.http.HttpServletRequest, com.ibm.jaggr.service.module.IModule)
 	 */
@@ -25,6 +25,8 @@ import com.ibm.jaggr.core.cachekeygenerator.AbstractCacheKeyGenerator;
 import com.ibm.jaggr.core.cachekeygenerator.ICacheKeyGenerator;
 import com.ibm.jaggr.core.cachekeygenerator.KeyGenUtil;
 import com.ibm.jaggr.core.config.IConfig;
+import com.ibm.jaggr.core.impl.encoding.ContentEncodings;
+import com.ibm.jaggr.core.impl.encoding.GzipContentEncoding;
 import com.ibm.jaggr.core.impl.layer.CompletedFuture;
 import com.ibm.jaggr.core.layer.ILayer;
 import com.ibm.jaggr.core.module.IModule;
@@ -41,6 +43,7 @@ import com.ibm.jaggr.core.readers.ModuleBuildReader;
 import com.ibm.jaggr.core.resource.IResource;
 import com.ibm.jaggr.core.transport.IHttpTransport;
 import com.ibm.jaggr.core.util.CopyUtil;
+import com.ibm.jaggr.core.util.DeflatedSegment;
 import com.ibm.jaggr.core.util.StringUtil;
 import com.ibm.jaggr.core.util.TypeUtil;
 
@@ -221,6 +224,9 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 		final boolean ignoreCached = options.isDevelopmentMode() &&
 				TypeUtil.asBoolean(request.getAttribute(IHttpTransport.NOCACHE_REQATTRNAME));
 
+		// Non-null if build output should be kept in memory after it's written to disk
+		final ModuleBuildMemoryCache memoryCache = ModuleBuildMemoryCache.getInstance(aggr);
+
 		if (_moduleBuilds == null) {
 			synchronized(this) {
 				if (_moduleBuilds == null) {
@@ -293,6 +299,7 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 				ModuleBuildReader mbr = new ModuleBuildReader(reader, builder.isScript(request),
 						cacheKeyGenerators, null);
 				processExtraModules(mbr, request, existingEntry);
+				processDeflatedContent(mbr, request, existingEntry);
 				return new CompletedFuture<ModuleBuildReader>(mbr);
 			}
 		}
@@ -328,6 +335,7 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 				ModuleBuildReader mbr = new ModuleBuildReader(reader, builder.isScript(request),
 						cacheKeyGenerators, null);
 				processExtraModules(mbr, request, existingEntry);
+				processDeflatedContent(mbr, request, existingEntry);
 				return new CompletedFuture<ModuleBuildReader>(mbr);
 			}
 		}
@@ -375,6 +383,7 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 							ModuleBuildReader mbr = new ModuleBuildReader(reader, builder.isScript(request),
 									_cacheKeyGenerators, null);
 							processExtraModules(mbr, request, cacheEntry);
+							processDeflatedContent(mbr, request, cacheEntry);
 							return mbr;
 						}
 						// Build the output
@@ -419,12 +428,12 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 								// Only write out the cache file if the put was
 								// successful
 								if (oldEntry == null || oldEntry == cacheEntry) {
-									cacheEntry.persist(mgr, ModuleImpl.this); // asynchronous
+									cacheEntry.persist(mgr, ModuleImpl.this, memoryCache); // asynchronous
 								}
 							}
 						} else if (!ignoreCached) {
 							// Write the cache file to disk
-							cacheEntry.persist(mgr, ModuleImpl.this); // asynchronous
+							cacheEntry.persist(mgr, ModuleImpl.this, memoryCache); // asynchronous
 						}
 					} catch (Exception ex) {
 						// don't cache error responses
@@ -473,6 +482,7 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 						builder.isScript(request),
 						newCacheKeyGenerators, null);
 				processExtraModules(mbr, request, cacheEntry);
+				processDeflatedContent(mbr, request, cacheEntry);
 				// return a build reader object
 				return mbr;
 			}
@@ -511,6 +521,29 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 			}
 		}
 	}
+
+	/**
+	 * If pre-compression of module builds is enabled and the response will be gzip
+	 * encoded, then add the compressed build output for {@code cacheEntry} to the
+	 * {@link ModuleBuildReader} specified by {@code reader}.
+	 *
+	 * @param reader
+	 *            the {@link ModuleBuildReader} to add the compressed output to
+	 * @param request
+	 *            The http request
+	 * @param cacheEntry
+	 *            The cache entry object for the current module
+	 * @throws IOException
+	 */
+	void processDeflatedContent(ModuleBuildReader reader, HttpServletRequest request, CacheEntry cacheEntry)
+			throws IOException {
+		IAggregator aggr = (IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME);
+		if (aggr.getOptions().isPrecompressModules() && DeflatedSegment.isSupported() &&
+				GzipContentEncoding.NAME.equals(ContentEncodings.getName(ContentEncodings.negotiate(request)))) {
+			reader.setDeflatedContent(cacheEntry.getDeflated(aggr));
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -683,13 +716,17 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 	 * contention on synchronized locks that would need to be held during file
 	 * I/O if the live cache objects were serialized.
 	 */
-	static final private class CacheEntry implements Cloneable, Serializable {
+	static final class CacheEntry implements Cloneable, Serializable {
 		private static final long serialVersionUID = -3260824057647663760L;
 
 		private volatile transient Object content = null;
 		private volatile String filename = null;
 		private volatile boolean isString = false;
 		private volatile List<String> extraModules = Collections.emptyList();
+		private volatile transient DeflatedSegment deflated = null;
+
+		/** The memory budget that this build is registered with, if any */
+		private volatile transient ModuleBuildMemoryCache memoryCache = null;
 
 		/**
 		 * @return The filename of the cached module build
@@ -716,19 +753,8 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 			Object content = this.content;
 			String filename = this.filename;
 			if (isString) {
-				if (content == null) {
-					if (filename == null) {
-						throw new IllegalStateException();
-					}
-					// Read the file and return a StringReader instead of just
-					// returning a reader to the file so that we can take advantage of
-					// parallel processing to read the files on the module builder threads.
-					Reader fileReader = new FileReader(new File(cacheDir, filename));
-					StringWriter writer = new StringWriter();
-					CopyUtil.copy(fileReader, writer);
-					content = writer.toString();
-				}
-				return new StringReader((String)content);
+				IAggregator aggr = (IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME);
+				return new StringReader(getString(cacheDir, ModuleBuildMemoryCache.getInstance(aggr)));
 			} else {
 				if (content == null) {
 					if (filename == null) {
@@ -753,6 +779,103 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 			return reader;
 		}
 
+		/**
+		 * Returns the build output as a string.  Must be called only for string content.
+		 *
+		 * @param cacheDir
+		 *            the location of the cache directory
+		 * @param memoryCache
+		 *            the memory budget to register the build with if output that is
+		 *            read from the cache file should be kept in memory, or null
+		 * @return the build output
+		 * @throws IOException
+		 */
+		private String getString(File cacheDir, ModuleBuildMemoryCache memoryCache) throws IOException {
+			// See comments in getReader() regarding the order of these assignments
+			Object content = this.content;
+			String filename = this.filename;
+			if (content == null) {
+				if (filename == null) {
+					throw new IllegalStateException();
+				}
+				// Read the file and return a StringReader instead of just
+				// returning a reader to the file so that we can take advantage of
+				// parallel processing to read the files on the module builder threads.
+				Reader fileReader = new FileReader(new File(cacheDir, filename));
+				StringWriter writer = new StringWriter();
+				CopyUtil.copy(fileReader, writer);
+				content = writer.toString();
+				if (memoryCache != null) {
+					this.content = content;
+					retain(memoryCache);
+				}
+			} else if (memoryCache != null) {
+				memoryCache.touch(this);
+			}
+			return (String)content;
+		}
+
+		/**
+		 * Registers this build with the specified memory budget, or updates its size if
+		 * it is already registered.
+		 *
+		 * @param memoryCache
+		 *            the memory budget
+		 */
+		private void retain(ModuleBuildMemoryCache memoryCache) {
+			this.memoryCache = memoryCache;
+			memoryCache.add(this);
+		}
+
+		/**
+		 * Releases the in-memory build output if it has been written to the cache
+		 * file.  Called when the build is evicted from the {@link ModuleBuildMemoryCache}.
+		 */
+		void release() {
+			if (filename != null) {
+				content = null;
+			}
+			deflated = null;
+		}
+
+		/**
+		 * @return the estimated heap size, in bytes, of the in-memory build output
+		 */
+		int getResidentSize() {
+			Object content = this.content;
+			DeflatedSegment deflated = this.deflated;
+			return (content instanceof String ? ((String)content).length() * 2 : 0) +
+					(deflated != null ? deflated.getBytes().length : 0);
+		}
+
+		/**
+		 * Returns the build output compressed as a {@link DeflatedSegment}.  The
+		 * compressed output is created the first time it is requested and is retained
+		 * in memory after the uncompressed output has been persisted, subject to the
+		 * {@link ModuleBuildMemoryCache} capacity if the memory cache is enabled.
+		 *
+		 * @param aggr
+		 *            the aggregator
+		 * @return the compressed build output, or null if the build output is not
+		 *         a string
+		 * @throws IOException
+		 */
+		public DeflatedSegment getDeflated(IAggregator aggr) throws IOException {
+			DeflatedSegment deflated = this.deflated;
+			if (deflated == null && isString) {
+				ModuleBuildMemoryCache memoryCache = ModuleBuildMemoryCache.getInstance(aggr);
+				// No need to synchronize.  The worst that can happen is that the content
+				// is compressed more than once.
+				deflated = this.deflated = DeflatedSegment.deflate(
+						getString(aggr.getCacheManager().getCacheDir(), memoryCache));
+				if (memoryCache != null && filename != null) {
+					// update the size of the build in the memory cache
+					retain(memoryCache);
+				}
+			}
+			return deflated;
+		}
+
 		/**
 		 * @param content
 		 *            The built output
@@ -762,6 +885,7 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 		public void setData(Object content, List<String> extraModules) {
 			this.extraModules = extraModules;
 			this.content = content;
+			this.deflated = null;
 			this.isString = content instanceof String;
 		}
 
@@ -819,8 +943,12 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 		 * @param module
 		 *            A reference to the {@Link IModule} object that this
 		 *            build is attached to
+		 * @param memoryCache
+		 *            the memory budget subject to which the build output should
+		 *            be kept in memory after it has been written to disk, or null
+		 *            if the output should not be kept in memory
 		 */
-		public void persist(final ICacheManager mgr, final ModuleImpl module) {
+		public void persist(final ICacheManager mgr, final ModuleImpl module, final ModuleBuildMemoryCache memoryCache) {
 			String mid = new ModuleIdentifier(module.getModuleId()).getModuleName();
 			int idx = mid.lastIndexOf("/"); //$NON-NLS-1$
 			String name = "_" + ((idx != -1) ? mid.substring(idx + 1) : mid) + "."; //$NON-NLS-1$ //$NON-NLS-2$
@@ -834,12 +962,15 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 							// Must set filename before clearing content
 							// since we don't synchronize.
 							filename = fname;
-							// Free up the memory for the content now that
-							// we've written out to disk
-							// TODO: Determine a size threshold where we may
-							// want to keep the contents
-							// of small files in memory to reduce disk i/o.
-							content = null;
+							if (memoryCache != null) {
+								// Keep the content in memory until it is evicted
+								// from the memory cache
+								retain(memoryCache);
+							} else {
+								// Free up the memory for the content now that
+								// we've written out to disk
+								content = null;
+							}
 						}
 					}
 				});
@@ -871,6 +1002,10 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 		 *            {@link ScheduledExecutorService} to submit the delete task
 		 */
 		public void delete(ICacheManager mgr) {
+			ModuleBuildMemoryCache memoryCache = this.memoryCache;
+			if (memoryCache != null) {
+				memoryCache.remove(this);
+			}
 			if (filename != null) {
 				mgr.deleteFileDelayed(filename);
 			}
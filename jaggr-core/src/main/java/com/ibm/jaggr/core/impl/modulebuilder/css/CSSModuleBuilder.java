@@ -25,9 +25,15 @@ import com.ibm.jaggr.core.IShutdownListener;
 import com.ibm.jaggr.core.NotFoundException;
 import com.ibm.jaggr.core.cachekeygenerator.AbstractCacheKeyGenerator;
 import com.ibm.jaggr.core.cachekeygenerator.ICacheKeyGenerator;
+import com.ibm.jaggr.core.cachekeygenerator.KeyGenUtil;
 import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.config.IConfigListener;
+import com.ibm.jaggr.core.executors.IExecutors;
+import com.ibm.jaggr.core.executors.IStatisticsProvider;
+import com.ibm.jaggr.core.impl.modulebuilder.css.ImportedFragmentCache.Dependencies;
+import com.ibm.jaggr.core.impl.modulebuilder.css.ImportedFragmentCache.Fragment;
 import com.ibm.jaggr.core.impl.modulebuilder.text.TextModuleBuilder;
+import com.ibm.jaggr.core.modulebuilder.ModuleBuild;
 import com.ibm.jaggr.core.options.IOptions;
 import com.ibm.jaggr.core.readers.CommentStrippingReader;
 import com.ibm.jaggr.core.resource.IResource;
@@ -37,6 +43,7 @@ import com.ibm.jaggr.core.util.PathUtil;
 import com.ibm.jaggr.core.util.TypeUtil;
 
 import com.google.common.collect.ImmutableMap;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
@@ -69,13 +76,12 @@ import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -184,7 +190,7 @@ import javax.servlet.http.HttpServletRequest;
  * ],
  * </pre></code>
  */
-public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionInitializer, IExtensionSingleton, IShutdownListener, IConfigListener {
+public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionInitializer, IExtensionSingleton, IShutdownListener, IConfigListener, IStatisticsProvider {
 
 	static final String sourceClass = CSSModuleBuilder.class.getName();
 	static final Logger log = Logger.getLogger(sourceClass);
@@ -229,12 +235,15 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	static public final int INITIALIZER_THREAD_POOL_SIZE = 4;
 	static public final int DEFAULT_SCOPE_POOL_SIZE = 10;
 	static public final int SCOPE_POOL_TIMEOUT_SECONDS = 60;
+	static public final String POSTCSS_STAGE = "postcss"; //$NON-NLS-1$
 
 	static final protected Pattern urlPattern = Pattern.compile("url\\((\\s*(('[^']*')|(\"[^\"]*\")|([^)]*))\\s*)\\)?"); //$NON-NLS-1$
 	static final protected Pattern protocolPattern = Pattern.compile("^[a-zA-Z]*:"); //$NON-NLS-1$
 
 	static final protected Collection<String> s_inlineableImageTypes;
 
+	static final int IMAGE_PATH_INFO_CACHE_CAPACITY = 10000;
+
 	static {
 		s_inlineableImageTypes = new ArrayList<String>();
 		s_inlineableImageTypes.add("image/gif"); //$NON-NLS-1$
@@ -285,26 +294,93 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 		}
 	}
 
-	static private final AbstractCacheKeyGenerator s_cacheKeyGenerator = new AbstractCacheKeyGenerator() {
-		private static final long serialVersionUID = 4300533249863413980L;
-		// This is a singleton, so default equals() is sufficient
-		private final String eyecatcher = "css"; //$NON-NLS-1$
+	/**
+	 * Cache key generator for the request parameters that affect the processing of
+	 * stylesheets.  The provisional instance depends on all of the parameters.  After a
+	 * stylesheet has been built, it is replaced with an instance that depends only on the
+	 * parameters that can affect the output for that stylesheet, as determined by the
+	 * stylesheet's import graph, so that requests which differ only in parameters that
+	 * don't apply to the stylesheet share the same cached build.
+	 */
+	static final class CSSCacheKeyGenerator extends AbstractCacheKeyGenerator {
+		private static final long serialVersionUID = -3155745958442787934L;
+		private static final String eyecatcher = "css"; //$NON-NLS-1$
+
+		/** True if the output depends on the import related request parameters */
+		private final boolean imports;
+
+		/** True if the output depends on the image in-lining request parameter */
+		private final boolean images;
+
+		private final boolean provisional;
+
+		CSSCacheKeyGenerator(boolean imports, boolean images, boolean provisional) {
+			this.imports = imports;
+			this.images = images;
+			this.provisional = provisional;
+		}
+
 		@Override
 		public String generateKey(HttpServletRequest request) {
 			boolean inlineImports = TypeUtil.asBoolean(request.getParameter(CSSModuleBuilder.INLINEIMPORTS_REQPARAM_NAME));
 			boolean inlineImages = TypeUtil.asBoolean(request.getParameter(CSSModuleBuilder.INLINEIMAGES_REQPARAM_NAME));
 			boolean showFilenames = TypeUtil.asBoolean(request.getAttribute(IHttpTransport.SHOWFILENAMES_REQATTRNAME));
 			StringBuffer sb = new StringBuffer(eyecatcher)
-			.append(inlineImports ? ":1" : ":0") //$NON-NLS-1$ //$NON-NLS-2$
-			.append(inlineImages ? ":1" : ":0") //$NON-NLS-1$ //$NON-NLS-2$
-			.append(showFilenames ? ":1" : ":0"); //$NON-NLS-1$ //$NON-NLS-2$
+			.append(imports ? (inlineImports ? ":1" : ":0") : ":-") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			.append(images ? (inlineImages ? ":1" : ":0") : ":-") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			.append(imports ? (showFilenames ? ":1" : ":0") : ":-"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			return sb.toString();
 		}
+
+		@Override
+		public ICacheKeyGenerator combine(ICacheKeyGenerator otherKeyGen) {
+			if (this.equals(otherKeyGen)) {
+				return this;
+			}
+			CSSCacheKeyGenerator other = (CSSCacheKeyGenerator)otherKeyGen;
+			if (provisional) {
+				return other;
+			} else if (other.provisional) {
+				return this;
+			}
+			return new CSSCacheKeyGenerator(imports || other.imports, images || other.images, false);
+		}
+
+		@Override
+		public boolean isProvisional() {
+			return provisional;
+		}
+
 		@Override
 		public String toString() {
-			return eyecatcher;
+			StringBuffer sb = new StringBuffer(eyecatcher);
+			if (!imports) {
+				sb.append(":noImports"); //$NON-NLS-1$
+			}
+			if (!images) {
+				sb.append(":noImages"); //$NON-NLS-1$
+			}
+			if (provisional) {
+				sb.append(":provisional"); //$NON-NLS-1$
+			}
+			return sb.toString();
 		}
-	};
+
+		@Override
+		public boolean equals(Object other) {
+			return other != null && getClass().equals(other.getClass()) &&
+					imports == ((CSSCacheKeyGenerator)other).imports &&
+					images == ((CSSCacheKeyGenerator)other).images &&
+					provisional == ((CSSCacheKeyGenerator)other).provisional;
+		}
+
+		@Override
+		public int hashCode() {
+			return (imports ? 1 : 0) + (images ? 2 : 0) + (provisional ? 4 : 0);
+		}
+	}
+
+	static private final CSSCacheKeyGenerator s_cacheKeyGenerator = new CSSCacheKeyGenerator(true, true, true);
 
 	static protected final List<ICacheKeyGenerator> s_cacheKeyGenerators;
 
@@ -315,6 +391,17 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 		s_cacheKeyGenerators = Collections.unmodifiableList(keyGens);
 	}
 
+	private static class ImagePathInfo {
+		final boolean include;
+		final boolean inlineable;
+		final String type;
+		ImagePathInfo(boolean include, boolean inlineable, String type) {
+			this.include = include;
+			this.inlineable = inlineable;
+			this.type = type;
+		}
+	}
+
 	private static class PluginInfo {
 		final Function initializer;
 		final Script moduleScript;
@@ -333,6 +420,15 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	private Map<String, String> inlineableImageTypeMap = new HashMap<String, String>();
 	private Collection<Pattern> inlinedImageIncludeList = Collections.emptyList();
 	public Collection<Pattern> inlinedImageExcludeList = Collections.emptyList();
+	private Map<String, ImagePathInfo> imagePathInfos = newImagePathInfoMap();
+	private final InlinedImageCache inlinedImageCache = new InlinedImageCache();
+	private final ImportedFragmentCache importedFragmentCache = new ImportedFragmentCache();
+
+	/**
+	 * Collects the dependencies of the stylesheet, or imported stylesheet, currently being
+	 * processed by the calling thread.
+	 */
+	private static final ThreadLocal<Dependencies> s_dependencies = new ThreadLocal<Dependencies>();
 	private IAggregator aggregator;
 
 	// Rhino variables for PostCSS
@@ -342,12 +438,37 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	private Script minifierInitScript;
 	private List<PluginInfo> pluginInfoList;
 	private Scriptable postcssOptions;
-	private BlockingQueue<Scriptable> threadScopes;
+	private ThreadScopePool threadScopes;
 
 	private ReadWriteLock configUpdatingRWL = new ReentrantReadWriteLock();
 	private boolean initialized = false;
 
 	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.modulebuilder.text.TextModuleBuilder#build(java.lang.String, com.ibm.jaggr.core.resource.IResource, javax.servlet.http.HttpServletRequest, java.util.List)
+	 */
+	@Override
+	public ModuleBuild build(String mid, IResource resource, HttpServletRequest request, List<ICacheKeyGenerator> keyGens) throws Exception {
+		if (keyGens != null && KeyGenUtil.isProvisional(keyGens)) {
+			keyGens = null;
+		}
+		Dependencies dependencies = new Dependencies();
+		ModuleBuild build;
+		s_dependencies.set(dependencies);
+		try {
+			build = super.build(mid, resource, request, keyGens);
+		} finally {
+			s_dependencies.remove();
+		}
+		// Replace the css cache key generator with one that depends on only the request
+		// parameters that apply to this stylesheet
+		List<ICacheKeyGenerator> newKeyGens = new ArrayList<ICacheKeyGenerator>();
+		for (ICacheKeyGenerator keyGen : keyGens != null ? keyGens : s_cacheKeyGenerators) {
+			newKeyGens.add(keyGen instanceof CSSCacheKeyGenerator ?
+					new CSSCacheKeyGenerator(dependencies.imports, dependencies.images, false) : keyGen);
+		}
+		return new ModuleBuild(build.getBuildOutput(), Collections.unmodifiableList(newKeyGens), build.getErrorMessage());
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.service.modulebuilder.impl.text.TextModuleBuilder#getContentReader(java.lang.String, com.ibm.jaggr.service.resource.IResource, javax.servlet.http.HttpServletRequest, com.ibm.jaggr.service.module.ICacheKeyGenerator)
 	 */
@@ -428,8 +549,14 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	 */
 	protected String inlineImports(HttpServletRequest req, String css, IResource res, String path) throws IOException {
 
+		Dependencies dependencies = s_dependencies.get();
+
 		// In-lining of imports can be disabled by request parameter for debugging
 		if (!TypeUtil.asBoolean(req.getParameter(INLINEIMPORTS_REQPARAM_NAME), true)) {
+			if (dependencies != null) {
+				// We don't know what the imports would have contributed
+				dependencies.imports = dependencies.images = true;
+			}
 			return css;
 		}
 
@@ -497,22 +624,49 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 				throw new NotFoundException(importNameMatch);
 			}
 
-			String importCss = null;
-			importCss = readToString(
-					new CommentStrippingReader(
-							new InputStreamReader(
-									uri.toURL().openStream(),
-									"UTF-8" //$NON-NLS-1$
+			// Re-use the processed imported CSS if none of the files it was built from
+			// have changed
+			String fragmentKey = new StringBuffer(uri.toString())
+				.append("|").append(importNameMatch) //$NON-NLS-1$
+				.append(TypeUtil.asBoolean(req.getParameter(INLINEIMAGES_REQPARAM_NAME), true) ? "|1" : "|0") //$NON-NLS-1$ //$NON-NLS-2$
+				.append(includePreamble ? "|1" : "|0") //$NON-NLS-1$ //$NON-NLS-2$
+				.toString();
+			Fragment fragment = importedFragmentCache.get(fragmentKey);
+			if (fragment == null) {
+				Dependencies importDependencies = new Dependencies();
+				importDependencies.add(importRes);
+				s_dependencies.set(importDependencies);
+				try {
+					String importCss = null;
+					importCss = readToString(
+							new CommentStrippingReader(
+									new InputStreamReader(
+											uri.toURL().openStream(),
+											"UTF-8" //$NON-NLS-1$
+											)
 									)
-							)
-					);
-			importCss = inlineImageUrls(req, importCss, importRes);
+							);
+					importCss = inlineImageUrls(req, importCss, importRes);
 
-			if (inlineImports) {
-				importCss = inlineImports(req, importCss, importRes, importNameMatch);
+					if (inlineImports) {
+						importCss = inlineImports(req, importCss, importRes, importNameMatch);
+					}
+					fragment = new Fragment(importCss, importDependencies);
+				} finally {
+					if (dependencies != null) {
+						s_dependencies.set(dependencies);
+					} else {
+						s_dependencies.remove();
+					}
+				}
+				importedFragmentCache.put(fragmentKey, fragment);
+			}
+			if (dependencies != null) {
+				dependencies.imports = true;
+				dependencies.addAll(fragment.dependencies);
 			}
 			m.appendReplacement(buf, BLANK);
-			buf.append(importCss);
+			buf.append(fragment.css);
 		}
 		m.appendTail(buf);
 
@@ -597,8 +751,13 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 			return css;
 		}
 
+		Dependencies dependencies = s_dependencies.get();
+
 		// In-lining of imports can be disabled by request parameter for debugging
 		if (!TypeUtil.asBoolean(req.getParameter(INLINEIMAGES_REQPARAM_NAME), true)) {
+			if (dependencies != null) {
+				dependencies.images = true;
+			}
 			return css;
 		}
 
@@ -630,69 +789,42 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 				continue;
 			}
 
-			boolean exclude = false, include = false;
-
-			// Determine if this image is in the include list
-			for (Pattern regex : inlinedImageIncludeList) {
-				if (regex.matcher(imageUri.getPath()).find()) {
-					include = true;
-					break;
-				}
-			}
-
-			// Determine if this image is in the exclude list
-			for (Pattern regex : inlinedImageExcludeList) {
-				if (regex.matcher(imageUri.getPath()).find()) {
-					exclude = true;
-					break;
-				}
-			}
 			// If there's an include list, then only the files in the include list
 			// will be inlined
-			if (inlinedImageIncludeList.size() > 0 && !include || exclude) {
+			ImagePathInfo info = getImagePathInfo(imageUri.getPath());
+			if (!info.inlineable) {
 				m.appendReplacement(buf, BLANK);
 				buf.append(fullMatch);
 				continue;
 			}
 
 			boolean imageInlined = false;
-			String type = URLConnection.getFileNameMap().getContentTypeFor(imageUri.getPath());
-			String extension = PathUtil.getExtension(imageUri.getPath());
-			if (type == null) {
-				type = inlineableImageTypeMap.get(extension);
-			}
-			if (type == null) {
-				type = "content/unknown"; //$NON-NLS-1$
-			}
-			if (include || inlineableImageTypes.contains(type) || inlineableImageTypeMap.containsKey(extension)) {
-				InputStream in = null;
-				try {
-					// In-line the image.
-					URLConnection connection = imageUri.toURL().openConnection();
-
-					if (include || connection.getContentLength() <= imageSizeThreshold) {
-						in = connection.getInputStream();
-						String base64 = getBase64(connection);
-						m.appendReplacement(buf, BLANK);
-						buf.append("url('data:" + type + //$NON-NLS-1$
-								";base64," + base64 + "')"); //$NON-NLS-1$ //$NON-NLS-2$
-						imageInlined = true;
-					}
-				} catch (IOException ex) {
-					if (log.isLoggable(Level.WARNING)) {
-						log.log(
-								Level.WARNING,
-								MessageFormat.format(
-										Messages.CSSModuleBuilder_0,
-										new Object[]{imageUri}
-										),
-										ex
-								);
-					}
-				} finally {
-					if (in != null) {
-						try {in.close();} catch (IOException ignore) {}
-					}
+			try {
+				// In-line the image.
+				IResource imageRes = aggregator.newResource(imageUri);
+				if (dependencies != null) {
+					dependencies.images = true;
+					dependencies.add(imageRes);
+				}
+				String base64 = inlinedImageCache.getBase64(
+						imageRes,
+						info.include ? Long.MAX_VALUE : imageSizeThreshold);
+				if (base64 != null) {
+					m.appendReplacement(buf, BLANK);
+					buf.append("url('data:" + info.type + //$NON-NLS-1$
+							";base64," + base64 + "')"); //$NON-NLS-1$ //$NON-NLS-2$
+					imageInlined = true;
+				}
+			} catch (IOException ex) {
+				if (log.isLoggable(Level.WARNING)) {
+					log.log(
+							Level.WARNING,
+							MessageFormat.format(
+									Messages.CSSModuleBuilder_0,
+									new Object[]{imageUri}
+									),
+									ex
+							);
 				}
 			}
 			if (!imageInlined) {
@@ -705,6 +837,52 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 		return buf.toString();
 	}
 
+	/**
+	 * Returns the in-lining properties of the image with the specified path, as
+	 * determined by the current config.  The results are memoised until the
+	 * config is reloaded.
+	 *
+	 * @param path
+	 *            the path of the image
+	 * @return the in-lining properties of the image
+	 */
+	private ImagePathInfo getImagePathInfo(String path) {
+		ImagePathInfo info = imagePathInfos.get(path);
+		if (info != null) {
+			return info;
+		}
+		boolean exclude = false, include = false;
+
+		// Determine if this image is in the include list
+		for (Pattern regex : inlinedImageIncludeList) {
+			if (regex.matcher(path).find()) {
+				include = true;
+				break;
+			}
+		}
+
+		// Determine if this image is in the exclude list
+		for (Pattern regex : inlinedImageExcludeList) {
+			if (regex.matcher(path).find()) {
+				exclude = true;
+				break;
+			}
+		}
+		String type = URLConnection.getFileNameMap().getContentTypeFor(path);
+		String extension = PathUtil.getExtension(path);
+		if (type == null) {
+			type = inlineableImageTypeMap.get(extension);
+		}
+		if (type == null) {
+			type = "content/unknown"; //$NON-NLS-1$
+		}
+		boolean inlineable = !(inlinedImageIncludeList.size() > 0 && !include || exclude) &&
+				(include || inlineableImageTypes.contains(type) || inlineableImageTypeMap.containsKey(extension));
+		info = new ImagePathInfo(include, inlineable, type);
+		imagePathInfos.put(path, info);
+		return info;
+	}
+
 	/**
 	 * Runs given CSS through PostCSS processor for minification and any other processing
 	 * by configured plugins
@@ -715,23 +893,23 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	 * @throws IOException
 	 */
 	protected String postcss(String css, IResource res) throws IOException {
-		if (threadScopes == null) {
+		ThreadScopePool scopePool = threadScopes;
+		if (scopePool == null) {
 			return css;
 		}
 		Context cx = Context.enter();
 		Scriptable threadScope = null;
 		String result = null;
 		try {
-			threadScope = threadScopes.poll(SCOPE_POOL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-			if (threadScope == null) {
-				throw new TimeoutException("Timeout waiting for thread scope"); //$NON-NLS-1$
-			}
+			threadScope = scopePool.acquire(SCOPE_POOL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			long start = System.nanoTime();
 			Scriptable scope = cx.newObject(threadScope);
 			scope.setParentScope(threadScope);
 			Scriptable postcssInstance = (Scriptable)threadScope.get(POSTCSS_INSTANCE, scope);
 			Function postcssProcessor = (Function)postcssInstance.getPrototype().get(PROCESS, postcssInstance);
 			Object processed = postcssProcessor.call(cx, scope, postcssInstance, new Object[]{css, postcssOptions});
 			result = Context.toString(processed);
+			scopePool.recordStage(POSTCSS_STAGE, System.nanoTime() - start);
 		} catch (JavaScriptException e) {
 			// Add module info
 			String message = "Error parsing " + res.getURI() + "\r\n" + e.getMessage(); //$NON-NLS-1$ //$NON-NLS-2$
@@ -743,8 +921,8 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 		}
 		finally {
 			if (threadScope != null) {
-				// put the thread scope back in the queue now that we're done with it
-				threadScopes.add(threadScope);
+				// put the thread scope back in the pool now that we're done with it
+				scopePool.release(threadScope);
 			}
 			Context.exit();
 		}
@@ -775,7 +953,7 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 			Scriptable configScript = (Scriptable)config.getRawConfig();
 			final Scriptable configScope = (Scriptable)config.getConfigScope();
 
-			int scopePoolSize = DEFAULT_SCOPE_POOL_SIZE;
+			int scopePoolSize = getDefaultScopePoolSize();
 			// Read the scope pool size if specified
 			Object scopePoolSizeConfig = configScript.get(SCOPEPOOLSIZE_CONFIGPARAM, configScript);
 			if (scopePoolSizeConfig != Scriptable.NOT_FOUND) {
@@ -859,7 +1037,7 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 			}
 
 			// Create the thread scope pool
-			threadScopes = new ArrayBlockingQueue<Scriptable>(scopePoolSize);
+			ThreadScopePool scopePool = new ThreadScopePool(scopePoolSize);
 			// Now create the thread scope pool.  We use a thread pool executor service to
 			// create the scope pool in order to take advantage of parallel processing
 			// capabilities on multi-core processors.
@@ -883,10 +1061,14 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 				Scriptable threadScope = cs.take().get();
 				// Seal the scopes to prevent changes
 				((ScriptableObject)threadScope).sealObject();
-				threadScopes.add(threadScope);
+				scopePool.release(threadScope);
 			}
 			// Shut down the executor and release the threads
 			es.shutdown();
+			if (threadScopes != null && log.isLoggable(Level.FINE)) {
+				log.logp(Level.FINE, sourceClass, sourceMethod, "Replacing " + threadScopes); //$NON-NLS-1$
+			}
+			threadScopes = scopePool;
 
 		} catch (Exception e) {
 			throw new RuntimeException(e.getMessage(), e);
@@ -953,13 +1135,50 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	}
 
 	/**
-	 * Returns the thread scope queue
+	 * @return a new bounded map for memoising {@link #getImagePathInfo(String)} results
+	 */
+	private static Map<String, ImagePathInfo> newImagePathInfoMap() {
+		return new ConcurrentLinkedHashMap.Builder<String, ImagePathInfo>()
+				.maximumWeightedCapacity(IMAGE_PATH_INFO_CACHE_CAPACITY)
+				.build();
+	}
+
+	/**
+	 * Returns the thread scope pool
 	 *
-	 * @return the thread scope queue
+	 * @return the thread scope pool
 	 */
-	protected BlockingQueue<Scriptable> getThreadScopes() {
+	protected ThreadScopePool getThreadScopes() {
 		return threadScopes;
 	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.executors.IStatisticsProvider#getStatistics()
+	 */
+	@Override
+	public String getStatistics() {
+		// Reports the wait times and stage times for the current thread scope pool
+		ThreadScopePool scopePool = threadScopes;
+		return scopePool != null ? getClass().getSimpleName() + ": " + scopePool : null; //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the size of the thread scope pool to use when the size is not specified
+	 * by the {@link #SCOPEPOOLSIZE_CONFIGPARAM} config param.  Module builds run on the
+	 * aggregator's build executor, so the pool is sized to match the maximum number of
+	 * build threads, allowing every build thread to process a stylesheet at the same
+	 * time.
+	 *
+	 * @return the default thread scope pool size
+	 */
+	protected int getDefaultScopePoolSize() {
+		IExecutors executors = aggregator != null ? aggregator.getExecutors() : null;
+		ExecutorService buildExecutor = executors != null ? executors.getBuildExecutor() : null;
+		if (buildExecutor instanceof ThreadPoolExecutor) {
+			return Math.max(((ThreadPoolExecutor)buildExecutor).getMaximumPoolSize(), 1);
+		}
+		return DEFAULT_SCOPE_POOL_SIZE;
+	}
 	/**
 	 * Returns a base64 encoded string representation of the contents of the
 	 * resource associated with the {@link URLConnection}.
@@ -1052,6 +1271,9 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 		props = new Hashtable<String, String>();
 		props.put("name", aggregator.getName()); //$NON-NLS-1$
 		registrations.add(aggregator.getPlatformServices().registerService(IShutdownListener.class.getName(), this, props));
+		props = new Hashtable<String, String>();
+		props.put("name", aggregator.getName()); //$NON-NLS-1$
+		registrations.add(aggregator.getPlatformServices().registerService(IStatisticsProvider.class.getName(), this, props));
 		IConfig config = aggregator.getConfig();
 		if (config != null) {
 			configLoaded(config, 1);
@@ -1116,6 +1338,8 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 				}
 			}
 			inlinedImageExcludeList = list;
+			imagePathInfos = newImagePathInfoMap();
+			importedFragmentCache.clear();
 			initPostcss(conf);
 		} finally {
 			configUpdatingRWL.writeLock().unlock();
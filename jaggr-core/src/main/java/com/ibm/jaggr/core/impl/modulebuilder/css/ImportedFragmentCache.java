@@ -0,0 +1,184 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.css;
+
+import com.ibm.jaggr.core.resource.IResource;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of processed imported stylesheets (fragments) used by
+ * {@link CSSModuleBuilder} when in-lining &#064;import statements.  A fragment is the
+ * content of an imported stylesheet with its images and nested imports in-lined and its
+ * URLs rewritten relative to the importing stylesheet.  Shared stylesheets are typically
+ * imported by many stylesheets, so the fragments only need to be processed once.
+ * <p>
+ * Each fragment records the resources that it was built from (the imported stylesheet,
+ * any stylesheets that it imports, and the images that were considered for in-lining),
+ * together with their last-modified times.  This forms the import graph of the fragment.
+ * A fragment is discarded when any of the resources it depends on is modified, so when a
+ * shared stylesheet is changed, only the fragments that import it, directly or
+ * indirectly, are processed again, and the unaffected fragments are re-used.  The cache
+ * is bounded by the total length of the cached fragments, and the least recently used
+ * fragments are evicted when the capacity is exceeded.
+ */
+class ImportedFragmentCache {
+
+	/** Default maximum number of characters, summed over the cached fragments */
+	static final long DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+	private final ConcurrentLinkedHashMap<String, Fragment> cache;
+
+	ImportedFragmentCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            the maximum number of characters, summed over the cached fragments
+	 */
+	ImportedFragmentCache(long capacity) {
+		cache = new ConcurrentLinkedHashMap.Builder<String, Fragment>()
+				.maximumWeightedCapacity(capacity)
+				.weigher(new Weigher<Fragment>() {
+					@Override
+					public int weightOf(Fragment fragment) {
+						// ConcurrentLinkedHashMap barfs on weight == 0
+						return Math.max(fragment.css.length(), 1);
+					}
+				}).build();
+	}
+
+	/**
+	 * Returns the cached fragment for the specified key, or null if there is no cached
+	 * fragment or if any of the resources that the fragment depends on have been modified.
+	 *
+	 * @param key
+	 *            the fragment key
+	 * @return the fragment, or null
+	 */
+	Fragment get(String key) {
+		Fragment fragment = cache.get(key);
+		if (fragment != null && !fragment.dependencies.isCurrent()) {
+			cache.remove(key, fragment);
+			fragment = null;
+		}
+		return fragment;
+	}
+
+	/**
+	 * Adds the fragment to the cache
+	 *
+	 * @param key
+	 *            the fragment key
+	 * @param fragment
+	 *            the fragment
+	 */
+	void put(String key, Fragment fragment) {
+		cache.put(key, fragment);
+	}
+
+	/**
+	 * Removes all the fragments from the cache
+	 */
+	void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * @return the number of cached fragments
+	 */
+	int size() {
+		return cache.size();
+	}
+
+	/**
+	 * A processed imported stylesheet
+	 */
+	static class Fragment {
+		final String css;
+		final Dependencies dependencies;
+
+		Fragment(String css, Dependencies dependencies) {
+			this.css = css;
+			this.dependencies = dependencies;
+		}
+	}
+
+	/**
+	 * The resources that a processed stylesheet depends on, with their last-modified
+	 * times, and the request parameters that can affect the processed stylesheet.
+	 */
+	static class Dependencies {
+		private final Map<URI, IResource> resources = new LinkedHashMap<URI, IResource>();
+		private final Map<URI, Long> lastModified = new LinkedHashMap<URI, Long>();
+
+		/** True if the processed stylesheet depends on the import related request parameters */
+		boolean imports = false;
+
+		/** True if the processed stylesheet depends on the image in-lining request parameter */
+		boolean images = false;
+
+		/**
+		 * Adds a resource to the dependencies, recording its current last-modified time
+		 *
+		 * @param res
+		 *            the resource
+		 */
+		void add(IResource res) {
+			URI uri = res.getURI();
+			if (!resources.containsKey(uri)) {
+				resources.put(uri, res);
+				lastModified.put(uri, res.lastModified());
+			}
+		}
+
+		/**
+		 * Adds the resources and request parameter dependencies from {@code other}
+		 *
+		 * @param other
+		 *            the dependencies to add
+		 */
+		void addAll(Dependencies other) {
+			for (Map.Entry<URI, IResource> entry : other.resources.entrySet()) {
+				if (!resources.containsKey(entry.getKey())) {
+					resources.put(entry.getKey(), entry.getValue());
+					lastModified.put(entry.getKey(), other.lastModified.get(entry.getKey()));
+				}
+			}
+			imports |= other.imports;
+			images |= other.images;
+		}
+
+		/**
+		 * @return true if none of the resources have been modified since they were added
+		 */
+		boolean isCurrent() {
+			for (Map.Entry<URI, IResource> entry : resources.entrySet()) {
+				if (entry.getValue().lastModified() != lastModified.get(entry.getKey())) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.css;
+
+import com.ibm.jaggr.core.resource.IResource;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Bounded cache of the base64 encoded image data that {@link CSSModuleBuilder} in-lines
+ * in stylesheets using the Data URI scheme.  The same images are typically referenced
+ * by many stylesheets, and by each has-feature variant of a stylesheet, so the images
+ * only need to be read and encoded once.
+ * <p>
+ * Entries are keyed by the image URI and record the last-modified time of the image, so
+ * an image is read again if it has been modified since it was cached.  The sizes of
+ * images that are too large to be in-lined are also cached so that they don't need to be
+ * read again to determine that they are too large.  The cache is bounded by the total
+ * length of the cached base64 data, and the least recently used entries are evicted when
+ * the capacity is exceeded.
+ */
+class InlinedImageCache {
+
+	/** Default maximum number of base64 characters, summed over the cached images */
+	static final long DEFAULT_CAPACITY = 8 * 1024 * 1024;
+
+	private final ConcurrentLinkedHashMap<String, Entry> cache;
+
+	InlinedImageCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            the maximum number of base64 characters, summed over the cached images
+	 */
+	InlinedImageCache(long capacity) {
+		cache = new ConcurrentLinkedHashMap.Builder<String, Entry>()
+				.maximumWeightedCapacity(capacity)
+				.weigher(new Weigher<Entry>() {
+					@Override
+					public int weightOf(Entry entry) {
+						// ConcurrentLinkedHashMap barfs on weight == 0
+						return Math.max(entry.base64 != null ? entry.base64.length() : 0, 1);
+					}
+				}).build();
+	}
+
+	/**
+	 * Returns the base64 encoded contents of the image, or null if the size of the image
+	 * exceeds {@code maxSize}.  Images that exceed {@code maxSize} are read only as far as
+	 * needed to determine that they are too large.
+	 *
+	 * @param res
+	 *            the image resource
+	 * @param maxSize
+	 *            the maximum size, in bytes, of an image that may be in-lined
+	 * @return the base64 encoded image data, or null
+	 * @throws IOException
+	 */
+	String getBase64(IResource res, long maxSize) throws IOException {
+		String key = res.getURI().toString();
+		long lastModified = res.lastModified();
+		Entry entry = cache.get(key);
+		if (entry != null && entry.lastModified == lastModified) {
+			if (entry.base64 != null) {
+				return entry.size <= maxSize ? entry.base64 : null;
+			} else if (entry.size > maxSize) {
+				// the image is at least entry.size bytes
+				return null;
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = res.getInputStream();
+		try {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+				if (out.size() > maxSize) {
+					cache.put(key, new Entry(lastModified, out.size(), null));
+					return null;
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		String base64 = new String(Base64.encodeBase64(out.toByteArray()), "UTF-8"); //$NON-NLS-1$
+		cache.put(key, new Entry(lastModified, out.size(), base64));
+		return base64;
+	}
+
+	/**
+	 * @return the number of cached images
+	 */
+	int size() {
+		return cache.size();
+	}
+
+	private static class Entry {
+		final long lastModified;
+		/** The image size, or a lower bound of the size if base64 is null */
+		final long size;
+		final String base64;
+
+		Entry(long lastModified, long size, String base64) {
+			this.lastModified = lastModified;
+			this.size = size;
+			this.base64 = base64;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.css;
+
+import org.mozilla.javascript.Scriptable;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of Rhino thread scopes used by {@link CSSModuleBuilder} and its subclasses to
+ * run the PostCSS and LESS scripts.  In addition to managing the scopes, the pool
+ * keeps track of the time that builds spend waiting for a scope and the time spent
+ * in each of the script processing stages, so that it can be determined if the pool
+ * is undersized or which stage is responsible for slow stylesheet builds.
+ */
+public class ThreadScopePool {
+
+	private static final long NANOS_PER_MILLI = 1000000;
+
+	private final BlockingQueue<Scriptable> scopes;
+	private final int capacity;
+	private final Stats waitStats = new Stats();
+	private final ConcurrentMap<String, Stats> stageStats = new ConcurrentHashMap<String, Stats>();
+
+	/**
+	 * @param capacity
+	 *            the number of thread scopes in the pool
+	 */
+	public ThreadScopePool(int capacity) {
+		this.capacity = capacity;
+		scopes = new ArrayBlockingQueue<Scriptable>(capacity);
+	}
+
+	/**
+	 * Takes a thread scope from the pool, waiting if necessary for one to become
+	 * available.  The scope must be returned to the pool by calling
+	 * {@link #release(Scriptable)}.
+	 *
+	 * @param timeout
+	 *            how long to wait before giving up
+	 * @param unit
+	 *            the units of {@code timeout}
+	 * @return the thread scope
+	 * @throws InterruptedException
+	 * @throws TimeoutException
+	 *             if no scope became available within the timeout
+	 */
+	public Scriptable acquire(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		long start = System.nanoTime();
+		Scriptable scope = scopes.poll();
+		if (scope == null) {
+			scope = scopes.poll(timeout, unit);
+			if (scope == null) {
+				throw new TimeoutException("Timeout waiting for thread scope"); //$NON-NLS-1$
+			}
+		}
+		waitStats.add(System.nanoTime() - start);
+		return scope;
+	}
+
+	/**
+	 * Adds a thread scope to the pool, or returns a scope obtained from
+	 * {@link #acquire(long, TimeUnit)} to the pool.
+	 *
+	 * @param scope
+	 *            the thread scope
+	 */
+	public void release(Scriptable scope) {
+		scopes.add(scope);
+	}
+
+	/**
+	 * Records the time spent in a script processing stage
+	 *
+	 * @param stage
+	 *            the name of the stage (e.g. "postcss")
+	 * @param nanos
+	 *            the elapsed time, in nanoseconds
+	 */
+	public void recordStage(String stage, long nanos) {
+		Stats stats = stageStats.get(stage);
+		if (stats == null) {
+			stats = new Stats();
+			Stats existing = stageStats.putIfAbsent(stage, stats);
+			if (existing != null) {
+				stats = existing;
+			}
+		}
+		stats.add(nanos);
+	}
+
+	/**
+	 * @return the number of thread scopes currently available in the pool
+	 */
+	public int size() {
+		return scopes.size();
+	}
+
+	/**
+	 * @return the number of thread scopes that the pool was created to hold
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of times a thread scope has been acquired from the pool
+	 */
+	public long getAcquireCount() {
+		return waitStats.count.get();
+	}
+
+	/**
+	 * @return the total time, in milliseconds, spent waiting for thread scopes
+	 */
+	public long getWaitMillis() {
+		return waitStats.nanos.get() / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @param stage
+	 *            the name of the stage
+	 * @return the number of times the stage has been run
+	 */
+	public long getStageCount(String stage) {
+		Stats stats = stageStats.get(stage);
+		return stats != null ? stats.count.get() : 0;
+	}
+
+	/**
+	 * @param stage
+	 *            the name of the stage
+	 * @return the total time, in milliseconds, spent in the stage
+	 */
+	public long getStageMillis(String stage) {
+		Stats stats = stageStats.get(stage);
+		return stats != null ? stats.nanos.get() / NANOS_PER_MILLI : 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuffer sb = new StringBuffer("ThreadScopePool[capacity=").append(capacity) //$NON-NLS-1$
+				.append(", available=").append(size()) //$NON-NLS-1$
+				.append(", acquired=").append(getAcquireCount()) //$NON-NLS-1$
+				.append(", waitMillis=").append(getWaitMillis()); //$NON-NLS-1$
+		for (String stage : stageStats.keySet()) {
+			sb.append(", ").append(stage).append("=") //$NON-NLS-1$ //$NON-NLS-2$
+			.append(getStageCount(stage)).append("/").append(getStageMillis(stage)).append("ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return sb.append("]").toString(); //$NON-NLS-1$
+	}
+
+	private static class Stats {
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong nanos = new AtomicLong();
+
+		void add(long value) {
+			count.incrementAndGet();
+			nanos.addAndGet(Math.max(value, 0));
+		}
+	}
+}
@@ -38,6 +38,7 @@ import com.ibm.jaggr.core.resource.IResource;
 import com.ibm.jaggr.core.transport.IHttpTransport;
 import com.ibm.jaggr.core.transport.IHttpTransport.OptimizationLevel;
 import com.ibm.jaggr.core.transport.IRequestedModuleNames;
+import com.ibm.jaggr.core.util.AstCache;
 import com.ibm.jaggr.core.util.BooleanTerm;
 import com.ibm.jaggr.core.util.CompilerUtil;
 import com.ibm.jaggr.core.util.ConcurrentListBuilder;
@@ -56,8 +57,10 @@ import com.google.javascript.jscomp.CompilerOptions;
 import com.google.javascript.jscomp.CustomPassExecutionTime;
 import com.google.javascript.jscomp.DiagnosticGroups;
 import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.JSModule;
 import com.google.javascript.jscomp.JSSourceFile;
 import com.google.javascript.jscomp.Result;
+import com.google.javascript.rhino.Node;
 
 import org.apache.commons.lang3.mutable.MutableBoolean;
 
@@ -96,6 +99,9 @@ public class JavaScriptModuleBuilder implements IModuleBuilder, IExtensionInitia
 
 	private static final List<JSSourceFile> externs = Collections.emptyList();
 
+	/** The name of the module that Compiler.compile() puts the inputs in */
+	private static final String SINGLETON_MODULE_NAME = "[singleton]"; //$NON-NLS-1$
+
 	/**
 	 * Name of the request attribute containing the expanded dependencies for
 	 * the layer.  This is the list of module dependencies for all of the modules
@@ -403,8 +409,16 @@ public class JavaScriptModuleBuilder implements IModuleBuilder, IExtensionInitia
 		// we do our own threading, so disable compiler threads.
 		compiler.disableThreads();
 
-		// compile the module
-		Result result = compiler.compile(externs, sources, compiler_options);
+		// compile the module, starting from a copy of the parsed source if we have one
+		Result result;
+		Node ast = sources.size() == 1 ? getAst(aggr, resource, sources.get(0)) : null;
+		if (ast != null) {
+			JSModule module = new JSModule(SINGLETON_MODULE_NAME);
+			module.add(AstCache.newCompilerInput(sources.get(0), ast));
+			result = compiler.compileModules(externs, Arrays.asList(new JSModule[]{module}), compiler_options);
+		} else {
+			result = compiler.compile(externs, sources, compiler_options);
+		}
 		if (result.success) {
 			if (aggr.getOptions().isDevelopmentMode() && aggr.getOptions().isVerifyDeps()) {
 				// Validate dependencies for this module by comparing the
@@ -476,6 +490,40 @@ public class JavaScriptModuleBuilder implements IModuleBuilder, IExtensionInitia
 									null);
 	}
 
+	/**
+	 * Returns a copy of the AST for the specified source from the AST cache, parsing
+	 * the source and adding the AST to the cache if it isn't already there.
+	 *
+	 * @param aggr
+	 *            the aggregator
+	 * @param resource
+	 *            the resource for the module
+	 * @param source
+	 *            the source file returned by
+	 *            {@link #getJSSource(String, IResource, HttpServletRequest, List)}
+	 * @return a copy of the AST, or null if the source can't be parsed without errors
+	 *         or the AST cache is disabled
+	 * @throws IOException
+	 */
+	protected Node getAst(IAggregator aggr, IResource resource, JSSourceFile source) throws IOException {
+		AstCache astCache = AstCache.getInstance(aggr);
+		if (astCache == null) {
+			return null;
+		}
+		long lastModified = resource.lastModified();
+		Node result = astCache.get(resource.getURI(), lastModified, source);
+		if (result == null) {
+			MutableBoolean hasErrors = new MutableBoolean(false);
+			Node root = CompilerUtil.parse(source, hasErrors);
+			if (!hasErrors.booleanValue()) {
+				astCache.put(resource.getURI(), lastModified, source, root);
+				result = astCache.get(resource.getURI(), lastModified, source);
+			}
+			// else let the compiler report the errors
+		}
+		return result;
+	}
+
 	/**
 	 * Overrideable method for getting the source modules to compile
 	 *
@@ -823,4 +871,4 @@ public class JavaScriptModuleBuilder implements IModuleBuilder, IExtensionInitia
 			return getClass().hashCode() * 31 + featureKeyGen.hashCode() + (hasExpandableRequires ? 1 : 0);
 		}
 	}
-}
+}
@@ -20,6 +20,7 @@ import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.IExtensionSingleton;
 import com.ibm.jaggr.core.NotFoundException;
 import com.ibm.jaggr.core.impl.modulebuilder.css.CSSModuleBuilder;
+import com.ibm.jaggr.core.impl.modulebuilder.css.ThreadScopePool;
 import com.ibm.jaggr.core.resource.IResource;
 
 import org.apache.commons.io.IOUtils;
@@ -48,6 +49,8 @@ public class LessModuleBuilder extends CSSModuleBuilder implements IExtensionSin
 
 	private static final String LESS_COMPILER_VAR = "lessCompiler"; //$NON-NLS-1$
 
+	static public final String LESS_STAGE = "less"; //$NON-NLS-1$
+
 	private static final Pattern HANDLES_PATTERN = Pattern.compile("\\.(css)|(less)$"); //$NON-NLS-1$
 
 	private static final String compilerString = new StringBuffer()
@@ -148,19 +151,19 @@ public class LessModuleBuilder extends CSSModuleBuilder implements IExtensionSin
 		if (isTraceLogging) {
 			log.entering(sourceClass, sourceMethod, new Object[]{filename, css});
 		}
+		ThreadScopePool scopePool = getThreadScopes();
 		Context cx = Context.enter();
 		Scriptable threadScope = null;
 		try {
-			threadScope = getThreadScopes().poll(SCOPE_POOL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-			if (threadScope == null) {
-				throw new TimeoutException("Timeout waiting for thread scope"); //$NON-NLS-1$
-			}
+			threadScope = scopePool.acquire(SCOPE_POOL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			long start = System.nanoTime();
 			Scriptable scope = cx.newObject(threadScope);
 			scope.setParentScope(threadScope);
 			Scriptable options = cx.newObject(threadScope);
 			options.put("filename", options, filename); //$NON-NLS-1$
         	Function compiler = (Function)threadScope.get(LESS_COMPILER_VAR, threadScope);
             css = compiler.call(cx, scope, null, new Object[] {css, options}).toString();
+            scopePool.recordStage(LESS_STAGE, System.nanoTime() - start);
 
 		} catch (JavaScriptException e) {
 			// Add module info
@@ -172,7 +175,7 @@ public class LessModuleBuilder extends CSSModuleBuilder implements IExtensionSin
 			throw new RuntimeException(e);
 		} finally {
 			if (threadScope != null) {
-				getThreadScopes().add(threadScope);
+				scopePool.release(threadScope);
 			}
 			Context.exit();
 		}
@@ -58,8 +58,17 @@ public class OptionsImpl  implements IOptions, IShutdownListener {
 		map.put(DISABLE_REQUIRELISTEXPANSION,	Boolean.FALSE.toString());
 		map.put(DISABLE_HASPLUGINBRANCHING, Boolean.FALSE.toString());
 		map.put(DISABLE_MODULENAMEIDENCODING, Boolean.FALSE.toString());
+		map.put(STREAMING_LAYERS, Boolean.FALSE.toString());
+		map.put(PRECOMPRESS_MODULES, Boolean.FALSE.toString());
+		map.put(DEFERRED_COMPRESSION, Boolean.FALSE.toString());
+		map.put(OFFHEAP_LAYER_CACHE, Boolean.FALSE.toString());
+		map.put(LAYER_RESPONSE_CACHE, Boolean.FALSE.toString());
+		map.put(LAYER_RESPONSE_CACHE_CAPACITY, Integer.toString(DEFAULT_LAYER_RESPONSE_CACHE_CAPACITY));
 		map.put(VERIFY_DEPS,		Boolean.TRUE.toString());
 		map.put(DELETE_DELAY, 		Integer.toString(DEFAULT_DELETE_DELAY));
+		map.put(AST_CACHE_CAPACITY_MB, Integer.toString(DEFAULT_AST_CACHE_CAPACITY_MB));
+		map.put(MODULE_BUILD_CACHE_CAPACITY_MB, Integer.toString(DEFAULT_MODULE_BUILD_CACHE_CAPACITY_MB));
+		map.put(DEPENDENCY_CLOSURE_CACHE_CAPACITY, Integer.toString(DEFAULT_DEPENDENCY_CLOSURE_CACHE_CAPACITY));
 		defaults = Collections.unmodifiableMap(map);
 	};
 
@@ -146,6 +155,43 @@ public class OptionsImpl  implements IOptions, IShutdownListener {
 		return Boolean.parseBoolean(getOption(DISABLE_MODULENAMEIDENCODING));
 	}
 
+	@Override
+	public boolean isStreamingLayers() {
+		return Boolean.parseBoolean(getOption(STREAMING_LAYERS));
+	}
+
+	@Override
+	public boolean isPrecompressModules() {
+		return Boolean.parseBoolean(getOption(PRECOMPRESS_MODULES));
+	}
+
+	@Override
+	public boolean isDeferredCompression() {
+		return Boolean.parseBoolean(getOption(DEFERRED_COMPRESSION));
+	}
+
+	@Override
+	public boolean isOffHeapLayerCache() {
+		return Boolean.parseBoolean(getOption(OFFHEAP_LAYER_CACHE));
+	}
+
+	@Override
+	public boolean isLayerResponseCache() {
+		return Boolean.parseBoolean(getOption(LAYER_RESPONSE_CACHE));
+	}
+
+	@Override
+	public int getLayerResponseCacheCapacity() {
+		int result = DEFAULT_LAYER_RESPONSE_CACHE_CAPACITY;
+		String value = getOption(LAYER_RESPONSE_CACHE_CAPACITY);
+		if (value != null) {
+			try {
+				result = Integer.parseInt(value);
+			} catch (NumberFormatException ignore) {}
+		}
+		return result;
+	}
+
 	@Override
 	public String getCacheBust() {
 		return getOption(CACHEBUST);
@@ -168,6 +214,42 @@ public class OptionsImpl  implements IOptions, IShutdownListener {
 		return result;
 	}
 
+	@Override
+	public int getAstCacheCapacityMB() {
+		int result = DEFAULT_AST_CACHE_CAPACITY_MB;
+		String value = getOption(AST_CACHE_CAPACITY_MB);
+		if (value != null) {
+			try {
+				result = Integer.parseInt(value);
+			} catch (NumberFormatException ignore) {}
+		}
+		return result;
+	}
+
+	@Override
+	public int getModuleBuildCacheCapacityMB() {
+		int result = DEFAULT_MODULE_BUILD_CACHE_CAPACITY_MB;
+		String value = getOption(MODULE_BUILD_CACHE_CAPACITY_MB);
+		if (value != null) {
+			try {
+				result = Integer.parseInt(value);
+			} catch (NumberFormatException ignore) {}
+		}
+		return result;
+	}
+
+	@Override
+	public int getDependencyClosureCacheCapacity() {
+		int result = DEFAULT_DEPENDENCY_CLOSURE_CACHE_CAPACITY;
+		String value = getOption(DEPENDENCY_CLOSURE_CACHE_CAPACITY);
+		if (value != null) {
+			try {
+				result = Integer.parseInt(value);
+			} catch (NumberFormatException ignore) {}
+		}
+		return result;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.service.options.IOptions#setOption(java.lang.String, boolean)
 	 */
@@ -18,6 +18,7 @@ package com.ibm.jaggr.core.impl.resource;
 
 import com.ibm.jaggr.core.resource.IResource;
 import com.ibm.jaggr.core.resource.IResourceFactory;
+import com.ibm.jaggr.core.resource.IResourceWatcher;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -39,6 +40,7 @@ public class FileResourceFactory implements IResourceFactory {
 	private boolean tryNIO = true;
 	private Class<?> nioFileResourceClass = null; // access only through the getter
 	private Constructor<?> nioFileResourceConstructor = null; // access only through the getter
+	private boolean tryNIOWatcher = true;
 
 
 	public FileResourceFactory() {
@@ -84,6 +86,51 @@ public class FileResourceFactory implements IResourceFactory {
 		return "file".equals(uri.getScheme()); //$NON-NLS-1$
 	}
 
+	/**
+	 * Returns a new watcher for file resources, or null if watching is not supported
+	 * by the runtime.  The watcher requires Java 7 or later.
+	 *
+	 * @param listener
+	 *            the listener to notify of changes
+	 * @param quietPeriod
+	 *            the number of milliseconds without new changes to wait before
+	 *            accumulated changes are reported to the listener
+	 * @return the new watcher, or null
+	 */
+	public IResourceWatcher newWatcher(IResourceWatcher.IListener listener, long quietPeriod) {
+		final String method = "newWatcher"; //$NON-NLS-1$
+
+		IResourceWatcher result = null;
+		if (tryNIOWatcher) {
+			try {
+				Class<?> clazz = classLoader.loadClass("com.ibm.jaggr.core.impl.resource.NIOFileWatcher"); //$NON-NLS-1$
+				result = (IResourceWatcher)clazz
+						.getConstructor(IResourceWatcher.IListener.class, long.class)
+						.newInstance(listener, quietPeriod);
+			} catch (ClassNotFoundException e) {
+				tryNIOWatcher = false; // Don't try this again.
+				if (log.isLoggable(Level.WARNING)) {
+					log.logp(Level.WARNING, CLAZZ, method, e.getMessage());
+				}
+			} catch (UnsupportedClassVersionError e) {
+				tryNIOWatcher = false; // Don't try this again.
+				if (log.isLoggable(Level.WARNING)) {
+					log.logp(Level.WARNING, CLAZZ, method, e.getMessage());
+				}
+			} catch (NoClassDefFoundError e) {
+				tryNIOWatcher = false; // Don't try this again.
+				if (log.isLoggable(Level.WARNING)) {
+					log.logp(Level.WARNING, CLAZZ, method, e.getMessage());
+				}
+			} catch (Exception e) {
+				if (log.isLoggable(Level.SEVERE)) {
+					log.log(Level.SEVERE, e.getMessage(), e);
+				}
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Utility method for acquiring a reference to the NIOFileResource class without
 	 * asking the class loader every single time after we know it's not there.
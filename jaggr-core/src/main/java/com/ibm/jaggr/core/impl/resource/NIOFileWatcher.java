@@ -0,0 +1,236 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.resource;
+
+import com.ibm.jaggr.core.resource.IResourceWatcher;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link IResourceWatcher} implementation for file resources that uses the Java 7
+ * {@link WatchService}. This class is compiled only when building with Java 7 and
+ * is loaded by {@link FileResourceFactory#newWatcher(IResourceWatcher.IListener, long)}
+ * using reflection.
+ */
+public class NIOFileWatcher implements IResourceWatcher, Runnable {
+	static final Logger log = Logger.getLogger(NIOFileWatcher.class.getName());
+
+	private static final String THREADNAME = "NIOFileWatcher"; //$NON-NLS-1$
+
+	private final IListener listener;
+	private final long quietPeriod;
+	private final WatchService watchService;
+	/** Map of watch keys to the watched folders */
+	private final Map<WatchKey, Path> folders = new ConcurrentHashMap<WatchKey, Path>();
+	/** Watch keys of folders whose sub-folders are watched */
+	private final Set<WatchKey> recursive = Collections.newSetFromMap(new ConcurrentHashMap<WatchKey, Boolean>());
+	private final Thread thread;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param listener
+	 *            the listener to notify of changes
+	 * @param quietPeriod
+	 *            the number of milliseconds without new changes to wait before
+	 *            the accumulated changes are reported
+	 * @throws IOException
+	 */
+	public NIOFileWatcher(IListener listener, long quietPeriod) throws IOException {
+		this.listener = listener;
+		this.quietPeriod = quietPeriod;
+		watchService = FileSystems.getDefault().newWatchService();
+		thread = new Thread(this, THREADNAME);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public boolean watch(URI uri) {
+		if (!"file".equals(uri.getScheme())) { //$NON-NLS-1$
+			return false;
+		}
+		Path path = Paths.get(uri);
+		try {
+			if (Files.isDirectory(path)) {
+				register(path, true, null);
+			} else if (path.getParent() != null && Files.isDirectory(path.getParent())) {
+				// WatchService watches folders, not files
+				register(path.getParent(), false, null);
+			} else {
+				return false;
+			}
+		} catch (IOException e) {
+			if (log.isLoggable(Level.WARNING)) {
+				log.log(Level.WARNING, e.getMessage(), e);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			watchService.close();
+		} catch (IOException ignore) {}
+		if (Thread.currentThread() != thread) {
+			try {
+				thread.join(quietPeriod + 1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		Set<URI> changed = new LinkedHashSet<URI>();
+		boolean overflow = false;
+		while (!closed) {
+			WatchKey key;
+			try {
+				key = (changed.isEmpty() && !overflow) ?
+						watchService.take() : watchService.poll(quietPeriod, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				break;
+			} catch (ClosedWatchServiceException e) {
+				break;
+			}
+			if (key == null) {
+				// Quiet period has elapsed.  Report the accumulated changes.
+				notifyListener(overflow ? null : changed);
+				changed = new LinkedHashSet<URI>();
+				overflow = false;
+				continue;
+			}
+			Path folder = folders.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW || folder == null) {
+					overflow = true;
+					continue;
+				}
+				Path path = folder.resolve((Path)event.context());
+				changed.add(FileResource.getURI(path.toFile()));
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE &&
+						recursive.contains(key) &&
+						Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+					// Watch the new folder and report the files that were added
+					// to it before it was registered.
+					try {
+						register(path, true, changed);
+					} catch (IOException e) {
+						if (log.isLoggable(Level.WARNING)) {
+							log.log(Level.WARNING, e.getMessage(), e);
+						}
+						overflow = true;
+					}
+				}
+			}
+			if (!key.reset()) {
+				folders.remove(key);
+				recursive.remove(key);
+			}
+		}
+	}
+
+	private void notifyListener(Collection<URI> changed) {
+		if (closed) {
+			return;
+		}
+		try {
+			listener.resourcesChanged(changed);
+		} catch (Throwable t) {
+			if (log.isLoggable(Level.SEVERE)) {
+				log.log(Level.SEVERE, t.getMessage(), t);
+			}
+		}
+	}
+
+	/**
+	 * Registers the specified folder with the watch service
+	 *
+	 * @param folder
+	 *            the folder to register
+	 * @param subFolders
+	 *            if true, then sub-folders are registered as well
+	 * @param files
+	 *            if not null, the URIs of the files in the registered folders
+	 *            are added to this collection
+	 * @throws IOException
+	 */
+	private void register(final Path folder, final boolean subFolders, final Collection<URI> files) throws IOException {
+		if (!subFolders) {
+			folders.put(registerFolder(folder), folder);
+			return;
+		}
+		Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(folder) && dir.getFileName().toString().startsWith(".")) { //$NON-NLS-1$
+					// Hidden folders aren't scanned for dependencies
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				WatchKey key = registerFolder(dir);
+				folders.put(key, dir);
+				recursive.add(key);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (files != null) {
+					files.add(FileResource.getURI(file.toFile()));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private WatchKey registerFolder(Path folder) throws IOException {
+		return folder.register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+	}
+}
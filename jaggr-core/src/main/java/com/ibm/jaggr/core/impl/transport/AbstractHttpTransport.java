@@ -199,6 +199,9 @@ public abstract class AbstractHttpTransport implements IHttpTransport, IConfigMo
 	private List<String> moduleIdList = null;
 	private byte[] moduleIdListHash = null;
 
+	/** Module name lists decoded from the request params */
+	private final DecodedModuleNamesCache decodedModuleNamesCache = new DecodedModuleNamesCache();
+
 	private String resourcePathId = null;
 	private String transportId = null;
 	private URI comboUri = null;
@@ -320,7 +323,7 @@ public abstract class AbstractHttpTransport implements IHttpTransport, IConfigMo
 
 		RequestedModuleNames requestedModuleNames = null;
 		if (depsInitialized == null && moduleIdList == null){
-			requestedModuleNames = new RequestedModuleNames(request, null, null);
+			requestedModuleNames = new RequestedModuleNames(request, null, null, decodedModuleNamesCache);
 		}else{
 			// Wait for dependenciesLoaded to have completed before we try to access moduleIdList
 			try {
@@ -346,7 +349,7 @@ public abstract class AbstractHttpTransport implements IHttpTransport, IConfigMo
 			} catch (InterruptedException e) {
 				throw new IOException(e);
 			}
-			requestedModuleNames = new RequestedModuleNames(request, moduleIdList, Arrays.copyOf(moduleIdListHash, moduleIdListHash.length));
+			requestedModuleNames = new RequestedModuleNames(request, moduleIdList, Arrays.copyOf(moduleIdListHash, moduleIdListHash.length), decodedModuleNamesCache);
 		}
 		request.setAttribute(REQUESTEDMODULENAMES_REQATTRNAME, requestedModuleNames);
 		if (isTraceLogging) {
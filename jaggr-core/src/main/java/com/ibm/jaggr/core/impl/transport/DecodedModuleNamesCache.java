@@ -0,0 +1,106 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.transport;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import java.util.List;
+
+/**
+ * Bounded cache of decoded module name lists used by {@link RequestedModuleNames}, keyed
+ * by the encoded request parameters that specify the list.  Requests for the same layer
+ * typically use the same encoded parameters, so the lists only need to be decoded once.
+ * <p>
+ * Module name lists that are encoded using module ids depend on the transport's module id
+ * list, so each cached list records the id list it was decoded against, and is returned
+ * only to requests using the same id list.  The cache is bounded by the total number of
+ * module names in the cached lists, and the least recently used lists are evicted when
+ * the capacity is exceeded.
+ */
+class DecodedModuleNamesCache {
+
+	/** Default maximum number of module names, summed over the cached lists */
+	static final long DEFAULT_CAPACITY = 50000;
+
+	private final ConcurrentLinkedHashMap<String, Entry> cache;
+
+	DecodedModuleNamesCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            the maximum number of module names, summed over the cached lists
+	 */
+	DecodedModuleNamesCache(long capacity) {
+		cache = new ConcurrentLinkedHashMap.Builder<String, Entry>()
+				.maximumWeightedCapacity(capacity)
+				.weigher(new Weigher<Entry>() {
+					@Override
+					public int weightOf(Entry entry) {
+						// ConcurrentLinkedHashMap barfs on weight == 0
+						return Math.max(entry.names.size(), 1);
+					}
+				}).build();
+	}
+
+	/**
+	 * Returns the cached module names for the specified key
+	 *
+	 * @param key
+	 *            the encoded request parameters
+	 * @param idList
+	 *            the module id list used to decode the names
+	 * @return the cached module names, or null
+	 */
+	List<String> get(String key, List<String> idList) {
+		Entry entry = cache.get(key);
+		return entry != null && entry.idList == idList ? entry.names : null;
+	}
+
+	/**
+	 * Adds the decoded module names to the cache
+	 *
+	 * @param key
+	 *            the encoded request parameters
+	 * @param idList
+	 *            the module id list used to decode the names
+	 * @param names
+	 *            the decoded (unmodifiable) module name list
+	 */
+	void put(String key, List<String> idList, List<String> names) {
+		cache.put(key, new Entry(idList, names));
+	}
+
+	/**
+	 * @return the number of cached lists
+	 */
+	int size() {
+		return cache.size();
+	}
+
+	private static class Entry {
+		final List<String> idList;
+		final List<String> names;
+
+		Entry(List<String> idList, List<String> names) {
+			this.idList = idList;
+			this.names = names;
+		}
+	}
+}
@@ -22,8 +22,6 @@ import com.ibm.jaggr.core.transport.IRequestedModuleNames;
 import com.ibm.jaggr.core.util.TypeUtil;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.wink.json4j.JSONException;
-import org.apache.wink.json4j.JSONObject;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -32,14 +30,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
@@ -52,13 +46,14 @@ import javax.servlet.http.HttpServletRequest;
  * called.  {@link #toString()} returns a string representation of the encoded names to be
  * used for cache key identification, thereby avoiding the need to decode the request if a
  * layer specifying the same modules is already in the layer cache.
+ * <p>
+ * When the transport provides a {@link DecodedModuleNamesCache}, decoded module lists are
+ * cached using the encoded request params as the key, so that requests for the same modules
+ * don't need to decode the lists again.
  */
 class RequestedModuleNames implements IRequestedModuleNames {
 	private static final Logger log = Logger.getLogger(RequestedModuleNames.class.getName());
 
-	private static final Pattern DECODE_JSON = Pattern.compile("([!()|*<>])"); //$NON-NLS-1$
-	private static final Pattern REQUOTE_JSON = Pattern.compile("([{,:])([^{},:\"]+)([},:])"); //$NON-NLS-1$
-
 	protected static final String CONFIGPROP_IDLISTHASHERRMODULE = "idListHashErrorModule"; //$NON-NLS-1$
 
 	private List<String> modules = null;
@@ -70,11 +65,14 @@ class RequestedModuleNames implements IRequestedModuleNames {
 	private String strRep = null;
 	private String moduleQueryArg;
 	private String excludeEncQueryArg;
+	private String excludeIdQueryArg;
 	private final List<String> idList;
 	private final byte[] idListHash;
 	private byte[] base64decodedIdList = null;
-	private byte[] base64decodedExcludeIdList = null;
 	private int count = 0;
+	private final DecodedModuleNamesCache decodeCache;
+	private String modulesCacheKey = null;
+	private String excludesCacheKey = null;
 	// Instance of this object live only for the duration of a request, so ok to query trace logging flag in constructor
 	private final boolean isTraceLogging = log.isLoggable(Level.FINER);
 
@@ -88,16 +86,32 @@ class RequestedModuleNames implements IRequestedModuleNames {
 	 * @throws IOException
 	 */
 	RequestedModuleNames(HttpServletRequest request, List<String> idList, byte[] idListHash) throws IOException {
+		this(request, idList, idListHash, null);
+	}
+
+	/**
+	 * @param request
+	 *            the HTTP request object
+	 * @param idList
+	 *            list of module names used for module name id encoding
+	 * @param idListHash
+	 *            hash of the idList - used to validate encoding of requests
+	 * @param decodeCache
+	 *            cache of module name lists decoded for previous requests, or null
+	 * @throws IOException
+	 */
+	RequestedModuleNames(HttpServletRequest request, List<String> idList, byte[] idListHash, DecodedModuleNamesCache decodeCache) throws IOException {
 		final String sourceMethod = "<ctor>"; //$NON-NLS-1$
 		if (isTraceLogging) {
 			log.entering(RequestedModuleNames.class.getName(), sourceMethod, new Object[]{request.getQueryString(), "<omitted>", TypeUtil.byteArray2String(idListHash)}); //$NON-NLS-1$
 		}
 		this.idList = idList;
 		this.idListHash = idListHash;
+		this.decodeCache = decodeCache;
 		moduleQueryArg = request.getParameter(AbstractHttpTransport.REQUESTEDMODULES_REQPARAM);
 		String moduleIdsQueryArg = request.getParameter(AbstractHttpTransport.REQUESTEDMODULEIDS_REQPARAM);
 		excludeEncQueryArg = request.getParameter(AbstractHttpTransport.EXCLUDEENC_REQPARAM);
-		String excludeIdQueryArg = request.getParameter(AbstractHttpTransport.EXCLUDEIDS_REQPARAM);
+		excludeIdQueryArg = request.getParameter(AbstractHttpTransport.EXCLUDEIDS_REQPARAM);
 		String countParam = request.getParameter(AbstractHttpTransport.REQUESTEDMODULESCOUNT_REQPARAM);
 		if (moduleQueryArg == null) moduleQueryArg = ""; //$NON-NLS-1$
 		if (moduleIdsQueryArg == null) moduleIdsQueryArg = ""; //$NON-NLS-1$
@@ -114,8 +128,18 @@ class RequestedModuleNames implements IRequestedModuleNames {
 				if (count < 1 || count > AbstractHttpTransport.REQUESTED_MODULES_MAX_COUNT) {
 					throw new BadRequestException("count:" + count); //$NON-NLS-1$
 				}
+				if (decodeCache != null) {
+					// Use the module list decoded for an earlier request with the same encoded
+					// params, if any.  Lists encoded with module ids are cached only after the
+					// id list hash has been validated, so the hash doesn't need to be checked.
+					modulesCacheKey = getCacheKey('m', moduleIdsQueryArg, moduleQueryArg);
+					modules = decodeCache.get(modulesCacheKey, idList);
+					if (modules != null && modules.size() != count) {
+						throw new BadRequestException("count:" + count); //$NON-NLS-1$
+					}
+				}
 			}
-			if (moduleIdsQueryArg.length() > 0) {
+			if (moduleIdsQueryArg.length() > 0 && modules == null) {
 				if (countParam == null) {
 					throw new BadRequestException(request.getQueryString());
 				}
@@ -178,8 +202,10 @@ class RequestedModuleNames implements IRequestedModuleNames {
 				if (countParam == null) {
 					throw new BadRequestException(request.getQueryString());
 				}
-				// Decode the id list so we can validate the id list hash
-				base64decodedExcludeIdList = Base64.decodeBase64(excludeIdQueryArg);
+			}
+
+			if (decodeCache != null && (excludeIdQueryArg != null || excludeEncQueryArg != null)) {
+				excludesCacheKey = getCacheKey('x', excludeIdQueryArg, excludeEncQueryArg);
 			}
 
 			if (excludeEncQueryArg != null) {
@@ -284,61 +310,53 @@ class RequestedModuleNames implements IRequestedModuleNames {
 	}
 
 	/**
-	 *  Decode JSON object encoded for url transport.
-	 *  Enforces ordering of object keys and mangles JSON format to prevent encoding of frequently used characters.
-	 *  Assumes that keynames and values are valid filenames, and do not contain illegal filename chars.
-	 *  See http://www.w3.org/Addressing/rfc1738.txt for small set of safe chars.
+	 * Regular expression for a non-path property (i.e. auxiliary information or processing
+	 * instruction) of a folded path json object.
+	 */
+	static public Pattern NON_PATH_PROP_PATTERN = Pattern.compile("^/[^/]+/$"); //$NON-NLS-1$
+
+	/**
+	 * Name of folded path json property used to identify the names of loader
+	 * plugin prefixes and their ordinals used in the folded path.  This must
+	 * match the value of pluginPrefixesPropName in loaderExtCommon.js.  The
+	 * slashes (/) ensure that the name won't collide with a real path name.
+	 */
+	static public String PLUGIN_PREFIXES_PROP_NAME = "/pre/"; //$NON-NLS-1$
+
+	/**
+	 * Unfolds a folded module name list encoded for url transport and adds the
+	 * module names to the appropriate positions in {@code result}.
+	 * <p>
+	 * The encoded list is a JSON object with the keys and values unquoted, and with
+	 * frequently used characters mangled to avoid url encoding (see encodeModules() in
+	 * loaderExtCommon.js).  The list is unfolded in a single pass over the encoded
+	 * string, without building the JSON object.
 	 *
 	 * @param encstr
 	 *            the encoded module name list
-	 * @return the decoded string as a JSON object
-	 *
-	 * @throws IOException
-	 * @throws JSONException
+	 * @param result
+	 *            Output - the array to which the unfolded names are added.  Note that
+	 *            there may be holes in the array when this method is done because some
+	 *            of the modules may have been specified using a different mechanism.
+	 * @throws BadRequestException
+	 *             if the encoded list is not valid
 	 */
-	protected  JSONObject decodeModules(String encstr) throws IOException, JSONException {
-		final String sourceMethod = "decodeModules"; //$NON-NLS-1$
-		JSONObject result = null;
+	protected void unfoldModules(String encstr, ModuleNameArray result) throws BadRequestException {
+		final String sourceMethod = "unfoldModules"; //$NON-NLS-1$
 		if (isTraceLogging) {
 			log.entering(RequestedModuleNames.class.getName(), sourceMethod, new Object[]{encstr});
 		}
-		if (encstr == null || encstr.length() == 0) {
-			result = new JSONObject("{}"); //$NON-NLS-1$
-		} else {
-			StringBuffer json = new StringBuffer(encstr.length() * 2);
-			Matcher m = DECODE_JSON.matcher(encstr);
-			while (m.find()) {
-				String match = m.group(1);
-				if (match.equals("!")) //$NON-NLS-1$
-					m.appendReplacement(json, ":");     //$NON-NLS-1$
-				else if (match.equals("("))     //$NON-NLS-1$
-					m.appendReplacement(json, "{"); //$NON-NLS-1$
-				else if (match.equals(")"))     //$NON-NLS-1$
-					m.appendReplacement(json, "}"); //$NON-NLS-1$
-				else if (match.equals("|"))     //$NON-NLS-1$
-					m.appendReplacement(json, "!"); //$NON-NLS-1$
-				else if (match.equals("*"))     //$NON-NLS-1$
-					m.appendReplacement(json, ","); //$NON-NLS-1$
-				else if (match.equals("<"))     //$NON-NLS-1$
-					m.appendReplacement(json, "("); //$NON-NLS-1$
-				else if (match.equals(">"))     //$NON-NLS-1$
-					m.appendReplacement(json, ")"); //$NON-NLS-1$
-			}
-			m.appendTail(json);
-			String jsonstr = json.toString();
-			jsonstr = REQUOTE_JSON.matcher(jsonstr).replaceAll("$1\"$2\"$3"); // matches all keys //$NON-NLS-1$
-			jsonstr = REQUOTE_JSON.matcher(jsonstr).replaceAll("$1\"$2\"$3"); // matches all values //$NON-NLS-1$
-			result = new JSONObject(jsonstr);
+		if (encstr != null && encstr.length() > 0) {
+			new FoldedNameParser(encstr, result).parse();
 		}
 		if (isTraceLogging) {
 			log.exiting(RequestedModuleNames.class.getName(), sourceMethod, result);
 		}
-		return result;
 	}
 
 	/**
 	 * Decodes the module names specified by {@code encoded} and adds the module names to the
-	 * appropriate positions in {@code resultArray}. {@code encoded} is specified as a base64
+	 * appropriate positions in {@code result}. {@code encoded} is specified as a base64
 	 * encoded array of bytes. The byte array consists of a hash code followed by a base flag (1
 	 * byte) indicating whether the id map was encoded using 16-bit or 32-bit values, followed by
 	 * the id map which consists of a sequence of segments, with each segment having the form:
@@ -364,180 +382,111 @@ class RequestedModuleNames implements IRequestedModuleNames {
 	 *
 	 * @param decoded
 	 *            the base64 decoded id list
-	 * @param sparseArray
-	 *            Output - the sparse array to which the decoded module names will be added
+	 * @param result
+	 *            Output - the array to which the decoded module names will be added
 	 * @param hasIdListHash
 	 *            true if decoded is prefixed with the id list hash and 32-bit flag
-	 * @throws IOException
+	 * @throws BadRequestException
+	 *             if the id list is not valid
 	 */
-	protected void decodeModuleIds(byte[] decoded, Map<Integer, String> sparseArray, boolean hasIdListHash) throws IOException {
+	protected void decodeModuleIds(byte[] decoded, ModuleNameArray result, boolean hasIdListHash) throws BadRequestException {
 		final String sourceMethod = "decodeModuleIds"; //$NON-NLS-1$
 		if (isTraceLogging) {
-			log.entering(RequestedModuleNames.class.getName(), sourceMethod, new Object[]{decoded, sparseArray});
+			log.entering(RequestedModuleNames.class.getName(), sourceMethod, new Object[]{decoded, result});
 		}
 		if (decoded != null) {
+			int start = hasIdListHash ? idListHash.length+1 : 0;
+			if (decoded.length < start) {
+				throw new BadRequestException();
+			}
 			// strip off base flag
 			boolean use32BitEncoding = hasIdListHash ? decoded[idListHash.length] == 1 : false;
-
-			// convert to int array
-			int start = hasIdListHash ? idListHash.length+1 : 0;
 			int elemSize = use32BitEncoding ? 4 : 2;
-			int[] intArray = new int[(decoded.length-start)/elemSize];
-			for (int i = 0; i < intArray.length; i ++) {
-				int j = start+i*elemSize;
-				if (use32BitEncoding) {
-					intArray[i] = (((int)(decoded[j])&0xFF) << 24) + (((int)(decoded[j+1])&0xFF) << 16) +
-					              (((int)(decoded[j+2])&0xFF) << 8) + ((int)(decoded[j+3])&0xFF);
-				} else {
-					intArray[i] = (((int)(decoded[j])&0xFF) << 8) + ((int)(decoded[j+1])&0xFF);
-				}
-			}
-			if (isTraceLogging) {
-				log.finer("ids = " + Arrays.asList(intArray).toString()); //$NON-NLS-1$
-			}
-			for (int i = 0, position = -1, length = 0; i < intArray.length;) {
-				if (position == -1) {
-					// read the position and length values
-					position = intArray[i++];
-					length = intArray[i++];
+			int end = start + (decoded.length-start)/elemSize*elemSize;
+
+			// Read the values directly from the decoded bytes
+			for (int i = start; i < end;) {
+				// read the position and length values
+				if (i + 2*elemSize > end) {
+					throw new BadRequestException();
 				}
+				int position = readId(decoded, i, use32BitEncoding);
+				int length = readId(decoded, i+elemSize, use32BitEncoding);
+				i += 2*elemSize;
 				for (int j = 0; j < length; j++) {
-					String pluginName = null, moduleName = null;
-					int id = intArray[i++];
+					if (i >= end) {
+						throw new BadRequestException();
+					}
+					String name;
+					int id = readId(decoded, i, use32BitEncoding);
+					i += elemSize;
 					if (id == 0) {
 						// 0 means the next two ints specify plugin and modulename
-						id = intArray[i++];
-						pluginName = idList.get(id);
-						if (pluginName == null) {
+						if (i + 2*elemSize > end) {
 							throw new BadRequestException();
 						}
-						id = intArray[i++];
-						moduleName = id != 0 ? idList.get(id) : ""; //$NON-NLS-1$
-
+						String pluginName = getModuleName(readId(decoded, i, use32BitEncoding));
+						id = readId(decoded, i+elemSize, use32BitEncoding);
+						i += 2*elemSize;
+						name = pluginName + "!" + (id != 0 ? getModuleName(id) : ""); //$NON-NLS-1$ //$NON-NLS-2$
 					} else {
-						moduleName = idList.get(id);
-					}
-					if (moduleName == null) {
-						throw new BadRequestException();
+						name = getModuleName(id);
 					}
-					if (sparseArray.get(position+j) != null) {
-						throw new BadRequestException();
-					}
-					sparseArray.put(position+j, (pluginName != null ? (pluginName + "!") : "") + moduleName); //$NON-NLS-1$ //$NON-NLS-2$
+					result.set(position+j, name);
 				}
-				position = -1;
 			}
 		}
 		if (isTraceLogging) {
-			log.exiting(RequestedModuleNames.class.getName(), sourceMethod, sparseArray);
+			log.exiting(RequestedModuleNames.class.getName(), sourceMethod, result);
 		}
 	}
 
-
-	/**
-	 * Regular expression for a non-path property (i.e. auxiliary information or processing
-	 * instruction) of a folded path json object.
-	 */
-	static public Pattern NON_PATH_PROP_PATTERN = Pattern.compile("^/[^/]+/$"); //$NON-NLS-1$
-
 	/**
-	 * Name of folded path json property used to identify the names of loader
-	 * plugin prefixes and their ordinals used in the folded path.  This must
-	 * match the value of pluginPrefixesPropName in loaderExtCommon.js.  The
-	 * slashes (/) ensure that the name won't collide with a real path name.
+	 * Returns the module name for the specified id from the module id list
+	 *
+	 * @param id
+	 *            the module id
+	 * @return the module name
+	 * @throws BadRequestException
+	 *             if there is no module with the specified id
 	 */
-	static public String PLUGIN_PREFIXES_PROP_NAME = "/pre/"; //$NON-NLS-1$
+	private String getModuleName(int id) throws BadRequestException {
+		String name = idList != null && id >= 0 && id < idList.size() ? idList.get(id) : null;
+		if (name == null) {
+			throw new BadRequestException();
+		}
+		return name;
+	}
 
 	/**
-	 * Unfolds a folded module name list into a String array of unfolded names
-	 * <p>
-	 * The returned list must be sorted the same way it was requested ordering
-	 * modules in the same way as in the companion js extension to amd loader
-	 * order provided in the folded module leaf
-	 *
-	 * @param modules
-	 *            The folded module name list
-	 * @param sparseArray
-	 *            The result array.  Note that there may be holes in the result
-	 *            array when this method is done because some of the modules may
-	 *            have been specified using a different mechanism.
-	 * @throws IOException
-	 * @throws JSONException
+	 * Returns the 16-bit or 32-bit unsigned value at the specified offset
 	 */
-	protected void unfoldModules(JSONObject modules, Map<Integer, String> sparseArray) throws IOException, JSONException {
-		final String sourceMethod = "unfoldModules"; //$NON-NLS-1$
-		if (isTraceLogging) {
-			log.entering(RequestedModuleNames.class.getName(), sourceMethod, new Object[]{modules, Arrays.asList(sparseArray)});
-		}
-		Iterator<?> it = modules.keys();
-		String[] prefixes = null;
-		if (modules.containsKey(PLUGIN_PREFIXES_PROP_NAME)) {
-			@SuppressWarnings("unchecked")
-			Map<String, String> oPrefixes = (Map<String, String>) modules.get(PLUGIN_PREFIXES_PROP_NAME);
-			prefixes = new String[oPrefixes.size()];
-			for (String key : oPrefixes.keySet()) {
-				prefixes[Integer.parseInt(oPrefixes.get(key))] = key;
-			}
-		}
-		while (it.hasNext()) {
-			String key = (String) it.next();
-			if (!NON_PATH_PROP_PATTERN.matcher(key).find()) {
-				unfoldModulesHelper(modules.get(key), key, prefixes, sparseArray);
-			}
-		}
-		if (isTraceLogging) {
-			log.exiting(RequestedModuleNames.class.getName(), sourceMethod, Arrays.asList(sparseArray));
+	private static int readId(byte[] bytes, int offset, boolean use32BitEncoding) {
+		if (use32BitEncoding) {
+			return ((bytes[offset]&0xFF) << 24) | ((bytes[offset+1]&0xFF) << 16) |
+			       ((bytes[offset+2]&0xFF) << 8) | (bytes[offset+3]&0xFF);
 		}
+		return ((bytes[offset]&0xFF) << 8) | (bytes[offset+1]&0xFF);
 	}
 
 	/**
-	 * Helper routine to unfold folded module names
+	 * Returns the key for caching the module list decoded from the specified params.  The
+	 * length of the id list param is included so that different combinations of the params
+	 * can't produce the same key.
 	 *
-	 * @param obj
-	 *            The folded path list of names, as a string or JSON object
-	 * @param path
-	 *            The reference path
-	 * @param aPrefixes
-	 *            Array of loader plugin prefixes
-	 * @param modules
-	 *            Output - the list of unfolded modlue names as a sparse array implemented
-	 *            using a map with integer keys
-	 * @throws IOException
-	 * @throws JSONException
+	 * @param type
+	 *            identifies the list (modules or excludes)
+	 * @param ids
+	 *            the base64 encoded module id list, or null
+	 * @param names
+	 *            the encoded folded module name list, or null
+	 * @return the cache key
 	 */
-	protected void unfoldModulesHelper(Object obj, String path, String[] aPrefixes, Map<Integer, String> modules) throws IOException, JSONException {
-		final String sourceMethod = "unfoldModulesHelper"; //$NON-NLS-1$
-		if (isTraceLogging) {
-			log.entering(RequestedModuleNames.class.getName(), sourceMethod, new Object[]{
-				obj, path,
-				aPrefixes != null ? Arrays.asList(aPrefixes) : null, modules});
-		}
-		if (obj instanceof JSONObject) {
-			JSONObject jsonobj = (JSONObject)obj;
-			Iterator<?> it = jsonobj.keySet().iterator();
-			while (it.hasNext()) {
-				String key = (String)it.next();
-				String newpath = path + "/" + key;  //$NON-NLS-1$
-				unfoldModulesHelper(jsonobj.get(key), newpath, aPrefixes, modules);
-			}
-		}
-		else if (obj instanceof String){
-			String[] values = ((String)obj).split("-"); //$NON-NLS-1$
-			int idx = Integer.parseInt(values[0]);
-			if (modules.get(idx) != null) {
-				throw new BadRequestException();
-			}
-			modules.put(idx, values.length > 1 ?
-					((aPrefixes != null ?
-							aPrefixes[Integer.parseInt(values[1])] : values[1])
-							+ "!" + path) : //$NON-NLS-1$
-								path);
-		} else {
-			throw new BadRequestException();
-		}
-		if (isTraceLogging) {
-			log.exiting(RequestedModuleNames.class.getName(), sourceMethod, Arrays.asList(modules));
-		}
+	private static String getCacheKey(char type, String ids, String names) {
+		ids = ids != null ? ids : ""; //$NON-NLS-1$
+		names = names != null ? names : ""; //$NON-NLS-1$
+		return new StringBuilder(ids.length() + names.length() + 8)
+			.append(type).append(ids.length()).append(':').append(ids).append(names).toString();
 	}
 
 	/* (non-Javadoc)
@@ -563,10 +512,13 @@ class RequestedModuleNames implements IRequestedModuleNames {
 			log.entering(RequestedModuleNames.class.getName(), sourceMethod);
 		}
 		if (modules == null) {
-			modules = decodeModules(moduleQueryArg, base64decodedIdList, true);
+			modules = decodeModules(moduleQueryArg, base64decodedIdList, true, count, count);
 			if (modules.size() != count) {
 				throw new BadRequestException();
 			}
+			if (modulesCacheKey != null) {
+				decodeCache.put(modulesCacheKey, idList, modules);
+			}
 		}
 		if (isTraceLogging) {
 			log.exiting(RequestedModuleNames.class.getName(), sourceMethod, modules);
@@ -590,8 +542,22 @@ class RequestedModuleNames implements IRequestedModuleNames {
 		if (isTraceLogging) {
 			log.entering(RequestedModuleNames.class.getName(), sourceMethod);
 		}
+		if (excludesEncoded == null && excludesCacheKey != null) {
+			excludesEncoded = decodeCache.get(excludesCacheKey, idList);
+		}
 		if (excludesEncoded == null) {
-			excludesEncoded = decodeModules(excludeEncQueryArg, base64decodedExcludeIdList, false);
+			if (excludeEncQueryArg == null && excludeIdQueryArg == null) {
+				excludesEncoded = Collections.emptyList();
+			} else {
+				byte[] ids = excludeIdQueryArg != null ? Base64.decodeBase64(excludeIdQueryArg) : null;
+				// Each module in the list is specified by at least one character or id, so
+				// positions beyond this limit would leave empty slots in the list.
+				int maxSize = (excludeEncQueryArg != null ? excludeEncQueryArg.length() : 0) + (ids != null ? ids.length/2 : 0);
+				excludesEncoded = decodeModules(excludeEncQueryArg, ids, false, 16, maxSize);
+				if (excludesCacheKey != null) {
+					decodeCache.put(excludesCacheKey, idList, excludesEncoded);
+				}
+			}
 		}
 		if (isTraceLogging) {
 			log.exiting(RequestedModuleNames.class.getName(), sourceMethod, excludesEncoded);
@@ -599,27 +565,32 @@ class RequestedModuleNames implements IRequestedModuleNames {
 		return excludesEncoded;
 	}
 
-	protected List<String> decodeModules(String names, byte[] idList, boolean hasIdListHash) throws BadRequestException {
+	/**
+	 * Decodes the module list specified by a folded module name list and/or a module id list
+	 *
+	 * @param names
+	 *            the encoded folded module name list
+	 * @param ids
+	 *            the base64 decoded module id list
+	 * @param hasIdListHash
+	 *            true if ids is prefixed with the id list hash and 32-bit flag
+	 * @param initialSize
+	 *            the expected number of modules
+	 * @param maxSize
+	 *            the maximum number of modules
+	 * @return the unmodifiable module list
+	 * @throws BadRequestException
+	 */
+	protected List<String> decodeModules(String names, byte[] ids, boolean hasIdListHash, int initialSize, int maxSize) throws BadRequestException {
 		final String sourceMethod = "decodeModules"; //$NON-NLS-1$
 		if (isTraceLogging) {
-			log.entering(RequestedModuleNames.class.getName(), sourceMethod, new Object[]{names, idList, hasIdListHash});
-		}
-		Map<Integer, String> sparseArray = new TreeMap<Integer, String>();
-		try {
-			unfoldModules(decodeModules(names), sparseArray);
-			decodeModuleIds(idList, sparseArray, hasIdListHash);
-		} catch (JSONException ex) {
-			throw new BadRequestException(ex);
-		} catch (IOException ex) {
-			throw new BadRequestException(ex);
+			log.entering(RequestedModuleNames.class.getName(), sourceMethod, new Object[]{names, ids, hasIdListHash, initialSize, maxSize});
 		}
+		ModuleNameArray moduleNames = new ModuleNameArray(initialSize, maxSize);
+		unfoldModules(names, moduleNames);
+		decodeModuleIds(ids, moduleNames, hasIdListHash);
 		// make sure no empty slots
-		for (int i = 0; i < sparseArray.size(); i++) {
-			if (sparseArray.get(i) == null) {
-				throw new BadRequestException();
-			}
-		}
-		List<String> result = Collections.unmodifiableList(new ArrayList<String>(sparseArray.values()));
+		List<String> result = moduleNames.toList();
 
 		if (isTraceLogging) {
 			log.exiting(RequestedModuleNames.class.getName(), sourceMethod, result);
@@ -731,4 +702,314 @@ class RequestedModuleNames implements IRequestedModuleNames {
 		}
 		return result;
 	}
+
+	/**
+	 * Array of module names indexed by position in the requested module list.  The
+	 * decoders add names to the array in any order, and each position may be set only
+	 * once.
+	 */
+	static class ModuleNameArray {
+		private final int maxSize;
+		private String[] names;
+		private int size = 0;
+		private int length = 0;
+
+		/**
+		 * @param initialSize
+		 *            the initial size of the array
+		 * @param maxSize
+		 *            the maximum number of names.  Positions greater than or equal to
+		 *            this value are rejected.
+		 */
+		ModuleNameArray(int initialSize, int maxSize) {
+			this.maxSize = maxSize;
+			names = new String[Math.min(initialSize, maxSize)];
+		}
+
+		/**
+		 * Sets the module name at the specified position
+		 *
+		 * @param position
+		 *            the position in the module list
+		 * @param name
+		 *            the module name
+		 * @throws BadRequestException
+		 *             if the position is out of range or has already been set
+		 */
+		void set(int position, String name) throws BadRequestException {
+			if (position < 0 || position >= maxSize) {
+				throw new BadRequestException();
+			}
+			if (position >= names.length) {
+				names = Arrays.copyOf(names, Math.min(maxSize, Math.max(position+1, names.length*2)));
+			}
+			if (names[position] != null) {
+				throw new BadRequestException();
+			}
+			names[position] = name;
+			size++;
+			length = Math.max(length, position+1);
+		}
+
+		/**
+		 * @param position
+		 *            the position in the module list
+		 * @return the module name at the specified position, or null
+		 */
+		String get(int position) {
+			return position < names.length ? names[position] : null;
+		}
+
+		/**
+		 * @return the number of names in the array
+		 */
+		int size() {
+			return size;
+		}
+
+		/**
+		 * @return the module names as an unmodifiable list
+		 * @throws BadRequestException
+		 *             if there are empty positions in the array
+		 */
+		List<String> toList() throws BadRequestException {
+			if (size != length) {
+				throw new BadRequestException();
+			}
+			return Collections.unmodifiableList(Arrays.asList(length == names.length ? names : Arrays.copyOf(names, length)));
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.asList(names).subList(0, length).toString();
+		}
+	}
+
+	/**
+	 * Single pass parser for folded module name lists.  The encoded list is a JSON object
+	 * with the following character substitutions:
+	 * <pre>
+	 *   ( for {    ) for }    ! for :    * for ,    | for !    &lt; for (    &gt; for )
+	 * </pre>
+	 * and with no quotes around keys and values.  The names are added to the result array
+	 * as they are unfolded, so no intermediate JSON object is created.
+	 */
+	static class FoldedNameParser {
+		private final String str;
+		private final ModuleNameArray result;
+		private int pos = 0;
+		private String[] prefixes = null;
+		/** Plugin modules unfolded before the plugin prefix table was read */
+		private List<PluginModule> deferred = null;
+
+		FoldedNameParser(String str, ModuleNameArray result) {
+			this.str = str;
+			this.result = result;
+		}
+
+		void parse() throws BadRequestException {
+			expect('(');
+			if (!consume(')')) {
+				do {
+					String key = readName(false);
+					expect('!');
+					if (NON_PATH_PROP_PATTERN.matcher(key).find()) {
+						if (PLUGIN_PREFIXES_PROP_NAME.equals(key)) {
+							readPrefixes();
+						} else {
+							skipValue();
+						}
+					} else {
+						readValue(key);
+					}
+				} while (consume('*'));
+				expect(')');
+			}
+			if (pos != str.length()) {
+				throw new BadRequestException();
+			}
+			if (deferred != null) {
+				for (PluginModule module : deferred) {
+					result.set(module.position, getPrefix(module.prefix) + "!" + module.path); //$NON-NLS-1$
+				}
+			}
+		}
+
+		private void readValue(String path) throws BadRequestException {
+			if (consume('(')) {
+				if (!consume(')')) {
+					do {
+						String key = readName(false);
+						expect('!');
+						readValue(path + "/" + key); //$NON-NLS-1$
+					} while (consume('*'));
+					expect(')');
+				}
+				return;
+			}
+			// value is [position] or [position]-[plugin prefix]
+			int position = readInt();
+			if (!consume('-')) {
+				result.set(position, path);
+				return;
+			}
+			String prefix = readName(true);
+			if (consume('-')) {
+				readName(false);	// ignored
+			}
+			if (prefixes != null) {
+				result.set(position, getPrefix(prefix) + "!" + path); //$NON-NLS-1$
+			} else {
+				// The prefix table, if any, hasn't been read yet
+				if (deferred == null) {
+					deferred = new ArrayList<PluginModule>();
+				}
+				deferred.add(new PluginModule(position, prefix, path));
+			}
+		}
+
+		/**
+		 * Reads the plugin prefix table, which maps the plugin names to the ordinals
+		 * used for the plugin prefixes of the module names
+		 */
+		private void readPrefixes() throws BadRequestException {
+			List<String> names = new ArrayList<String>();
+			List<Integer> ordinals = new ArrayList<Integer>();
+			expect('(');
+			if (!consume(')')) {
+				do {
+					names.add(readName(false));
+					expect('!');
+					ordinals.add(readInt());
+				} while (consume('*'));
+				expect(')');
+			}
+			prefixes = new String[names.size()];
+			for (int i = 0; i < prefixes.length; i++) {
+				int ordinal = ordinals.get(i);
+				if (ordinal >= prefixes.length) {
+					throw new BadRequestException();
+				}
+				prefixes[ordinal] = names.get(i);
+			}
+		}
+
+		/**
+		 * Returns the plugin name for the specified prefix.  If there is no prefix
+		 * table, then the prefix is the plugin name (legacy format).
+		 */
+		private String getPrefix(String prefix) throws BadRequestException {
+			if (prefixes == null) {
+				return prefix;
+			}
+			String result = null;
+			try {
+				int ordinal = Integer.parseInt(prefix);
+				result = ordinal >= 0 && ordinal < prefixes.length ? prefixes[ordinal] : null;
+			} catch (NumberFormatException ignore) {}
+			if (result == null) {
+				throw new BadRequestException();
+			}
+			return result;
+		}
+
+		/**
+		 * Skips over the value of a non-path property
+		 */
+		private void skipValue() throws BadRequestException {
+			int start = pos, depth = 0;
+			for (; pos < str.length(); pos++) {
+				char c = str.charAt(pos);
+				if (c == '(') {
+					depth++;
+				} else if (c == ')') {
+					if (depth-- == 0) {
+						break;
+					}
+				} else if (c == '*' && depth == 0) {
+					break;
+				}
+			}
+			if (pos == start || depth > 0) {
+				throw new BadRequestException();
+			}
+		}
+
+		/**
+		 * Reads a key or plugin prefix, reversing the substitution of the characters that
+		 * are used for encoding
+		 *
+		 * @param stopAtDash
+		 *            true if the name is terminated by a dash
+		 * @return the name
+		 */
+		private String readName(boolean stopAtDash) throws BadRequestException {
+			int start = pos;
+			StringBuilder sb = null;
+			for (; pos < str.length(); pos++) {
+				char c = str.charAt(pos);
+				if (c == '(' || c == ')' || c == '!' || c == '*' || c == '-' && stopAtDash) {
+					break;
+				}
+				if (c == '|' || c == '<' || c == '>') {
+					if (sb == null) {
+						sb = new StringBuilder(str.length() - start).append(str, start, pos);
+					}
+					sb.append(c == '|' ? '!' : (c == '<' ? '(' : ')'));
+				} else if (sb != null) {
+					sb.append(c);
+				}
+			}
+			if (pos == start) {
+				throw new BadRequestException();
+			}
+			String name = sb != null ? sb.toString() : str.substring(start, pos);
+			// empty names are encoded as ""
+			return "\"\"".equals(name) ? "" : name; //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		private int readInt() throws BadRequestException {
+			int start = pos, value = 0;
+			for (; pos < str.length(); pos++) {
+				char c = str.charAt(pos);
+				if (c < '0' || c > '9') {
+					break;
+				}
+				if (value > (Integer.MAX_VALUE - 9) / 10) {
+					throw new BadRequestException();
+				}
+				value = value * 10 + (c - '0');
+			}
+			if (pos == start) {
+				throw new BadRequestException();
+			}
+			return value;
+		}
+
+		private boolean consume(char c) {
+			if (pos < str.length() && str.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(char c) throws BadRequestException {
+			if (!consume(c)) {
+				throw new BadRequestException();
+			}
+		}
+	}
+
+	private static class PluginModule {
+		final int position;
+		final String prefix;
+		final String path;
+
+		PluginModule(int position, String prefix, String path) {
+			this.position = position;
+			this.prefix = prefix;
+			this.path = path;
+		}
+	}
 }
\ No newline at end of file
@@ -159,6 +159,23 @@ public interface IOptions {
 	 */
 	public static final String VERIFY_DEPS = "verifyDeps"; //$NON-NLS-1$
 
+	/**
+	 * Name of property that specifies if the locations that are scanned for
+	 * dependencies should be watched for file changes. When enabled, files that are
+	 * added, changed or deleted are re-parsed as soon as the changes are saved, and
+	 * the dependencies are updated without rescanning the unchanged files. In
+	 * development mode, cached responses are invalidated only if the dependency lists
+	 * have changed, because cached builds are validated against the file
+	 * last-modified times.  Otherwise, cached responses are invalidated by any change
+	 * to the watched files. If not specified, locations are watched when {@link #DEVELOPMENT_MODE} is enabled.
+	 * <p>
+	 * This option requires a Java 7 or later runtime and applies only to file
+	 * locations.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String WATCH_DEPS = "watchDeps"; //$NON-NLS-1$
+
 	/**
 	 * Name of property to specify the directory to use for cache files. If not
 	 * specified, then the plugin state area for the bundle is determined by the
@@ -166,9 +183,203 @@ public interface IOptions {
 	 */
 	public static final String CACHE_DIRECTORY = "cacheDirectory"; //$NON-NLS-1$
 
+	/**
+	 * Name of property that specifies if layers should be streamed to the client as
+	 * they are assembled. When enabled, the output of each module build is encoded,
+	 * compressed and written to the response as soon as the layer reaches it, and the
+	 * bytes are accumulated for the layer cache along the way, rather than the whole
+	 * layer being assembled in memory before any of the response is written.
+	 * <p>
+	 * Streamed responses do not specify a Content-Length header, and because the headers
+	 * are written before the module builds have completed, responses for layers that
+	 * contain build errors are not marked as non-cacheable.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String STREAMING_LAYERS = "streamingLayers"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies if module builds should be pre-compressed.
+	 * When enabled, the output of each cached module build is compressed once, the
+	 * first time that it is included in a gzip encoded layer, and the compressed
+	 * output is copied into subsequent gzip encoded layers that include the module.
+	 * Only the contributions from the transport and layer listeners need to be
+	 * compressed when a layer is built.
+	 * <p>
+	 * This option requires a Java 7 or later runtime and is ignored when
+	 * {@link #STREAMING_LAYERS} is enabled.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String PRECOMPRESS_MODULES = "precompressModules"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies if gzip compression of layer builds should be
+	 * deferred. When enabled, a gzip encoded layer build that is not in the cache is
+	 * compressed using the fastest compression level so that the response can be sent
+	 * as quickly as possible, and the cached build is then recompressed using the best
+	 * compression level on a background thread. Subsequent requests are served the
+	 * better compressed build once the recompression has completed.
+	 * <p>
+	 * This option is ignored when {@link #STREAMING_LAYERS} is enabled.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String DEFERRED_COMPRESSION = "deferredCompression"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies if cached layer builds should be kept off of
+	 * the Java heap. When enabled, the cache file for a layer build is memory-mapped
+	 * the first time that it is read after being written to disk, and subsequent
+	 * requests for the layer are served from the mapped file instead of reading the
+	 * file. The layer cache holds only a reference to the mapping.
+	 * <p>
+	 * Memory-mapped files are unmapped when the mapping is garbage collected, so on
+	 * platforms that don't allow mapped files to be deleted, deleting the cache files
+	 * of evicted layer builds may fail.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String OFFHEAP_LAYER_CACHE = "offHeapLayerCache"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies if layer responses should be cached by the
+	 * raw request URL.  When enabled, repeat requests with the same request URI,
+	 * query string, Accept-Encoding and Accept-Language headers, and has-features
+	 * cookie are served the cached layer build that was used for the previous response,
+	 * without decoding the request or generating the layer cache key.  Cached
+	 * responses are discarded when the config, dependencies or options are
+	 * updated.
+	 * <p>
+	 * This option is ignored when development mode is enabled, or when request
+	 * listeners are registered.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String LAYER_RESPONSE_CACHE = "layerResponseCache"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies the maximum number of responses held in the
+	 * layer response cache enabled by {@link #LAYER_RESPONSE_CACHE}.  Least recently
+	 * used responses are evicted when the capacity is exceeded.
+	 * <p>
+	 * Valid values: Integer value > 0
+	 * @see #DEFAULT_LAYER_RESPONSE_CACHE_CAPACITY
+	 */
+	public static final String LAYER_RESPONSE_CACHE_CAPACITY = "layerResponseCacheCapacity"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies the capacity, in megabytes of JavaScript
+	 * source code, of the cache of parsed ASTs that is shared by dependency scanning
+	 * and JavaScript module builds. Module builds start from a copy of the cached
+	 * AST for the module instead of parsing the source again. Least recently used
+	 * ASTs are evicted when the capacity is exceeded. A value of 0 (the default)
+	 * disables the cache.
+	 * <p>
+	 * Valid values: Integer value >= 0
+	 * @see #DEFAULT_AST_CACHE_CAPACITY_MB
+	 */
+	public static final String AST_CACHE_CAPACITY_MB = "astCacheCapacityMB"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies the capacity, in megabytes of estimated heap
+	 * usage, of the module build output that is kept in memory.  Module builds are
+	 * always written to cache files, and the output of the most recently used builds
+	 * is also kept in memory, up to this capacity, so that it doesn't need to be read
+	 * from the cache files.  The capacity is shared by all module builds.  When it is
+	 * exceeded, the least recently used builds release their in-memory output and are
+	 * read from their cache files the next time they are requested.  A value of 0
+	 * disables keeping module build output in memory.
+	 * <p>
+	 * Valid values: Integer value >= 0
+	 * @see #DEFAULT_MODULE_BUILD_CACHE_CAPACITY_MB
+	 */
+	public static final String MODULE_BUILD_CACHE_CAPACITY_MB = "moduleBuildCacheCapacityMB"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies the capacity, in number of modules summed
+	 * over the cached closures, of the cache of expanded module dependencies that is
+	 * used when computing the expanded dependencies of a request.  Least recently
+	 * used closures are evicted when the capacity is exceeded.  A value of 0
+	 * disables the cache.  The capacity is read when the dependencies are loaded.
+	 * <p>
+	 * Valid values: Integer value >= 0
+	 * @see #DEFAULT_DEPENDENCY_CLOSURE_CACHE_CAPACITY
+	 */
+	public static final String DEPENDENCY_CLOSURE_CACHE_CAPACITY = "dependencyClosureCacheCapacity"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies the number of threads in the pool used for
+	 * module builds. If not specified, or 0, the pool is sized to the number of
+	 * processors, but not less than 10 threads. Changes to this option and to
+	 * {@link #FILE_CREATE_THREADS} resize the thread pools on the next options
+	 * update. The queue capacities and {@link #EXECUTOR_REJECTION_POLICY} are read
+	 * only when the thread pools are created.
+	 * <p>
+	 * Valid values: Integer value >= 0
+	 */
+	public static final String BUILD_THREADS = "buildThreads"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies the maximum number of module builds that may
+	 * be queued waiting for a build thread. Builds submitted while the queue is full
+	 * are handled as specified by {@link #EXECUTOR_REJECTION_POLICY}. If not
+	 * specified, or 0, the queue is unbounded.
+	 * <p>
+	 * Valid values: Integer value >= 0
+	 */
+	public static final String BUILD_QUEUE_CAPACITY = "buildQueueCapacity"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies the number of threads in the pool used to write
+	 * cache files. The default is 1.
+	 * <p>
+	 * Valid values: Integer value >= 1
+	 */
+	public static final String FILE_CREATE_THREADS = "fileCreateThreads"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies the maximum number of cache file writes that may
+	 * be queued waiting for a thread. Writes submitted while the queue is full are
+	 * handled as specified by {@link #EXECUTOR_REJECTION_POLICY}. If not specified,
+	 * or 0, the queue is unbounded.
+	 * <p>
+	 * Valid values: Integer value >= 0
+	 */
+	public static final String FILE_CREATE_QUEUE_CAPACITY = "fileCreateQueueCapacity"; //$NON-NLS-1$
+
+	/**
+	 * Name of property that specifies what happens to tasks that are submitted to a
+	 * thread pool with a bounded queue while the queue is full. With
+	 * {@link #REJECTION_POLICY_CALLERRUNS} (the default), the task is run on the
+	 * submitting thread. With {@link #REJECTION_POLICY_ABORT}, the submitting thread
+	 * gets a {@link java.util.concurrent.RejectedExecutionException}.
+	 * <p>
+	 * Valid values: <code>callerRuns/abort</code>
+	 */
+	public static final String EXECUTOR_REJECTION_POLICY = "executorRejectionPolicy"; //$NON-NLS-1$
+
+	/** Value of {@link #EXECUTOR_REJECTION_POLICY} for running rejected tasks on the submitting thread */
+	public static final String REJECTION_POLICY_CALLERRUNS = "callerRuns"; //$NON-NLS-1$
+
+	/** Value of {@link #EXECUTOR_REJECTION_POLICY} for failing rejected tasks */
+	public static final String REJECTION_POLICY_ABORT = "abort"; //$NON-NLS-1$
+
 	/** The default value returned by {@link #getDeleteDelay()} */
 	public static final int DEFAULT_DELETE_DELAY = 3*60; // 3 minutes
 
+	/** The default value returned by {@link #getAstCacheCapacityMB()} */
+	public static final int DEFAULT_AST_CACHE_CAPACITY_MB = 0;
+
+	/** The default value returned by {@link #getModuleBuildCacheCapacityMB()} */
+	public static final int DEFAULT_MODULE_BUILD_CACHE_CAPACITY_MB = 32;
+
+	/** The default value returned by {@link #getDependencyClosureCacheCapacity()} */
+	public static final int DEFAULT_DEPENDENCY_CLOSURE_CACHE_CAPACITY = 500000;
+
+	/** The default value returned by {@link #getLayerResponseCacheCapacity()} */
+	public static final int DEFAULT_LAYER_RESPONSE_CACHE_CAPACITY = 10000;
+
 
 
 	/**
@@ -234,6 +445,61 @@ public interface IOptions {
 	 * as a boolean
 	 */
 	public boolean isDisableModuleNameIdEncoding();
+	/**
+	 * Convenience method for reading the {@link #STREAMING_LAYERS}
+	 * options property.
+	 *
+	 * @return The value of the {@link #STREAMING_LAYERS} property
+	 * as a boolean
+	 */
+	public boolean isStreamingLayers();
+
+	/**
+	 * Convenience method for reading the {@link #PRECOMPRESS_MODULES}
+	 * options property.
+	 *
+	 * @return The value of the {@link #PRECOMPRESS_MODULES} property
+	 * as a boolean
+	 */
+	public boolean isPrecompressModules();
+
+	/**
+	 * Convenience method for reading the {@link #DEFERRED_COMPRESSION}
+	 * options property.
+	 *
+	 * @return The value of the {@link #DEFERRED_COMPRESSION} property
+	 * as a boolean
+	 */
+	public boolean isDeferredCompression();
+
+	/**
+	 * Convenience method for reading the {@link #OFFHEAP_LAYER_CACHE}
+	 * options property.
+	 *
+	 * @return The value of the {@link #OFFHEAP_LAYER_CACHE} property
+	 * as a boolean
+	 */
+	public boolean isOffHeapLayerCache();
+
+	/**
+	 * Convenience method for reading the {@link #LAYER_RESPONSE_CACHE}
+	 * options property.
+	 *
+	 * @return The value of the {@link #LAYER_RESPONSE_CACHE} property
+	 * as a boolean
+	 */
+	public boolean isLayerResponseCache();
+
+	/**
+	 * Convenience method for reading the {@link #LAYER_RESPONSE_CACHE_CAPACITY}
+	 * options property.
+	 *
+	 * @return The value of the {@link #LAYER_RESPONSE_CACHE_CAPACITY} property
+	 * as an int.  If the property is not set, then
+	 * {@link #DEFAULT_LAYER_RESPONSE_CACHE_CAPACITY} is returned.
+	 */
+	public int getLayerResponseCacheCapacity();
+
 	/**
 	 * Convenience method for reading the {@link #CACHEBUST} options
 	 * property.
@@ -252,6 +518,36 @@ public interface IOptions {
 	 */
 	public int getDeleteDelay();
 
+	/**
+	 * Convenience method for reading the {@link #AST_CACHE_CAPACITY_MB}
+	 * options property.
+	 *
+	 * @return The value of the {@link #AST_CACHE_CAPACITY_MB} property
+	 * as an int.  If the property is not set, then
+	 * {@link #DEFAULT_AST_CACHE_CAPACITY_MB} is returned.
+	 */
+	public int getAstCacheCapacityMB();
+
+	/**
+	 * Convenience method for reading the {@link #MODULE_BUILD_CACHE_CAPACITY_MB}
+	 * options property.
+	 *
+	 * @return The value of the {@link #MODULE_BUILD_CACHE_CAPACITY_MB} property
+	 * as an int.  If the property is not set, then
+	 * {@link #DEFAULT_MODULE_BUILD_CACHE_CAPACITY_MB} is returned.
+	 */
+	public int getModuleBuildCacheCapacityMB();
+
+	/**
+	 * Convenience method for reading the {@link #DEPENDENCY_CLOSURE_CACHE_CAPACITY}
+	 * options property.
+	 *
+	 * @return The value of the {@link #DEPENDENCY_CLOSURE_CACHE_CAPACITY} property
+	 * as an int.  If the property is not set, then
+	 * {@link #DEFAULT_DEPENDENCY_CLOSURE_CACHE_CAPACITY} is returned.
+	 */
+	public int getDependencyClosureCacheCapacity();
+
 	/**
 	 * Convenience method for reading the {@link #CACHE_DIRECTORY}
 	 * options property.
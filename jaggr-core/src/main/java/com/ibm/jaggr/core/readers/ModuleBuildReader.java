@@ -20,6 +20,7 @@ import com.ibm.jaggr.core.cachekeygenerator.ICacheKeyGenerator;
 import com.ibm.jaggr.core.cachekeygenerator.KeyGenUtil;
 import com.ibm.jaggr.core.module.IModule;
 import com.ibm.jaggr.core.modulebuilder.ModuleBuildFuture;
+import com.ibm.jaggr.core.util.DeflatedSegment;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -42,6 +43,7 @@ public class ModuleBuildReader extends Reader {
 	private List<ICacheKeyGenerator> keyGenerators;
 	private final boolean isScript;
 	private final String error;
+	private DeflatedSegment deflatedContent = null;
 
 	/**
 	 * Constructor for a Build object specifying a reader, key generator
@@ -109,6 +111,27 @@ public class ModuleBuildReader extends Reader {
 		return error;
 	}
 
+	/**
+	 * Returns the pre-compressed build content, if available.  When not null, the
+	 * segment's uncompressed data is identical to the content returned by this reader,
+	 * and may be copied into gzip encoded responses in place of the reader content.
+	 *
+	 * @return The pre-compressed content, or null
+	 */
+	public DeflatedSegment getDeflatedContent() {
+		return deflatedContent;
+	}
+
+	/**
+	 * Sets the pre-compressed build content.
+	 *
+	 * @param deflatedContent
+	 *            the compressed reader content
+	 */
+	public void setDeflatedContent(DeflatedSegment deflatedContent) {
+		this.deflatedContent = deflatedContent;
+	}
+
 	/**
 	 * @return true if the content is scirpt code
 	 */
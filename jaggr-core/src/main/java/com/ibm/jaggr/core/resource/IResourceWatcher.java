@@ -0,0 +1,65 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.resource;
+
+import java.net.URI;
+import java.util.Collection;
+
+/**
+ * Watches resources for changes and reports them to an {@link IListener}.
+ * Changes are accumulated until no new changes have been reported for a
+ * quiet period, and are then reported together, so that saving a group of
+ * files results in a single notification.
+ */
+public interface IResourceWatcher {
+
+	/**
+	 * Listener interface for resource change notifications
+	 */
+	public interface IListener {
+		/**
+		 * Called on the watcher's thread when watched resources have been
+		 * created, modified or deleted. Notifications may include resources
+		 * that are not in the watched folders, but are in the same folder as
+		 * a watched file.
+		 *
+		 * @param uris
+		 *            the URIs of the changed resources, or null if change
+		 *            events were lost and the watched resources need to be
+		 *            rescanned
+		 */
+		public void resourcesChanged(Collection<URI> uris);
+	}
+
+	/**
+	 * Starts watching the specified resource. If the resource is a folder,
+	 * then the folder and all of its sub-folders are watched, including
+	 * sub-folders that are created later.
+	 *
+	 * @param uri
+	 *            the resource URI
+	 * @return true if the resource is being watched, or false if resources
+	 *         with the specified URI can't be watched by this watcher
+	 */
+	public boolean watch(URI uri);
+
+	/**
+	 * Stops watching all resources and stops the watcher's thread. No
+	 * notifications are delivered after this method returns.
+	 */
+	public void close();
+}
@@ -0,0 +1,294 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.util;
+
+import com.ibm.jaggr.core.IAggregator;
+import com.ibm.jaggr.core.cache.ICacheManager;
+import com.ibm.jaggr.core.options.IOptions;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerInput;
+import com.google.javascript.jscomp.JsAst;
+import com.google.javascript.jscomp.SourceAst;
+import com.google.javascript.jscomp.SourceFile;
+import com.google.javascript.rhino.InputId;
+import com.google.javascript.rhino.Node;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of parsed JavaScript ASTs keyed by resource URI and last-modified time.  The
+ * cache is populated by dependency scanning and by JavaScript module builds, and is
+ * used by module builds so that the source for a module is parsed once rather than
+ * once for each variant of the module that is built.
+ * <p>
+ * Cached ASTs are never given to the compiler.  Callers get a copy of the AST,
+ * so the compiler is free to modify it.  Each aggregator has its own instance, owned
+ * by the aggregator's {@link ICacheManager}.  The cache is bounded by the total length
+ * of the source code for the cached ASTs, as specified by
+ * {@link IOptions#AST_CACHE_CAPACITY_MB}, and the least
+ * recently used ASTs are evicted when the capacity is exceeded.
+ */
+public class AstCache {
+	private static final String sourceClass = AstCache.class.getName();
+	private static final Logger log = Logger.getLogger(sourceClass);
+
+	private static final long BYTES_PER_MB = 1024 * 1024;
+
+	private final ConcurrentLinkedHashMap<String, Entry> cache;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param capacityMB
+	 *            the capacity of the cache, in megabytes of source code
+	 * @see IOptions#AST_CACHE_CAPACITY_MB
+	 */
+	public AstCache(int capacityMB) {
+		cache = new ConcurrentLinkedHashMap.Builder<String, Entry>()
+				.maximumWeightedCapacity(toBytes(capacityMB))
+				.weigher(new Weigher<Entry>() {
+					@Override
+					public int weightOf(Entry entry) {
+						// ConcurrentLinkedHashMap barfs on weight == 0
+						return Math.max(entry.codeLength, 1);
+					}
+				}).build();
+	}
+
+	/**
+	 * Returns the AST cache belonging to the cache manager of the specified aggregator,
+	 * or null if the aggregator doesn't have a cache manager or the cache is disabled.
+	 *
+	 * @param aggr
+	 *            the aggregator
+	 * @return the AST cache, or null
+	 */
+	public static AstCache getInstance(IAggregator aggr) {
+		ICacheManager cacheMgr = aggr != null ? aggr.getCacheManager() : null;
+		AstCache result = cacheMgr != null ? cacheMgr.getAstCache() : null;
+		return result != null && result.isEnabled() ? result : null;
+	}
+
+	/**
+	 * A cached AST together with the information needed to validate it.
+	 */
+	private static class Entry {
+		final long lastModified;
+		final int codeLength;
+		final int codeHash;
+		final Node root;
+		Entry(long lastModified, String code, Node root) {
+			this.lastModified = lastModified;
+			this.codeLength = code.length();
+			this.codeHash = code.hashCode();
+			this.root = root;
+		}
+	}
+
+	/**
+	 * Returns a copy of the cached AST for the specified source, or null if the AST
+	 * is not in the cache or the cached AST was parsed from different source code
+	 * (for example, because the resource was modified, or because the source was
+	 * transformed by a module builder).  The nodes of the returned AST reference
+	 * {@code source} as their source file.
+	 *
+	 * @param uri
+	 *            the resource URI
+	 * @param lastModified
+	 *            the last-modified time of the resource
+	 * @param source
+	 *            the source file
+	 * @return a copy of the cached AST, or null
+	 * @throws IOException
+	 */
+	public Node get(URI uri, long lastModified, SourceFile source) throws IOException {
+		Node result = null;
+		Entry entry = cache.get(uri.toString());
+		if (entry != null && entry.lastModified == lastModified) {
+			String code = source.getCode();
+			if (code.length() == entry.codeLength && code.hashCode() == entry.codeHash) {
+				result = copy(entry.root, source);
+			}
+		}
+		(result != null ? hits : misses).incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Adds the AST for the specified source to the cache.  The AST must have been
+	 * parsed without errors and must not be modified by the caller after it is added.
+	 *
+	 * @param uri
+	 *            the resource URI
+	 * @param lastModified
+	 *            the last-modified time of the resource
+	 * @param source
+	 *            the source file that was parsed
+	 * @param root
+	 *            the root node of the AST
+	 */
+	public void put(URI uri, long lastModified, SourceFile source, Node root) {
+		try {
+			cache.put(uri.toString(), new Entry(lastModified, source.getCode(), root));
+		} catch (IOException e) {
+			if (log.isLoggable(Level.WARNING)) {
+				log.log(Level.WARNING, e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Returns a compiler input for the specified source file that provides the
+	 * specified AST to the compiler instead of parsing the source.
+	 *
+	 * @param source
+	 *            the source file
+	 * @param root
+	 *            the AST, as returned by {@link #get}
+	 * @return the compiler input
+	 */
+	public static CompilerInput newCompilerInput(SourceFile source, Node root) {
+		return new CompilerInput(new PreparsedAst(source, root));
+	}
+
+	/**
+	 * @return the number of successful lookups
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of unsuccessful lookups
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * @return true if the cache is enabled
+	 */
+	public boolean isEnabled() {
+		return cache.capacity() > 0;
+	}
+
+	/**
+	 * Sets the capacity of the cache, evicting the least recently used ASTs if the
+	 * cache is over the new capacity.  Called by the cache manager when the
+	 * aggregator options are updated.
+	 *
+	 * @param capacityMB
+	 *            the capacity of the cache, in megabytes of source code
+	 */
+	public void setCapacity(int capacityMB) {
+		long capacity = toBytes(capacityMB);
+		if (capacity != cache.capacity()) {
+			cache.setCapacity(capacity);
+		}
+	}
+
+	private static long toBytes(int capacityMB) {
+		return Math.max(capacityMB, 0) * BYTES_PER_MB;
+	}
+
+	/**
+	 * Returns a copy of the AST, with the nodes referencing the specified source file.
+	 *
+	 * @param root
+	 *            the root node of the AST to copy
+	 * @param source
+	 *            the source file
+	 * @return the copy
+	 */
+	static Node copy(Node root, SourceFile source) {
+		Node result = root.cloneTree();
+		LinkedList<Node> nodes = new LinkedList<Node>();
+		nodes.add(result);
+		while (!nodes.isEmpty()) {
+			Node node = nodes.removeFirst();
+			if (node.getStaticSourceFile() != null) {
+				node.setStaticSourceFile(source);
+			}
+			for (Node child = node.getFirstChild(); child != null; child = child.getNext()) {
+				nodes.add(child);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * {@link SourceAst} that provides an AST that was parsed ahead of time.  If the
+	 * compiler clears the AST, then the source is parsed if the AST is needed again.
+	 */
+	private static class PreparsedAst implements SourceAst {
+		private static final long serialVersionUID = -4016224787409346587L;
+
+		private final InputId inputId;
+		private transient SourceFile sourceFile;
+		private Node root;
+
+		PreparsedAst(SourceFile sourceFile, Node root) {
+			this.inputId = new InputId(sourceFile.getName());
+			this.sourceFile = sourceFile;
+			this.root = root;
+		}
+
+		@Override
+		public Node getAstRoot(AbstractCompiler compiler) {
+			if (root == null) {
+				root = new JsAst(sourceFile).getAstRoot(compiler);
+			}
+			root.setInputId(inputId);
+			return root;
+		}
+
+		@Override
+		public void clearAst() {
+			root = null;
+		}
+
+		@Override
+		public InputId getInputId() {
+			return inputId;
+		}
+
+		@Override
+		public SourceFile getSourceFile() {
+			return sourceFile;
+		}
+
+		@Override
+		public void setSourceFile(SourceFile file) {
+			sourceFile = file;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@link ByteArrayInputStream} that can write its remaining bytes to an output
+ * stream with a single call, without copying them into an intermediate buffer.
+ */
+public class BulkByteArrayInputStream extends ByteArrayInputStream {
+
+	public BulkByteArrayInputStream(byte[] buf) {
+		super(buf);
+	}
+
+	/**
+	 * Writes the bytes that have not yet been read to the specified output stream
+	 * and advances the stream to the end.
+	 *
+	 * @param out
+	 *            the output stream
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	public synchronized int writeTo(OutputStream out) throws IOException {
+		int len = count - pos;
+		if (len > 0) {
+			out.write(buf, pos, len);
+			pos = count;
+		}
+		return len;
+	}
+}
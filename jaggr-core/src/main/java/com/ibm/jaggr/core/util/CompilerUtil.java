@@ -15,14 +15,154 @@
  */
 package com.ibm.jaggr.core.util;
 
+import com.google.javascript.jscomp.BasicErrorManager;
+import com.google.javascript.jscomp.CheckLevel;
+import com.google.javascript.jscomp.Compiler;
 import com.google.javascript.jscomp.CompilerOptions;
 import com.google.javascript.jscomp.CompilerOptions.LanguageMode;
+import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.SourceFile;
+import com.google.javascript.rhino.Node;
+
+import org.apache.commons.lang3.mutable.MutableBoolean;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CompilerUtil {
 
+	/**
+	 * Per-thread compiler used for parsing.  Parsing doesn't add inputs to the
+	 * compiler or modify its options, so a compiler can be used to parse any number
+	 * of source files, unlike compilers used for compiling, which may be used only
+	 * once.
+	 */
+	private static final ThreadLocal<PooledParser> parsers = new ThreadLocal<PooledParser>();
+
+	/**
+	 * Counts the reuse of pooled parsers by the calls to
+	 * {@link CompilerUtil#parse(SourceFile, MutableBoolean, ParseStats)} that are
+	 * passed this object, so that callers can report the reuse for their own
+	 * parses.
+	 */
+	public static class ParseStats {
+		private final AtomicLong parserReuseCount = new AtomicLong();
+		private final AtomicLong savedSetupNanos = new AtomicLong();
+
+		/**
+		 * @return the number of times a pooled parser was reused
+		 */
+		public long getParserReuseCount() {
+			return parserReuseCount.get();
+		}
+
+		/**
+		 * @return the total compiler setup time, in milliseconds, that was avoided
+		 *         by reusing pooled parsers
+		 */
+		public long getSavedSetupMillis() {
+			return savedSetupNanos.get() / 1000000;
+		}
+	}
+
+	private static class PooledParser {
+		final Compiler compiler;
+		final long setupNanos;
+		PooledParser(Compiler compiler, long setupNanos) {
+			this.compiler = compiler;
+			this.setupNanos = setupNanos;
+		}
+	}
+
+	/**
+	 * Error manager that doesn't retain the errors reported to it, so that
+	 * pooled parsers don't accumulate errors from the files they parse.
+	 */
+	private static class DiscardingErrorManager extends BasicErrorManager {
+		boolean hasErrors = false;
+		@Override
+		public void report(CheckLevel level, JSError error) {
+			if (level == CheckLevel.ERROR) {
+				hasErrors = true;
+			}
+		}
+		@Override
+		public void println(CheckLevel level, JSError error) {
+		}
+		@Override
+		protected void printSummary() {
+		}
+	}
+
 	public static CompilerOptions getDefaultOptions() {
 		CompilerOptions options = new CompilerOptions();
 		options.setLanguageIn(LanguageMode.ECMASCRIPT5);
 		return options;
 	}
+
+	/**
+	 * Parses the specified source file using a compiler, initialized with the default
+	 * options, that belongs to the calling thread.  The compiler is created the first
+	 * time the thread calls this method, and is reused for subsequent calls.
+	 *
+	 * @param sourceFile
+	 *            the source file to parse
+	 * @return the root node of the AST
+	 */
+	public static Node parse(SourceFile sourceFile) {
+		return parse(sourceFile, null, null);
+	}
+
+	/**
+	 * Like {@link #parse(SourceFile)}, but also indicates if errors were reported
+	 * while parsing the source.
+	 *
+	 * @param sourceFile
+	 *            the source file to parse
+	 * @param hasErrors
+	 *            output - set to true if parsing errors were reported.  May be null.
+	 * @return the root node of the AST
+	 */
+	public static Node parse(SourceFile sourceFile, MutableBoolean hasErrors) {
+		return parse(sourceFile, hasErrors, null);
+	}
+
+	/**
+	 * Like {@link #parse(SourceFile, MutableBoolean)}, but also records the reuse
+	 * of the pooled parser in the specified statistics.
+	 *
+	 * @param sourceFile
+	 *            the source file to parse
+	 * @param hasErrors
+	 *            output - set to true if parsing errors were reported.  May be null.
+	 * @param stats
+	 *            the statistics to update if the pooled parser is reused.  May be
+	 *            null.
+	 * @return the root node of the AST
+	 */
+	public static Node parse(SourceFile sourceFile, MutableBoolean hasErrors, ParseStats stats) {
+		PooledParser parser = parsers.get();
+		if (parser == null) {
+			long start = System.nanoTime();
+			Compiler compiler = new Compiler(new DiscardingErrorManager());
+			compiler.initOptions(getDefaultOptions());
+			parser = new PooledParser(compiler, System.nanoTime() - start);
+			parsers.set(parser);
+		} else if (stats != null) {
+			stats.parserReuseCount.incrementAndGet();
+			stats.savedSetupNanos.addAndGet(parser.setupNanos);
+		}
+		try {
+			DiscardingErrorManager errorManager = (DiscardingErrorManager)parser.compiler.getErrorManager();
+			errorManager.hasErrors = false;
+			Node result = parser.compiler.parse(sourceFile);
+			if (hasErrors != null) {
+				hasErrors.setValue(errorManager.hasErrors);
+			}
+			return result;
+		} catch (RuntimeException e) {
+			// Don't reuse a compiler that may have been left in an inconsistent state
+			parsers.remove();
+			throw e;
+		}
+	}
 }
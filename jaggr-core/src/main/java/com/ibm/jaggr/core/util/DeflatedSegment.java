@@ -0,0 +1,248 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An independently compressed piece of a deflate stream. The segment is compressed
+ * without a dictionary and terminated with a sync flush, so it ends on a byte boundary
+ * and does not contain a final block. Any number of segments may therefore be
+ * concatenated to form the body of a single gzip member, with the CRC32 and the length
+ * of the uncompressed data for the member being computed from the values saved for
+ * each segment. This allows content that is included in many responses (e.g. module
+ * builds) to be compressed once and then copied into each response that uses it.
+ * <p>
+ * Sync flushing requires the Java 7 {@link Deflater} API. Use {@link #isSupported()}
+ * to determine if segments can be created in the current runtime.
+ */
+public class DeflatedSegment {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/** A final, empty, fixed Huffman coded block.  Terminates the deflate stream */
+	private static final byte[] FINAL_BLOCK = new byte[]{0x03, 0x00};
+
+	/** gzip header with no file name, comment or modification time */
+	private static final byte[] GZIP_HEADER = new byte[]{0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+	/** Value of Deflater.SYNC_FLUSH (not defined prior to Java 7) */
+	private static final int SYNC_FLUSH = 2;
+
+	private static final boolean supported;
+
+	static {
+		boolean result = false;
+		try {
+			Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class); //$NON-NLS-1$
+			result = true;
+		} catch (NoSuchMethodException ignore) {
+		}
+		supported = result;
+	}
+
+	private final byte[] bytes;
+	private final long crc;
+	private final long length;
+
+	private DeflatedSegment(byte[] bytes, long crc, long length) {
+		this.bytes = bytes;
+		this.crc = crc;
+		this.length = length;
+	}
+
+	/**
+	 * @return true if segments can be created in this runtime
+	 */
+	public static boolean isSupported() {
+		return supported;
+	}
+
+	/**
+	 * Compresses the UTF-8 encoding of the specified string.
+	 *
+	 * @param content
+	 *            the string to compress
+	 * @return the compressed segment
+	 * @throws UnsupportedOperationException
+	 *             if the runtime does not support segment creation
+	 */
+	public static DeflatedSegment deflate(String content) {
+		try {
+			return deflate(content.getBytes("UTF-8")); //$NON-NLS-1$
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Compresses the specified bytes.
+	 *
+	 * @param data
+	 *            the data to compress
+	 * @return the compressed segment
+	 * @throws UnsupportedOperationException
+	 *             if the runtime does not support segment creation
+	 */
+	public static DeflatedSegment deflate(byte[] data) {
+		if (!supported) {
+			throw new UnsupportedOperationException();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(data.length / 3, 64));
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		try {
+			deflater.setInput(data);
+			byte[] buf = new byte[BUFFER_SIZE];
+			int n;
+			do {
+				n = deflater.deflate(buf, 0, buf.length, SYNC_FLUSH);
+				bos.write(buf, 0, n);
+			} while (n == buf.length);
+		} finally {
+			deflater.end();
+		}
+		return new DeflatedSegment(bos.toByteArray(), crc.getValue(), data.length);
+	}
+
+	/**
+	 * @return the compressed bytes.  The returned array must not be modified.
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the CRC32 of the uncompressed data
+	 */
+	public long getCrc() {
+		return crc;
+	}
+
+	/**
+	 * @return the length of the uncompressed data
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Writes a gzip member consisting of the specified segments to the output stream.
+	 * The output stream is not closed.
+	 *
+	 * @param out
+	 *            the output stream
+	 * @param segments
+	 *            the segments, in the order that their content appears in the
+	 *            uncompressed data
+	 * @throws IOException
+	 */
+	public static void writeGZIP(OutputStream out, List<DeflatedSegment> segments) throws IOException {
+		long crc = 0, length = 0;
+		out.write(GZIP_HEADER);
+		for (DeflatedSegment segment : segments) {
+			out.write(segment.bytes);
+			crc = combineCrc(crc, segment.crc, segment.length);
+			length += segment.length;
+		}
+		out.write(FINAL_BLOCK);
+		writeInt(out, crc);
+		writeInt(out, length);	// ISIZE is the length modulo 2^32
+	}
+
+	/**
+	 * Returns the CRC32 of the concatenation of two blocks of data given the CRC of
+	 * each block and the length of the second block. This is the algorithm used by
+	 * zlib's crc32_combine().
+	 *
+	 * @param crc1
+	 *            the CRC of the first block
+	 * @param crc2
+	 *            the CRC of the second block
+	 * @param len2
+	 *            the length of the second block
+	 * @return the CRC of the combined blocks
+	 */
+	static long combineCrc(long crc1, long crc2, long len2) {
+		if (len2 <= 0) {
+			return crc1;
+		}
+		long[] even = new long[32];	// even-power-of-two zeros operator
+		long[] odd = new long[32];	// odd-power-of-two zeros operator
+
+		// put operator for one zero bit in odd
+		odd[0] = 0xedb88320L;		// CRC-32 polynomial
+		long row = 1;
+		for (int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+		gf2MatrixSquare(even, odd);	// put operator for two zero bits in even
+		gf2MatrixSquare(odd, even);	// put operator for four zero bits in odd
+
+		// apply len2 zeros to crc1 (first square will put the operator for one
+		// zero byte, eight zero bits, in even)
+		do {
+			gf2MatrixSquare(even, odd);
+			if ((len2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(even, crc1);
+			}
+			len2 >>= 1;
+			if (len2 == 0) {
+				break;
+			}
+			gf2MatrixSquare(odd, even);
+			if ((len2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(odd, crc1);
+			}
+			len2 >>= 1;
+		} while (len2 != 0);
+
+		return crc1 ^ crc2;
+	}
+
+	private static long gf2MatrixTimes(long[] mat, long vec) {
+		long sum = 0;
+		for (int i = 0; vec != 0; i++, vec >>>= 1) {
+			if ((vec & 1) != 0) {
+				sum ^= mat[i];
+			}
+		}
+		return sum;
+	}
+
+	private static void gf2MatrixSquare(long[] square, long[] mat) {
+		for (int n = 0; n < 32; n++) {
+			square[n] = gf2MatrixTimes(mat, mat[n]);
+		}
+	}
+
+	private static void writeInt(OutputStream out, long value) throws IOException {
+		out.write((int)(value & 0xff));
+		out.write((int)((value >> 8) & 0xff));
+		out.write((int)((value >> 16) & 0xff));
+		out.write((int)((value >> 24) & 0xff));
+	}
+}
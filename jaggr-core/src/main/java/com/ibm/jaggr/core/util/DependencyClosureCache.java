@@ -0,0 +1,193 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.util;
+
+import com.ibm.jaggr.core.deps.ModuleDepGraph;
+import com.ibm.jaggr.core.deps.ModuleDeps;
+import com.ibm.jaggr.core.options.IOptions;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Bounded cache of the expanded dependencies of individual modules, used by
+ * {@link DependencyList} so that the closure of a module is computed once and then
+ * combined with the closures of the other modules in a request.
+ * <p>
+ * A cached closure is only valid for requests that specify the same values for the
+ * features that were evaluated while expanding the module.  Several variants of the
+ * closure may be cached for each module.  Instances of this class belong to a
+ * {@link ModuleDepGraph}, so cached closures are discarded whenever the dependencies
+ * are reloaded.  The cache is bounded by the total number of modules in the cached
+ * closures, and the least recently used closures are evicted when the capacity is
+ * exceeded.
+ */
+public class DependencyClosureCache {
+
+	/** Maximum number of feature set variants cached for a module */
+	static final int MAX_VARIANTS = 8;
+
+	private final ConcurrentLinkedHashMap<String, Closure[]> cache;
+
+	/**
+	 * @param capacity
+	 *            the maximum number of modules, summed over the cached closures
+	 * @see IOptions#DEPENDENCY_CLOSURE_CACHE_CAPACITY
+	 */
+	public DependencyClosureCache(long capacity) {
+		cache = new ConcurrentLinkedHashMap.Builder<String, Closure[]>()
+				.maximumWeightedCapacity(capacity)
+				.weigher(new Weigher<Closure[]>() {
+					@Override
+					public int weightOf(Closure[] variants) {
+						int weight = 0;
+						for (Closure closure : variants) {
+							weight += closure.deps.size();
+						}
+						// ConcurrentLinkedHashMap barfs on weight == 0
+						return Math.max(weight, 1);
+					}
+				}).build();
+	}
+
+	/**
+	 * The expanded dependencies of a module, together with the features that were
+	 * evaluated while expanding them.
+	 */
+	public static class Closure {
+		private final ModuleDeps deps;
+		private final Set<String> dependentFeatures;
+		private final Features features;
+
+		/**
+		 * @param deps
+		 *            the expanded dependencies. Must not be modified after the
+		 *            closure is added to the cache.
+		 * @param dependentFeatures
+		 *            the features that were evaluated while expanding the
+		 *            dependencies
+		 * @param features
+		 *            the features that were used to expand the dependencies
+		 */
+		public Closure(ModuleDeps deps, Set<String> dependentFeatures, Features features) {
+			this.deps = deps;
+			this.dependentFeatures = Collections.unmodifiableSet(new HashSet<String>(dependentFeatures));
+			// Only the values of the dependent features matter
+			this.features = new Features();
+			for (String feature : dependentFeatures) {
+				if (features.contains(feature)) {
+					this.features.put(feature, features.isFeature(feature));
+				}
+			}
+		}
+
+		/**
+		 * @return the expanded dependencies. The returned object must not be
+		 *         modified.
+		 */
+		public ModuleDeps getDeps() {
+			return deps;
+		}
+
+		/**
+		 * @return the features that were evaluated while expanding the
+		 *         dependencies
+		 */
+		public Set<String> getDependentFeatures() {
+			return dependentFeatures;
+		}
+
+		/**
+		 * @param features
+		 *            the request features
+		 * @return true if the request features specify the same values for the
+		 *         dependent features as the features used to expand the
+		 *         dependencies
+		 */
+		public boolean isValidFor(Features features) {
+			for (String feature : dependentFeatures) {
+				boolean defined = features.contains(feature);
+				if (defined != this.features.contains(feature) ||
+						defined && features.isFeature(feature) != this.features.isFeature(feature)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @param key
+	 *            the cache key
+	 * @param features
+	 *            the request features
+	 * @return the cached closure that is valid for the specified features, or
+	 *         null
+	 */
+	public Closure get(String key, Features features) {
+		Closure[] variants = cache.get(key);
+		if (variants != null) {
+			for (Closure closure : variants) {
+				if (closure.isValidFor(features)) {
+					return closure;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the specified closure to the cache.  If the maximum number of variants
+	 * are already cached for the key, then the least recently added variant is
+	 * discarded.
+	 *
+	 * @param key
+	 *            the cache key
+	 * @param closure
+	 *            the closure
+	 */
+	public void put(String key, Closure closure) {
+		Closure[] variants = cache.get(key);
+		int size = variants != null ? Math.min(variants.length, MAX_VARIANTS - 1) : 0;
+		Closure[] newVariants = new Closure[size + 1];
+		newVariants[0] = closure;
+		if (size > 0) {
+			System.arraycopy(variants, 0, newVariants, 1, size);
+		}
+		// Races between threads adding variants for the same key may lose a variant.
+		// That's ok.  It will be added again the next time it's needed.
+		cache.put(key, newVariants);
+	}
+
+	/**
+	 * @return the number of modules for which closures are cached
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Removes all cached closures
+	 */
+	public void clear() {
+		cache.clear();
+	}
+}
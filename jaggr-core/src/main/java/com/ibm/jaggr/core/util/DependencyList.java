@@ -18,6 +18,7 @@ package com.ibm.jaggr.core.util;
 
 import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.deps.IDependencies;
+import com.ibm.jaggr.core.deps.ModuleDepGraph;
 import com.ibm.jaggr.core.deps.ModuleDepInfo;
 import com.ibm.jaggr.core.deps.ModuleDeps;
 
@@ -67,7 +68,7 @@ public class DependencyList {
 	 * expressions or aliases.  This can include the names of features not
 	 * included in <code>features</code>.
 	 */
-	private final Set<String> dependentFeatures;
+	private Set<String> dependentFeatures;
 
 	/**
 	 * The list of module names provided in the constructor
@@ -105,6 +106,13 @@ public class DependencyList {
 	private final boolean includeRequireDeps;
 
 
+	/**
+	 * The int indexed dependency graph used for expanding dependencies, or null
+	 * if dependencies are expanded using the string lists provided by
+	 * {@link IDependencies}.
+	 */
+	private ModuleDepGraph depGraph = null;
+
 	/**
 	 * Flag indicating if this object has been initialized.
 	 */
@@ -345,6 +353,13 @@ public class DependencyList {
 		//dependencies is done only after forming the dependency map is completed.
 		aggr.getDependencies().getDelcaredDependencies("require"); //$NON-NLS-1$
 		long stamp = aggr.getDependencies().getLastModified();  // save time stamp
+		long sequence = aggr.getDependencies().getSnapshotSequence();
+		if (!includeDetails) {
+			// The graph can only be used if it was built using the current config.
+			// Diagnostic details require the per-dependency resolution comments.
+			ModuleDepGraph graph = aggr.getDependencies().getDependencyGraph();
+			depGraph = (graph != null && graph.getConfig() == aggr.getConfig()) ? graph : null;
+		}
 		try {
 			explicitDeps = new ModuleDeps();
 			expandedDeps = new ModuleDeps();
@@ -357,7 +372,20 @@ public class DependencyList {
 			// Now expand the explicit dependencies
 			resolveAliases = true;
 			for (Map.Entry<String, ModuleDepInfo> entry : explicitDeps.entrySet()) {
-				expandDependencies(entry.getKey(), entry.getValue(), expandedDeps);
+				if (depGraph != null && entry.getValue().isUnconditioned()) {
+					// Combine the cached closure of the module with the closures of the
+					// other modules.  Cached closures are expanded without conditions, so
+					// modules that are conditioned by has! branching or by a plugin are
+					// expanded individually, below, in order to get the same formulas and
+					// plugin names as expanding them without the cache.
+					DependencyClosureCache.Closure closure = getClosure(entry.getKey());
+					for (Map.Entry<String, ModuleDepInfo> dep : closure.getDeps().entrySet()) {
+						expandedDeps.add(dep.getKey(), new ModuleDepInfo(dep.getValue()));
+					}
+					dependentFeatures.addAll(closure.getDependentFeatures());
+				} else {
+					expandDependencies(entry.getKey(), entry.getValue(), expandedDeps);
+				}
 			}
 			expandedDeps.keySet().removeAll(IDependencies.excludes);
 
@@ -379,6 +407,11 @@ public class DependencyList {
 				// caching the response with possibly corrupt dependency info.
 				throw new IllegalStateException("" + stamp + "!=" + aggr.getDependencies().getLastModified()); //$NON-NLS-1$ //$NON-NLS-2$
 			}
+			if (sequence != aggr.getDependencies().getSnapshotSequence()) {
+				// A new snapshot was published while we were processing the dependencies,
+				// so the results may be a mix of the old and new dependencies.
+				throw new IllegalStateException("" + sequence + "!=" + aggr.getDependencies().getSnapshotSequence()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
 		} finally {
 			initialized = true;
 		}
@@ -409,42 +442,129 @@ public class DependencyList {
 			log.entering(DependencyList.class.getName(), methodName, new Object[]{name, depInfo, expandedDependencies});
 		}
 
-		List<String> dependencies = new ArrayList<String>();
-		List<String> declaredDeps = aggr.getDependencies().getDelcaredDependencies(name);
-		if (traceLogging) {
-			log.finest("declaredDeps for " + name + " = " + declaredDeps); //$NON-NLS-1$ //$NON-NLS-2$
-		}
-		if (declaredDeps != null) {
-			dependencies.addAll(declaredDeps);
-		}
-		if (includeRequireDeps) {
-			List<String> requireDeps = aggr.getDependencies().getRequireDependencies(name);
-			if (requireDeps != null && requireDeps.size() > 0) {
-				if (traceLogging) {
-					log.finest("requireDeps for " + name + " = " + requireDeps); //$NON-NLS-1$ //$NON-NLS-2$
+		if (depGraph != null) {
+			int id = depGraph.getId(name);
+			if (id != ModuleDepGraph.NOT_FOUND) {
+				expandDependencies(name, depGraph.getDeclaredDependencies(id), depInfo, expandedDependencies);
+				if (includeRequireDeps) {
+					expandDependencies(name, depGraph.getRequireDependencies(id), depInfo, expandedDependencies);
 				}
-				dependencies.addAll(requireDeps);
 			}
-		}
-		if (dependencies != null) {
-			for (String dep : dependencies) {
-				ModuleDeps moduleDeps = new ModuleDeps();
-				processDep(dep, moduleDeps, depInfo, new HashSet<String>(), name);
-				for (Map.Entry<String, ModuleDepInfo> entry : moduleDeps.entrySet()) {
+		} else {
+			List<String> dependencies = new ArrayList<String>();
+			List<String> declaredDeps = aggr.getDependencies().getDelcaredDependencies(name);
+			if (traceLogging) {
+				log.finest("declaredDeps for " + name + " = " + declaredDeps); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (declaredDeps != null) {
+				dependencies.addAll(declaredDeps);
+			}
+			if (includeRequireDeps) {
+				List<String> requireDeps = aggr.getDependencies().getRequireDependencies(name);
+				if (requireDeps != null && requireDeps.size() > 0) {
 					if (traceLogging) {
-						log.finest("Adding " + entry + " to expandedDependencies"); //$NON-NLS-1$ //$NON-NLS-2$
-					}
-					if (expandedDependencies.add(entry.getKey(), new ModuleDepInfo(entry.getValue()))) {
-						expandDependencies(entry.getKey(), entry.getValue(), expandedDependencies);
+						log.finest("requireDeps for " + name + " = " + requireDeps); //$NON-NLS-1$ //$NON-NLS-2$
 					}
+					dependencies.addAll(requireDeps);
 				}
 			}
+			for (String dep : dependencies) {
+				expandDependency(dep, name, depInfo, expandedDependencies);
+			}
 		}
 		if (entryExitLogging) {
 			log.exiting(DependencyList.class.getName(), methodName);
 		}
 	}
 
+	/**
+	 * Returns the unconditioned expanded dependencies of the specified module from
+	 * the closure cache of the dependency graph, expanding the dependencies and
+	 * adding them to the cache if needed.
+	 *
+	 * @param name
+	 *            the module name
+	 * @return the closure
+	 * @throws IOException
+	 */
+	private DependencyClosureCache.Closure getClosure(String name) throws IOException {
+		DependencyClosureCache cache = depGraph.getClosureCache();
+		String key = name + "|" + includeRequireDeps + "|" + aggr.getOptions().isDisableHasPluginBranching(); //$NON-NLS-1$ //$NON-NLS-2$
+		DependencyClosureCache.Closure closure = cache.get(key, features);
+		if (closure == null) {
+			// Collect the features evaluated while expanding this module separately
+			Set<String> savedDependentFeatures = dependentFeatures;
+			Set<String> closureDependentFeatures = new HashSet<String>();
+			ModuleDeps deps = new ModuleDeps();
+			dependentFeatures = closureDependentFeatures;
+			try {
+				expandDependencies(name, new ModuleDepInfo(), deps);
+			} finally {
+				dependentFeatures = savedDependentFeatures;
+			}
+			closure = new DependencyClosureCache.Closure(deps, closureDependentFeatures, features);
+			cache.put(key, closure);
+		}
+		return closure;
+	}
+
+	/**
+	 * Expands the dependencies specified by the dependency graph edges.  Edges
+	 * that were resolved when the graph was built don't depend on the request
+	 * features, so they are added directly without calling
+	 * {@link #processDep(String, ModuleDeps, ModuleDepInfo, Set, String)}.
+	 *
+	 * @param name
+	 *            the name of the module who's dependencies are to be expanded
+	 * @param edges
+	 *            the dependency graph edges for the module
+	 * @param depInfo
+	 *            the {@link ModuleDepInfo} for the module
+	 * @param expandedDependencies
+	 *            Output - the map that the expanded dependencies are written to.
+	 * @throws IOException
+	 */
+	private void expandDependencies(String name, int[] edges, ModuleDepInfo depInfo, ModuleDeps expandedDependencies) throws IOException {
+		for (int edge : edges) {
+			if (ModuleDepGraph.isResolved(edge)) {
+				String dep = depGraph.getName(edge);
+				if (expandedDependencies.add(dep, new ModuleDepInfo(depInfo))) {
+					expandDependencies(dep, depInfo, expandedDependencies);
+				}
+			} else {
+				expandDependency(depGraph.getName(~edge), name, depInfo, expandedDependencies);
+			}
+		}
+	}
+
+	/**
+	 * Resolves the specified dependency of a module and expands the nested
+	 * dependencies of the resolved modules
+	 *
+	 * @param dep
+	 *            the dependency name, as specified by the module
+	 * @param name
+	 *            the name of the module that specifies the dependency
+	 * @param depInfo
+	 *            the {@link ModuleDepInfo} for the module
+	 * @param expandedDependencies
+	 *            Output - the map that the expanded dependencies are written to.
+	 * @throws IOException
+	 */
+	private void expandDependency(String dep, String name, ModuleDepInfo depInfo, ModuleDeps expandedDependencies) throws IOException {
+		final boolean traceLogging = log.isLoggable(Level.FINEST);
+		ModuleDeps moduleDeps = new ModuleDeps();
+		processDep(dep, moduleDeps, depInfo, new HashSet<String>(), name);
+		for (Map.Entry<String, ModuleDepInfo> entry : moduleDeps.entrySet()) {
+			if (traceLogging) {
+				log.finest("Adding " + entry + " to expandedDependencies"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (expandedDependencies.add(entry.getKey(), new ModuleDepInfo(entry.getValue()))) {
+				expandDependencies(entry.getKey(), entry.getValue(), expandedDependencies);
+			}
+		}
+	}
+
 	/**
 	 * Handles initial processing of explicit dependencies, including alias
 	 * resolution and has! loader plugin branching/resolution.
@@ -580,4 +700,4 @@ public class DependencyList {
 					log.exiting(DependencyList.class.getName(), methodName);
 				}
 	}
-}
+}
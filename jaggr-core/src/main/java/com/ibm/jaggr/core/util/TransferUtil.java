@@ -0,0 +1,177 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utility for copying response data from an input stream to an output stream with as
+ * little copying as the source allows.  Byte array and byte buffer backed streams are
+ * written using bulk writes, file streams are transferred using
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} when the output
+ * stream is also a {@link WritableByteChannel}, and all other streams are copied
+ * using buffers obtained from a shared pool.
+ * <p>
+ * Exceptions thrown when writing to the output stream are wrapped in a
+ * {@link WriteException} so that callers can distinguish them from exceptions
+ * thrown when reading the input stream.
+ */
+public class TransferUtil {
+
+	static final int BUFFER_SIZE = 32 * 1024;
+
+	static final int MAX_POOLED_BUFFERS = 64;
+
+	private static final Queue<byte[]> bufferPool = new ConcurrentLinkedQueue<byte[]>();
+
+	private static final AtomicInteger pooledCount = new AtomicInteger();
+
+	private TransferUtil() {}
+
+	/**
+	 * Thrown when an exception occurs writing to the output stream.  The
+	 * cause is the original exception.
+	 */
+	public static class WriteException extends IOException {
+		private static final long serialVersionUID = 5417468442617316543L;
+
+		public WriteException(IOException cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * Copies the remaining data in the input stream to the output stream.  Neither
+	 * stream is closed.
+	 *
+	 * @param in
+	 *            the input stream
+	 * @param out
+	 *            the output stream
+	 * @return the number of bytes copied
+	 * @throws WriteException
+	 *             if an exception occurs writing to the output stream
+	 * @throws IOException
+	 *             if an exception occurs reading the input stream
+	 */
+	public static long transfer(InputStream in, OutputStream out) throws IOException {
+		if (in instanceof BulkByteArrayInputStream) {
+			try {
+				return ((BulkByteArrayInputStream)in).writeTo(out);
+			} catch (IOException e) {
+				throw new WriteException(e);
+			}
+		} else if (in instanceof ByteBufferInputStream) {
+			return transfer(((ByteBufferInputStream)in).getBuffer(), out);
+		} else if (in instanceof FileInputStream && out instanceof WritableByteChannel) {
+			// transferTo is only worthwhile when the target is a real channel.  Wrapping
+			// a plain output stream in a channel just copies the data through heap buffers.
+			return transfer(((FileInputStream)in).getChannel(), (WritableByteChannel)out);
+		}
+		return copy(in, out);
+	}
+
+	static long transfer(ByteBuffer buffer, OutputStream out) throws IOException {
+		int len = buffer.remaining();
+		try {
+			if (buffer.hasArray()) {
+				out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), len);
+				buffer.position(buffer.limit());
+			} else {
+				// Direct or mapped buffer.  Copy through a pooled buffer.
+				byte[] buf = borrow();
+				try {
+					while (buffer.hasRemaining()) {
+						int n = Math.min(buf.length, buffer.remaining());
+						buffer.get(buf, 0, n);
+						out.write(buf, 0, n);
+					}
+				} finally {
+					release(buf);
+				}
+			}
+		} catch (IOException e) {
+			throw new WriteException(e);
+		}
+		return len;
+	}
+
+	static long transfer(FileChannel channel, WritableByteChannel target) throws IOException {
+		long position = channel.position(), size = channel.size(), count = 0;
+		while (position + count < size) {
+			long n;
+			try {
+				n = channel.transferTo(position + count, size - position - count, target);
+			} catch (IOException e) {
+				// transferTo doesn't distinguish read errors from write errors.  The
+				// file is open and its size is known, so treat this as a write error.
+				throw new WriteException(e);
+			}
+			if (n <= 0) {
+				break;
+			}
+			count += n;
+		}
+		channel.position(position + count);
+		return count;
+	}
+
+	static long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buf = borrow();
+		long count = 0;
+		try {
+			int n;
+			while (-1 != (n = in.read(buf))) {
+				try {
+					out.write(buf, 0, n);
+				} catch (IOException e) {
+					throw new WriteException(e);
+				}
+				count += n;
+			}
+		} finally {
+			release(buf);
+		}
+		return count;
+	}
+
+	static byte[] borrow() {
+		byte[] buf = bufferPool.poll();
+		if (buf != null) {
+			pooledCount.decrementAndGet();
+		} else {
+			buf = new byte[BUFFER_SIZE];
+		}
+		return buf;
+	}
+
+	static void release(byte[] buf) {
+		if (pooledCount.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+			bufferPool.offer(buf);
+		} else {
+			pooledCount.decrementAndGet();
+		}
+	}
+}
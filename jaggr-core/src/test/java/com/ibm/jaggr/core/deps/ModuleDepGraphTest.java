@@ -0,0 +1,68 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.deps;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+public class ModuleDepGraphTest {
+
+	@Test
+	public void testGraph() {
+		Map<String, List<String>> declared = new HashMap<String, List<String>>();
+		Map<String, List<String>> require = new HashMap<String, List<String>>();
+		declared.put("a", Arrays.asList("b", "has!foo?c", "d"));
+		declared.put("b", Arrays.asList("c"));
+		declared.put("c", Arrays.asList("a"));
+		declared.put("e", Arrays.<String>asList());
+		require.put("e", Arrays.asList("f"));
+		ModuleDepGraph graph = new ModuleDepGraph(declared, require, null);
+
+		int a = graph.getId("a");
+		Assert.assertEquals("a", graph.getName(a));
+		Assert.assertEquals(ModuleDepGraph.NOT_FOUND, graph.getId("x"));
+
+		// edges are in declaration order, with unresolved names complemented
+		int[] edges = graph.getDeclaredDependencies(a);
+		Assert.assertEquals(3, edges.length);
+		Assert.assertEquals(graph.getId("b"), edges[0]);
+		Assert.assertFalse(ModuleDepGraph.isResolved(edges[1]));
+		Assert.assertEquals("has!foo?c", graph.getName(~edges[1]));
+		Assert.assertEquals("d", graph.getName(edges[2]));
+		// d is referenced but was not scanned
+		Assert.assertEquals(0, graph.getDeclaredDependencies(edges[2]).length);
+
+		BitSet start = new BitSet();
+		start.set(a);
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c", "d")),
+				graph.getNames(graph.getClosure(start, false)));
+
+		start = new BitSet();
+		start.set(graph.getId("e"));
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("e")),
+				graph.getNames(graph.getClosure(start, false)));
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("e", "f")),
+				graph.getNames(graph.getClosure(start, true)));
+	}
+}
@@ -823,6 +823,29 @@ public class ConfigTest {
 
 		features = cfg.getDefaultFeatures("http://server.com/");
 		Assert.assertTrue(features.contains("foo") && !features.isFeature("foo"));
+
+		// Feature functions return true only the first time they are called
+		config = "{urlIndependentFeatures:['bar'], has:{" +
+				"foo:(function(){var n = 0; return function(url){return ++n == 1;};})()," +
+				"bar:(function(){var n = 0; return function(url){return ++n == 1;};})()}}";
+		cfg = new ConfigImpl(mockAggregator, tmpDir, config);
+		features = cfg.getDefaultFeatures("http://server.com/?foo=1");
+		Assert.assertTrue(features.isFeature("foo"));
+		Assert.assertTrue(features.isFeature("bar"));
+		// memoized by URL
+		features.put("foo", false);
+		features = cfg.getDefaultFeatures("http://server.com/?foo=1");
+		Assert.assertTrue(features.isFeature("foo"));
+		Assert.assertTrue(features.isFeature("bar"));
+		// URL independent features are evaluated once
+		features = cfg.getDefaultFeatures("http://server.com/?foo=2");
+		Assert.assertTrue(features.contains("foo") && !features.isFeature("foo"));
+		Assert.assertTrue(features.isFeature("bar"));
+		// re-evaluated when the options change
+		cfg.optionsUpdated(mockAggregator.getOptions(), 2);
+		features = cfg.getDefaultFeatures("http://server.com/?foo=1");
+		Assert.assertTrue(features.contains("foo") && !features.isFeature("foo"));
+		Assert.assertTrue(features.contains("bar") && !features.isFeature("bar"));
 	}
 
 	@Test
@@ -884,6 +907,49 @@ public class ConfigTest {
 		Assert.assertEquals("foo/test/baz/bar", cfg.resolve("foo/test/bar", features, dependentFeatures,  null, true));
 	}
 
+	@Test
+	public void testCompiledResolver() throws Exception {
+		Features features = new Features();
+		Set<String> dependentFeatures = new HashSet<String>();
+
+		// Last matching alias wins, whether literal or regular expression
+		String config = "{aliases:[['foo/a', 'lit1'], [/^foo\\//, 'rx/'], ['foo/b', 'lit2'], [/^(x)\\1$/, 'y']]}";
+		ConfigImpl cfg = new ConfigImpl(mockAggregator, tmpDir, config);
+		Assert.assertEquals("rx/a", cfg.resolveAliases("foo/a", features, dependentFeatures, null));
+		Assert.assertEquals("lit2", cfg.resolveAliases("foo/b", features, dependentFeatures, null));
+		Assert.assertEquals("bar", cfg.resolveAliases("bar", features, dependentFeatures, null));
+		// patterns with back references are tried individually
+		Assert.assertEquals("y", cfg.resolveAliases("xx", features, dependentFeatures, null));
+		Assert.assertEquals("xy", cfg.resolveAliases("xy", features, dependentFeatures, null));
+
+		// Memoized results are conditioned on the features that determined the result
+		config = "{aliases:[[/\\/foo\\//, function(s){return '/'+has('test')+'/'}]]}";
+		cfg = new ConfigImpl(mockAggregator, tmpDir, config);
+		features.put("test", true);
+		features.put("other", true);
+		Assert.assertEquals("p1/true/p2", cfg.resolve("p1/foo/p2", features, dependentFeatures, null, true));
+		Assert.assertEquals(Collections.singleton("test"), dependentFeatures);
+		dependentFeatures.clear();
+		features.put("other", false);
+		Assert.assertEquals("p1/true/p2", cfg.resolve("p1/foo/p2", features, dependentFeatures, null, true));
+		Assert.assertEquals(Collections.singleton("test"), dependentFeatures);
+		features.put("test", false);
+		Assert.assertEquals("p1/false/p2", cfg.resolve("p1/foo/p2", features, dependentFeatures, null, true));
+		features.remove("test");
+		Assert.assertEquals("p1/undefined/p2", cfg.resolve("p1/foo/p2", features, dependentFeatures, null, true));
+		features.put("test", true);
+		Assert.assertEquals("p1/true/p2", cfg.resolve("p1/foo/p2", features, dependentFeatures, null, true));
+		Assert.assertEquals("p1/foo/p2", cfg.resolve("p1/foo/p2", features, dependentFeatures, null, false));
+
+		// Longest matching path or package name wins
+		config = "{paths:{a:'aPath', 'a/b/':'abPath'}, packages:[{name:'a/b/c', location:'abcPath'}]}";
+		cfg = new ConfigImpl(mockAggregator, tmpDir, config);
+		Assert.assertEquals(tmpDir.resolve("abcPath/d.js"), cfg.locateModuleResource("a/b/c/d"));
+		Assert.assertEquals(tmpDir.resolve("abPath/x.js"), cfg.locateModuleResource("a/b/x"));
+		Assert.assertEquals(tmpDir.resolve("aPath/x/y.js"), cfg.locateModuleResource("a/x/y"));
+		Assert.assertEquals(tmpDir.resolve("ab/x.js"), cfg.locateModuleResource("ab/x"));
+	}
+
 	@Test
 	public void testGetProperty() throws Exception {
 		String config = "{booleanVar:true, numberVar:1.5, stringVar:'value', nullVar:null, undefinedVar:undefined, arrayVar:['foo', 'bar'], mapVar:{foo:'bar'}}";
@@ -0,0 +1,129 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.deps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.ibm.jaggr.core.impl.deps.DepUtils.ParseResult;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.JSSourceFile;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class DepExtractorTest {
+
+	/**
+	 * Sources that the extractor handles.  The results must match the results
+	 * of {@link DepUtils#parseDependencies} for the parsed source.
+	 */
+	static final String[] supported = new String[] {
+		"define(\"foo\",[\"a\", \"b\", \"c\"], function(a, b, c) {\nalert(\"hellow\");\nreturn null\n});",
+		"define([\"foo/a\", \"foo/b\"], function(a, b) {});",
+		"define(function(require) {\nvar x = require(\"foo\");\n});",
+		"define(['dep1', 'has!x?dep2:dep3'], function() {\n" +
+			"require(['has!y?dep4'], function(dep4) {\n" +
+			"if (has('fooTest')) {return true;} else {return false;}\n" +
+			"});\n" +
+			"if (has('barTest')) return bar;\n" +
+			"});",
+		"if (!has('a') && has('b') || x == has('c')) {}\n" +
+			"var y = has('d'); z = has('e') ? has('f') : (has('g'));\n" +
+			"q = has('h').foo; r = typeof has('i'); s = {k: has('j')};\n" +
+			"t = a ? b : has('k') || c; u = has('l', 1) && has(m);",
+		"if ((has('a'))) {} while (has('b')) {} foo(has('c')); foo(has('d') && 1);\n" +
+			"function f() { return has('e') + 1 && x; }",
+		"// define(['comment1'])\n/* require(['comment2']) */\n" +
+			"var re = /define\\(['x']\\)/g, s = \"require(['y'])\"; a = b / c / d;\n" +
+			"if (x) /re/.test(s);\ndefine(['a'], function(){ return 1; });",
+		"obj.define(['x']); new define(['y']); function define(a){}\n" +
+			"require(['r1']).then(function(){}); require('r2');\n" +
+			"require(['r3'], function() { require(['r4', 'r3']); });",
+		"define(['a', foo, 'b' + 'c', 'e'], function() {});",
+		"define('id', {}, ['a'], function() {}); define(1, 2, 3, ['b']);",
+		"var x = {\n\t'a': [1, 2],\n\tb: function() { return this.a[0] / 2; }\n};\n"
+	};
+
+	/**
+	 * Sources that the extractor can't handle reliably and defers to the parser
+	 */
+	static final String[] unsupported = new String[] {
+		"var x = {} / 2; define(['a']);",
+		"define(['a', , 'b']);",
+		"define(['a', 'b',]);",
+		"define(['a', ('d')]);",
+		"define(['a\\u0062']);",
+		"define(['a'], function(){ }",
+		"var t = `x`; define(['a']);",
+	};
+
+	@Test
+	public void testExtract() throws Exception {
+		for (String js : supported) {
+			Set<String> expectedFeatures = new HashSet<String>();
+			ParseResult expected = DepUtils.parseDependencies(
+					new Compiler().parse(JSSourceFile.fromCode("test", js)), expectedFeatures);
+			Set<String> features = new HashSet<String>();
+			ParseResult result = DepExtractor.extract(js, features);
+			assertNotNull(js, result);
+			assertEquals(js, toList(expected.getDefineDependencies()), toList(result.getDefineDependencies()));
+			assertEquals(js, toList(expected.getRequireDependencies()), toList(result.getRequireDependencies()));
+			assertEquals(js, expectedFeatures, features);
+		}
+	}
+
+	@Test
+	public void testExtractResults() throws Exception {
+		Set<String> features = new HashSet<String>();
+		ParseResult result = DepExtractor.extract(supported[3], features);
+		assertEquals(Arrays.asList("dep1", "has!x?dep2:dep3"), toList(result.getDefineDependencies()));
+		assertEquals(Arrays.asList("has!y?dep4"), toList(result.getRequireDependencies()));
+		assertEquals(new HashSet<String>(Arrays.asList("x", "y", "fooTest", "barTest")), features);
+
+		features.clear();
+		result = DepExtractor.extract(supported[4], features);
+		assertNull(result.getDefineDependencies());
+		assertNull(result.getRequireDependencies());
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b", "e", "f", "g", "k")), features);
+	}
+
+	@Test
+	public void testUnsupported() throws Exception {
+		for (String js : unsupported) {
+			Set<String> features = new HashSet<String>();
+			features.add("foo");
+			assertNull(js, DepExtractor.extract(js, features));
+			// features are not modified when the extractor defers to the parser
+			assertEquals(js, 1, features.size());
+			assertTrue(js, features.contains("foo"));
+		}
+	}
+
+	private List<String> toList(Collection<String> deps) {
+		return deps == null ? null : new ArrayList<String>(deps);
+	}
+}
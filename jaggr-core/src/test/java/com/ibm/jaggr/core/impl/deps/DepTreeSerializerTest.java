@@ -0,0 +1,161 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.deps;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class DepTreeSerializerTest {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		DepTree deps = createDepTree(2, 3);
+		deps.stamp = 12345L;
+		deps.cacheBust = "cb";
+		deps.rawConfig = "{paths:{p0:'p0'}}";
+
+		DepTree result = new DepTree();
+		DepTreeSerializer.deserialize(result, ByteBuffer.wrap(DepTreeSerializer.serialize(deps)));
+		Assert.assertEquals(12345L, result.stamp);
+		Assert.assertEquals("cb", result.cacheBust);
+		Assert.assertEquals(deps.rawConfig, result.rawConfig);
+		Assert.assertEquals(deps.depMap.keySet(), result.depMap.keySet());
+		for (URI key : deps.depMap.keySet()) {
+			assertNodesEqual(deps.depMap.get(key), result.depMap.get(key));
+		}
+		DepTreeNode root = result.depMap.get(new URI("file:/base/p1"));
+		DepTreeNode node = root.getChild("m1");
+		Assert.assertSame(root, node.getParent());
+		Assert.assertEquals(new URI("file:/base/p1/m1.js"), node.getURI());
+		Assert.assertEquals(Arrays.asList("./m0", "p0/m0"), Arrays.asList(node.getDefineDepArray()));
+		Assert.assertEquals(Arrays.asList("has"), Arrays.asList(node.getDependentFeatures()));
+		Assert.assertNull(node.getRequireDepArray());
+		Assert.assertEquals(2000L, node.lastModified());
+		Assert.assertEquals(1000L, node.lastModifiedDep());
+
+		// Null strings
+		deps.cacheBust = null;
+		DepTreeSerializer.deserialize(result, ByteBuffer.wrap(DepTreeSerializer.serialize(deps)));
+		Assert.assertNull(result.cacheBust);
+	}
+
+	@Test
+	public void testInvalidData() throws Exception {
+		DepTree deps = createDepTree(1, 1);
+		byte[] data = DepTreeSerializer.serialize(deps);
+		// Java serialized data
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream os = new ObjectOutputStream(bos);
+		os.writeObject(deps);
+		os.close();
+		try {
+			DepTreeSerializer.deserialize(new DepTree(), ByteBuffer.wrap(bos.toByteArray()));
+			Assert.fail();
+		} catch (StreamCorruptedException expected) {}
+		// Unsupported version
+		byte[] badVersion = data.clone();
+		badVersion[7] = (byte)(DepTreeSerializer.VERSION + 1);
+		try {
+			DepTreeSerializer.deserialize(new DepTree(), ByteBuffer.wrap(badVersion));
+			Assert.fail();
+		} catch (StreamCorruptedException expected) {}
+		// Truncated
+		try {
+			DepTreeSerializer.deserialize(new DepTree(), ByteBuffer.wrap(Arrays.copyOf(data, data.length - 5)));
+			Assert.fail();
+		} catch (StreamCorruptedException expected) {}
+	}
+
+	@Test
+	public void testVarint() throws Exception {
+		int[] values = new int[]{0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1};
+		DepTreeSerializer.Writer out = new DepTreeSerializer.Writer();
+		for (int value : values) {
+			out.writeVarint(value);
+		}
+		ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+		for (int value : values) {
+			Assert.assertEquals(value, DepTreeSerializer.readVarint(buf));
+		}
+		Assert.assertFalse(buf.hasRemaining());
+	}
+
+	/**
+	 * Round trips a tree of 6000 modules and checks that the binary format is smaller
+	 * than Java serialization of the same tree.
+	 */
+	@Test
+	public void testLargeTree() throws Exception {
+		DepTree deps = createDepTree(60, 100);
+		byte[] data = DepTreeSerializer.serialize(deps);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream os = new ObjectOutputStream(bos);
+		os.writeObject(deps);
+		os.close();
+		Assert.assertTrue(data.length < bos.size());
+
+		DepTree result = new DepTree();
+		DepTreeSerializer.deserialize(result, ByteBuffer.wrap(data));
+		Assert.assertEquals(deps.depMap.keySet(), result.depMap.keySet());
+		for (URI key : deps.depMap.keySet()) {
+			assertNodesEqual(deps.depMap.get(key), result.depMap.get(key));
+		}
+	}
+
+	private void assertNodesEqual(DepTreeNode expected, DepTreeNode actual) {
+		Assert.assertEquals(expected.getName(), actual.getName());
+		Assert.assertEquals(expected.getURI(), actual.getURI());
+		Assert.assertTrue(Arrays.equals(expected.getDefineDepArray(), actual.getDefineDepArray()));
+		Assert.assertTrue(Arrays.equals(expected.getRequireDepArray(), actual.getRequireDepArray()));
+		Assert.assertTrue(Arrays.equals(expected.getDependentFeatures(), actual.getDependentFeatures()));
+		Assert.assertEquals(expected.lastModified(), actual.lastModified());
+		Assert.assertEquals(expected.lastModifiedDep(), actual.lastModifiedDep());
+		Assert.assertEquals(expected.getChildren().keySet(), actual.getChildren().keySet());
+		for (String name : expected.getChildren().keySet()) {
+			assertNodesEqual(expected.getChild(name), actual.getChild(name));
+		}
+	}
+
+	/**
+	 * Creates a tree with the specified number of paths, each with the specified number
+	 * of modules.  Each module depends on the previous module in the path and on the first
+	 * module of the first path.
+	 */
+	private DepTree createDepTree(int pathCount, int moduleCount) throws Exception {
+		DepTree deps = new DepTree();
+		deps.depMap = new ConcurrentHashMap<URI, DepTreeNode>();
+		for (int p = 0; p < pathCount; p++) {
+			URI path = new URI("file:/base/p" + p);
+			DepTreeNode root = new DepTreeNode("", path);
+			for (int m = 0; m < moduleCount; m++) {
+				DepTreeNode node = root.createOrGet("m" + m, new URI("file:/base/p" + p + "/m" + m + ".js"));
+				String[] define = m > 0 ? new String[]{"./m" + (m-1), "p0/m0"} : new String[0];
+				node.setDependencies(define, m % 2 == 0 ? new String[]{"dojo/ready"} : null, new String[]{"has"}, 2000L, 1000L);
+			}
+			deps.depMap.put(path, root);
+		}
+		return deps;
+	}
+}
@@ -16,8 +16,10 @@
 
 package com.ibm.jaggr.core.impl.deps;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.ibm.jaggr.core.IAggregator;
@@ -25,6 +27,7 @@ import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.impl.config.ConfigImpl;
 import com.ibm.jaggr.core.test.TestUtils;
 
+import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 
 import org.easymock.EasyMock;
@@ -34,9 +37,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Collection;
@@ -163,14 +164,10 @@ public class DependenciesTest extends EasyMock {
 		// but will be updated by clean.
 		p2Node.getChild("p1").getChild("a").setDependencies(new String[]{"xxx"}, new String[0], new String[0], p2_p1_a_lastMod, p2_p1_a_lastMod);
 
-		File cacheFile = new File(tmpdir, "deps/depmap.cache");
 		String configJson = "{paths: {p1Alias:'p1', p2Alias:'p2'}}";
 		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
 		deps = new TestDependenciesWrapper(depMap, configRef.get());
-		ObjectOutputStream os;
-		os = new ObjectOutputStream(new FileOutputStream(cacheFile));
-		os.writeObject(deps);
-		os.close();
+		deps.writeCache(mockAggregator);
 
 		deps = new TestDependenciesWrapper(tmpdir, mockAggregator, false, false);
 
@@ -242,6 +239,109 @@ public class DependenciesTest extends EasyMock {
 	}
 
 
+	/**
+	 * Test method for {@link com.ibm.jaggr.core.impl.deps.DepTree#update(Collection, IAggregator)}.
+	 * @throws Exception
+	 */
+	@Test
+	public void testUpdate() throws Exception {
+		TestDependenciesWrapper deps = createDependencies(tmpdir, false, false);
+		DepTreeNode p1Node = deps.getDepMap().get(tmpdir.toURI().resolve("p1"));
+		File p1 = new File(tmpdir, "p1");
+		File a = new File(p1, "a.js");
+		File b = new File(p1, "b.js");
+		File d = new File(p1, "d.js");
+		long lastModDep = p1Node.getChild("a").lastModifiedDep();
+
+		// Unchanged files and files that aren't in the scanned paths are ignored
+		assertFalse(deps.update(Arrays.asList(a.toURI(), new File(tmpdir, "p3/a.js").toURI()), mockAggregator));
+
+		// Change the code, but not the dependencies
+		TestUtils.createTestFile(p1, "a", TestUtils.a.replace("hello", "goodbye"));
+		a.setLastModified(a.lastModified() + 2000);
+		assertFalse(deps.update(Arrays.asList(a.toURI()), mockAggregator));
+		assertEquals(a.lastModified(), p1Node.getChild("a").lastModified());
+		assertEquals(lastModDep, p1Node.getChild("a").lastModifiedDep());
+
+		// Change the dependencies
+		TestUtils.createTestFile(p1, "a", TestUtils.b);
+		a.setLastModified(a.lastModified() + 4000);
+		assertTrue(deps.update(Arrays.asList(a.toURI()), mockAggregator));
+		assertEquals("[./c]", Arrays.asList(p1Node.getChild("a").getDefineDepArray()).toString());
+		assertEquals(a.lastModified(), p1Node.getChild("a").lastModifiedDep());
+
+		// Add and remove modules
+		TestUtils.createTestFile(p1, "d", TestUtils.a);
+		assertTrue(b.delete());
+		assertTrue(deps.update(Arrays.asList(b.toURI(), d.toURI()), mockAggregator));
+		assertNull(p1Node.getChild("b"));
+		assertEquals("[./b]", Arrays.asList(p1Node.getChild("d").getDefineDepArray()).toString());
+
+		// Changes are persisted to the cache
+		deps = new TestDependenciesWrapper(tmpdir, mockAggregator, false, false);
+		p1Node = deps.getDepMap().get(tmpdir.toURI().resolve("p1"));
+		assertNull(p1Node.getChild("b"));
+		assertEquals("[./c]", Arrays.asList(p1Node.getChild("a").getDefineDepArray()).toString());
+		assertEquals("[./b]", Arrays.asList(p1Node.getChild("d").getDefineDepArray()).toString());
+	}
+
+	/**
+	 * Test method for {@link com.ibm.jaggr.core.impl.deps.DepTree#getPathName(URI, URI)}.
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetPathName() throws Exception {
+		URI path = new URI("file:/base/p1");
+		assertEquals("", DepTree.getPathName(path, new URI("file:/base/p1/")));
+		assertEquals("", DepTree.getPathName(path, new URI("file:/base/p1.js")));
+		assertEquals("a.js", DepTree.getPathName(path, new URI("file:/base/p1/a.js")));
+		assertEquals("x/a.js", DepTree.getPathName(new URI("file:/base/p1/"), new URI("file:/base/p1/x/a.js")));
+		assertNull(DepTree.getPathName(path, new URI("file:/base/p10/a.js")));
+		assertNull(DepTree.getPathName(path, new URI("file:/base/p2.js")));
+		assertNull(DepTree.getPathName(path, new URI("bundleentry://1/base/p1/a.js")));
+	}
+
+	/**
+	 * Checks that every module is parsed by a clean dependency scan of a synthetic
+	 * module tree of 4 paths, each with 5 folders of 5 sub-folders of 20 modules.
+	 * @throws Exception
+	 */
+	@Test
+	public void testParallelScan() throws Exception {
+		int pathCount = 4, folderCount = 5, moduleCount = 20;
+		StringBuffer paths = new StringBuffer();
+		for (int p = 0; p < pathCount; p++) {
+			for (int f = 0; f < folderCount; f++) {
+				for (int s = 0; s < folderCount; s++) {
+					File dir = new File(tmpdir, "p" + p + "/f" + f + "/s" + s);
+					dir.mkdirs();
+					for (int m = 0; m < moduleCount; m++) {
+						Files.write("define([\"./m" + (m+1) + "\", \"p0/f0/s0/m0\"], function(a, b) {\nreturn {id:" + m + "};\n});",
+								new File(dir, "m" + m + ".js"), Charsets.UTF_8);
+					}
+				}
+			}
+			paths.append(p == 0 ? "" : ",").append("'p" + p + "':'p" + p + "'");
+		}
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), "{paths:{" + paths + "}}"));
+
+		TestDependenciesWrapper deps = new TestDependenciesWrapper(tmpdir, mockAggregator, true, false);
+
+		assertEquals(pathCount, deps.getDepMap().size());
+		for (int p = 0; p < pathCount; p++) {
+			DepTreeNode root = deps.getDepMap().get(tmpdir.toURI().resolve("p" + p));
+			assertEquals(folderCount, root.getChildren().size());
+			for (int f = 0; f < folderCount; f++) {
+				for (int s = 0; s < folderCount; s++) {
+					DepTreeNode folder = root.getDescendent("f" + f + "/s" + s);
+					assertEquals(moduleCount, folder.getChildren().size());
+					assertEquals("[./m4, p0/f0/s0/m0]",
+							Arrays.asList(folder.getChild("m3").getDefineDepArray()).toString());
+				}
+			}
+		}
+	}
+
 	private static class TestDependenciesWrapper extends DepTree {
 		private static final long serialVersionUID = 7700824773233302591L;
 
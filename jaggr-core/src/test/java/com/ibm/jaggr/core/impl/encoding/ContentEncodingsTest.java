@@ -0,0 +1,103 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.encoding;
+
+import com.ibm.jaggr.core.IAggregator;
+import com.ibm.jaggr.core.encoding.IContentEncoding;
+import com.ibm.jaggr.core.test.TestUtils;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+public class ContentEncodingsTest {
+
+	static class TestEncoding implements IContentEncoding {
+		final String name;
+		TestEncoding(String name) {
+			this.name = name;
+		}
+		@Override public String getName() {
+			return name;
+		}
+		@Override public OutputStream encode(OutputStream out) {
+			return out;
+		}
+		@Override public InputStream decode(InputStream in) {
+			return in;
+		}
+	}
+
+	@Test
+	public void testNegotiate() throws Exception {
+		IContentEncoding br = new TestEncoding("br");
+		IContentEncoding zstd = new TestEncoding("zstd");
+		IContentEncoding gzip = GzipContentEncoding.INSTANCE;
+		List<IContentEncoding> encodings = Arrays.asList(new IContentEncoding[]{br, zstd, gzip});
+
+		Assert.assertSame(gzip, ContentEncodings.negotiate("gzip, deflate", encodings));
+		Assert.assertSame(gzip, ContentEncodings.negotiate("GZIP", encodings));
+		Assert.assertSame(br, ContentEncodings.negotiate("gzip, deflate, br", encodings));
+		Assert.assertSame(zstd, ContentEncodings.negotiate("gzip, zstd", encodings));
+		Assert.assertSame(gzip, ContentEncodings.negotiate("br;q=0.5, gzip", encodings));
+		Assert.assertSame(gzip, ContentEncodings.negotiate("gzip;q=0.5", encodings));
+		Assert.assertSame(br, ContentEncodings.negotiate("*", encodings));
+		Assert.assertSame(gzip, ContentEncodings.negotiate("*, br;q=0, zstd;q=0", encodings));
+		Assert.assertNull(ContentEncodings.negotiate("gzip;q=0", encodings));
+		Assert.assertNull(ContentEncodings.negotiate("identity", encodings));
+		Assert.assertNull(ContentEncodings.negotiate("", encodings));
+		Assert.assertNull(ContentEncodings.negotiate("gzip;q=x", encodings));
+	}
+
+	@Test
+	public void testGetEncodings() throws Exception {
+		IContentEncoding br = new TestEncoding("br");
+		IAggregator mockAggregator = EasyMock.createMock(IAggregator.class);
+		EasyMock.expect(mockAggregator.getContentEncodings()).andReturn(Arrays.asList(new IContentEncoding[]{new TestEncoding("gzip"), br})).once();
+		EasyMock.expect(mockAggregator.getContentEncodings()).andReturn(null).once();
+		EasyMock.replay(mockAggregator);
+
+		// registered encodings come before the built in gzip, which can't be replaced
+		Assert.assertEquals(Arrays.asList(new IContentEncoding[]{br, GzipContentEncoding.INSTANCE}), ContentEncodings.getEncodings(mockAggregator));
+		Assert.assertEquals(Arrays.asList(new IContentEncoding[]{GzipContentEncoding.INSTANCE}), ContentEncodings.getEncodings(mockAggregator));
+		EasyMock.verify(mockAggregator);
+	}
+
+	@Test
+	public void testNegotiateRequest() throws Exception {
+		Map<String, Object> requestAttributes = new HashMap<String, Object>();
+		Map<String, String> requestHeaders = new HashMap<String, String>();
+		IAggregator mockAggregator = TestUtils.createMockAggregator();
+		HttpServletRequest mockRequest = TestUtils.createMockRequest(mockAggregator, requestAttributes, null, null, requestHeaders);
+		EasyMock.replay(mockAggregator, mockRequest);
+
+		Assert.assertNull(ContentEncodings.negotiate(mockRequest));
+		Assert.assertEquals(ContentEncodings.IDENTITY, ContentEncodings.getName(ContentEncodings.negotiate(mockRequest)));
+		requestHeaders.put("Accept-Encoding", "gzip, deflate, br");
+		Assert.assertSame(GzipContentEncoding.INSTANCE, ContentEncodings.negotiate(mockRequest));
+		requestHeaders.put("Accept-Encoding", "deflate, br");
+		Assert.assertNull(ContentEncodings.negotiate(mockRequest));
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.executors;
+
+import com.ibm.jaggr.core.executors.ExecutorStats;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BuildExecutorTest {
+
+	private static class Task implements Callable<Integer>, BuildExecutor.Prioritized {
+		final int priority;
+		final List<Integer> ran;
+		Task(int priority, List<Integer> ran) {
+			this.priority = priority;
+			this.ran = ran;
+		}
+		@Override
+		public int getPriority() {
+			return priority;
+		}
+		@Override
+		public Integer call() throws Exception {
+			ran.add(priority);
+			return BuildExecutor.getCurrentPriority();
+		}
+	}
+
+	@Test
+	public void testPriorityOrder() throws Exception {
+		BuildExecutor executor = new BuildExecutor(1, Executors.defaultThreadFactory());
+		try {
+			final CountDownLatch latch = new CountDownLatch(1);
+			// Occupy the only thread while the remaining tasks are queued
+			executor.submit(new Runnable() {
+				public void run() {
+					try {
+						latch.await();
+					} catch (InterruptedException ignore) {}
+				}
+			});
+			List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+			Future<?> unprioritized = executor.submit(new Runnable() {
+				public void run() {}
+			});
+			Future<Integer> f3 = executor.submit(new Task(3, ran));
+			Future<Integer> f1 = executor.submit(new Task(1, ran));
+			Future<Integer> f2 = executor.submit(new Task(2, ran));
+			Future<Integer> f1b = executor.submit(new Task(1, ran));
+			latch.countDown();
+
+			Assert.assertEquals(3, f3.get(5, TimeUnit.SECONDS).intValue());
+			Assert.assertEquals(1, f1.get().intValue());
+			Assert.assertEquals(2, f2.get().intValue());
+			Assert.assertEquals(1, f1b.get().intValue());
+			unprioritized.get(5, TimeUnit.SECONDS);
+			Assert.assertEquals(Arrays.asList(1, 1, 2, 3), ran);
+			Assert.assertNull(BuildExecutor.getCurrentPriority());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testExecuteException() throws Exception {
+		final AtomicReference<Throwable> uncaught = new AtomicReference<Throwable>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		BuildExecutor executor = new BuildExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r);
+				thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+					public void uncaughtException(Thread t, Throwable e) {
+						uncaught.set(e);
+						latch.countDown();
+					}
+				});
+				return thread;
+			}
+		});
+		try {
+			// Exceptions thrown by tasks passed to execute() reach the uncaught exception handler
+			final IllegalStateException ex = new IllegalStateException();
+			executor.execute(new Runnable() {
+				public void run() {
+					throw ex;
+				}
+			});
+			Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+			Assert.assertSame(ex, uncaught.get());
+
+			// but not those thrown by submitted tasks, which are reported by the future
+			uncaught.set(null);
+			Future<?> future = executor.submit(new Runnable() {
+				public void run() {
+					throw ex;
+				}
+			});
+			try {
+				future.get(5, TimeUnit.SECONDS);
+				Assert.fail();
+			} catch (ExecutionException e) {
+				Assert.assertSame(ex, e.getCause());
+			}
+			Assert.assertNull(uncaught.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testQueueCapacityAndStats() throws Exception {
+		BuildExecutor executor = new BuildExecutor(1, 1, Executors.defaultThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+		try {
+			final CountDownLatch latch = new CountDownLatch(1);
+			final CountDownLatch started = new CountDownLatch(1);
+			Runnable blocker = new Runnable() {
+				public void run() {
+					started.countDown();
+					try {
+						latch.await();
+					} catch (InterruptedException ignore) {}
+				}
+			};
+			Future<?> f1 = executor.submit(blocker);
+			started.await(5, TimeUnit.SECONDS);
+			Future<?> f2 = executor.submit(new Runnable() {
+				public void run() {}
+			});
+			try {
+				executor.submit(new Runnable() {
+					public void run() {}
+				});
+				Assert.fail();
+			} catch (RejectedExecutionException expected) {}
+
+			ExecutorStats stats = executor.getStats();
+			Assert.assertEquals(BuildExecutor.BUILD_EXECUTOR_NAME, stats.getName());
+			Assert.assertEquals(1, stats.getActiveCount());
+			Assert.assertEquals(1, stats.getQueueSize());
+			Assert.assertEquals(1, stats.getRejectedCount());
+
+			latch.countDown();
+			f1.get(5, TimeUnit.SECONDS);
+			f2.get(5, TimeUnit.SECONDS);
+			executor.shutdown();
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+			stats = executor.getStats();
+			Assert.assertEquals(2, stats.getCompletedCount());
+			Assert.assertEquals(0, stats.getQueueSize());
+			Assert.assertTrue(stats.getRunTimeP99() >= stats.getRunTimeP50());
+			Assert.assertTrue(stats.getWaitTimeP99() >= stats.getWaitTimeP50());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
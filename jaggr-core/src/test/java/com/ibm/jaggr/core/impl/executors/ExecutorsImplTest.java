@@ -0,0 +1,59 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.executors;
+
+import com.ibm.jaggr.core.impl.options.OptionsImpl;
+import com.ibm.jaggr.core.options.IOptions;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+public class ExecutorsImplTest {
+
+	@Test
+	public void testOptionsUpdated() throws Exception {
+		IOptions options = new OptionsImpl(false, null);
+		options.setOption(IOptions.BUILD_THREADS, "12");
+		ExecutorsImpl executors = new ExecutorsImpl();
+		try {
+			// Options received before the pools are created are used to size them
+			executors.optionsUpdated(options, 1);
+			ThreadPoolExecutor buildExecutor = (ThreadPoolExecutor)executors.getBuildExecutor();
+			ThreadPoolExecutor createExecutor = (ThreadPoolExecutor)executors.getFileCreateExecutor();
+			Assert.assertEquals(12, buildExecutor.getCorePoolSize());
+			Assert.assertEquals(1, createExecutor.getCorePoolSize());
+
+			// Updated options resize the existing pools
+			options.setOption(IOptions.BUILD_THREADS, "20");
+			options.setOption(IOptions.FILE_CREATE_THREADS, "3");
+			executors.optionsUpdated(options, 2);
+			Assert.assertSame(buildExecutor, executors.getBuildExecutor());
+			Assert.assertEquals(20, buildExecutor.getCorePoolSize());
+			Assert.assertEquals(20, buildExecutor.getMaximumPoolSize());
+			Assert.assertEquals(3, createExecutor.getCorePoolSize());
+			Assert.assertEquals(3, createExecutor.getMaximumPoolSize());
+
+			options.setOption(IOptions.BUILD_THREADS, "11");
+			executors.optionsUpdated(options, 3);
+			Assert.assertEquals(11, buildExecutor.getCorePoolSize());
+			Assert.assertEquals(11, buildExecutor.getMaximumPoolSize());
+		} finally {
+			executors.shutdown();
+		}
+	}
+}
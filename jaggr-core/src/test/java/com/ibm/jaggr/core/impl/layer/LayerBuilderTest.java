@@ -72,6 +72,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
@@ -490,6 +491,113 @@ public class LayerBuilderTest {
 		System.out.println(output);
 	}
 
+	@Test
+	public void testBuildReader() throws Exception {
+		Map<String, Object> requestAttributes = new HashMap<String, Object>();
+		IHttpTransport mockTransport = createMockTransport();
+		IAggregator mockAggregator = TestUtils.createMockAggregator(mockTransport);
+		final HttpServletRequest mockRequest = TestUtils.createMockRequest(mockAggregator, requestAttributes);
+		EasyMock.replay(mockRequest);
+		EasyMock.replay(mockAggregator);
+		Map<String, String> content = new HashMap<String, String>();
+		content.put("s1", "script1");
+		content.put("m1", "foo");
+		content.put("m2", "bar");
+
+		ModuleList moduleList = new ModuleList(Arrays.asList(new ModuleListEntry[] {
+				new ModuleListEntry(new ModuleImpl("s1", new URI("file:/c:/s1.js")), ModuleSpecifier.SCRIPTS),
+				new ModuleListEntry(new ModuleImpl("m1", new URI("file:/c:/m1.js")), ModuleSpecifier.MODULES),
+				new ModuleListEntry(new ModuleImpl("m2", new URI("file:/c:/m2.js")), ModuleSpecifier.MODULES),
+		}));
+		List<ICacheKeyGenerator> keyGens = new LinkedList<ICacheKeyGenerator>();
+		TestLayerBuilder builder = new TestLayerBuilder(mockRequest, keyGens, moduleList, content);
+		String expected = builder.build();
+
+		// The streamed layer should be identical to the built layer
+		requestAttributes.clear();
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		List<ICacheKeyGenerator> streamedKeyGens = new LinkedList<ICacheKeyGenerator>();
+		builder = new TestLayerBuilder(mockRequest, streamedKeyGens, moduleList, content);
+		Reader reader = builder.buildReader();
+		Writer writer = new StringWriter();
+		CopyUtil.copy(reader, writer);
+		Assert.assertEquals(expected, writer.toString());
+		Assert.assertEquals(keyGens, streamedKeyGens);
+		Assert.assertFalse(builder.hasErrors());
+
+		// Layer can only be built once
+		try {
+			builder.buildReader();
+			Assert.fail();
+		} catch (IllegalStateException ex) {
+		}
+	}
+
+	@Test
+	public void testBuildReaderResolvesLazily() throws Exception {
+		Map<String, Object> requestAttributes = new HashMap<String, Object>();
+		IHttpTransport mockTransport = createMockTransport();
+		IAggregator mockAggregator = TestUtils.createMockAggregator(mockTransport);
+		final HttpServletRequest mockRequest = TestUtils.createMockRequest(mockAggregator, requestAttributes);
+		EasyMock.replay(mockRequest);
+		EasyMock.replay(mockAggregator);
+		requestAttributes.put(IHttpTransport.NOADDMODULES_REQATTRNAME, Boolean.TRUE);
+		Map<String, String> content = new HashMap<String, String>();
+		content.put("s1", "script1");
+		content.put("m1", "foo");
+		content.put("m2", "bar");
+
+		ModuleList moduleList = new ModuleList(Arrays.asList(new ModuleListEntry[] {
+				new ModuleListEntry(new ModuleImpl("s1", new URI("file:/c:/s1.js")), ModuleSpecifier.SCRIPTS),
+				new ModuleListEntry(new ModuleImpl("m1", new URI("file:/c:/m1.js")), ModuleSpecifier.MODULES),
+				new ModuleListEntry(new ModuleImpl("m2", new URI("file:/c:/m2.js")), ModuleSpecifier.MODULES),
+		}));
+		String expected = new TestLayerBuilder(mockRequest, new LinkedList<ICacheKeyGenerator>(), moduleList, content).build();
+
+		requestAttributes.clear();
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		requestAttributes.put(IHttpTransport.NOADDMODULES_REQATTRNAME, Boolean.TRUE);
+
+		// Record the order in which the module build futures are resolved
+		final List<String> resolved = new ArrayList<String>();
+		TestLayerBuilder builder = new TestLayerBuilder(mockRequest, new LinkedList<ICacheKeyGenerator>(), moduleList, content) {
+			@Override
+			protected List<ModuleBuildFuture> collectFutures(ModuleList moduleList, HttpServletRequest request) throws IOException {
+				List<ModuleBuildFuture> result = new ArrayList<ModuleBuildFuture>();
+				for (final ModuleBuildFuture future : super.collectFutures(moduleList, request)) {
+					result.add(new ModuleBuildFuture(future.getModule(), new CompletedFuture<ModuleBuildReader>(null) {
+						@Override
+						public ModuleBuildReader get() throws InterruptedException, ExecutionException {
+							resolved.add(future.getModule().getModuleId());
+							return future.get();
+						}
+					}, future.getModuleSpecifier()));
+				}
+				return result;
+			}
+		};
+		Reader reader = builder.buildReader();
+		Assert.assertTrue(resolved.isEmpty());
+
+		// Each module build is resolved when the reader reaches it
+		StringBuffer sb = new StringBuffer();
+		char[] cbuf = new char[1];
+		while (sb.indexOf("script1") == -1) {
+			Assert.assertEquals(1, reader.read(cbuf));
+			sb.append(cbuf);
+		}
+		Assert.assertEquals(Arrays.asList("s1"), resolved);
+		while (sb.indexOf("foo") == -1) {
+			Assert.assertEquals(1, reader.read(cbuf));
+			sb.append(cbuf);
+		}
+		Assert.assertEquals(Arrays.asList("s1", "m1"), resolved);
+		Writer writer = new StringWriter();
+		CopyUtil.copy(reader, writer);
+		Assert.assertEquals(expected, sb.toString() + writer.toString());
+		Assert.assertEquals(Arrays.asList("s1", "m1", "m2"), resolved);
+	}
+
 	@Test
 	public void testCollectFutures() throws Exception {
 		IAggregator mockAggregator = TestUtils.createMockAggregator();
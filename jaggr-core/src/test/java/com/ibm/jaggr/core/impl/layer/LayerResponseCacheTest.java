@@ -0,0 +1,193 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.layer;
+
+import com.ibm.jaggr.core.IAggregator;
+import com.ibm.jaggr.core.cache.ICache;
+import com.ibm.jaggr.core.impl.options.OptionsImpl;
+import com.ibm.jaggr.core.layer.ILayer;
+import com.ibm.jaggr.core.options.IOptions;
+import com.ibm.jaggr.core.test.TestUtils;
+import com.ibm.jaggr.core.util.CopyUtil;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class LayerResponseCacheTest {
+
+	IAggregator mockAggregator;
+	Map<String, Object> requestAttributes;
+	Map<String, String> requestHeaders;
+	Map<String, String> responseAttributes;
+	HttpServletRequest mockRequest;
+	HttpServletResponse mockResponse;
+	Cookie[] cookies;
+	String queryString;
+
+	@Before
+	public void setUp() throws Exception {
+		mockAggregator = TestUtils.createMockAggregator();
+		requestAttributes = new HashMap<String, Object>();
+		requestHeaders = new HashMap<String, String>();
+		responseAttributes = new HashMap<String, String>();
+		cookies = new Cookie[] {new Cookie("JSESSIONID", "1"), new Cookie("foo", "bar")};
+		mockRequest = TestUtils.createMockRequest(mockAggregator, requestAttributes, null, cookies, requestHeaders);
+		EasyMock.expect(mockRequest.getRequestURI()).andReturn("/aggr").anyTimes();
+		EasyMock.expect(mockRequest.getQueryString()).andAnswer(new IAnswer<String>() {
+			public String answer() throws Throwable {
+				return queryString;
+			}
+		}).anyTimes();
+		mockResponse = TestUtils.createMockResponse(responseAttributes);
+		EasyMock.replay(mockAggregator, mockRequest, mockResponse);
+		queryString = "modules=foo";
+	}
+
+	@Test
+	public void testGetKey() throws Exception {
+		String key = LayerResponseCache.getKey(mockRequest);
+		Assert.assertEquals(key, LayerResponseCache.getKey(mockRequest));
+		queryString = "modules=bar";
+		Assert.assertFalse(key.equals(LayerResponseCache.getKey(mockRequest)));
+		queryString = "modules=foo";
+		requestHeaders.put("Accept-Encoding", "gzip");
+		Assert.assertFalse(key.equals(LayerResponseCache.getKey(mockRequest)));
+		String gzipKey = LayerResponseCache.getKey(mockRequest);
+		requestHeaders.put("Accept-Language", "en");
+		Assert.assertFalse(gzipKey.equals(LayerResponseCache.getKey(mockRequest)));
+		requestHeaders.remove("Accept-Language");
+		// Only the has-features cookie is part of the key
+		cookies[0].setValue("2");
+		Assert.assertEquals(gzipKey, LayerResponseCache.getKey(mockRequest));
+		cookies[1] = new Cookie("has", "foo");
+		Assert.assertFalse(gzipKey.equals(LayerResponseCache.getKey(mockRequest)));
+	}
+
+	@Test
+	public void testGetPut() throws Exception {
+		ICache cache = EasyMock.createMock(ICache.class);
+		LayerResponseCache responseCache = new LayerResponseCache();
+		String key = LayerResponseCache.getKey(mockRequest);
+		Assert.assertNull(responseCache.get(key, cache));
+
+		// Nothing is added if no layer build was recorded for the request
+		responseCache.put(key, mockRequest, cache, 1000, "public");
+		Assert.assertEquals(0, responseCache.size());
+
+		LayerImpl layer = new LayerImpl("layerKey", 1);
+		CacheEntry entry = new CacheEntry(1, "layerKey", 0);
+		entry.setBytes("layer content".getBytes());
+		LayerResponseCache.recordEntry(mockRequest, layer, entry);
+		responseCache.put(key, mockRequest, cache, 1000, "public, max-age=60");
+		Assert.assertEquals(1, responseCache.size());
+
+		LayerResponseCache.Response response = responseCache.get(key, cache);
+		Assert.assertNotNull(response);
+		Assert.assertEquals(1000, response.getLastModified());
+		Assert.assertEquals("public, max-age=60", response.getCacheControl());
+		InputStream in = response.getInputStream(mockRequest, mockResponse);
+		StringWriter writer = new StringWriter();
+		CopyUtil.copy(in, writer);
+		Assert.assertEquals("layer content", writer.toString());
+		Assert.assertEquals(Integer.toString("layer content".length()), responseAttributes.get("Content-Length"));
+
+		// Different request
+		queryString = "modules=bar";
+		Assert.assertNull(responseCache.get(LayerResponseCache.getKey(mockRequest), cache));
+
+		// Response is discarded when the layer build is evicted from the layer cache
+		entry.delete(null);
+		Assert.assertNull(responseCache.get(key, cache));
+		Assert.assertEquals(0, responseCache.size());
+	}
+
+	@Test
+	public void testNoCacheResponse() throws Exception {
+		ICache cache = EasyMock.createMock(ICache.class);
+		LayerResponseCache responseCache = new LayerResponseCache();
+		String key = LayerResponseCache.getKey(mockRequest);
+		CacheEntry entry = new CacheEntry(1, "layerKey", 0);
+		entry.setBytes("layer content".getBytes());
+		LayerResponseCache.recordEntry(mockRequest, new LayerImpl("layerKey", 1), entry);
+		requestAttributes.put(ILayer.NOCACHE_RESPONSE_REQATTRNAME, Boolean.TRUE);
+		responseCache.put(key, mockRequest, cache, 1000, "public");
+		Assert.assertEquals(0, responseCache.size());
+		Assert.assertNull(responseCache.get(key, cache));
+	}
+
+	@Test
+	public void testCacheReplaced() throws Exception {
+		ICache cache = EasyMock.createMock(ICache.class);
+		ICache newCache = EasyMock.createMock(ICache.class);
+		LayerResponseCache responseCache = new LayerResponseCache();
+		String key = LayerResponseCache.getKey(mockRequest);
+		CacheEntry entry = new CacheEntry(1, "layerKey", 0);
+		entry.setBytes("layer content".getBytes());
+		LayerResponseCache.recordEntry(mockRequest, new LayerImpl("layerKey", 1), entry);
+		Assert.assertNull(responseCache.get(key, cache));
+		responseCache.put(key, mockRequest, cache, 1000, "public");
+		Assert.assertNotNull(responseCache.get(key, cache));
+
+		// Responses are discarded when the aggregator cache is replaced
+		Assert.assertNull(responseCache.get(key, newCache));
+		Assert.assertEquals(0, responseCache.size());
+		responseCache.put("newKey", mockRequest, newCache, 1000, "public");
+		Assert.assertEquals(1, responseCache.size());
+
+		// A response for a request that was processed using the previous cache
+		// isn't added, and doesn't clear the responses for the new cache
+		responseCache.put(key, mockRequest, cache, 1000, "public");
+		Assert.assertEquals(1, responseCache.size());
+		Assert.assertNull(responseCache.get(key, newCache));
+		Assert.assertNotNull(responseCache.get("newKey", newCache));
+	}
+
+	@Test
+	public void testCapacity() throws Exception {
+		ICache cache = EasyMock.createMock(ICache.class);
+		LayerResponseCache responseCache = new LayerResponseCache(2);
+		CacheEntry entry = new CacheEntry(1, "layerKey", 0);
+		entry.setBytes("layer content".getBytes());
+		LayerResponseCache.recordEntry(mockRequest, new LayerImpl("layerKey", 1), entry);
+		Assert.assertNull(responseCache.get("key0", cache));
+		for (int i = 0; i < 5; i++) {
+			responseCache.put("key" + i, mockRequest, cache, 1000, "public");
+		}
+		Assert.assertEquals(2, responseCache.size());
+		Assert.assertNull(responseCache.get("key0", cache));
+		Assert.assertNotNull(responseCache.get("key4", cache));
+
+		// The capacity is set by the options
+		IOptions options = new OptionsImpl(false, null);
+		options.setOption(IOptions.LAYER_RESPONSE_CACHE_CAPACITY, "1");
+		responseCache.optionsUpdated(options, 1);
+		Assert.assertEquals(1, responseCache.size());
+		Assert.assertNotNull(responseCache.get("key4", cache));
+	}
+}
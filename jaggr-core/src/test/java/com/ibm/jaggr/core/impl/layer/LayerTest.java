@@ -31,8 +31,10 @@ import com.ibm.jaggr.core.cachekeygenerator.ICacheKeyGenerator;
 import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.config.IConfigScopeModifier;
 import com.ibm.jaggr.core.deps.IDependencies;
+import com.ibm.jaggr.core.encoding.IContentEncoding;
 import com.ibm.jaggr.core.impl.AggregatorLayerListener;
 import com.ibm.jaggr.core.impl.config.ConfigImpl;
+import com.ibm.jaggr.core.impl.encoding.GzipContentEncoding;
 import com.ibm.jaggr.core.impl.module.NotFoundModule;
 import com.ibm.jaggr.core.impl.transport.AbstractHttpTransport;
 import com.ibm.jaggr.core.layer.ILayerListener;
@@ -44,12 +46,15 @@ import com.ibm.jaggr.core.test.MockRequestedModuleNames;
 import com.ibm.jaggr.core.test.TestUtils;
 import com.ibm.jaggr.core.test.TestUtils.Ref;
 import com.ibm.jaggr.core.transport.IHttpTransport;
+import com.ibm.jaggr.core.util.ByteBufferInputStream;
 import com.ibm.jaggr.core.util.CopyUtil;
+import com.ibm.jaggr.core.util.DeflatedSegment;
 import com.ibm.jaggr.core.util.Features;
 
 import com.google.common.io.Files;
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
@@ -68,6 +73,7 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringWriter;
@@ -83,6 +89,9 @@ import java.util.Map;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -542,7 +551,7 @@ public class LayerTest extends EasyMock {
 		in.close();
 		String s = layer.toString();
 		System.out.println(s);
-		assertTrue(Pattern.compile("\\s[0-9]+-expn:0;has\\{\\};sexp:0;lyr:0:0:0:0;js:S:0:0.*layer\\..*\\.cache").matcher(s).find());
+		assertTrue(Pattern.compile("\\s[0-9]+-expn:0;has\\{\\};sexp:0;lyr:identity:0:0:0;js:S:0:0.*layer\\..*\\.cache").matcher(s).find());
 	}
 
 	/**
@@ -797,6 +806,278 @@ public class LayerTest extends EasyMock {
 		assertEquals("cache file size error", zipped.length + unzipped.length, TestUtils.getDirListSize(cacheDir, layerFilter));
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void offHeapLayerCacheTests() throws Exception {
+		replay(mockAggregator, mockRequest, mockResponse, mockDependencies);
+		mockAggregator.getOptions().setOption(IOptions.OFFHEAP_LAYER_CACHE, "true");
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		String configJson = "{paths:{p1:'p1',p2:'p2'}}";
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
+		List<String> layerCacheInfo = new LinkedList<String>();
+		ConcurrentLinkedHashMap<String, CacheEntry> cacheMap = (ConcurrentLinkedHashMap<String, CacheEntry>)((LayerCacheImpl)mockAggregator.getCacheManager().getCache().getLayers()).getLayerBuildMap();
+
+		MockRequestedModuleNames modules = new MockRequestedModuleNames();
+		modules.setModules(Arrays.asList(new String[]{"p1/a", "p1/p1"}));
+		requestAttributes.put(IHttpTransport.REQUESTEDMODULENAMES_REQATTRNAME, modules);
+		requestAttributes.put(LayerImpl.LAYERCACHEINFO_PROPNAME, layerCacheInfo);
+		LayerImpl layer = newLayerImpl(modules.toString(), mockAggregator);
+
+		InputStream in = layer.getInputStream(mockRequest, mockResponse);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		byte[] built = bos.toByteArray();
+		String key = (String)requestAttributes.get(LayerImpl.LAYERBUILDCACHEKEY_PROPNAME);
+		CacheEntry entry = cacheMap.get(layer.getId() + "-" + key);
+		assertNotNull(entry.getFilename());
+
+		// The persisted entry is served from the mapped cache file
+		in = layer.getInputStream(mockRequest, mockResponse);
+		assertEquals("[hit_1]",layerCacheInfo.toString());
+		assertTrue(in instanceof ByteBufferInputStream);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertArrayEquals(built, bos.toByteArray());
+		assertEquals(built.length, Integer.parseInt(responseAttributes.get("Content-Length")));
+
+		// Streams already in use aren't affected by deletion of the entry
+		in = layer.getInputStream(mockRequest, mockResponse);
+		entry.delete(mockAggregator.getCacheManager());
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertArrayEquals(built, bos.toByteArray());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void deferredCompressionTests() throws Exception {
+		replay(mockAggregator, mockRequest, mockResponse, mockDependencies);
+		mockAggregator.getOptions().setOption(IOptions.DEFERRED_COMPRESSION, "true");
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		String configJson = "{paths:{p1:'p1',p2:'p2'}}";
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
+		List<String> layerCacheInfo = new LinkedList<String>();
+		ConcurrentLinkedHashMap<String, CacheEntry> cacheMap = (ConcurrentLinkedHashMap<String, CacheEntry>)((LayerCacheImpl)mockAggregator.getCacheManager().getCache().getLayers()).getLayerBuildMap();
+
+		MockRequestedModuleNames modules = new MockRequestedModuleNames();
+		modules.setModules(Arrays.asList(new String[]{"p1/a", "p1/p1"}));
+		requestAttributes.put(IHttpTransport.REQUESTEDMODULENAMES_REQATTRNAME, modules);
+		requestAttributes.put(LayerImpl.LAYERCACHEINFO_PROPNAME, layerCacheInfo);
+		LayerImpl layer = newLayerImpl(modules.toString(), mockAggregator);
+
+		requestHeaders.put("Accept-Encoding", "gzip");
+		InputStream in = layer.getInputStream(mockRequest, mockResponse);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CopyUtil.copy(new GZIPInputStream(in), bos);
+		byte[] unzipped = bos.toByteArray();
+		assertEquals("[update_lastmod1, zip, update_keygen, update_key, update_add, recompress]",layerCacheInfo.toString());
+		String key = (String)requestAttributes.get(LayerImpl.LAYERBUILDCACHEKEY_PROPNAME);
+
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(new ByteArrayInputStream(unzipped), new GzipContentEncoding().encode(bos));
+		byte[] zipped = bos.toByteArray();
+
+		// Wait for the background recompression to replace the cache entry
+		CacheEntry fastEntry = cacheMap.get(layer.getId() + "-" + key);
+		for (int i = 0; i < 100 && cacheMap.get(layer.getId() + "-" + key) == fastEntry; i++) {
+			Thread.sleep(50);
+		}
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertArrayEquals(zipped, bos.toByteArray());
+		assertEquals("[hit_1]",layerCacheInfo.toString());
+
+		// Transcoded responses are also recompressed
+		mockAggregator.getCacheManager().clearCache();
+		requestAttributes.put(LayerImpl.LAYERCACHEINFO_PROPNAME, layerCacheInfo);
+		layer = newLayerImpl(modules.toString(), mockAggregator);
+		requestHeaders.remove("Accept-Encoding");
+		in = layer.getInputStream(mockRequest, mockResponse);
+		CopyUtil.copy(in, new ByteArrayOutputStream());
+		requestHeaders.put("Accept-Encoding", "gzip");
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(new GZIPInputStream(in), bos);
+		assertArrayEquals(unzipped, bos.toByteArray());
+		assertEquals("[added, zip_unzipped, update_weights_1, recompress]",layerCacheInfo.toString());
+		requestHeaders.remove("Accept-Encoding");
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void contentEncodingTests() throws Exception {
+		final IContentEncoding deflate = new IContentEncoding() {
+			@Override public String getName() {
+				return "deflate";
+			}
+			@Override public OutputStream encode(OutputStream out) {
+				return new DeflaterOutputStream(out);
+			}
+			@Override public InputStream decode(InputStream in) {
+				return new InflaterInputStream(in);
+			}
+		};
+		expect(mockAggregator.getContentEncodings()).andReturn(Arrays.asList(new IContentEncoding[]{deflate})).anyTimes();
+		replay(mockAggregator, mockRequest, mockResponse, mockDependencies);
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		String configJson = "{paths:{p1:'p1',p2:'p2'}}";
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
+		List<String> layerCacheInfo = new LinkedList<String>();
+
+		MockRequestedModuleNames modules = new MockRequestedModuleNames();
+		modules.setModules(Arrays.asList(new String[]{"p1/a", "p1/p1"}));
+		requestAttributes.put(IHttpTransport.REQUESTEDMODULENAMES_REQATTRNAME, modules);
+		requestAttributes.put(LayerImpl.LAYERCACHEINFO_PROPNAME, layerCacheInfo);
+		LayerImpl layer = newLayerImpl(modules.toString(), mockAggregator);
+
+		// registered encodings are preferred over gzip
+		requestHeaders.put("Accept-Encoding", "gzip, deflate");
+		InputStream in = layer.getInputStream(mockRequest, mockResponse);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CopyUtil.copy(deflate.decode(in), bos);
+		String unencoded = bos.toString("UTF-8");
+		assertEquals("[update_lastmod1, encode_deflate, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+
+		// unless the client says otherwise
+		requestHeaders.put("Accept-Encoding", "gzip, deflate;q=0.5");
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(new GZIPInputStream(in), bos);
+		assertEquals(unencoded, bos.toString("UTF-8"));
+		assertEquals("[added, transcode_deflate_gzip, update_weights_1]",layerCacheInfo.toString());
+
+		requestHeaders.remove("Accept-Encoding");
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertEquals(unencoded, bos.toString("UTF-8"));
+		assertEquals("[added, transcode_deflate_identity, update_weights_1]",layerCacheInfo.toString());
+
+		requestHeaders.put("Accept-Encoding", "deflate");
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(deflate.decode(in), bos);
+		assertEquals(unencoded, bos.toString("UTF-8"));
+		assertEquals("[hit_1]",layerCacheInfo.toString());
+		requestHeaders.remove("Accept-Encoding");
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void streamingTests() throws Exception {
+		replay(mockAggregator, mockRequest, mockResponse, mockDependencies);
+		mockAggregator.getOptions().setOption(IOptions.STREAMING_LAYERS, "true");
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		String configJson = "{paths:{p1:'p1',p2:'p2'}}";
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
+		List<String> layerCacheInfo = new LinkedList<String>();
+		File cacheDir = mockAggregator.getCacheManager().getCacheDir();
+		ConcurrentLinkedHashMap<String, CacheEntry> cacheMap = (ConcurrentLinkedHashMap<String, CacheEntry>)((LayerCacheImpl)mockAggregator.getCacheManager().getCache().getLayers()).getLayerBuildMap();
+
+		MockRequestedModuleNames modules = new MockRequestedModuleNames();
+		modules.setModules(Arrays.asList(new String[]{"p1/a", "p1/p1"}));
+		requestAttributes.put(IHttpTransport.REQUESTEDMODULENAMES_REQATTRNAME, modules);
+		requestAttributes.put(LayerImpl.LAYERCACHEINFO_PROPNAME, layerCacheInfo);
+		LayerImpl layer = newLayerImpl(modules.toString(), mockAggregator);
+
+		// Streamed response has no content length and is added to the cache once read
+		responseAttributes.remove("Content-Length");
+		InputStream in = layer.getInputStream(mockRequest, mockResponse);
+		assertNull(responseAttributes.get("Content-Length"));
+		assertEquals("[update_lastmod1, stream]",layerCacheInfo.toString());
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		byte[] unzipped = bos.toByteArray();
+		assertTrue(new String(unzipped, "UTF-8").contains("\"hello from a.js\""));
+		assertEquals("[update_lastmod1, stream, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+		assertEquals("weighted size error", unzipped.length, cacheMap.weightedSize());
+		assertEquals("cache file size error", unzipped.length, TestUtils.getDirListSize(cacheDir, layerFilter));
+
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertArrayEquals(unzipped, bos.toByteArray());
+		assertEquals(unzipped.length, Integer.parseInt(responseAttributes.get("Content-Length")));
+		assertEquals("[hit_1]",layerCacheInfo.toString());
+
+		// Streamed gzip response matches the zipped unzipped response
+		bos = new ByteArrayOutputStream();
+		VariableGZIPOutputStream compress = new VariableGZIPOutputStream(bos, 10240);
+		compress.setLevel(Deflater.BEST_COMPRESSION);
+		Writer writer = new OutputStreamWriter(compress, "UTF-8"); //$NON-NLS-1$
+		CopyUtil.copy(new ByteArrayInputStream(unzipped), writer);
+		byte[] zipped = bos.toByteArray();
+
+		mockAggregator.getCacheManager().clearCache();
+		cacheMap = (ConcurrentLinkedHashMap<String, CacheEntry>)((LayerCacheImpl)mockAggregator.getCacheManager().getCache().getLayers()).getLayerBuildMap();
+		layer = newLayerImpl(modules.toString(), mockAggregator);
+		requestHeaders.put("Accept-Encoding", "gzip");
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertArrayEquals(zipped, bos.toByteArray());
+		assertEquals("[stream_zip, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+		assertEquals("weighted size error", zipped.length, cacheMap.weightedSize());
+
+		// Closing the stream before the layer has been read discards the cache entry
+		mockAggregator.getCacheManager().clearCache();
+		cacheMap = (ConcurrentLinkedHashMap<String, CacheEntry>)((LayerCacheImpl)mockAggregator.getCacheManager().getCache().getLayers()).getLayerBuildMap();
+		layer = newLayerImpl(modules.toString(), mockAggregator);
+		in = layer.getInputStream(mockRequest, mockResponse);
+		in.close();
+		assertEquals("[stream_zip, stream_abort]",layerCacheInfo.toString());
+		assertEquals(0, cacheMap.size());
+		requestHeaders.remove("Accept-Encoding");
+	}
+
+	@Test
+	public void precompressModulesTests() throws Exception {
+		if (!DeflatedSegment.isSupported()) {
+			return;
+		}
+		replay(mockAggregator, mockRequest, mockResponse, mockDependencies);
+		mockAggregator.getOptions().setOption(IOptions.PRECOMPRESS_MODULES, "true");
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		String configJson = "{paths:{p1:'p1',p2:'p2'}}";
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
+		List<String> layerCacheInfo = new LinkedList<String>();
+
+		MockRequestedModuleNames modules = new MockRequestedModuleNames();
+		modules.setModules(Arrays.asList(new String[]{"p1/a", "p1/p1"}));
+		requestAttributes.put(IHttpTransport.REQUESTEDMODULENAMES_REQATTRNAME, modules);
+		requestAttributes.put(LayerImpl.LAYERCACHEINFO_PROPNAME, layerCacheInfo);
+		LayerImpl layer = newLayerImpl(modules.toString(), mockAggregator);
+
+		InputStream in = layer.getInputStream(mockRequest, mockResponse);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		String unzipped = new String(bos.toByteArray(), "UTF-8");
+
+		// The gzipped layer is assembled from the compressed module builds
+		mockAggregator.getCacheManager().clearCache();
+		layer = newLayerImpl(modules.toString(), mockAggregator);
+		requestHeaders.put("Accept-Encoding", "gzip");
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		byte[] zipped = bos.toByteArray();
+		assertEquals("[zip_segments, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+		assertEquals(zipped.length, Integer.parseInt(responseAttributes.get("Content-Length")));
+		assertEquals(unzipped, IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(zipped)), "UTF-8"));
+
+		// A different layer using the same, now pre-compressed, module builds
+		modules.setModules(Arrays.asList(new String[]{"p1/b", "p1/a"}));
+		layer = newLayerImpl(modules.toString(), mockAggregator);
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		String result = IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(bos.toByteArray())), "UTF-8");
+		assertTrue(result.contains("\"hello from a.js\""));
+		assertTrue(result.indexOf("\"hello from b.js\"") < result.indexOf("\"hello from a.js\""));
+		requestHeaders.remove("Accept-Encoding");
+	}
+
 	@Test
 	public void testCacheKeyGenerator() throws Exception {
 		LayerImpl impl = new LayerImpl("", 0) {
@@ -818,17 +1099,17 @@ public class LayerTest extends EasyMock {
 		Map<String, ICacheKeyGenerator> keyGens = new HashMap<String, ICacheKeyGenerator>();
 		impl.addCacheKeyGenerators(keyGens, LayerImpl.s_layerCacheKeyGenerators);
 		replay(mockAggregator, mockRequest);
-		Assert.assertEquals("sexp:0;lyr:0:0:0:0", impl.generateCacheKey(mockRequest, keyGens));
+		Assert.assertEquals("sexp:0;lyr:identity:0:0:0", impl.generateCacheKey(mockRequest, keyGens));
 		requestHeaders.put("Accept-Encoding", "gzip");
-		Assert.assertEquals("sexp:0;lyr:1:0:0:0", impl.generateCacheKey(mockRequest, keyGens));
+		Assert.assertEquals("sexp:0;lyr:gzip:0:0:0", impl.generateCacheKey(mockRequest, keyGens));
 		mockRequest.setAttribute(IHttpTransport.SERVEREXPANDLAYERS_REQATTRNAME, true);
-		Assert.assertEquals("sexp:1;lyr:1:0:0:0", impl.generateCacheKey(mockRequest, keyGens));
+		Assert.assertEquals("sexp:1;lyr:gzip:0:0:0", impl.generateCacheKey(mockRequest, keyGens));
 		mockRequest.setAttribute(IHttpTransport.SHOWFILENAMES_REQATTRNAME, true);
-		Assert.assertEquals("sexp:1;lyr:1:1:0:0", impl.generateCacheKey(mockRequest, keyGens));
+		Assert.assertEquals("sexp:1;lyr:gzip:1:0:0", impl.generateCacheKey(mockRequest, keyGens));
 		mockRequest.setAttribute(IHttpTransport.INCLUDEREQUIREDEPS_REQATTRNAME, true);
-		Assert.assertEquals("sexp:1;lyr:1:1:1:0", impl.generateCacheKey(mockRequest, keyGens));
+		Assert.assertEquals("sexp:1;lyr:gzip:1:1:0", impl.generateCacheKey(mockRequest, keyGens));
 		mockRequest.setAttribute(IHttpTransport.INCLUDEUNDEFINEDFEATUREDEPS_REQATTRNAME, true);
-		Assert.assertEquals("sexp:1;lyr:1:1:1:1", impl.generateCacheKey(mockRequest, keyGens));
+		Assert.assertEquals("sexp:1;lyr:gzip:1:1:1", impl.generateCacheKey(mockRequest, keyGens));
 	}
 
 	@SuppressWarnings("serial")
@@ -0,0 +1,198 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.module;
+
+import com.ibm.jaggr.core.IAggregator;
+import com.ibm.jaggr.core.cache.ICache;
+import com.ibm.jaggr.core.cache.ICacheManager;
+import com.ibm.jaggr.core.impl.options.OptionsImpl;
+import com.ibm.jaggr.core.options.IOptions;
+import com.ibm.jaggr.core.test.TestUtils;
+import com.ibm.jaggr.core.util.CopyUtil;
+
+import com.google.common.io.Files;
+
+import org.apache.commons.lang3.StringUtils;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletRequest;
+
+public class ModuleBuildMemoryCacheTest {
+
+	private File tmpdir;
+	private IAggregator mockAggregator;
+	private ICacheManager mockCacheMgr;
+	private ModuleCacheImpl moduleCache;
+	private ModuleBuildMemoryCache memoryCache;
+	private HttpServletRequest mockRequest;
+	private OptionsImpl options;
+	private ModuleImpl module;
+	private int fileCount = 0;
+
+	@Before
+	public void setup() throws Exception {
+		tmpdir = Files.createTempDir();
+		options = new OptionsImpl(false, null);
+		mockAggregator = EasyMock.createNiceMock(IAggregator.class);
+		mockCacheMgr = EasyMock.createNiceMock(ICacheManager.class);
+		ICache mockCache = EasyMock.createNiceMock(ICache.class);
+		moduleCache = new ModuleCacheImpl();
+		EasyMock.expect(mockAggregator.getOptions()).andReturn(options).anyTimes();
+		EasyMock.expect(mockAggregator.getCacheManager()).andReturn(mockCacheMgr).anyTimes();
+		EasyMock.expect(mockCacheMgr.getCacheDir()).andReturn(tmpdir).anyTimes();
+		EasyMock.expect(mockCacheMgr.getCache()).andReturn(mockCache).anyTimes();
+		EasyMock.expect(mockCache.getModules()).andReturn(moduleCache).anyTimes();
+		mockCacheMgr.createCacheFileAsync(EasyMock.isA(String.class), EasyMock.isA(Reader.class), EasyMock.isA(ICacheManager.CreateCompletionCallback.class));
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+			@Override
+			public Object answer() throws Throwable {
+				Object[] args = EasyMock.getCurrentArguments();
+				String filename = (String)args[0] + (fileCount++);
+				CopyUtil.copy((Reader)args[1], new FileWriter(new File(tmpdir, filename)));
+				((ICacheManager.CreateCompletionCallback)args[2]).completed(filename, null);
+				return null;
+			}
+		}).anyTimes();
+		mockRequest = EasyMock.createNiceMock(HttpServletRequest.class);
+		EasyMock.expect(mockRequest.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME)).andReturn(mockAggregator).anyTimes();
+		EasyMock.replay(mockAggregator, mockCacheMgr, mockCache, mockRequest);
+		module = new ModuleImpl("foo/bar", new URI("file:/c:/foo/bar.js"));
+		moduleCache.setAggregator(mockAggregator);
+		memoryCache = moduleCache.getMemoryCache();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestUtils.deleteRecursively(tmpdir);
+	}
+
+	@Test
+	public void testRetain() throws Exception {
+		ModuleImpl.CacheEntry entry = newEntry("abc", true);
+		Assert.assertSame(memoryCache, ModuleBuildMemoryCache.getInstance(mockAggregator));
+		Assert.assertTrue(memoryCache.contains(entry));
+		Assert.assertEquals(6, entry.getResidentSize());
+		Assert.assertEquals(6, memoryCache.weightedSize());
+
+		// Change the cache file so we can tell where the output is read from
+		writeFile(entry, "xyz");
+		Assert.assertEquals("abc", read(entry));
+
+		// Reducing the capacity to 0 releases the in-memory output
+		options.setOption(IOptions.MODULE_BUILD_CACHE_CAPACITY_MB, "0");
+		moduleCache.setAggregator(mockAggregator);
+		Assert.assertFalse(memoryCache.isEnabled());
+		Assert.assertNull(ModuleBuildMemoryCache.getInstance(mockAggregator));
+		Assert.assertFalse(memoryCache.contains(entry));
+		Assert.assertEquals(0, entry.getResidentSize());
+		Assert.assertEquals("xyz", read(entry));
+		// not retained when disabled
+		Assert.assertFalse(memoryCache.contains(entry));
+		Assert.assertEquals(0, entry.getResidentSize());
+
+		// Output is retained again when it is read from the cache file
+		options.setOption(IOptions.MODULE_BUILD_CACHE_CAPACITY_MB, "1");
+		moduleCache.setAggregator(mockAggregator);
+		Assert.assertEquals("xyz", read(entry));
+		Assert.assertTrue(memoryCache.contains(entry));
+		Assert.assertEquals(6, entry.getResidentSize());
+		writeFile(entry, "123");
+		Assert.assertEquals("xyz", read(entry));
+
+		// Deleting the build unregisters it
+		entry.delete(mockCacheMgr);
+		Assert.assertFalse(memoryCache.contains(entry));
+	}
+
+	@Test
+	public void testCapacityPerModuleCache() throws Exception {
+		// Each module cache has its own budget.  Changing the options doesn't change
+		// the budget until the aggregator is set on the module cache.
+		ModuleCacheImpl otherModuleCache = new ModuleCacheImpl();
+		options.setOption(IOptions.MODULE_BUILD_CACHE_CAPACITY_MB, "0");
+		otherModuleCache.setAggregator(mockAggregator);
+		Assert.assertFalse(otherModuleCache.getMemoryCache().isEnabled());
+		Assert.assertTrue(memoryCache.isEnabled());
+		Assert.assertSame(memoryCache, ModuleBuildMemoryCache.getInstance(mockAggregator));
+
+		// Clearing the module cache unregisters the builds
+		ModuleImpl.CacheEntry entry = newEntry("abc", true);
+		Assert.assertTrue(memoryCache.contains(entry));
+		moduleCache.clear();
+		Assert.assertFalse(memoryCache.contains(entry));
+	}
+
+	@Test
+	public void testNotRetained() throws Exception {
+		ModuleImpl.CacheEntry entry = newEntry("abc", false);
+		Assert.assertFalse(memoryCache.contains(entry));
+		Assert.assertEquals(0, entry.getResidentSize());
+		Assert.assertEquals("abc", read(entry));
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		options.setOption(IOptions.MODULE_BUILD_CACHE_CAPACITY_MB, "1");
+		moduleCache.setAggregator(mockAggregator);
+		Assert.assertTrue(memoryCache.isEnabled());
+		// Each build uses 600KB of the 1MB capacity
+		String content = StringUtils.repeat('x', 300 * 1024);
+		ModuleImpl.CacheEntry entry1 = newEntry(content, true);
+		Assert.assertTrue(memoryCache.contains(entry1));
+		ModuleImpl.CacheEntry entry2 = newEntry(content, true);
+		Assert.assertTrue(memoryCache.contains(entry2));
+		Assert.assertFalse(memoryCache.contains(entry1));
+		Assert.assertEquals(0, entry1.getResidentSize());
+
+		// The evicted build is reloaded from its cache file, evicting the other build
+		Assert.assertEquals(content, read(entry1));
+		Assert.assertTrue(memoryCache.contains(entry1));
+		Assert.assertFalse(memoryCache.contains(entry2));
+		Assert.assertEquals(content, read(entry2));
+	}
+
+	private ModuleImpl.CacheEntry newEntry(String content, boolean retain) {
+		ModuleImpl.CacheEntry entry = new ModuleImpl.CacheEntry();
+		entry.setData(content, Collections.<String>emptyList());
+		entry.persist(mockCacheMgr, module, retain ? memoryCache : null);
+		return entry;
+	}
+
+	private String read(ModuleImpl.CacheEntry entry) throws Exception {
+		StringWriter writer = new StringWriter();
+		CopyUtil.copy(entry.getReader(tmpdir, mockRequest), writer);
+		return writer.toString();
+	}
+
+	private void writeFile(ModuleImpl.CacheEntry entry, String content) throws Exception {
+		FileWriter writer = new FileWriter(new File(tmpdir, entry.fileName()));
+		writer.write(content);
+		writer.close();
+	}
+}
@@ -99,6 +99,8 @@ public class ModuleImplTest {
 		mockRequest = TestUtils.createMockRequest(mockAggregator, requestAttributes);
 		EasyMock.expect(mockAggregator.getDependencies()).andReturn(mockDependencies).anyTimes();
 		EasyMock.expect(mockDependencies.getLastModified()).andReturn(0L).anyTimes();
+		EasyMock.expect(mockDependencies.getSnapshotSequence()).andReturn(0L).anyTimes();
+		EasyMock.expect(mockDependencies.getDependencyGraph()).andReturn(null).anyTimes();
 		EasyMock.expect(mockDependencies.getDelcaredDependencies(EasyMock.isA(String.class))).andAnswer(new IAnswer<List<String>>() {
 			@Override
 			public List<String> answer() throws Throwable {
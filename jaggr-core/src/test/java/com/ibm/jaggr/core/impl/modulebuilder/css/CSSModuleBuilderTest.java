@@ -23,6 +23,7 @@ import com.ibm.jaggr.core.cachekeygenerator.KeyGenUtil;
 import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.impl.config.ConfigImpl;
 import com.ibm.jaggr.core.impl.resource.FileResource;
+import com.ibm.jaggr.core.modulebuilder.ModuleBuild;
 import com.ibm.jaggr.core.options.IOptions;
 import com.ibm.jaggr.core.resource.IResource;
 import com.ibm.jaggr.core.resource.StringResource;
@@ -75,6 +76,7 @@ public class CSSModuleBuilderTest extends EasyMock {
 	CSSModuleBuilderTester builder;
 	List<ICacheKeyGenerator> keyGens;
 	long seq = 1;
+	long lastModified = 0;
 
 	class CSSModuleBuilderTester extends CSSModuleBuilder {
 		public CSSModuleBuilderTester(IAggregator aggr) {
@@ -215,6 +217,9 @@ public class CSSModuleBuilderTest extends EasyMock {
 		css = "div { color: black; }";
 		output = buildCss(new StringResource(css, resuri));
 		Assert.assertEquals("div{color:red}", output);
+		Assert.assertEquals(1, builder.getThreadScopes().size());
+		Assert.assertEquals(1, builder.getThreadScopes().getAcquireCount());
+		Assert.assertEquals(1, builder.getThreadScopes().getStageCount(CSSModuleBuilder.POSTCSS_STAGE));
 	}
 
 	@Test
@@ -224,7 +229,7 @@ public class CSSModuleBuilderTest extends EasyMock {
 
 		// create file to import
 		css = "/* Importe file */\r\n\r\n.imported {\r\n\tcolor : black;\r\n}";
-		CopyUtil.copy(css, new FileWriter(new File(testdir, "imported.css")));
+		writeFile(new File(testdir, "imported.css"), css);
 
 		/*
 		 * Make sure imported css files get inlined
@@ -273,7 +278,7 @@ public class CSSModuleBuilderTest extends EasyMock {
 		Assert.assertTrue("Expected FileNotFoundException", exceptionCaught);
 
 		css = "/* Importe file */\r\n\r\n.background-image: url( \"images/img.jpg\" );";
-		CopyUtil.copy(css, new FileWriter(new File(testdir, "imported.css")));
+		writeFile(new File(testdir, "imported.css"), css);
 		output = buildCss(new StringResource(css, resuri));
 		Assert.assertEquals(".background-image:url(\"images/img.jpg\");", output);
 
@@ -281,44 +286,44 @@ public class CSSModuleBuilderTest extends EasyMock {
 		File imported = new File(subdir, "imported.css");
 		subdir.mkdir();
 		String importedCss = "/* Importe file */\r\n\r\n.background-image:  url( \"images/img.jpg\" );";
-		CopyUtil.copy(importedCss, new FileWriter(imported));
+		writeFile(imported, importedCss);
 		css = "/* importing file */\n\r@import \"subdir/imported.css\"";
 		output = buildCss(new StringResource(css, resuri));
 		Assert.assertEquals(".background-image:url(\"subdir/images/img.jpg\");", output);
 
 		// test imported path normalizing
 		importedCss = "/* Importe file */\r\n\r\n.background-image:  url('./images/./img.jpg' );";
-		CopyUtil.copy(importedCss, new FileWriter(imported));
+		writeFile(imported, importedCss);
 		output = buildCss(new StringResource(css, resuri));
 		Assert.assertEquals(".background-image:url('subdir/images/img.jpg');", output);
 
 		importedCss = "/* Importe file */\r\n\r\n.background-image:  url( \"./images/foo/../img.jpg\" );";
-		CopyUtil.copy(importedCss, new FileWriter(imported));
+		writeFile(imported, importedCss);
 		output = buildCss(new StringResource(css, resuri));
 		Assert.assertEquals(".background-image:url(\"subdir/images/img.jpg\");", output);
 
 		importedCss = "/* Importe file */\r\n\r\n.background-image:  url(./images/foo/bar/../../img.jpg);";
-		CopyUtil.copy(importedCss, new FileWriter(imported));
+		writeFile(imported, importedCss);
 		output = buildCss(new StringResource(css, resuri));
 		Assert.assertEquals(".background-image:url(subdir/images/img.jpg);", output);
 
 		importedCss = "/* Importe file */\r\n\r\n.background-image:  url( images/../images/img.jpg );";
-		CopyUtil.copy(importedCss, new FileWriter(imported));
+		writeFile(imported, importedCss);
 		output = buildCss(new StringResource(css, resuri));
 		Assert.assertEquals(".background-image:url(subdir/images/img.jpg);", output);
 
 		importedCss = "/* Importe file */\r\n\r\n.background-image:  url( '/images/img.jpg' );";
-		CopyUtil.copy(importedCss, new FileWriter(imported));
+		writeFile(imported, importedCss);
 		output = buildCss(new StringResource(css, resuri));
 		Assert.assertEquals(".background-image:url('/images/img.jpg');", output);
 
 		importedCss = "/* Importe file */\r\n\r\n.background-image:  url( 'http://server.com/images/img.jpg' );";
-		CopyUtil.copy(importedCss, new FileWriter(imported));
+		writeFile(imported, importedCss);
 		output = buildCss(new StringResource(css, resuri));
 		Assert.assertEquals(".background-image:url('http://server.com/images/img.jpg');", output);
 
 		importedCss = "/* Importe file */\r\n\r\n.background-image:  url( '#images/img.jpg' );";
-		CopyUtil.copy(importedCss, new FileWriter(imported));
+		writeFile(imported, importedCss);
 		output = buildCss(new StringResource(css, resuri));
 		Assert.assertEquals(".background-image:url('#images/img.jpg');", output);
 
@@ -575,6 +580,45 @@ public class CSSModuleBuilderTest extends EasyMock {
 		Assert.assertEquals("txt:0:1;css:1:1:1", KeyGenUtil.generateKey(mockRequest, keyGens));
 	}
 
+	@Test
+	public void testImportedFragments() throws Exception {
+		URI resuri = testdir.toURI();
+		configScript.put(CSSModuleBuilder.INLINEIMPORTS_CONFIGPARAM, configScript, "true");
+		IConfig config = new ConfigImpl(mockAggregator, tmpdir.toURI(), configScript);
+		builder.configLoaded(config, seq++);
+		File subdir = new File(testdir, "fragments");
+		subdir.mkdir();
+		File imported = new File(subdir, "imported.css");
+		File nested = new File(subdir, "nested.css");
+		writeFile(nested, ".nested{color:red}");
+		writeFile(imported, "@import \"nested.css\";\r\n.imported{color:black}");
+		String css = "@import \"fragments/imported.css\";";
+		String css2 = "@import \"fragments/imported.css\";.importer2{color:blue}";
+		Assert.assertEquals(".nested{color:red}.imported{color:black}", buildCss(new StringResource(css, resuri)));
+		Assert.assertEquals(".nested{color:red}.imported{color:black}.importer2{color:blue}", buildCss(new StringResource(css2, resuri)));
+
+		// Processed imports are re-used until one of the files in the import graph changes
+		writeFile(nested, ".nested{color:green}");
+		Assert.assertEquals(".nested{color:green}.imported{color:black}", buildCss(new StringResource(css, resuri)));
+		writeFile(imported, ".imported{color:white}");
+		Assert.assertEquals(".imported{color:white}.importer2{color:blue}", buildCss(new StringResource(css2, resuri)));
+
+		// Cache key generators for built stylesheets depend only on the applicable request parameters
+		ModuleBuild build = builder.build("test", new StringResource(".foo{color:red}", resuri), mockRequest, keyGens);
+		Assert.assertEquals("[txt, css:noImports:noImages]", build.getCacheKeyGenerators().toString());
+		Assert.assertEquals("txt:0:0;css:-:-:-", KeyGenUtil.generateKey(mockRequest, build.getCacheKeyGenerators()));
+		build = builder.build("test", new StringResource(css, resuri), mockRequest, keyGens);
+		Assert.assertEquals("[txt, css:noImages]", build.getCacheKeyGenerators().toString());
+		Assert.assertEquals("txt:0:0;css:0:-:0", KeyGenUtil.generateKey(mockRequest, build.getCacheKeyGenerators()));
+		writeFile(new File(subdir, "img.png"), "image data");
+		configScript.put(CSSModuleBuilder.SIZETHRESHOLD_CONFIGPARAM, configScript, "1000");
+		config = new ConfigImpl(mockAggregator, tmpdir.toURI(), configScript);
+		builder.configLoaded(config, seq++);
+		build = builder.build("test", new StringResource(".foo{background:url(fragments/img.png)}", resuri), mockRequest, keyGens);
+		Assert.assertEquals("[txt, css:noImports]", build.getCacheKeyGenerators().toString());
+		Assert.assertFalse(KeyGenUtil.isProvisional(build.getCacheKeyGenerators()));
+	}
+
 	@Test
 	public void testToRegexp() {
 		CSSModuleBuilder builder = new CSSModuleBuilder() {
@@ -636,6 +680,16 @@ public class CSSModuleBuilderTest extends EasyMock {
 		Assert.assertEquals(".imported{color:black}", output);
 	}
 
+	/*
+	 * Writes the file and advances its last-modified time, so that the change is detected
+	 * even when the file is re-written within the file system's timestamp resolution.
+	 */
+	private void writeFile(File file, String content) throws IOException {
+		CopyUtil.copy(content, new FileWriter(file));
+		lastModified = Math.max(lastModified + 1000, file.lastModified());
+		file.setLastModified(lastModified);
+	}
+
 	private String buildCss(IResource css) throws Exception {
 		Reader reader = builder.getContentReader("test", css, mockRequest, keyGens);
 		StringWriter writer = new StringWriter();
@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.css;
+
+import com.ibm.jaggr.core.resource.StringResource;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+
+public class InlinedImageCacheTest {
+
+	private static final URI IMAGE_URI = URI.create("file:/images/image.png");
+
+	@Test
+	public void testGetBase64() throws Exception {
+		InlinedImageCache cache = new InlinedImageCache();
+		String base64 = cache.getBase64(new StringResource("image data", IMAGE_URI, 1), 100);
+		Assert.assertEquals("image data", new String(Base64.decodeBase64(base64), "UTF-8"));
+		Assert.assertEquals(1, cache.size());
+
+		// Cached data is returned for the same URI and last-modified time
+		Assert.assertSame(base64, cache.getBase64(new StringResource("other data", IMAGE_URI, 1), 100));
+
+		// Image is re-read when it has been modified
+		base64 = cache.getBase64(new StringResource("new data", IMAGE_URI, 2), 100);
+		Assert.assertEquals("new data", new String(Base64.decodeBase64(base64), "UTF-8"));
+		Assert.assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testMaxSize() throws Exception {
+		InlinedImageCache cache = new InlinedImageCache();
+		Assert.assertNull(cache.getBase64(new StringResource("image data", IMAGE_URI, 1), 5));
+		Assert.assertEquals(1, cache.size());
+		// Known to be too large without reading the image
+		Assert.assertNull(cache.getBase64(new StringResource("", IMAGE_URI, 1), 5));
+
+		// Larger max size reads the image
+		String base64 = cache.getBase64(new StringResource("image data", IMAGE_URI, 1), 10);
+		Assert.assertEquals("image data", new String(Base64.decodeBase64(base64), "UTF-8"));
+		Assert.assertNull(cache.getBase64(new StringResource("image data", IMAGE_URI, 1), 9));
+		Assert.assertSame(base64, cache.getBase64(new StringResource("", IMAGE_URI, 1), 10));
+	}
+
+	@Test
+	public void testCapacity() throws Exception {
+		// "image data" encodes to 16 base64 chars
+		InlinedImageCache cache = new InlinedImageCache(40);
+		for (int i = 0; i < 5; i++) {
+			cache.getBase64(new StringResource("image data", URI.create("file:/images/image" + i + ".png"), 1), 100);
+		}
+		Assert.assertEquals(2, cache.size());
+	}
+}
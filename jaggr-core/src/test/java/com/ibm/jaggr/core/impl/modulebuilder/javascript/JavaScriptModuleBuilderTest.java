@@ -43,6 +43,7 @@ import com.ibm.jaggr.core.test.TestUtils;
 import com.ibm.jaggr.core.test.TestUtils.Ref;
 import com.ibm.jaggr.core.transport.IHttpTransport;
 import com.ibm.jaggr.core.transport.IHttpTransport.OptimizationLevel;
+import com.ibm.jaggr.core.util.AstCache;
 import com.ibm.jaggr.core.util.BooleanTerm;
 import com.ibm.jaggr.core.util.ConcurrentListBuilder;
 import com.ibm.jaggr.core.util.CopyUtil;
@@ -139,6 +140,8 @@ public class JavaScriptModuleBuilderTest extends EasyMock {
 
 		}).anyTimes();
 		expect(mockDependencies.getLastModified()).andReturn(0L).anyTimes();
+		expect(mockDependencies.getSnapshotSequence()).andReturn(0L).anyTimes();
+		expect(mockDependencies.getDependencyGraph()).andReturn(null).anyTimes();
 		mockTransport = EasyMock.createMock(IHttpTransport.class);
 		mockAggregator = TestUtils.createMockAggregator(configRef, tmpdir, null, null, mockTransport);
 		mockRequest = TestUtils.createMockRequest(mockAggregator, requestAttributes);
@@ -360,6 +363,34 @@ public class JavaScriptModuleBuilderTest extends EasyMock {
 		future.get();
 	}
 
+	@Test
+	public void testBuildWithAstCache() throws Exception {
+		TestUtils.createTestFiles(tmpdir);
+		URI uri = new File(tmpdir, "/p1/p1.js").toURI();
+		AstCache astCache = mockAggregator.getCacheManager().getAstCache();
+		Features features = new Features();
+		features.put("conditionTrue", true);
+		features.put("conditionFalse", false);
+		for (OptimizationLevel level : new OptimizationLevel[]{OptimizationLevel.WHITESPACE, OptimizationLevel.SIMPLE}) {
+			requestAttributes.put(IHttpTransport.OPTIMIZATIONLEVEL_REQATTRNAME, level);
+			for (Features f : new Features[]{new Features(), features}) {
+				requestAttributes.put(IHttpTransport.FEATUREMAP_REQATTRNAME, f);
+				astCache.setCapacity(0);
+				String expected = buildModule(new JsModuleTester("p1/p1", uri));
+
+				// Parse the source and add the AST to the cache
+				astCache.setCapacity(1);
+				astCache.clear();
+				assertEquals(expected, buildModule(new JsModuleTester("p1/p1", uri)));
+
+				// Compile a copy of the cached AST
+				long hits = astCache.getHitCount();
+				assertEquals(expected, buildModule(new JsModuleTester("p1/p1", uri)));
+				assertEquals(hits + 1, astCache.getHitCount());
+			}
+		}
+	}
+
 	/* This should really be moved to ModuleImplTest */
 	@Test
 	public void testGetModuleId() throws URISyntaxException {
@@ -919,6 +950,12 @@ public class JavaScriptModuleBuilderTest extends EasyMock {
 	/**
 	 * Tester class that extends JavaScriptModuleBuilder to expose protected methods for testing
 	 */
+	private String buildModule(JsModuleTester module) throws Exception {
+		StringWriter writer = new StringWriter();
+		CopyUtil.copy(module.getBuild(mockRequest).get(), writer);
+		return writer.toString();
+	}
+
 	private static class JsModuleTester extends ModuleImpl {
 		private static final long serialVersionUID = 1L;
 
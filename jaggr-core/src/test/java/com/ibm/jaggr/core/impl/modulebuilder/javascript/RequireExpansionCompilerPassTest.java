@@ -88,6 +88,8 @@ public class RequireExpansionCompilerPassTest extends EasyMock {
 					}
 				}).anyTimes();
 		expect(mockDependencies.getLastModified()).andReturn(0L).anyTimes();
+		expect(mockDependencies.getSnapshotSequence()).andReturn(0L).anyTimes();
+		expect(mockDependencies.getDependencyGraph()).andReturn(null).anyTimes();
 		replay(mockAggregator);
 		replay(mockDependencies);
 	}
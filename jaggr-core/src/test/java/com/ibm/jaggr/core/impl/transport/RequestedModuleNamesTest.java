@@ -17,6 +17,8 @@ package com.ibm.jaggr.core.impl.transport;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -31,19 +33,18 @@ import com.ibm.jaggr.core.util.TypeUtil;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.ArrayUtils;
-import org.apache.wink.json4j.JSONObject;
 import org.easymock.EasyMock;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -351,22 +352,29 @@ public class RequestedModuleNamesTest {
 		EasyMock.replay(request);
 		RequestedModuleNames requestedNames = new RequestedModuleNames(request, null, null);
 		// basic folded paths  with no plugin prefixes
-		JSONObject obj = new JSONObject("{foo:{bar:'0', baz:{xxx:'2', yyy:'1'}}, dir:'3'}");
-		Map<Integer, String> paths = new TreeMap<Integer, String>();
-		requestedNames.unfoldModules(obj, paths);
-		Assert.assertArrayEquals(new String[] {"foo/bar", "foo/baz/yyy", "foo/baz/xxx", "dir" }, paths.values().toArray());
+		RequestedModuleNames.ModuleNameArray paths = new RequestedModuleNames.ModuleNameArray(4, 4);
+		requestedNames.unfoldModules("(foo!(bar!0*baz!(xxx!2*yyy!1))*dir!3)", paths);
+		Assert.assertEquals(Arrays.asList("foo/bar", "foo/baz/yyy", "foo/baz/xxx", "dir"), paths.toList());
 
 		// folded paths with plugin prefixes
-		obj = new JSONObject("{'"+RequestedModuleNames.PLUGIN_PREFIXES_PROP_NAME+"':{'combo/text':'0', abc:'1'},foo:{bar:'0', baz:{xxx.txt:'1-0', yyy.txt:'2-1'}}}");
-		paths = new TreeMap<Integer, String>();
-		requestedNames.unfoldModules(obj, paths);
-		Assert.assertArrayEquals(new String[] {"foo/bar",  "combo/text!foo/baz/xxx.txt", "abc!foo/baz/yyy.txt"}, paths.values().toArray());
+		paths = new RequestedModuleNames.ModuleNameArray(3, 3);
+		requestedNames.unfoldModules("("+RequestedModuleNames.PLUGIN_PREFIXES_PROP_NAME+"!(abc!1*combo/text!0)*foo!(bar!0*baz!(xxx.txt!1-0*yyy.txt!2-1)))", paths);
+		Assert.assertEquals(Arrays.asList("foo/bar",  "combo/text!foo/baz/xxx.txt", "abc!foo/baz/yyy.txt"), paths.toList());
+
+		// plugin prefixes following the paths that use them
+		paths = new RequestedModuleNames.ModuleNameArray(3, 3);
+		requestedNames.unfoldModules("(.foo!(bar!0*baz!(xxx.txt!1-0*yyy.txt!2-1))*"+RequestedModuleNames.PLUGIN_PREFIXES_PROP_NAME+"!(abc!1*combo/text!0))", paths);
+		Assert.assertEquals(Arrays.asList(".foo/bar",  "combo/text!.foo/baz/xxx.txt", "abc!.foo/baz/yyy.txt"), paths.toList());
 
 		// make sure legacy format for specifying plugin prefixes works
-		obj = new JSONObject("{foo:{bar:'0', baz:{xxx.txt:'1-combo/text', yyy.txt:'2-abc'}}}");
-		paths = new TreeMap<Integer, String>();
-		requestedNames.unfoldModules(obj, paths);
-		Assert.assertArrayEquals(new String[] {"foo/bar",  "combo/text!foo/baz/xxx.txt", "abc!foo/baz/yyy.txt"}, paths.values().toArray());
+		paths = new RequestedModuleNames.ModuleNameArray(3, 3);
+		requestedNames.unfoldModules("(foo!(bar!0*baz!(xxx.txt!1-combo/text*yyy.txt!2-abc)))", paths);
+		Assert.assertEquals(Arrays.asList("foo/bar",  "combo/text!foo/baz/xxx.txt", "abc!foo/baz/yyy.txt"), paths.toList());
+
+		// other non-path properties are ignored
+		paths = new RequestedModuleNames.ModuleNameArray(1, 1);
+		requestedNames.unfoldModules("(/x/!(a!(b!0))*foo!0)", paths);
+		Assert.assertEquals(Arrays.asList("foo"), paths.toList());
 	}
 
 	@Test
@@ -374,12 +382,73 @@ public class RequestedModuleNamesTest {
 		HttpServletRequest request = TestUtils.createMockRequest(null);
 		EasyMock.replay(request);
 		RequestedModuleNames requestedNames = new RequestedModuleNames(request, null, null);
-		JSONObject decoded = requestedNames.decodeModules("(foo!(bar!0*baz!(<|xxx>!2*yyy!1))*dir!3)");
-		Assert.assertEquals(new JSONObject("{foo:{bar:'0',baz:{'(!xxx)':'2',yyy:'1'}},dir:'3'}"), decoded);
-
-		decoded = requestedNames.decodeModules("("+RequestedModuleNames.PLUGIN_PREFIXES_PROP_NAME+"!(combo/text!0*abc!1)*foo!(bar!0*baz!(xxx.txt!1-0*yyy.txt!2-1)))");
-		Assert.assertEquals(new JSONObject("{'"+RequestedModuleNames.PLUGIN_PREFIXES_PROP_NAME+"':{'combo/text':'0', abc:'1'},foo:{bar:'0', baz:{xxx.txt:'1-0', yyy.txt:'2-1'}}}"), decoded);
+		List<String> decoded = requestedNames.decodeModules("(foo!(bar!0*baz!(<|xxx>!2*yyy!1))*dir!3)", null, false, 4, 4);
+		Assert.assertEquals(Arrays.asList("foo/bar", "foo/baz/yyy", "foo/baz/(!xxx)", "dir"), decoded);
+
+		decoded = requestedNames.decodeModules("(\"\"!(a!0)*foo!(bar-1!1))", null, false, 2, 2);
+		Assert.assertEquals(Arrays.asList("/a", "foo/bar-1"), decoded);
+
+		// invalid encodings
+		String[] invalid = new String[] {
+				"(foo!(bar!0)",			// unbalanced
+				"(foo!(bar!0)))",		// trailing text
+				"(foo!(bar!x))",		// non-numeric position
+				"(foo!(bar!0*!1))",		// empty key
+				"(foo!0*bar!0)",		// duplicate position
+				"(foo!1)",				// empty slot
+				"(foo!5)",				// position out of range
+				"(/pre/!(abc!3)*foo!0-0)",	// invalid prefix ordinal
+				"(/pre/!(abc!0)*foo!0-1)",	// undefined prefix
+		};
+		for (String encoded : invalid) {
+			try {
+				requestedNames.decodeModules(encoded, null, false, 2, 2);
+				fail("Expected exception for " + encoded);
+			} catch (BadRequestException expected) {}
+		}
+	}
 
+	@Test
+	public void testDecodedModuleNamesCache() throws Exception {
+		IAggregator mockAggregator = TestUtils.createMockAggregator();
+		Map<String, Object> requestAttributes = new HashMap<String, Object>();
+		Map<String, String[]> requestParams = new HashMap<String, String[]>();
+		HttpServletRequest request = TestUtils.createMockRequest(mockAggregator, requestAttributes, requestParams, null, null);
+		EasyMock.replay(mockAggregator, request);
+		DecodedModuleNamesCache cache = new DecodedModuleNamesCache();
+		List<String> idList = Arrays.asList("", "foo/a", "foo/b");
+		byte[] hash = new byte[]{1, 2, 3};
+		// hash, 16-bit flag, then slot 2, one module id, "foo/b"
+		byte[] encoded = new byte[]{1, 2, 3, 0, 0, 2, 0, 1, 0, 2};
+		requestParams.put(AbstractHttpTransport.REQUESTEDMODULES_REQPARAM, new String[]{"(foo!(a!1*c!0))"});
+		requestParams.put(AbstractHttpTransport.REQUESTEDMODULEIDS_REQPARAM, new String[]{Base64.encodeBase64URLSafeString(encoded)});
+		requestParams.put(AbstractHttpTransport.REQUESTEDMODULESCOUNT_REQPARAM, new String[]{"3"});
+		requestParams.put(AbstractHttpTransport.EXCLUDEENC_REQPARAM, new String[]{"(foo!(ex!0))"});
+		RequestedModuleNames requestedNames = new RequestedModuleNames(request, idList, hash, cache);
+		List<String> modules = requestedNames.getModules();
+		List<String> excludes = requestedNames.getExcludes();
+		assertEquals(Arrays.asList("foo/c", "foo/a", "foo/b"), modules);
+		assertEquals(Arrays.asList("foo/ex"), excludes);
+		assertEquals(2, cache.size());
+
+		// requests with the same params get the cached lists
+		requestedNames = new RequestedModuleNames(request, idList, hash, cache);
+		assertSame(modules, requestedNames.getModules());
+		assertSame(excludes, requestedNames.getExcludes());
+
+		// cached lists aren't used with a different id list
+		List<String> newIdList = new ArrayList<String>(idList);
+		requestedNames = new RequestedModuleNames(request, newIdList, hash, cache);
+		assertNotSame(modules, requestedNames.getModules());
+		assertEquals(modules, requestedNames.getModules());
+
+		// count param is validated against the cached list
+		requestParams.put(AbstractHttpTransport.REQUESTEDMODULESCOUNT_REQPARAM, new String[]{"4"});
+		try {
+			new RequestedModuleNames(request, newIdList, hash, cache);
+			fail("Expected exception");
+		} catch (BadRequestException ex) {
+		}
 	}
 
 	@Test
@@ -423,7 +492,7 @@ public class RequestedModuleNamesTest {
 		}
 		byte[] encoded = ArrayUtils.addAll(ArrayUtils.addAll(hash, new byte[]{0}), bytes);
 		System.out.println(encoded);
-		Map<Integer, String> resultArray = new TreeMap<Integer, String>();
+		RequestedModuleNames.ModuleNameArray resultArray = new RequestedModuleNames.ModuleNameArray(11, 11);
 
 		Ref<IConfig> configRef = new Ref<IConfig>(null);
 		File tmpDir = new File(System.getProperty("user.dir"));
@@ -457,7 +526,7 @@ public class RequestedModuleNamesTest {
 		requestParameters.put(AbstractHttpTransport.REQUESTEDMODULEIDS_REQPARAM, new String[]{Base64.encodeBase64URLSafeString(encoded)});
 		requestParameters.put(AbstractHttpTransport.REQUESTEDMODULESCOUNT_REQPARAM, new String[]{"5"});
 		requestedModules = new RequestedModuleNames(mockRequest, Arrays.asList(idList), hash);
-		resultArray = new TreeMap<Integer, String>();
+		resultArray = new RequestedModuleNames.ModuleNameArray(13, 13);
 		requestedModules.decodeModuleIds(encoded, resultArray, true);
 		Assert.assertEquals(5, resultArray.size());
 		Assert.assertEquals("module1", resultArray.get(3));
@@ -471,7 +540,7 @@ public class RequestedModuleNamesTest {
 			encoded = ArrayUtils.addAll(new byte[]{3, 2, 1}, bytes);
 			requestParameters.put(AbstractHttpTransport.REQUESTEDMODULEIDS_REQPARAM, new String[]{Base64.encodeBase64URLSafeString(encoded)});
 			requestedModules = new RequestedModuleNames(mockRequest, Arrays.asList(idList), hash);
-			requestedModules.decodeModuleIds(encoded, new TreeMap<Integer, String>(), true);
+			requestedModules.decodeModuleIds(encoded, new RequestedModuleNames.ModuleNameArray(13, 13), true);
 			fail("Expected exception");
 		} catch (BadRequestException ex) {
 
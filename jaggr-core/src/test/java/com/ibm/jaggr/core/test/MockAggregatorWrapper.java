@@ -25,6 +25,7 @@ import com.ibm.jaggr.core.cache.ICacheManager;
 import com.ibm.jaggr.core.cache.IGzipCache;
 import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.deps.IDependencies;
+import com.ibm.jaggr.core.encoding.IContentEncoding;
 import com.ibm.jaggr.core.executors.IExecutors;
 import com.ibm.jaggr.core.layer.ILayerCache;
 import com.ibm.jaggr.core.module.IModule;
@@ -185,6 +186,11 @@ public class MockAggregatorWrapper implements IAggregator {
 		return mock.getPlatformServices();
 	}
 
+	@Override
+	public List<IContentEncoding> getContentEncodings() {
+		return mock.getContentEncodings();
+	}
+
 	@Override
 	public IResourceFactory getResourceFactory(Mutable<URI> uri) {
 		return mock.getResourceFactory(uri);
@@ -0,0 +1,107 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.util;
+
+import com.ibm.jaggr.core.IAggregator;
+import com.ibm.jaggr.core.cache.ICacheManager;
+import com.ibm.jaggr.core.options.IOptions;
+
+import com.google.javascript.jscomp.JSSourceFile;
+import com.google.javascript.rhino.Node;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+
+public class AstCacheTest {
+
+	private static final String code = "define(['b'], function(b) {});";
+
+	private AstCache cache;
+	private URI uri;
+
+	@Before
+	public void setup() throws Exception {
+		cache = new AstCache(1);
+		uri = new URI("file:/c:/a.js");
+	}
+
+	@Test
+	public void testGetPut() throws Exception {
+		JSSourceFile source = JSSourceFile.fromCode("a.js", code);
+		Assert.assertNull(cache.get(uri, 1L, source));
+		Assert.assertEquals(1, cache.getMissCount());
+
+		Node root = CompilerUtil.parse(source);
+		cache.put(uri, 1L, source, root);
+
+		// A different source file object with the same code gets a copy that references it
+		JSSourceFile source2 = JSSourceFile.fromCode("a.js", code);
+		Node copy = cache.get(uri, 1L, source2);
+		Assert.assertNotNull(copy);
+		Assert.assertNotSame(root, copy);
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertNull(root.checkTreeEquals(copy));
+		Assert.assertSame(source2, copy.getFirstChild().getStaticSourceFile());
+
+		// Modifying the copy doesn't affect the cached AST
+		copy.removeChildren();
+		copy = cache.get(uri, 1L, source2);
+		Assert.assertNull(root.checkTreeEquals(copy));
+
+		// Stale last-modified
+		Assert.assertNull(cache.get(uri, 2L, source2));
+		// Transformed code
+		Assert.assertNull(cache.get(uri, 1L,
+				JSSourceFile.fromCode("a.js", code.replace("'b'", "'c'"))));
+	}
+
+	@Test
+	public void testCapacity() throws Exception {
+		JSSourceFile source = JSSourceFile.fromCode("a.js", code);
+		cache.put(uri, 1L, source, CompilerUtil.parse(source));
+		Assert.assertTrue(cache.isEnabled());
+
+		// Disabling the cache evicts the cached ASTs
+		cache.setCapacity(0);
+		Assert.assertFalse(cache.isEnabled());
+		Assert.assertNull(cache.get(uri, 1L, source));
+
+		cache.setCapacity(1);
+		Assert.assertTrue(cache.isEnabled());
+		cache.put(uri, 1L, source, CompilerUtil.parse(source));
+		Assert.assertNotNull(cache.get(uri, 1L, source));
+	}
+
+	@Test
+	public void testGetInstance() throws Exception {
+		ICacheManager mockCacheMgr = EasyMock.createMock(ICacheManager.class);
+		EasyMock.expect(mockCacheMgr.getAstCache()).andReturn(cache).anyTimes();
+		IAggregator mockAggregator = EasyMock.createNiceMock(IAggregator.class);
+		EasyMock.expect(mockAggregator.getCacheManager()).andReturn(mockCacheMgr).anyTimes();
+		EasyMock.replay(mockCacheMgr, mockAggregator);
+		Assert.assertSame(cache, AstCache.getInstance(mockAggregator));
+
+		cache.setCapacity(0);
+		Assert.assertNull(AstCache.getInstance(mockAggregator));
+
+		// The cache is disabled by default
+		Assert.assertFalse(new AstCache(IOptions.DEFAULT_AST_CACHE_CAPACITY_MB).isEnabled());
+	}
+}
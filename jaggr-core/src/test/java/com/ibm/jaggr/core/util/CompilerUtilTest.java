@@ -0,0 +1,45 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.util;
+
+import com.google.javascript.jscomp.JSSourceFile;
+import com.google.javascript.rhino.Node;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompilerUtilTest {
+
+	@Test
+	public void testParse() throws Exception {
+		CompilerUtil.ParseStats stats = new CompilerUtil.ParseStats();
+		Node node = CompilerUtil.parse(JSSourceFile.fromCode("a.js", "define(['b'], function(b) {});"), null, stats);
+		Assert.assertNotNull(node);
+		long reuseCount = stats.getParserReuseCount();
+
+		// Parse errors don't prevent the parser from being reused
+		CompilerUtil.parse(JSSourceFile.fromCode("bad.js", "define(['b'], function(b) {"), null, stats);
+		Assert.assertEquals(reuseCount + 1, stats.getParserReuseCount());
+
+		// Parses that aren't passed the statistics aren't counted in them
+		CompilerUtil.parse(JSSourceFile.fromCode("e.js", "define([], function() {});"));
+		Assert.assertEquals(reuseCount + 1, stats.getParserReuseCount());
+
+		node = CompilerUtil.parse(JSSourceFile.fromCode("c.js", "define(['d'], function(d) {});"), null, stats);
+		Assert.assertEquals(reuseCount + 2, stats.getParserReuseCount());
+		Assert.assertEquals("d", node.getFirstChild().getFirstChild().getFirstChild().getNext().getFirstChild().getString());
+	}
+}
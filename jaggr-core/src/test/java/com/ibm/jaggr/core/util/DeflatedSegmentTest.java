@@ -0,0 +1,88 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+public class DeflatedSegmentTest {
+
+	@Test
+	public void testCombineCrc() throws Exception {
+		byte[] a = "define('a',[],function(){return 'a';});".getBytes("UTF-8");
+		byte[] b = "define('b',['a'],function(a){return a+'b';});".getBytes("UTF-8");
+		CRC32 crc = new CRC32();
+		crc.update(a);
+		long crcA = crc.getValue();
+		crc.reset();
+		crc.update(b);
+		long crcB = crc.getValue();
+		crc.reset();
+		crc.update(a);
+		crc.update(b);
+		Assert.assertEquals(crc.getValue(), DeflatedSegment.combineCrc(crcA, crcB, b.length));
+		Assert.assertEquals(crcA, DeflatedSegment.combineCrc(crcA, 0, 0));
+		Assert.assertEquals(crcB, DeflatedSegment.combineCrc(0, crcB, b.length));
+	}
+
+	@Test
+	public void testWriteGZIP() throws Exception {
+		if (!DeflatedSegment.isSupported()) {
+			return;
+		}
+		StringBuffer expected = new StringBuffer();
+		List<DeflatedSegment> segments = new ArrayList<DeflatedSegment>();
+		for (int i = 0; i < 10; i++) {
+			StringBuffer sb = new StringBuffer();
+			for (int j = 0; j < i * 1000; j++) {
+				sb.append("segment ").append(i).append(" line ").append(j).append("\u00e9\r\n");
+			}
+			expected.append(sb);
+			DeflatedSegment segment = DeflatedSegment.deflate(sb.toString());
+			Assert.assertEquals(sb.toString().getBytes("UTF-8").length, segment.getLength());
+			segments.add(segment);
+		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DeflatedSegment.writeGZIP(bos, segments);
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		Assert.assertEquals(expected.toString(), IOUtils.toString(in, "UTF-8"));
+
+		// Same segment used more than once
+		segments = new ArrayList<DeflatedSegment>();
+		segments.add(DeflatedSegment.deflate("foo"));
+		segments.add(DeflatedSegment.deflate("bar"));
+		segments.add(segments.get(0));
+		bos = new ByteArrayOutputStream();
+		DeflatedSegment.writeGZIP(bos, segments);
+		in = new GZIPInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		Assert.assertEquals("foobarfoo", IOUtils.toString(in, "UTF-8"));
+
+		// No segments
+		bos = new ByteArrayOutputStream();
+		DeflatedSegment.writeGZIP(bos, Collections.<DeflatedSegment>emptyList());
+		in = new GZIPInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		Assert.assertEquals("", IOUtils.toString(in, "UTF-8"));
+	}
+}
@@ -26,6 +26,7 @@ import static org.junit.Assert.assertTrue;
 import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.deps.IDependencies;
+import com.ibm.jaggr.core.deps.ModuleDepGraph;
 import com.ibm.jaggr.core.deps.ModuleDepInfo;
 import com.ibm.jaggr.core.deps.ModuleDeps;
 import com.ibm.jaggr.core.impl.config.ConfigImpl;
@@ -57,6 +58,7 @@ public class DependencyListTest {
 	Map<String, String[]> moduleDeps;
 	Set<String> dependentFeatures;
 	Features features;
+	ModuleDepGraph depGraph;
 
 	@Before
 	public void setup() throws Exception {
@@ -69,6 +71,7 @@ public class DependencyListTest {
 		features = new Features();
 		expect(mockAggregator.getDependencies()).andReturn(mockDependencies).anyTimes();
 		expect(mockDependencies.getLastModified()).andReturn(0L).anyTimes();
+		expect(mockDependencies.getSnapshotSequence()).andReturn(0L).anyTimes();
 		expect(mockDependencies.getDelcaredDependencies(isA(String.class))).andAnswer(new IAnswer<List<String>>() {
 			@Override public List<String> answer() throws Throwable {
 				String name = (String)getCurrentArguments()[0];
@@ -76,6 +79,11 @@ public class DependencyListTest {
 				return result != null ? Arrays.asList(result) : null;
 			}
 		}).anyTimes();
+		expect(mockDependencies.getDependencyGraph()).andAnswer(new IAnswer<ModuleDepGraph>() {
+			@Override public ModuleDepGraph answer() throws Throwable {
+				return depGraph;
+			}
+		}).anyTimes();
 		replay(mockAggregator, mockDependencies);
 		configRef.set(new ConfigImpl(mockAggregator, tmpDir, "{}"));
 	}
@@ -160,4 +168,55 @@ public class DependencyListTest {
 		assertEquals(new HashSet<String>(Arrays.asList(new String[]{"has!test?has", "has!test?foo/dep2"})),depList.getExpandedDeps().getModuleIds());
 		assertEquals(new HashSet<String>(Arrays.asList(new String[]{"test", "yyy", "zzz"})), depList.getDependentFeatures());
 	}
+
+	@Test
+	public void testExpandedDepsWithDepGraph() throws Exception {
+		configRef.set(new ConfigImpl(mockAggregator, tmpDir, "{aliases:[['foo/alias','foo/dep3']], packages:[{name:'pkg', location:'pkg'}]}"));
+		Set<String> names = new HashSet<String>(Arrays.asList(new String[]{"has!test?foo/test", "bar/test"}));
+		moduleDeps.put("foo/test", new String[]{"has!zzz?foo/dep1", "foo/dep2", "foo/alias"});
+		moduleDeps.put("foo/dep2", new String[]{"pkg", "bar/test"});
+		moduleDeps.put("bar/test", new String[]{"foo/dep2"});
+		DependencyList expected = new DependencyList("test", names, mockAggregator, features, true, false);
+		depGraph = createDepGraph();
+		DependencyList depList = new DependencyList("test", names, mockAggregator, features, true, false);
+		assertEquals(expected.getExplicitDeps(), depList.getExplicitDeps());
+		assertEquals(expected.getExpandedDeps(), depList.getExpandedDeps());
+		assertEquals(expected.getDependentFeatures(), depList.getDependentFeatures());
+		assertEquals(new HashSet<String>(Arrays.asList(new String[]{"has!test?has", "has!test?zzz?foo/dep1", "foo/dep2", "has!test?foo/dep3", "pkg/main", "bar/test"})),depList.getExpandedDeps().getModuleIds());
+	}
+
+	@Test
+	public void testCachedClosures() throws Exception {
+		moduleDeps.put("foo/test", new String[]{"has!zzz?foo/dep1", "foo/dep2"});
+		moduleDeps.put("bar/test", new String[]{"foo/dep2", "bar/dep"});
+		moduleDeps.put("foo/dep2", new String[]{"foo/dep3"});
+		depGraph = createDepGraph();
+		DependencyList depList = new DependencyList("test", Arrays.asList(new String[]{"foo/test"}), mockAggregator, features, true, false);
+		assertEquals(new HashSet<String>(Arrays.asList(new String[]{"has", "has!zzz?foo/dep1", "foo/dep2", "foo/dep3"})),depList.getExpandedDeps().getModuleIds());
+		assertEquals(new HashSet<String>(Arrays.asList(new String[]{"zzz"})), depList.getDependentFeatures());
+		assertEquals(1, depGraph.getClosureCache().size());
+
+		// The cached closure for foo/test is combined with the new closure for bar/test
+		depList = new DependencyList("test", Arrays.asList(new String[]{"foo/test", "bar/test"}), mockAggregator, features, true, false);
+		assertEquals(new HashSet<String>(Arrays.asList(new String[]{"has", "has!zzz?foo/dep1", "foo/dep2", "foo/dep3", "bar/dep"})),depList.getExpandedDeps().getModuleIds());
+		assertEquals(new HashSet<String>(Arrays.asList(new String[]{"zzz"})), depList.getDependentFeatures());
+		assertEquals(2, depGraph.getClosureCache().size());
+
+		// Conditioned modules are expanded without using the cache
+		depList = new DependencyList("test", Arrays.asList(new String[]{"has!test?foo/test"}), mockAggregator, features, true, false);
+		assertEquals(new HashSet<String>(Arrays.asList(new String[]{"has!test?has", "has!test?zzz?foo/dep1", "has!test?foo/dep2", "has!test?foo/dep3"})),depList.getExpandedDeps().getModuleIds());
+		assertEquals(3, depGraph.getClosureCache().size());
+
+		// A new graph starts with an empty cache
+		depGraph = createDepGraph();
+		assertEquals(0, depGraph.getClosureCache().size());
+	}
+
+	private ModuleDepGraph createDepGraph() {
+		Map<String, List<String>> declaredDeps = new HashMap<String, List<String>>();
+		for (Map.Entry<String, String[]> entry : moduleDeps.entrySet()) {
+			declaredDeps.put(entry.getKey(), Arrays.asList(entry.getValue()));
+		}
+		return new ModuleDepGraph(declaredDeps, null, configRef.get());
+	}
 }
@@ -57,6 +57,8 @@ public class DependencyListTest_processDep {
 		mockAggregator = TestUtils.createMockAggregator(configRef, null);
 		mockDependencies = createMock(IDependencies.class);
 		expect(mockDependencies.getLastModified()).andReturn(0L).anyTimes();
+		expect(mockDependencies.getSnapshotSequence()).andReturn(0L).anyTimes();
+		expect(mockDependencies.getDependencyGraph()).andReturn(null).anyTimes();
 		expect(mockDependencies.getDelcaredDependencies("require")).andReturn(Collections.<String>emptyList()).anyTimes();
 		expect(mockAggregator.getDependencies()).andReturn(mockDependencies).anyTimes();
 		replay(mockAggregator, mockDependencies);
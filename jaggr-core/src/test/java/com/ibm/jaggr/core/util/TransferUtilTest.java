@@ -0,0 +1,182 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TransferUtilTest {
+
+	static final OutputStream failingStream = new OutputStream() {
+		@Override public void write(int b) throws IOException {
+			throw new IOException("closed");
+		}
+	};
+
+	/**
+	 * Output stream that is also a channel, like the output streams of some
+	 * servlet containers.  Only the channel interface may be used.
+	 */
+	static class ChannelOutputStream extends OutputStream implements WritableByteChannel {
+		final FileChannel channel;
+		ChannelOutputStream(FileChannel channel) {
+			this.channel = channel;
+		}
+		@Override public void write(int b) throws IOException {
+			throw new AssertionError();
+		}
+		@Override public int write(ByteBuffer src) throws IOException {
+			return channel.write(src);
+		}
+		@Override public boolean isOpen() {
+			return channel.isOpen();
+		}
+		@Override public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	static byte[] createData(int len) {
+		byte[] data = new byte[len];
+		new Random(len).nextBytes(data);
+		return data;
+	}
+
+	@Test
+	public void testTransfer() throws Exception {
+		byte[] data = createData(TransferUtil.BUFFER_SIZE * 3 + 17);
+
+		BulkByteArrayInputStream bulk = new BulkByteArrayInputStream(data);
+		Assert.assertEquals(5, bulk.read(new byte[5]));
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		Assert.assertEquals(data.length - 5, TransferUtil.transfer(bulk, bos));
+		Assert.assertArrayEquals(Arrays.copyOfRange(data, 5, data.length), bos.toByteArray());
+		Assert.assertEquals(-1, bulk.read());
+
+		bos = new ByteArrayOutputStream();
+		Assert.assertEquals(data.length, TransferUtil.transfer(new ByteBufferInputStream(ByteBuffer.wrap(data)), bos));
+		Assert.assertArrayEquals(data, bos.toByteArray());
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data).flip();
+		bos = new ByteArrayOutputStream();
+		Assert.assertEquals(data.length, TransferUtil.transfer(new ByteBufferInputStream(direct), bos));
+		Assert.assertArrayEquals(data, bos.toByteArray());
+
+		bos = new ByteArrayOutputStream();
+		Assert.assertEquals(data.length, TransferUtil.transfer(new ByteArrayInputStream(data), bos));
+		Assert.assertArrayEquals(data, bos.toByteArray());
+
+		File file = File.createTempFile("transfer", ".tmp");
+		try {
+			OutputStream os = new FileOutputStream(file);
+			os.write(data);
+			os.close();
+			InputStream in = new FileInputStream(file);
+			try {
+				Assert.assertEquals(10, in.skip(10));
+				bos = new ByteArrayOutputStream();
+				Assert.assertEquals(data.length - 10, TransferUtil.transfer(in, bos));
+				Assert.assertArrayEquals(Arrays.copyOfRange(data, 10, data.length), bos.toByteArray());
+				Assert.assertEquals(-1, in.read());
+			} finally {
+				in.close();
+			}
+
+			// transferTo is used when the output stream is a channel
+			File target = File.createTempFile("transfer", ".tmp");
+			try {
+				in = new FileInputStream(file);
+				FileOutputStream fos = new FileOutputStream(target);
+				try {
+					Assert.assertEquals(data.length, TransferUtil.transfer(in, new ChannelOutputStream(fos.getChannel())));
+				} finally {
+					fos.close();
+					in.close();
+				}
+				bos = new ByteArrayOutputStream();
+				in = new FileInputStream(target);
+				try {
+					TransferUtil.copy(in, bos);
+				} finally {
+					in.close();
+				}
+				Assert.assertArrayEquals(data, bos.toByteArray());
+			} finally {
+				target.delete();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testWriteException() throws Exception {
+		byte[] data = createData(1000);
+		InputStream[] streams = new InputStream[] {
+				new BulkByteArrayInputStream(data),
+				new ByteBufferInputStream(ByteBuffer.wrap(data)),
+				new ByteBufferInputStream((ByteBuffer)ByteBuffer.allocateDirect(data.length).put(data).flip()),
+				new ByteArrayInputStream(data)
+		};
+		for (InputStream in : streams) {
+			try {
+				TransferUtil.transfer(in, failingStream);
+				Assert.fail(in.getClass().getName());
+			} catch (TransferUtil.WriteException e) {
+				Assert.assertEquals("closed", e.getCause().getMessage());
+			}
+		}
+
+		// exceptions reading the input stream are not wrapped
+		InputStream failingInput = new InputStream() {
+			@Override public int read() throws IOException {
+				throw new IOException("read");
+			}
+		};
+		try {
+			TransferUtil.transfer(failingInput, new ByteArrayOutputStream());
+			Assert.fail();
+		} catch (TransferUtil.WriteException e) {
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertEquals("read", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testBufferPool() throws Exception {
+		byte[] buf = TransferUtil.borrow();
+		Assert.assertEquals(TransferUtil.BUFFER_SIZE, buf.length);
+		TransferUtil.release(buf);
+		Assert.assertSame(buf, TransferUtil.borrow());
+		TransferUtil.release(buf);
+	}
+}
@@ -139,6 +139,9 @@ public class Activator extends Plugin implements BundleActivator {
 	}
 
 	protected IExecutors newExecutors() {
+		// The executors are shared by all of the aggregators.  Each aggregator registers
+		// the executors as a listener for its options when it is initialized, and the
+		// thread pools are sized from those options.
 		return new ExecutorsImpl();
 	}
 
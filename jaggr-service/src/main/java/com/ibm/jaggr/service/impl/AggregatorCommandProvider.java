@@ -17,9 +17,10 @@
 package com.ibm.jaggr.service.impl;
 
 import com.ibm.jaggr.core.IAggregator;
-import com.ibm.jaggr.core.ProcessingDependenciesException;
 import com.ibm.jaggr.core.deps.IDependencies;
 import com.ibm.jaggr.core.deps.ModuleDeps;
+import com.ibm.jaggr.core.executors.ExecutorStats;
+import com.ibm.jaggr.core.executors.IStatisticsProvider;
 import com.ibm.jaggr.core.impl.Messages;
 import com.ibm.jaggr.core.options.IOptions;
 import com.ibm.jaggr.core.util.ConsoleService;
@@ -77,6 +78,7 @@ public class AggregatorCommandProvider implements CommandProvider {
 	static final String CMD_FORCEERROR = "forceerror"; //$NON-NLS-1$
 	static final String CMD_PROCESSREQUEST = "processrequesturl"; //$NON-NLS-1$
 	static final String CMD_CREATECACHEBUNDLE = "createcachebundle"; //$NON-NLS-1$
+	static final String CMD_EXECUTORSTATS = "executorstats"; //$NON-NLS-1$
 	static final String NEWLINE = "\r\n"; //$NON-NLS-1$
 
 	static final String[] COMMANDS = new String[] {
@@ -94,7 +96,8 @@ public class AggregatorCommandProvider implements CommandProvider {
 		CMD_GETDEPSWITHHASBRANCHING,
 		CMD_FORCEERROR,
 		CMD_PROCESSREQUEST,
-		CMD_CREATECACHEBUNDLE
+		CMD_CREATECACHEBUNDLE,
+		CMD_EXECUTORSTATS
 	};
 
 	static final String DEPSOURCE_CONSOLE = "console"; //$NON-NLS-1$
@@ -161,7 +164,10 @@ public class AggregatorCommandProvider implements CommandProvider {
 						new Object[]{EYECATCHER, scopeSep, CMD_CREATECACHEBUNDLE})).append(newline)
 				.append(MessageFormat.format(
 						Messages.CommandProvider_25,
-						new Object[]{EYECATCHER, scopeSep, CMD_PROCESSREQUEST})).append(newline);
+						new Object[]{EYECATCHER, scopeSep, CMD_PROCESSREQUEST})).append(newline)
+				.append(MessageFormat.format(
+						Messages.CommandProvider_30,
+						new Object[]{EYECATCHER, scopeSep, CMD_EXECUTORSTATS})).append(newline);
 
 
 		return sb.toString();
@@ -210,6 +216,8 @@ public class AggregatorCommandProvider implements CommandProvider {
 				ci.println(createCacheBundle(args));
 			} else if (command.equals(CMD_PROCESSREQUEST)) {
 				ci.println(processRequestUrl(args));
+			} else if (command.equals(CMD_EXECUTORSTATS)) {
+				ci.println(getExecutorStats(args));
 			} else {
 				ci.print(getHelp());
 			}
@@ -252,19 +260,12 @@ public class AggregatorCommandProvider implements CommandProvider {
 			try {
 				aggregator.reloadConfig();
 				sb.append(Messages.CommandProvider_20);
-				// Call getDeclaredDependencies().  It will block and not return till the
-				// dependencies have been loaded/validated.  We do this so that the
+				// Wait till the dependencies have been loaded/validated.  We do this so that the
 				// command interpreter will remain valid so that console output will be
-				// displayed.  If in development mode, we'll get a ProcessingDependenciesException.
+				// displayed.
 				IDependencies deps = aggregator.getDependencies();
-				while (true) {
-					try {
-						deps.getDelcaredDependencies(""); //$NON-NLS-1$
-					} catch (ProcessingDependenciesException ignore) {
-						Thread.sleep(1000L);
-						continue;
-					}
-					break;
+				while (deps.isProcessingDependencies()) {
+					Thread.sleep(1000L);
 				}
 
 			} finally {
@@ -283,18 +284,11 @@ public class AggregatorCommandProvider implements CommandProvider {
 			try {
 				IDependencies deps = aggregator.getDependencies();
 				deps.validateDeps(clean);
-				// Call getDeclaredDependencies().  It will block and not return till the
-				// dependencies have been loaded/validated.  We do this so that the
+				// Wait till the dependencies have been loaded/validated.  We do this so that the
 				// command interpreter will remain valid so that console output will be
-				// displayed.  If in development mode, we'll get a ProcessingDependenciesException.
-				while (true) {
-					try {
-						deps.getDelcaredDependencies(""); //$NON-NLS-1$
-					} catch (ProcessingDependenciesException ignore) {
-						Thread.sleep(1000L);
-						continue;
-					}
-					break;
+				// displayed.
+				while (deps.isProcessingDependencies()) {
+					Thread.sleep(1000L);
 				}
 			} finally {
 				getBundleContext().ungetService(ref);
@@ -538,6 +532,42 @@ public class AggregatorCommandProvider implements CommandProvider {
 		return sb.toString();
 	}
 
+	protected String getExecutorStats(String[] args) throws InvalidSyntaxException {
+		StringBuffer sb = new StringBuffer();
+		ServiceReference ref = getServiceRef(args, sb);
+		if (ref != null) {
+			IAggregator aggregator = (IAggregator)getBundleContext().getService(ref);
+			try {
+				for (ExecutorStats stats : aggregator.getExecutors().getStatistics().values()) {
+					sb.append(stats).append(newline);
+				}
+				// Statistics reported by the aggregator's components
+				ServiceReference[] providerRefs = getBundleContext().getServiceReferences(
+						IStatisticsProvider.class.getName(),
+						"(name="+aggregator.getName()+")" //$NON-NLS-1$ //$NON-NLS-2$
+						);
+				if (providerRefs != null) {
+					for (ServiceReference providerRef : providerRefs) {
+						IStatisticsProvider provider = (IStatisticsProvider)getBundleContext().getService(providerRef);
+						if (provider != null) {
+							try {
+								String stats = provider.getStatistics();
+								if (stats != null) {
+									sb.append(stats).append(newline);
+								}
+							} finally {
+								getBundleContext().ungetService(providerRef);
+							}
+						}
+					}
+				}
+			} finally {
+				getBundleContext().ungetService(ref);
+			}
+		}
+		return sb.toString();
+	}
+
 	protected String getServletDir(String[] args) throws InvalidSyntaxException {
 		StringBuffer sb = new StringBuffer();
 		ServiceReference ref = getServiceRef(args, sb);
@@ -167,6 +167,14 @@ public class AggregatorCommandProviderGogo extends AggregatorCommandProvider {
 		return super.getServletDir(new String[]{servlet});
 	}
 
+	@Descriptor("displays thread pool statistics for the specified servlet")
+	public String executorstats(CommandSession cs,
+			@Descriptor("<servlet>")String servlet
+			) throws InvalidSyntaxException {
+		new ConsoleService(new CSConsoleWriter(cs));		// Saves the command session so it can be accessed by async thread
+		return super.getExecutorStats(new String[]{servlet});
+	}
+
 	@Descriptor("sets forced error options in development mode")
 	public String forceerror(CommandSession cs,
 			@Descriptor("<servlet>")String[] args
@@ -18,6 +18,7 @@ package com.ibm.jaggr.service.impl;
 
 import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.IExtensionSingleton;
+import com.ibm.jaggr.core.IRequestListener;
 import com.ibm.jaggr.core.IServiceProviderExtensionPoint;
 import com.ibm.jaggr.core.IVariableResolver;
 import com.ibm.jaggr.core.InitParams;
@@ -25,12 +26,14 @@ import com.ibm.jaggr.core.InitParams.InitParam;
 import com.ibm.jaggr.core.NotFoundException;
 import com.ibm.jaggr.core.cache.CacheControl;
 import com.ibm.jaggr.core.config.IConfig;
+import com.ibm.jaggr.core.encoding.IContentEncoding;
 import com.ibm.jaggr.core.executors.IExecutors;
 import com.ibm.jaggr.core.impl.AbstractAggregatorImpl;
 import com.ibm.jaggr.core.impl.AggregatorExtension;
 import com.ibm.jaggr.core.impl.options.OptionsImpl;
 import com.ibm.jaggr.core.modulebuilder.IModuleBuilderExtensionPoint;
 import com.ibm.jaggr.core.options.IOptions;
+import com.ibm.jaggr.core.options.IOptionsListener;
 import com.ibm.jaggr.core.resource.IResourceFactoryExtensionPoint;
 import com.ibm.jaggr.core.transport.IHttpTransportExtensionPoint;
 import com.ibm.jaggr.core.util.AggregatorUtil;
@@ -59,6 +62,7 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
 import org.osgi.util.tracker.ServiceTracker;
 
 import java.io.BufferedReader;
@@ -77,9 +81,12 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -119,6 +126,10 @@ public class AggregatorImpl extends AbstractAggregatorImpl implements IExecutabl
 	protected Bundle contributingBundle;
 	private ServiceTracker executorsServiceTracker = null;
 	private ServiceTracker variableResolverServiceTracker = null;
+	private ServiceTracker contentEncodingServiceTracker = null;
+	private ServiceTracker requestListenerServiceTracker = null;
+	private List<IContentEncoding> contentEncodings = null;
+	private int contentEncodingsTrackingCount = -1;
 	private File workdir = null;
 	private IOptions options = null;
 	private boolean isShuttingDown = false;
@@ -143,6 +154,38 @@ public class AggregatorImpl extends AbstractAggregatorImpl implements IExecutabl
 		return (IExecutors) executorsServiceTracker.getService();
 	}
 
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.AbstractAggregatorImpl#getContentEncodings()
+	 */
+	@Override
+	synchronized public List<IContentEncoding> getContentEncodings() {
+		// Rebuild the list only when the set of tracked services has changed
+		int trackingCount = contentEncodingServiceTracker.getTrackingCount();
+		if (contentEncodings == null || trackingCount != contentEncodingsTrackingCount) {
+			List<IContentEncoding> result = new ArrayList<IContentEncoding>();
+			ServiceReference[] refs = contentEncodingServiceTracker.getServiceReferences();
+			if (refs != null) {
+				for (ServiceReference ref : refs) {
+					IContentEncoding encoding = (IContentEncoding)contentEncodingServiceTracker.getService(ref);
+					if (encoding != null) {
+						result.add(encoding);
+					}
+				}
+			}
+			contentEncodings = Collections.unmodifiableList(result);
+			contentEncodingsTrackingCount = trackingCount;
+		}
+		return contentEncodings;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.AbstractAggregatorImpl#hasRequestListeners()
+	 */
+	@Override
+	protected boolean hasRequestListeners() {
+		return requestListenerServiceTracker.size() > 0;
+	}
+
 	public Bundle getContributingBundle() {
 		return contributingBundle;
 	}
@@ -264,8 +307,11 @@ public class AggregatorImpl extends AbstractAggregatorImpl implements IExecutabl
 			registerLayerListener();
 			executorsServiceTracker = getExecutorsServiceTracker(bundleContext);
 			variableResolverServiceTracker = getVariableResolverServiceTracker(bundleContext);
+			contentEncodingServiceTracker = getContentEncodingServiceTracker(bundleContext);
+			requestListenerServiceTracker = getRequestListenerServiceTracker(bundleContext);
 			initExtensions(configElem);
 			initOptions(initParams);
+			registerExecutorsOptionsListener();
 			IConfig config = newConfig();
 			initWorkingDirectory(configMap, config); // this must be after initOptions
 			primeCache(config);
@@ -299,6 +345,8 @@ public class AggregatorImpl extends AbstractAggregatorImpl implements IExecutabl
 			singletonExtensions.clear();
 			executorsServiceTracker.close();
 			variableResolverServiceTracker.close();
+			contentEncodingServiceTracker.close();
+			requestListenerServiceTracker.close();
 		}
 		if (isTraceLogging) {
 			log.exiting(sourceClass, sourceMethod);
@@ -388,6 +436,24 @@ public class AggregatorImpl extends AbstractAggregatorImpl implements IExecutabl
 
 
 
+	/**
+	 * Registers the executors provider as a listener for this aggregator's options and
+	 * passes it the current options.  The executors provider is created by the bundle
+	 * activator before any aggregator options exist, and is shared by all Aggregator
+	 * instances created from the same bundle, so the thread pools are sized from the
+	 * options of the aggregator that updated its options most recently.
+	 */
+	protected void registerExecutorsOptionsListener() {
+		IExecutors executors = getExecutors();
+		if (executors instanceof IOptionsListener) {
+			Dictionary<String, String> dict = new Hashtable<String, String>();
+			dict.put("name", getName()); //$NON-NLS-1$
+			registrations.add(getPlatformServices().registerService(
+					IOptionsListener.class.getName(), executors, dict));
+			((IOptionsListener)executors).optionsUpdated(getOptions(), 1);
+		}
+	}
+
 	/**
 	 * Returns an opened ServiceTracker for the Aggregator options.  Aggregator options
 	 * are created by the bundle activator and are shared by all Aggregator instances
@@ -435,6 +501,48 @@ public class AggregatorImpl extends AbstractAggregatorImpl implements IExecutabl
 		return tracker;
 	}
 
+	/**
+	 * Returns an opened ServiceTracker for the content encodings registered for
+	 * this aggregator.  The tracker holds the encoding services for as long as
+	 * they remain registered.
+	 *
+	 * @param bundleContext
+	 *            The contributing bundle context
+	 * @return The opened service tracker
+	 * @throws InvalidSyntaxException
+	 */
+	protected ServiceTracker getContentEncodingServiceTracker(BundleContext bundleContext) throws InvalidSyntaxException {
+		ServiceTracker tracker = new ServiceTracker(
+				bundleContext,
+				bundleContext.createFilter(
+						"(&(" + Constants.OBJECTCLASS + "=" + IContentEncoding.class.getName() +  //$NON-NLS-1$ //$NON-NLS-2$
+						")(name=" + getName() + "))"), //$NON-NLS-1$ //$NON-NLS-2$
+						null);
+		tracker.open();
+		return tracker;
+	}
+
+	/**
+	 * Returns an opened ServiceTracker for the request listeners registered for
+	 * this aggregator.  The tracker is used to determine if there are request
+	 * listeners without looking up the services for each request.
+	 *
+	 * @param bundleContext
+	 *            The contributing bundle context
+	 * @return The opened service tracker
+	 * @throws InvalidSyntaxException
+	 */
+	protected ServiceTracker getRequestListenerServiceTracker(BundleContext bundleContext) throws InvalidSyntaxException {
+		ServiceTracker tracker = new ServiceTracker(
+				bundleContext,
+				bundleContext.createFilter(
+						"(&(" + Constants.OBJECTCLASS + "=" + IRequestListener.class.getName() +  //$NON-NLS-1$ //$NON-NLS-2$
+						")(name=" + getName() + "))"), //$NON-NLS-1$ //$NON-NLS-2$
+						null);
+		tracker.open();
+		return tracker;
+	}
+
 	/**
 	 * Loads and initializes the resource factory, module builder, service provider and
 	 * http transport extensions specified in the configuration element for this aggregator
@@ -597,7 +705,7 @@ public class AggregatorImpl extends AbstractAggregatorImpl implements IExecutabl
 		}
 	}
 
-	/**
+	/**
 	 * Determines if the current cache data is valid and if not, then attempts to prime the
 	 * cache using a config specified bundle.
 	 *